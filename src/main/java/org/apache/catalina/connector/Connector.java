@@ -29,6 +29,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
 import org.apache.catalina.Container;
+import org.apache.catalina.Executor;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
@@ -166,6 +167,13 @@ public class Connector
     protected int redirectPort = 443;
 
 
+    /**
+     * The name of the executor of the service used to process the requests,
+     * if not set the protocol handler creates its own threads.
+     */
+    protected String executorName = null;
+
+
     /**
      * The request scheme that will be set on all requests received
      * through this connector.
@@ -342,6 +350,28 @@ public class Connector
     }
 
 
+    /**
+     * Return the name of the shared executor used by this Connector.
+     */
+    public String getExecutorName() {
+
+        return (this.executorName);
+
+    }
+
+
+    /**
+     * Set the name of the shared executor used by this Connector.
+     *
+     * @param executorName The name of an executor of the service
+     */
+    public void setExecutorName(String executorName) {
+
+        this.executorName = executorName;
+
+    }
+
+
     /**
      * True if the TRACE method is allowed.  Default value is "false".
      */
@@ -978,6 +1008,21 @@ public class Connector
         IntrospectionUtils.setProperty(protocolHandler, "jkHome",
                                        System.getProperty("catalina.base"));
 
+        // Use the shared executor of the service
+        if (executorName != null) {
+            Executor executor = (service == null) ? null : service.getExecutor(executorName);
+            if (executor != null) {
+                try {
+                    IntrospectionUtils.callMethod1(protocolHandler, "setExecutor", executor,
+                            java.util.concurrent.Executor.class.getName(), getClass().getClassLoader());
+                } catch (Exception e) {
+                    throw new LifecycleException(MESSAGES.protocolHandlerInitFailed(e));
+                }
+            } else {
+                CatalinaLogger.CONNECTOR_LOGGER.executorNotFound(executorName);
+            }
+        }
+
         try {
             protocolHandler.init();
         } catch (Exception e) {
@@ -18,7 +18,11 @@
 
 package org.apache.catalina.connector;
 
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.CharConversionException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 
 import javax.servlet.AsyncEvent;
 import javax.servlet.AsyncListener;
@@ -37,6 +41,7 @@ import org.apache.coyote.Adapter;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.EncodingToCharset;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.Cookies;
 import org.apache.tomcat.util.http.ServerCookie;
@@ -68,6 +73,10 @@ public class CoyoteAdapter
         Boolean.valueOf(System.getProperty("org.apache.catalina.connector.CoyoteAdapter.ALLOW_BACKSLASH", "false")).booleanValue();
 
 
+    protected static final boolean ALLOW_ENCODED_SLASH = 
+        Boolean.valueOf(System.getProperty("org.apache.tomcat.util.buf.UDecoder.ALLOW_ENCODED_SLASH", "false")).booleanValue();
+
+
     protected static final String X_POWERED_BY = 
         System.getProperty("org.apache.catalina.connector.CoyoteAdapter.X_POWERED_BY", "Servlet/3.0; JBossWeb-3");
 
@@ -436,27 +445,32 @@ public class CoyoteAdapter
                 decodedURI.setBytes
                     (uriBB.getBuffer(), uriBB.getStart(), semicolon);
             }
-            // %xx decoding of the URL
+            // %xx decoding, normalization and character decoding of the
+            // US-ASCII or ISO-8859-1 URL
+            String enc = connector.getURIEncoding();
+            boolean valid;
             try {
-                req.getURLDecoder().convert(decodedURI, false);
+                valid = decodeNormalize(decodedURI, enc == null);
             } catch (IOException ioe) {
                 res.setStatus(400);
                 res.setMessage("Invalid URI: " + ioe.getMessage());
                 return false;
             }
-            // Normalization
-            if (!normalize(req.decodedURI())) {
+            if (!valid) {
                 res.setStatus(400);
                 res.setMessage("Invalid URI");
                 return false;
             }
-            // Character decoding
-            convertURI(decodedURI, request);
-            // Check that the URI is still normalized
-            if (!checkNormalize(req.decodedURI())) {
-                res.setStatus(400);
-                res.setMessage("Invalid URI character encoding");
-                return false;
+            if (decodedURI.getType() == MessageBytes.T_BYTES
+                    || (enc != null && !isAsciiCompatible(enc))) {
+                // Character decoding
+                convertURI(decodedURI, request);
+                // Check that the URI is still normalized
+                if (!checkNormalize(req.decodedURI())) {
+                    res.setStatus(400);
+                    res.setMessage("Invalid URI character encoding");
+                    return false;
+                }
             }
         } else {
             // The URL is chars or String, and has been sent using an in-memory
@@ -632,29 +646,24 @@ public class CoyoteAdapter
      */
     protected void parseSessionCookiesId(org.apache.coyote.Request req, Request request) {
 
-        // Parse session id from cookies
+        // Parse session id from cookies, only the session cookies are set up
         Cookies serverCookies = req.getCookies();
-        int count = serverCookies.getCookieCount();
-        if (count <= 0)
-            return;
-
         String cookieName = request.getContext().getSessionCookie().getName();
-        for (int i = 0; i < count; i++) {
+        for (int i = serverCookies.findCookie(cookieName, 0); i >= 0;
+                i = serverCookies.findCookie(cookieName, i + 1)) {
             ServerCookie scookie = serverCookies.getCookie(i);
-            if (scookie.getName().equals(cookieName)) {
-                // Override anything requested in the URL
-                if (!request.isRequestedSessionIdFromCookie()) {
-                    // Accept only the first session id cookie
+            // Override anything requested in the URL
+            if (!request.isRequestedSessionIdFromCookie()) {
+                // Accept only the first session id cookie
+                convertMB(scookie.getValue());
+                request.setRequestedSessionId(scookie.getValue().toString());
+                request.setRequestedSessionCookie(true);
+                request.setRequestedSessionURL(false);
+            } else {
+                if (!isSessionIdValid(request, request.getRequestedSessionId())) {
+                    // Replace the session id until one is valid
                     convertMB(scookie.getValue());
                     request.setRequestedSessionId(scookie.getValue().toString());
-                    request.setRequestedSessionCookie(true);
-                    request.setRequestedSessionURL(false);
-                } else {
-                    if (!isSessionIdValid(request, request.getRequestedSessionId())) {
-                        // Replace the session id until one is valid
-                        convertMB(scookie.getValue());
-                        request.setRequestedSessionId(scookie.getValue().toString());
-                    }
                 }
             }
         }
@@ -765,6 +774,136 @@ public class CoyoteAdapter
     }
 
 
+    /**
+     * Decode, normalize and convert the URI in a single pass over its bytes.
+     * <p>
+     * The result is the same as the %xx decoding of the URI, followed by
+     * {@link #normalize(MessageBytes)} and by the conversion of the bytes to
+     * chars: the normalized bytes are kept in the byte chunk, and the URI is
+     * converted to chars if <code>latin1</code> is true or if all its bytes
+     * are US-ASCII. Otherwise the URI is left as bytes, and must be converted
+     * using its character encoding.
+     * 
+     * @param uriMB URI to be decoded and normalized
+     * @param latin1 true if the bytes are ISO-8859-1 characters
+     * @return false if the URI is not acceptable, as for normalize
+     * @throws IOException if an %xx escape is invalid, or is an encoded
+     *  '/' while they are not allowed
+     */
+    public static boolean decodeNormalize(MessageBytes uriMB, boolean latin1)
+        throws IOException {
+
+        ByteChunk uriBC = uriMB.getByteChunk();
+        byte[] b = uriBC.getBytes();
+        int start = uriBC.getStart();
+        int end = uriBC.getEnd();
+
+        // An empty URL is not acceptable
+        if (start == end)
+            return false;
+
+        CharChunk uriCC = uriMB.getCharChunk();
+        uriCC.allocate(end - start, -1);
+        char[] c = uriCC.getBuffer();
+
+        boolean valid = true;
+        boolean ascii = true;
+        int pos = start;
+        int index = start;
+        while (pos < end) {
+
+            // %xx decoding, which is validated over the whole URI
+            byte d = b[pos++];
+            if (d == (byte) '%') {
+                if (pos + 1 >= end) {
+                    throw new CharConversionException(MESSAGES.unexpectedEof());
+                }
+                int d1 = hexValue(b[pos]);
+                int d2 = hexValue(b[pos + 1]);
+                if (d1 < 0 || d2 < 0) {
+                    throw new CharConversionException(MESSAGES.invalidHex());
+                }
+                pos += 2;
+                d = (byte) ((d1 << 4) + d2);
+                if (d == (byte) '/' && !ALLOW_ENCODED_SLASH) {
+                    throw new CharConversionException(MESSAGES.invalidSlash());
+                }
+            }
+            if (!valid) {
+                continue;
+            }
+
+            // Replace '\' with '/', check for null byte
+            if (d == (byte) '\\') {
+                if (ALLOW_BACKSLASH) {
+                    d = (byte) '/';
+                } else {
+                    valid = false;
+                    continue;
+                }
+            }
+            if (d == (byte) 0) {
+                valid = false;
+                continue;
+            }
+
+            if (index == start) {
+                // The URL must start with '/', URL * is acceptable
+                if (d != (byte) '/' && (d != (byte) '*' || pos < end)) {
+                    valid = false;
+                    continue;
+                }
+            } else if (d == (byte) '/') {
+                // Replace "//" with "/", resolve "/./" and "/../"
+                if (b[index - 1] == (byte) '/') {
+                    continue;
+                }
+                if (b[index - 1] == (byte) '.') {
+                    if (b[index - 2] == (byte) '/') {
+                        index--;
+                        continue;
+                    }
+                    if (b[index - 2] == (byte) '.' && b[index - 3] == (byte) '/') {
+                        index = parentIndex(b, start, index - 3);
+                        valid = (index >= 0);
+                        continue;
+                    }
+                }
+            }
+
+            b[index] = d;
+            c[index - start] = (char) (d & 0xff);
+            ascii = ascii && d >= 0;
+            index++;
+
+        }
+
+        if (!valid) {
+            return false;
+        }
+
+        // Resolve a trailing "/." or "/.."
+        if ((index - start) >= 2 && b[index - 1] == (byte) '.') {
+            if (b[index - 2] == (byte) '/') {
+                index--;
+            } else if (b[index - 2] == (byte) '.' && b[index - 3] == (byte) '/') {
+                index = parentIndex(b, start, index - 3);
+                if (index < 0) {
+                    return false;
+                }
+            }
+        }
+
+        uriBC.setEnd(index);
+        if (latin1 || ascii) {
+            uriMB.setChars(c, 0, index - start);
+        }
+
+        return true;
+
+    }
+
+
     /**
      * Normalize URI.
      * <p>
@@ -943,6 +1082,52 @@ public class CoyoteAdapter
     // ------------------------------------------------------ Protected Methods
 
 
+    /**
+     * Return the index following the '/' which starts the parent of the
+     * segment starting at the given '/', or -1 if the segment is the root.
+     * Used during normalization.
+     */
+    protected static int parentIndex(byte[] b, int start, int slash) {
+        if (slash == start) {
+            return -1;
+        }
+        int pos = slash - 1;
+        while (b[pos] != (byte) '/') {
+            pos--;
+        }
+        return pos + 1;
+    }
+
+
+    /**
+     * Return the value of an hexadecimal digit, or -1.
+     */
+    protected static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return true if the encoding decodes the US-ASCII bytes as the same
+     * characters, or is not supported.
+     */
+    protected static boolean isAsciiCompatible(String enc) {
+        try {
+            return EncodingToCharset.isAsciiCompatible(EncodingToCharset.toCharset(enc));
+        } catch (UnsupportedEncodingException e) {
+            // Let the character decoding fall back to ISO-8859-1
+            return true;
+        }
+    }
+
+
     /**
      * Copy an array of bytes to a different position. Used during 
      * normalization.
@@ -234,10 +234,16 @@ public class InputBuffer extends Reader
 
 
     /**
-     * Clear cached encoders (to save memory for event requests).
+     * Clear cached encoders (to save memory for event requests). The
+     * converter in use is kept, as the next requests of the connection
+     * will most likely use the same charset.
      */
     public void clearEncoders() {
+        B2CConverter current = (enc != null) ? encoders.get(enc) : null;
         encoders.clear();
+        if (current != null) {
+            encoders.put(enc, current);
+        }
     }
     
     
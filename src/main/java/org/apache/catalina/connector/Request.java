@@ -1819,7 +1819,7 @@ public class Request
         if (response != null) {
             Cookie cookie = new Cookie(context.getSessionCookie().getName(), newSessionId);
             configureSessionCookie(cookie);
-            response.addCookieInternal(cookie);
+            response.addSessionCookieInternal(cookie, context.getSessionCookie());
         }
     }
 
@@ -2656,7 +2656,7 @@ public class Request
                && !(isRequestedSessionIdFromCookie() && (session.getIdInternal().equals(getRequestedSessionId()))) ) {
             Cookie cookie = new Cookie(context.getSessionCookie().getName(), session.getIdInternal());
             configureSessionCookie(cookie);
-            response.addCookieInternal(cookie);
+            response.addSessionCookieInternal(cookie, context.getSessionCookie());
         }
 
         if (session != null) {
@@ -2850,7 +2850,8 @@ public class Request
             }
             parameters.processParameters(formData, 0, len);
         } else if ("chunked".equalsIgnoreCase(
-                coyoteRequest.getHeader("transfer-encoding"))) {
+                coyoteRequest.getHeader("transfer-encoding"))
+                || coyoteRequest.isDecompressed()) {
             byte[] formData = null;
             try {
                 formData = readChunkedPostBody();
@@ -2894,6 +2895,7 @@ public class Request
             int length = body.getLength();
             byte[] result = new byte[length];
             System.arraycopy(body.getBuffer(), 0, result, 0, length);
+            body.recycle();
             return result;
         } else {
             return body.getBuffer();
@@ -46,6 +46,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.catalina.Globals;
 import org.apache.catalina.Session;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.deploy.SessionCookie;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.catalina.util.CharsetMapper;
 import org.apache.catalina.util.DateTool;
@@ -201,7 +202,7 @@ public class Response
     /**
      * The set of Cookies associated with this Response.
      */
-    protected ArrayList cookies = new ArrayList();
+    protected ArrayList<Cookie> cookies = new ArrayList<Cookie>();
 
 
     /**
@@ -871,7 +872,7 @@ public class Response
      * a zero-length array if no cookies have been set.
      */
     public Cookie[] getCookies() {
-        return ((Cookie[]) cookies.toArray(new Cookie[cookies.size()]));
+        return (cookies.toArray(new Cookie[cookies.size()]));
     }
 
 
@@ -1049,6 +1050,48 @@ public class Response
     }
 
 
+    /**
+     * Add the session cookie to those that will be included with this
+     * Response. The <code>Set-Cookie</code> header is built from the template
+     * of the session cookie configuration, unless the cookie cannot use it.
+     *
+     * @param cookie Session cookie to be added
+     * @param sessionCookie Session cookie configuration of the context
+     */
+    public void addSessionCookieInternal(final Cookie cookie, SessionCookie sessionCookie) {
+
+        if (isCommitted())
+            return;
+
+        byte[] bytes = null;
+        if (cookie.getVersion() == 0 && !SecurityUtil.isPackageProtectionEnabled()
+                && ServerCookie.Template.isCacheable(cookie.getMaxAge())) {
+            boolean secure = cookie.getSecure();
+            ServerCookie.Template template = sessionCookie.getTemplate(secure);
+            if (template == null || !template.matches(cookie.getName(), cookie.getPath(),
+                    cookie.getDomain(), cookie.getComment(), cookie.getMaxAge(), secure,
+                    cookie.isHttpOnly())) {
+                template = new ServerCookie.Template(cookie.getName(), cookie.getPath(),
+                        cookie.getDomain(), cookie.getComment(), cookie.getMaxAge(), secure,
+                        cookie.isHttpOnly());
+                sessionCookie.setTemplate(secure, template);
+            }
+            bytes = template.toBytes(cookie.getValue());
+        }
+        if (bytes == null) {
+            addCookieInternal(cookie);
+            return;
+        }
+
+        // Same as addHeader, with the value as bytes
+        if (!included) {
+            coyoteResponse.getMimeHeaders().addValue("Set-Cookie").setBytes(bytes, 0, bytes.length);
+        }
+
+        cookies.add(cookie);
+    }
+
+
     /**
      * Add the specified date header to the specified value.
      *
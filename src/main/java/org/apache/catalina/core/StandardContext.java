@@ -67,6 +67,7 @@ import org.apache.catalina.Container;
 import org.apache.catalina.ContainerListener;
 import org.apache.catalina.Context;
 import org.apache.catalina.Engine;
+import org.apache.catalina.Executor;
 import org.apache.catalina.Globals;
 import org.apache.catalina.Host;
 import org.apache.catalina.InstanceListener;
@@ -75,6 +76,7 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Loader;
 import org.apache.catalina.Manager;
+import org.apache.catalina.Service;
 import org.apache.catalina.ThreadBindingListener;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.deploy.ApplicationParameter;
@@ -3978,6 +3980,10 @@ public class StandardContext
         } catch( Exception ex ) {
             CatalinaLogger.CORE_LOGGER.errorResettingContext(getName(), ex);
         }
+
+        // Renew the request processing threads, which may still reference
+        // the application through thread locals
+        renewThreads();
         
         // Notify our interested LifecycleListeners
         lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
@@ -4031,6 +4037,27 @@ public class StandardContext
         authenticator = null;
     }
 
+    /**
+     * Renew the threads of the executors of the service this context belongs
+     * to.
+     */
+    protected void renewThreads() {
+        Container host = getParent();
+        if (host == null || !(host.getParent() instanceof Engine)) {
+            return;
+        }
+        Service service = ((Engine) host.getParent()).getService();
+        if (service == null) {
+            return;
+        }
+        Executor[] executors = service.findExecutors();
+        for (int i = 0; i < executors.length; i++) {
+            if (executors[i] instanceof StandardThreadExecutor) {
+                ((StandardThreadExecutor) executors[i]).contextStopping();
+            }
+        }
+    }
+
     /**
      * Return a String representation of this component.
      */
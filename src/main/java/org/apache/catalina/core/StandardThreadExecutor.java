@@ -0,0 +1,405 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.catalina.core;
+
+import static org.jboss.web.CatalinaMessages.MESSAGES;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.util.LifecycleSupport;
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+
+
+/**
+ * Named thread pool of a <code>Service</code>, which can be shared by its
+ * connectors. The pool grows up to <code>maxThreads</code> before queueing
+ * the requests, keeps statistics on the time the requests wait in the queue
+ * and run, and renews its threads after a web application is stopped.
+ */
+public class StandardThreadExecutor implements Executor {
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * The lifecycle event support for this component.
+     */
+    protected LifecycleSupport lifecycle = new LifecycleSupport(this);
+
+
+    /**
+     * Has this component been started?
+     */
+    protected boolean started = false;
+
+
+    /**
+     * The thread pool, created when the executor is started.
+     */
+    protected ThreadPoolExecutor executor = null;
+
+
+    /**
+     * The name of this executor.
+     */
+    protected String name;
+
+
+    /**
+     * The prefix of the thread names.
+     */
+    protected String namePrefix = "tomcat-exec-";
+
+
+    /**
+     * The priority of the threads.
+     */
+    protected int threadPriority = Thread.NORM_PRIORITY;
+
+
+    /**
+     * Are the threads daemon threads?
+     */
+    protected boolean daemon = true;
+
+
+    /**
+     * The maximum number of threads.
+     */
+    protected int maxThreads = 200;
+
+
+    /**
+     * The number of threads kept alive when they are idle.
+     */
+    protected int minSpareThreads = 25;
+
+
+    /**
+     * The time in milliseconds after which idle threads above
+     * <code>minSpareThreads</code> are stopped.
+     */
+    protected int maxIdleTime = 60000;
+
+
+    /**
+     * The maximum number of queued requests.
+     */
+    protected int maxQueueSize = Integer.MAX_VALUE;
+
+
+    /**
+     * The delay in milliseconds between the renewal of two threads after a
+     * web application is stopped, a negative value disables renewal.
+     */
+    protected long threadRenewalDelay = 1000;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    public void setThreadPriority(int threadPriority) {
+        this.threadPriority = threadPriority;
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (executor != null) {
+            executor.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    public int getMinSpareThreads() {
+        return minSpareThreads;
+    }
+
+    public void setMinSpareThreads(int minSpareThreads) {
+        this.minSpareThreads = minSpareThreads;
+        if (executor != null) {
+            executor.setCorePoolSize(minSpareThreads);
+        }
+    }
+
+    public int getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(int maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        if (executor != null) {
+            executor.setKeepAliveTime(maxIdleTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public long getThreadRenewalDelay() {
+        return threadRenewalDelay;
+    }
+
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        this.threadRenewalDelay = threadRenewalDelay;
+        if (executor != null) {
+            executor.setThreadRenewalDelay(threadRenewalDelay);
+        }
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+
+    public int getActiveCount() {
+        return (executor != null) ? executor.getActiveCount() : 0;
+    }
+
+    public long getCompletedTaskCount() {
+        return (executor != null) ? executor.getCompletedTaskCount() : 0;
+    }
+
+    public int getPoolSize() {
+        return (executor != null) ? executor.getPoolSize() : 0;
+    }
+
+    public int getLargestPoolSize() {
+        return (executor != null) ? executor.getLargestPoolSize() : 0;
+    }
+
+    public int getQueueSize() {
+        return (executor != null) ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * Return the mean time in microseconds the requests waited for a thread.
+     */
+    public long getMeanQueueTime() {
+        return (executor != null) ? executor.getQueueTime().getMean() : 0;
+    }
+
+    /**
+     * Return the mean processing time of the requests in microseconds.
+     */
+    public long getMeanRunTime() {
+        return (executor != null) ? executor.getRunTime().getMean() : 0;
+    }
+
+    /**
+     * Return the histogram of the time the requests waited for a thread,
+     * using power of two buckets in microseconds.
+     */
+    public long[] getQueueTimeHistogram() {
+        return (executor != null) ? executor.getQueueTime().getCounts() : new long[0];
+    }
+
+    /**
+     * Return the histogram of the processing time of the requests, using
+     * power of two buckets in microseconds.
+     */
+    public long[] getRunTimeHistogram() {
+        return (executor != null) ? executor.getRunTime().getCounts() : new long[0];
+    }
+
+    /**
+     * Return an upper bound in microseconds of a percentile of the time the
+     * requests waited for a thread.
+     *
+     * @param percentile The percentile, between 0 and 100
+     */
+    public long getQueueTimePercentile(double percentile) {
+        return (executor != null) ? executor.getQueueTime().getPercentile(percentile) : 0;
+    }
+
+    /**
+     * Return an upper bound in microseconds of a percentile of the
+     * processing time of the requests.
+     *
+     * @param percentile The percentile, between 0 and 100
+     */
+    public long getRunTimePercentile(double percentile) {
+        return (executor != null) ? executor.getRunTime().getPercentile(percentile) : 0;
+    }
+
+    /**
+     * Reset the queue and processing time statistics.
+     */
+    public void resetStatistics() {
+        if (executor != null) {
+            executor.getQueueTime().reset();
+            executor.getRunTime().reset();
+        }
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Execute the given task, the executor must be started.
+     *
+     * @param command The task to execute
+     */
+    public void execute(Runnable command) {
+        if (executor == null) {
+            throw new RejectedExecutionException(MESSAGES.executorNotStarted(name));
+        }
+        executor.execute(command);
+    }
+
+
+    /**
+     * A web application was stopped: renew the threads of the pool, which
+     * may reference it through thread locals. Each thread is renewed after
+     * it completes its next request.
+     */
+    public void contextStopping() {
+        if (executor != null) {
+            executor.contextStopping();
+        }
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+
+    /**
+     * Add a lifecycle event listener to this component.
+     *
+     * @param listener The listener to add
+     */
+    public void addLifecycleListener(LifecycleListener listener) {
+        lifecycle.addLifecycleListener(listener);
+    }
+
+
+    /**
+     * Get the lifecycle listeners associated with this lifecycle. If this
+     * Lifecycle has no listeners registered, a zero-length array is returned.
+     */
+    public LifecycleListener[] findLifecycleListeners() {
+        return lifecycle.findLifecycleListeners();
+    }
+
+
+    /**
+     * Remove a lifecycle event listener from this component.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeLifecycleListener(LifecycleListener listener) {
+        lifecycle.removeLifecycleListener(listener);
+    }
+
+
+    /**
+     * Create the thread pool.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    public void start() throws LifecycleException {
+
+        if (started) {
+            return;
+        }
+        lifecycle.fireLifecycleEvent(BEFORE_START_EVENT, null);
+        started = true;
+        lifecycle.fireLifecycleEvent(START_EVENT, null);
+
+        TaskQueue taskQueue = new TaskQueue(maxQueueSize);
+        TaskThreadFactory threadFactory = new TaskThreadFactory(namePrefix, daemon, threadPriority);
+        executor = new ThreadPoolExecutor(minSpareThreads, maxThreads, maxIdleTime,
+                TimeUnit.MILLISECONDS, taskQueue, threadFactory);
+        executor.setThreadRenewalDelay(threadRenewalDelay);
+
+        lifecycle.fireLifecycleEvent(AFTER_START_EVENT, null);
+
+    }
+
+
+    /**
+     * Shut down the thread pool, the running requests are completed.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that needs to be reported
+     */
+    public void stop() throws LifecycleException {
+
+        if (!started) {
+            return;
+        }
+        lifecycle.fireLifecycleEvent(BEFORE_STOP_EVENT, null);
+        lifecycle.fireLifecycleEvent(STOP_EVENT, null);
+        started = false;
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = null;
+
+        lifecycle.fireLifecycleEvent(AFTER_STOP_EVENT, null);
+
+    }
+
+
+}
@@ -22,6 +22,7 @@ import java.io.Serializable;
 import javax.servlet.SessionCookieConfig;
 
 import org.apache.catalina.Globals;
+import org.apache.tomcat.util.http.ServerCookie;
 
 public class SessionCookie implements SessionCookieConfig, Serializable {
 
@@ -34,6 +35,12 @@ public class SessionCookie implements SessionCookieConfig, Serializable {
     protected String name = Globals.SESSION_COOKIE_NAME;
     protected String pathParameterName = ";" + Globals.SESSION_PARAMETER_NAME + "=";
 
+    /**
+     * Serialized session cookies, for insecure and secure requests.
+     */
+    protected transient volatile ServerCookie.Template template = null;
+    protected transient volatile ServerCookie.Template secureTemplate = null;
+
     public SessionCookie() {
     }
 
@@ -100,4 +107,16 @@ public class SessionCookie implements SessionCookieConfig, Serializable {
         return pathParameterName;
     }
 
+    public ServerCookie.Template getTemplate(boolean secure) {
+        return secure ? secureTemplate : template;
+    }
+
+    public void setTemplate(boolean secure, ServerCookie.Template template) {
+        if (secure) {
+            secureTemplate = template;
+        } else {
+            this.template = template;
+        }
+    }
+
 }
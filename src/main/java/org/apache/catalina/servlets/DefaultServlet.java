@@ -37,6 +37,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -171,6 +172,26 @@ public class DefaultServlet
      */
     protected boolean useAcceptRanges = true;
 
+    /**
+     * Should the pre-compressed .gz siblings of the resources be served to
+     * the clients which accept gzip?
+     */
+    protected boolean gzip = false;
+
+    /**
+     * Should gzip compressed variants of the cached resources be generated
+     * and cached for the clients which accept gzip?
+     */
+    protected boolean gzipGenerate = false;
+
+    /**
+     * Mime types of the resources which have generated compressed variants.
+     */
+    protected String[] gzipMimeTypes = { "text/html", "text/xml",
+            "text/plain", "text/css", "text/javascript",
+            "application/javascript", "application/x-javascript",
+            "application/json", "application/xml", "image/svg+xml" };
+
     /**
      * Full range marker.
      */
@@ -254,6 +275,18 @@ public class DefaultServlet
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        gzip = Boolean.parseBoolean(getServletConfig().getInitParameter("gzip"));
+        gzipGenerate = Boolean.parseBoolean(getServletConfig().getInitParameter("gzipGenerate"));
+        if (getServletConfig().getInitParameter("gzipMimeTypes") != null) {
+            ArrayList<String> mimeTypes = new ArrayList<String>();
+            StringTokenizer tokenizer = new StringTokenizer
+                (getServletConfig().getInitParameter("gzipMimeTypes"), ",");
+            while (tokenizer.hasMoreTokens()) {
+                mimeTypes.add(tokenizer.nextToken().trim());
+            }
+            gzipMimeTypes = mimeTypes.toArray(new String[mimeTypes.size()]);
+        }
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -673,6 +706,29 @@ public class DefaultServlet
             }
         }
 
+        // Find content type.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        // Serve the gzip compressed variant of the resource if there is one
+        // and the client accepts it, its ETag and ranges are its own
+        boolean usingGzipVariant = false;
+        if ((gzip || gzipGenerate) && (cacheEntry.context == null)
+                && (request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI) == null)) {
+            CacheEntry gzipEntry = findGzipVariant(path, cacheEntry, contentType);
+            if (gzipEntry != null) {
+                response.addHeader("Vary", "Accept-Encoding");
+                if (checkAcceptGzip(request)) {
+                    cacheEntry = gzipEntry;
+                    usingGzipVariant = true;
+                    response.setHeader("Content-Encoding", "gzip");
+                }
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
@@ -687,13 +743,6 @@ public class DefaultServlet
 
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -746,9 +795,10 @@ public class DefaultServlet
             } catch (IllegalStateException e) {
                 // If it fails, we try to get a Writer instead if we're
                 // trying to serve a text file
-                if ( (contentType == null)
+                if (!usingGzipVariant
+                        && ( (contentType == null)
                         || (contentType.startsWith("text"))
-                        || (contentType.endsWith("xml")) ) {
+                        || (contentType.endsWith("xml")) )) {
                     writer = response.getWriter();
                 } else {
                     throw e;
@@ -1484,6 +1534,88 @@ public class DefaultServlet
     // -------------------------------------------------------- protected Methods
 
 
+    /**
+     * Find the gzip compressed variant of a resource: its pre-compressed .gz
+     * sibling, unless it is older than the resource, or else a compressed
+     * variant generated from the cached content.
+     *
+     * @param path The path of the resource
+     * @param cacheEntry The cache entry of the resource
+     * @param contentType The content type of the resource
+     * @return the cache entry of the variant, or null if there is none
+     */
+    protected CacheEntry findGzipVariant(String path, CacheEntry cacheEntry,
+                                         String contentType) {
+        if (gzip && !path.endsWith(".gz")) {
+            CacheEntry gzipEntry = resources.lookupCache(path + ".gz");
+            if (gzipEntry.exists && (gzipEntry.resource != null)
+                    && (gzipEntry.attributes.getLastModified()
+                            >= cacheEntry.attributes.getLastModified())) {
+                return gzipEntry;
+            }
+        }
+        if (gzipGenerate && (contentType != null)) {
+            int semicolon = contentType.indexOf(';');
+            String mimeType = (semicolon < 0) ? contentType 
+                    : contentType.substring(0, semicolon).trim();
+            for (int i = 0; i < gzipMimeTypes.length; i++) {
+                if (gzipMimeTypes[i].equalsIgnoreCase(mimeType)) {
+                    return resources.lookupGzipCache(cacheEntry);
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Check if the client accepts the gzip content coding, with a non zero
+     * quality, either explicitly or with the "*" wildcard.
+     *
+     * @param request The servlet request we are processing
+     * @return boolean true if a gzip compressed response may be sent
+     */
+    protected boolean checkAcceptGzip(HttpServletRequest request) {
+        double gzipQuality = -1;
+        double anyQuality = -1;
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            StringTokenizer codings = 
+                new StringTokenizer(headers.nextElement(), ",");
+            while (codings.hasMoreTokens()) {
+                String coding = codings.nextToken();
+                double quality = 1;
+                int semicolon = coding.indexOf(';');
+                if (semicolon >= 0) {
+                    StringTokenizer parameters = 
+                        new StringTokenizer(coding.substring(semicolon + 1), ";");
+                    while (parameters.hasMoreTokens()) {
+                        String parameter = parameters.nextToken().trim();
+                        if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                            try {
+                                quality = Double.parseDouble(parameter.substring(2).trim());
+                            } catch (NumberFormatException e) {
+                                quality = 0;
+                            }
+                        }
+                    }
+                    coding = coding.substring(0, semicolon);
+                }
+                coding = coding.trim();
+                if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                    gzipQuality = Math.max(gzipQuality, quality);
+                } else if (coding.equals("*")) {
+                    anyQuality = Math.max(anyQuality, quality);
+                }
+            }
+        }
+        if (gzipQuality >= 0) {
+            return (gzipQuality > 0);
+        }
+        return (anyQuality > 0);
+    }
+
+
     /**
      * Check if sendfile can be used.
      */
@@ -24,6 +24,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.buf.UDecoder;
 
+import org.apache.tomcat.util.http.KnownHeader;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.Parameters;
 import org.apache.tomcat.util.http.ContentType;
@@ -144,6 +145,7 @@ public final class Request {
     private long startTime = 0L;
     private int available = 0;
     private boolean sendfile = false;
+    private boolean decompressed = false;
 
     private RequestInfo reqProcessorMX=new RequestInfo(this);
     // ------------------------------------------------------------- Properties
@@ -180,6 +182,20 @@ public final class Request {
     }
 
 
+    /**
+     * Return true if the body of the request is decompressed by the
+     * connector, in which case its length is not known.
+     */
+    public boolean isDecompressed() {
+        return decompressed;
+    }
+
+
+    public void setDecompressed(boolean decompressed) {
+        this.decompressed = decompressed;
+    }
+
+
     // -------------------- Request data --------------------
 
 
@@ -305,7 +321,7 @@ public final class Request {
     public long getContentLengthLong() {
         if( contentLength > -1 ) return contentLength;
 
-        MessageBytes clB = headers.getUniqueValue("content-length");
+        MessageBytes clB = headers.getUniqueValue(KnownHeader.CONTENT_LENGTH);
         contentLength = (clB == null || clB.isNull()) ? -1 : clB.getLong();
 
         return contentLength;
@@ -326,7 +342,7 @@ public final class Request {
 
     public MessageBytes contentType() {
         if (contentTypeMB == null)
-            contentTypeMB = headers.getValue("content-type");
+            contentTypeMB = headers.getValue(KnownHeader.CONTENT_TYPE);
         return contentTypeMB;
     }
 
@@ -504,6 +520,7 @@ public final class Request {
         localPort = -1;
         remotePort = -1;
         available = 0;
+        decompressed = false;
 
         cookies.recycle();
         parameters.recycle();
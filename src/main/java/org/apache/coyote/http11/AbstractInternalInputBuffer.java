@@ -27,7 +27,11 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.ByteScanner;
+import org.apache.tomcat.util.buf.DirectBufferArena;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 
 /**
@@ -65,7 +69,8 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 	protected byte[] buf;
 
 	/**
-	 * Direct byte buffer used to perform actual reading.
+	 * Direct byte buffer used to perform actual reading. It is borrowed from
+	 * the endpoint buffer arena while a connection is being processed.
 	 */
 	protected ByteBuffer bbuf;
 
@@ -139,7 +144,32 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		lastActiveFilter = -1;
 		parsingHeader = true;
 		swallowInput = true;
-		bbuf = ByteBuffer.allocateDirect(headerBufferSize);
+	}
+
+	/**
+	 * Borrow the direct byte buffer from the specified arena, unless a buffer
+	 * is already held. If there is no arena, a buffer is allocated once and
+	 * kept for the lifetime of this object.
+	 * 
+	 * @param arena
+	 */
+	protected void allocateBuffer(DirectBufferArena arena) {
+		if (bbuf == null) {
+			bbuf = (arena != null) ? arena.allocate(buf.length) : ByteBuffer
+					.allocateDirect(buf.length);
+		}
+	}
+
+	/**
+	 * Give the direct byte buffer back to the specified arena.
+	 * 
+	 * @param arena
+	 */
+	protected void releaseBuffer(DirectBufferArena arena) {
+		if (bbuf != null && arena != null) {
+			arena.release(bbuf);
+			bbuf = null;
+		}
 	}
 
 	/**
@@ -332,12 +362,20 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 			}
 
 			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
+			int delimiter = ByteScanner.indexOfWhitespace(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+			} else {
+				pos = delimiter;
 				space = true;
-				request.method().setBytes(buf, start, pos - start);
+				String method = KnownTokens.findMethod(buf, start, pos);
+				if (method != null) {
+					request.method().setString(method);
+				} else {
+					request.method().setBytes(buf, start, pos - start);
+				}
+				pos++;
 			}
-
-			pos++;
 		}
 
 		// Spec says single SP but also says be tolerant of multiple and/or HT
@@ -373,6 +411,13 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				}
 			}
 
+			int delimiter = ByteScanner.indexOfUriDelimiter(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+				continue;
+			}
+			pos = delimiter;
+
 			// Spec says single SP but it also says be tolerant of HT
 			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
 				space = true;
@@ -428,6 +473,13 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				}
 			}
 
+			int delimiter = ByteScanner.indexOfLineEnd(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+				continue;
+			}
+			pos = delimiter;
+
 			if (buf[pos] == Constants.CR) {
 				end = pos;
 			} else if (buf[pos] == Constants.LF) {
@@ -440,7 +492,12 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		}
 
 		if ((end - start) > 0) {
-			request.protocol().setBytes(buf, start, end - start);
+			String protocol = KnownTokens.findProtocol(buf, start, end);
+			if (protocol != null) {
+				request.protocol().setString(protocol);
+			} else {
+				request.protocol().setBytes(buf, start, end - start);
+			}
 		} else {
 			request.protocol().setString("");
 		}
@@ -497,6 +554,8 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 		// Header name is always US-ASCII
 		boolean colon = false;
 		MessageBytes headerValue = null;
+		// Hash of the lowercase name, to tag the field with its known header
+		int hash = 0;
 
 		while (!colon) {
 			// Read new bytes if needed
@@ -506,16 +565,23 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 				}
 			}
 
-			if (buf[pos] == Constants.COLON) {
-				colon = true;
-				headerValue = headers.addValue(buf, start, pos - start);
-			}
-			chr = buf[pos];
-			if ((chr >= Constants.A) && (chr <= Constants.Z)) {
-				buf[pos] = (byte) (chr - Constants.LC_OFFSET);
+			int delimiter = ByteScanner.indexOf(buf, pos, lastValid, Constants.COLON);
+			int nameEnd = (delimiter < 0) ? lastValid : delimiter;
+			for (; pos < nameEnd; pos++) {
+				chr = buf[pos];
+				if ((chr >= Constants.A) && (chr <= Constants.Z)) {
+					chr = (byte) (chr - Constants.LC_OFFSET);
+					buf[pos] = chr;
+				}
+				hash = 31 * hash + chr;
 			}
 
-			pos++;
+			if (delimiter >= 0) {
+				colon = true;
+				headerValue = headers.addValue(buf, start, pos - start,
+						KnownHeader.lookup(buf, start, pos - start, hash));
+				pos++;
+			}
 		}
 
 		// Mark the current buffer position
@@ -559,19 +625,32 @@ public abstract class AbstractInternalInputBuffer implements InputBuffer {
 					}
 				}
 
-				if (buf[pos] == Constants.CR) {
-				} else if (buf[pos] == Constants.LF) {
-					eol = true;
-				} else if (buf[pos] == Constants.SP) {
-					buf[realPos] = buf[pos];
-					realPos++;
-				} else {
-					buf[realPos] = buf[pos];
-					realPos++;
-					lastSignificantChar = realPos;
+				// Move the bytes up to the end of the line or of the
+				// available data over the removed LWS and CR
+				int delimiter = ByteScanner.indexOfLineEnd(buf, pos, lastValid);
+				int length = ((delimiter < 0) ? lastValid : delimiter) - pos;
+				if (length > 0) {
+					if (realPos != pos) {
+						System.arraycopy(buf, pos, buf, realPos, length);
+					}
+					// Trailing spaces are not significant
+					int last = realPos + length;
+					while (last > realPos && buf[last - 1] == Constants.SP) {
+						last--;
+					}
+					if (last > realPos) {
+						lastSignificantChar = last;
+					}
+					realPos += length;
+					pos += length;
 				}
 
-				pos++;
+				if (delimiter >= 0) {
+					if (buf[pos] == Constants.LF) {
+						eol = true;
+					}
+					pos++;
+				}
 			}
 
 			realPos = lastSignificantChar;
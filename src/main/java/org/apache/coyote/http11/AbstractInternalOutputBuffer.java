@@ -21,14 +21,19 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.DirectBufferArena;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.KnownHeader;
 import org.apache.tomcat.util.http.MimeHeaders;
 
 /**
@@ -40,6 +45,26 @@ import org.apache.tomcat.util.http.MimeHeaders;
  */
 public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 
+	/**
+	 * Encoded status lines with the default messages, indexed by status code,
+	 * which are built when first used.
+	 */
+	protected static final AtomicReferenceArray<byte[]> STATUS_LINES = new AtomicReferenceArray<byte[]>(
+			600);
+
+	/**
+	 * Encoded names of the known headers followed by ": ", indexed by
+	 * ordinal, using their canonical spelling.
+	 */
+	protected static final byte[][] HEADER_NAMES = new byte[KnownHeader.values().length][];
+
+	static {
+		for (KnownHeader header : KnownHeader.values()) {
+			HEADER_NAMES[header.ordinal()] = ByteChunk.convertToBytes(header.getSpelling()
+					+ ": ");
+		}
+	}
+
 	/**
 	 * Associated Coyote response.
 	 */
@@ -91,10 +116,16 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	protected int lastActiveFilter;
 
 	/**
-	 * Direct byte buffer used for writing.
+	 * Direct byte buffer used for writing. It is borrowed from the endpoint
+	 * buffer arena while a connection is being processed.
 	 */
 	protected ByteBuffer bbuf = null;
 
+	/**
+	 * Size of the direct byte buffer.
+	 */
+	protected int bufferSize;
+
 	/**
 	 * Leftover bytes which could not be written during a non blocking write.
 	 */
@@ -122,9 +153,9 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		this.headers = response.getMimeHeaders();
 		buf = new byte[headerBufferSize];
 		if (headerBufferSize < Constants.DEFAULT_HTTP_HEADER_BUFFER_SIZE) {
-			bbuf = ByteBuffer.allocateDirect(6 * 1500);
+			bufferSize = 6 * 1500;
 		} else {
-			bbuf = ByteBuffer.allocateDirect((headerBufferSize / 1500 + 1) * 1500);
+			bufferSize = (headerBufferSize / 1500 + 1) * 1500;
 		}
 
 		outputBuffer = new OutputBufferImpl();
@@ -254,6 +285,13 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			response.action(ActionCode.ACTION_COMMIT, null);
 		}
 
+		// Write the bytes compressed so far
+		for (int i = 0; i <= lastActiveFilter; i++) {
+			if (activeFilters[i] instanceof DeflateOutputFilter) {
+				((DeflateOutputFilter) activeFilters[i]).flush();
+			}
+		}
+
 		// Flush the current buffer
 		flushBuffer();
 	}
@@ -262,8 +300,38 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 * 
 	 */
 	protected void clearBuffer() {
-		synchronized (this.bbuf) {
-			this.bbuf.clear();
+		ByteBuffer bbuf = this.bbuf;
+		if (bbuf != null) {
+			synchronized (bbuf) {
+				bbuf.clear();
+			}
+		}
+	}
+
+	/**
+	 * Borrow the direct byte buffer from the specified arena, unless a buffer
+	 * is already held. If there is no arena, a buffer is allocated once and
+	 * kept for the lifetime of this object.
+	 * 
+	 * @param arena
+	 */
+	protected void allocateBuffer(DirectBufferArena arena) {
+		if (bbuf == null) {
+			bbuf = (arena != null) ? arena.allocate(bufferSize) : ByteBuffer
+					.allocateDirect(bufferSize);
+			bbuf.clear();
+		}
+	}
+
+	/**
+	 * Give the direct byte buffer back to the specified arena.
+	 * 
+	 * @param arena
+	 */
+	protected void releaseBuffer(DirectBufferArena arena) {
+		if (bbuf != null && arena != null) {
+			arena.release(bbuf);
+			bbuf = null;
 		}
 	}
 
@@ -310,6 +378,20 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 *             an undelying I/O error occured
 	 */
 	public void endRequest() throws IOException {
+		endRequest(true);
+	}
+
+	/**
+	 * End request. Unless flush is true, the response is kept in the buffer,
+	 * so that it is written along with the response of the next pipelined
+	 * request.
+	 * 
+	 * @param flush
+	 *            true to write the response right away
+	 * @throws IOException
+	 *             an undelying I/O error occured
+	 */
+	public void endRequest(boolean flush) throws IOException {
 
 		if (!committed) {
 			// Send the connector a request for commit. The connector should
@@ -326,10 +408,22 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 			activeFilters[lastActiveFilter].end();
 		}
 
-		flushBuffer();
+		if (flush) {
+			flushBuffer();
+		}
 		finished = true;
 	}
 
+	/**
+	 * Write the responses kept in the buffer by {@link #endRequest(boolean)}.
+	 * 
+	 * @throws IOException
+	 *             an undelying I/O error occured
+	 */
+	public void flushBatch() throws IOException {
+		flushBuffer();
+	}
+
 	// ------------------------------------------------ HTTP/1.1 Output Methods
 
 	/**
@@ -344,12 +438,27 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 	 */
 	public void sendStatus() {
 
+		int status = response.getStatus();
+		String message = null;
+		if (org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER) {
+			message = response.getMessage();
+		}
+		if (message == null && status >= 100 && status < STATUS_LINES.length()) {
+			// Copy the whole encoded line
+			byte[] line = STATUS_LINES.get(status);
+			if (line == null) {
+				line = encodeStatusLine(status);
+				STATUS_LINES.set(status, line);
+			}
+			write(line);
+			return;
+		}
+
 		// Write protocol name
 		write(Constants.HTTP_11_BYTES);
 		buf[pos++] = Constants.SP;
 
 		// Write status code
-		int status = response.getStatus();
 		switch (status) {
 		case 200:
 			write(Constants._200_BYTES);
@@ -367,10 +476,6 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		buf[pos++] = Constants.SP;
 
 		// Write message
-		String message = null;
-		if (org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER) {
-			message = response.getMessage();
-		}
 		if (message == null) {
 			write(HttpMessages.getMessage(status));
 		} else {
@@ -401,6 +506,40 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		}
 	}
 
+	/**
+	 * Send a header which may be a known header. When the name has the
+	 * canonical spelling of the known header, its encoded bytes are copied,
+	 * and the current date is copied as an encoded line.
+	 * 
+	 * @param known
+	 *            Known header of the field, or null
+	 * @param name
+	 *            Header name
+	 * @param value
+	 *            Header value
+	 */
+	public void sendHeader(KnownHeader known, MessageBytes name, MessageBytes value) {
+		if (known == null || name.getType() != MessageBytes.T_STR
+				|| !known.getSpelling().equals(name.getString())) {
+			sendHeader(name, value);
+			return;
+		}
+		if (value.isNull()) {
+			return;
+		}
+		if (known == KnownHeader.DATE && value.getType() == MessageBytes.T_STR) {
+			byte[] line = FastHttpDateFormat.getCurrentDateHeader(value.getString());
+			if (line != null) {
+				write(line);
+				return;
+			}
+		}
+		write(HEADER_NAMES[known.ordinal()]);
+		write(value);
+		buf[pos++] = Constants.CR;
+		buf[pos++] = Constants.LF;
+	}
+
 	/**
 	 * Send a header.
 	 * 
@@ -467,6 +606,10 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		response.setCommitted(true);
 
 		if (pos > 0) {
+			if (bbuf.remaining() < pos) {
+				// The buffer is full of previous pipelined responses
+				flushBuffer();
+			}
 			// Sending the response header buffer
 			bbuf.put(buf, 0, pos);
 		}
@@ -594,6 +737,29 @@ public abstract class AbstractInternalOutputBuffer implements OutputBuffer {
 		write(String.valueOf(i));
 	}
 
+	/**
+	 * Encode the status line of the given status code, with its default
+	 * message, filtering the characters as {@link #write(String)}.
+	 * 
+	 * @param status
+	 *            status code
+	 * @return the bytes of the status line, including the CRLF
+	 */
+	protected static byte[] encodeStatusLine(int status) {
+		String message = HttpMessages.getMessage(status);
+		String line = Constants.HTTP_11 + ' ' + status + ' '
+				+ ((message == null) ? "" : message) + Constants.CRLF;
+		byte[] bytes = new byte[line.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			char c = line.charAt(i);
+			if (i < bytes.length - 2 && (((c <= 31) && (c != 9)) || c == 127 || c > 255)) {
+				c = ' ';
+			}
+			bytes[i] = (byte) c;
+		}
+		return bytes;
+	}
+
 	/**
 	 * Callback to write data from the buffer.
 	 */
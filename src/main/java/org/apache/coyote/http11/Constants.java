@@ -173,11 +173,17 @@ public final class Constants {
 
 
     /**
-     * GZIP filter (output).
+     * GZIP filters (input and output).
      */
     public static final int GZIP_FILTER = 3;
 
 
+    /**
+     * Deflate filter (output).
+     */
+    public static final int DEFLATE_FILTER = 4;
+
+
     /**
      * Buffered filter (input)
      */
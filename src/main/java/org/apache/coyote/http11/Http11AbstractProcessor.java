@@ -27,9 +27,12 @@ import org.apache.coyote.ActionHook;
 import org.apache.coyote.Adapter;
 import org.apache.coyote.Request;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownHeader;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SocketStatus;
 import org.apache.tomcat.util.net.NioEndpoint.Handler.SocketState;
@@ -164,6 +167,12 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 	 */
 	protected int compressionMinSize = 2048;
 
+	/**
+	 * Pool of the inflaters used to decompress request bodies, or null if
+	 * they are not decompressed.
+	 */
+	protected InflaterPool inflaterPool = null;
+
 	/**
 	 * Max saved post size.
 	 */
@@ -486,9 +495,11 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 	}
 
 	/**
-	 * Check for compression
+	 * Check for compression, and select the content coding.
+	 * 
+	 * @return "gzip", "deflate", or null if the response is not compressed
 	 */
-	protected boolean isCompressable() {
+	protected String getCompressionEncoding() {
 
 		// Nope Compression could works in HTTP 1.0 also
 		// cf: mod_deflate
@@ -497,32 +508,34 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 		// if (! http11)
 		// return false;
 
-		// Check if browser support gzip encoding
-		MessageBytes acceptEncodingMB = request.getMimeHeaders().getValue("accept-encoding");
+		// Check if browser support gzip or deflate encoding, honoring the
+		// qualities
+		MessageBytes acceptEncodingMB = request.getMimeHeaders().getValue(KnownHeader.ACCEPT_ENCODING);
 
-		if ((acceptEncodingMB == null) || (acceptEncodingMB.indexOf("gzip") == -1))
-			return false;
-
-		// Check if content is not allready gzipped
-		MessageBytes contentEncodingMB = response.getMimeHeaders().getValue("Content-Encoding");
+		if (acceptEncodingMB == null)
+			return null;
+		String encoding = DeflateOutputFilter.selectEncoding(acceptEncodingMB.toString());
+		if (encoding == null)
+			return null;
 
-		if ((contentEncodingMB != null) && (contentEncodingMB.indexOf("gzip") != -1))
-			return false;
+		// Check if content is not already encoded
+		if (response.getMimeHeaders().getValue(KnownHeader.CONTENT_ENCODING) != null)
+			return null;
 
 		// If force mode, allways compress (test purposes only)
 		if (compressionLevel == 2)
-			return true;
+			return encoding;
 
 		// Check for incompatible Browser
 		if (noCompressionUserAgents != null) {
-			MessageBytes userAgentValueMB = request.getMimeHeaders().getValue("user-agent");
+			MessageBytes userAgentValueMB = request.getMimeHeaders().getValue(KnownHeader.USER_AGENT);
 			if (userAgentValueMB != null) {
 				String userAgentValue = userAgentValueMB.toString();
 
 				// If one Regexp rule match, disable compression
 				for (int i = 0; i < noCompressionUserAgents.length; i++)
 					if (noCompressionUserAgents[i].matcher(userAgentValue).matches())
-						return false;
+						return null;
 			}
 		}
 
@@ -530,12 +543,13 @@ public abstract class Http11AbstractProcessor implements ActionHook {
 		long contentLength = response.getContentLengthLong();
 		if ((contentLength == -1) || (contentLength > compressionMinSize)) {
 			// Check for compatible MIME-TYPE
-			if (compressableMimeTypes != null) {
-				return (startsWithStringArray(compressableMimeTypes, response.getContentType()));
+			if ((compressableMimeTypes != null)
+					&& startsWithStringArray(compressableMimeTypes, response.getContentType())) {
+				return encoding;
 			}
 		}
 
-		return false;
+		return null;
 	}
 
 	/**
@@ -28,6 +28,8 @@ import javax.net.ssl.SSLContext;
 
 import org.apache.coyote.Adapter;
 import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.tomcat.util.net.SSLImplementation;
 
 /**
@@ -85,6 +87,25 @@ public abstract class Http11AbstractProtocol implements ProtocolHandler, MBeanRe
 	protected String noCompressionUserAgents = null;
 	protected String compressableMimeTypes = "text/html,text/xml,text/plain";
 	protected int compressionMinSize = 2048;
+
+	/**
+	 * Level and strategy of the deflaters used for compression, and maximum
+	 * number of idle deflaters kept in the pool (-1 for no limit).
+	 */
+	protected int deflateLevel = -1;
+	protected String deflateStrategy = "default";
+	protected int deflatePoolSize = -1;
+	protected DeflaterPool deflaterPool = null;
+
+	/**
+	 * Decompression of the request bodies with the gzip content coding,
+	 * maximum size of a decompressed body (-1 for no limit), and maximum
+	 * number of idle inflaters kept in the pool (-1 for no limit).
+	 */
+	protected boolean decompression = false;
+	protected long maxDecompressedSize = 10485760;
+	protected int inflatePoolSize = 16;
+	protected InflaterPool inflaterPool = null;
 	protected String protocol = null;
 	/**
 	 * User agents regular expressions which should be restricted to HTTP/1.0
@@ -483,6 +504,156 @@ public abstract class Http11AbstractProtocol implements ProtocolHandler, MBeanRe
 		this.compressionMinSize = compressionMinSize;
 	}
 
+	/**
+	 * Getter for deflateLevel
+	 * 
+	 * @return the deflateLevel
+	 */
+	public int getDeflateLevel() {
+		return this.deflateLevel;
+	}
+
+	/**
+	 * Setter for the deflateLevel, from 0 to 9, or -1 for the default level
+	 * 
+	 * @param deflateLevel
+	 *            the deflateLevel to set
+	 */
+	public void setDeflateLevel(int deflateLevel) {
+		this.deflateLevel = deflateLevel;
+	}
+
+	/**
+	 * Getter for deflateStrategy
+	 * 
+	 * @return the deflateStrategy
+	 */
+	public String getDeflateStrategy() {
+		return this.deflateStrategy;
+	}
+
+	/**
+	 * Setter for the deflateStrategy: default, filtered or huffman
+	 * 
+	 * @param deflateStrategy
+	 *            the deflateStrategy to set
+	 */
+	public void setDeflateStrategy(String deflateStrategy) {
+		this.deflateStrategy = deflateStrategy;
+	}
+
+	/**
+	 * Getter for deflatePoolSize
+	 * 
+	 * @return the deflatePoolSize
+	 */
+	public int getDeflatePoolSize() {
+		return this.deflatePoolSize;
+	}
+
+	/**
+	 * Setter for the deflatePoolSize
+	 * 
+	 * @param deflatePoolSize
+	 *            the deflatePoolSize to set
+	 */
+	public void setDeflatePoolSize(int deflatePoolSize) {
+		this.deflatePoolSize = deflatePoolSize;
+	}
+
+	/**
+	 * @return the pool of the deflaters
+	 */
+	public DeflaterPool getDeflaterPool() {
+		return this.deflaterPool;
+	}
+
+	/**
+	 * @return the number of compressed responses
+	 */
+	public long getCompressedResponseCount() {
+		return (deflaterPool == null) ? 0 : deflaterPool.getResponseCount();
+	}
+
+	/**
+	 * @return the ratio of the compressed size of the responses to their size
+	 */
+	public double getCompressionRatio() {
+		return (deflaterPool == null) ? 1 : deflaterPool.getCompressionRatio();
+	}
+
+	/**
+	 * @return the total time spent compressing the responses, in ms
+	 */
+	public long getCompressionTime() {
+		return (deflaterPool == null) ? 0 : deflaterPool.getCompressionTime();
+	}
+
+	/**
+	 * Getter for decompression
+	 * 
+	 * @return the decompression
+	 */
+	public boolean getDecompression() {
+		return this.decompression;
+	}
+
+	/**
+	 * Setter for the decompression of the request bodies with the gzip
+	 * content coding
+	 * 
+	 * @param decompression
+	 *            the decompression to set
+	 */
+	public void setDecompression(boolean decompression) {
+		this.decompression = decompression;
+	}
+
+	/**
+	 * Getter for maxDecompressedSize
+	 * 
+	 * @return the maxDecompressedSize
+	 */
+	public long getMaxDecompressedSize() {
+		return this.maxDecompressedSize;
+	}
+
+	/**
+	 * Setter for the maxDecompressedSize, or -1 for no limit
+	 * 
+	 * @param maxDecompressedSize
+	 *            the maxDecompressedSize to set
+	 */
+	public void setMaxDecompressedSize(long maxDecompressedSize) {
+		this.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	/**
+	 * Getter for inflatePoolSize
+	 * 
+	 * @return the inflatePoolSize
+	 */
+	public int getInflatePoolSize() {
+		return this.inflatePoolSize;
+	}
+
+	/**
+	 * Setter for the inflatePoolSize
+	 * 
+	 * @param inflatePoolSize
+	 *            the inflatePoolSize to set
+	 */
+	public void setInflatePoolSize(int inflatePoolSize) {
+		this.inflatePoolSize = inflatePoolSize;
+	}
+
+	/**
+	 * @return the pool of the inflaters
+	 */
+	public InflaterPool getInflaterPool() {
+		return this.inflaterPool;
+	}
+
 	/**
 	 * Getter for protocol
 	 * 
@@ -20,7 +20,6 @@ package org.apache.coyote.http11;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.Locale;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -35,9 +34,13 @@ import org.apache.coyote.RequestInfo;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.GzipInputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
@@ -52,6 +55,8 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AprEndpoint;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -272,6 +277,13 @@ public class Http11AprProcessor implements ActionHook {
     protected int compressionMinSize = 2048;
 
 
+    /**
+     * Pool of the inflaters used to decompress request bodies, or null if
+     * they are not decompressed.
+     */
+    protected InflaterPool inflaterPool = null;
+
+
     /**
      * Socket buffering.
      */
@@ -399,6 +411,27 @@ public class Http11AprProcessor implements ActionHook {
     }
 
 
+    /**
+     * Set the pool of the inflaters used by the decompression filter, or
+     * null if request bodies are not decompressed.
+     */
+    public void setInflaterPool(InflaterPool inflaterPool) {
+        this.inflaterPool = inflaterPool;
+        InputFilter[] inputFilters = inputBuffer.getFilters();
+        ((GzipInputFilter) inputFilters[Constants.GZIP_FILTER]).setInflaterPool(inflaterPool);
+    }
+
+
+    /**
+     * Set the pool of the deflaters used by the compression filters.
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        OutputFilter[] outputFilters = outputBuffer.getFilters();
+        ((DeflateOutputFilter) outputFilters[Constants.GZIP_FILTER]).setDeflaterPool(deflaterPool);
+        ((DeflateOutputFilter) outputFilters[Constants.DEFLATE_FILTER]).setDeflaterPool(deflaterPool);
+    }
+
+
     /**
      * Add user-agent for which gzip compression didn't works
      * The user agent String given will be exactly matched
@@ -1339,11 +1372,9 @@ public class Http11AprProcessor implements ActionHook {
         MessageBytes protocolMB = request.protocol();
         if (protocolMB.equals(Constants.HTTP_11)) {
             http11 = true;
-            protocolMB.setString(Constants.HTTP_11);
         } else if (protocolMB.equals(Constants.HTTP_10)) {
             http11 = false;
             keepAlive = false;
-            protocolMB.setString(Constants.HTTP_10);
         } else if (protocolMB.equals("")) {
             // HTTP/0.9
             http09 = true;
@@ -1357,17 +1388,10 @@ public class Http11AprProcessor implements ActionHook {
             response.setStatus(505);
         }
 
-        MessageBytes methodMB = request.method();
-        if (methodMB.equals(Constants.GET)) {
-            methodMB.setString(Constants.GET);
-        } else if (methodMB.equals(Constants.POST)) {
-            methodMB.setString(Constants.POST);
-        }
-
         MimeHeaders headers = request.getMimeHeaders();
 
         // Check connection header
-        MessageBytes connectionValueMB = headers.getValue("connection");
+        MessageBytes connectionValueMB = headers.getValue(KnownHeader.CONNECTION);
         if (connectionValueMB != null) {
             ByteChunk connectionValueBC = connectionValueMB.getByteChunk();
             if (findBytes(connectionValueBC, Constants.CLOSE_BYTES) != -1) {
@@ -1380,7 +1404,7 @@ public class Http11AprProcessor implements ActionHook {
 
         MessageBytes expectMB = null;
         if (http11)
-            expectMB = headers.getValue("expect");
+            expectMB = headers.getValue(KnownHeader.EXPECT);
         if ((expectMB != null)
             && (expectMB.indexOfIgnoreCase("100-continue", 0) != -1)) {
             inputBuffer.setSwallowInput(false);
@@ -1389,7 +1413,7 @@ public class Http11AprProcessor implements ActionHook {
 
         // Check user-agent header
         if ((restrictedUserAgents != null) && ((http11) || (keepAlive))) {
-            MessageBytes userAgentValueMB = headers.getValue("user-agent");
+            MessageBytes userAgentValueMB = headers.getValue(KnownHeader.USER_AGENT);
             // Check in the restricted list, and adjust the http11
             // and keepAlive flags accordingly
             if(userAgentValueMB != null) {
@@ -1437,16 +1461,17 @@ public class Http11AprProcessor implements ActionHook {
         // Parse transfer-encoding header
         MessageBytes transferEncodingValueMB = null;
         if (http11)
-            transferEncodingValueMB = headers.getValue("transfer-encoding");
+            transferEncodingValueMB = headers.getValue(KnownHeader.TRANSFER_ENCODING);
         if (transferEncodingValueMB != null) {
-            String transferEncodingValue = transferEncodingValueMB.toString();
             // Parse the comma separated list. "identity" codings are ignored
             int startPos = 0;
-            int commaPos = transferEncodingValue.indexOf(',');
-            String encodingName = null;
-            while (commaPos != -1) {
-                encodingName = transferEncodingValue.substring
-                    (startPos, commaPos).toLowerCase(Locale.ENGLISH).trim();
+            int endPos = transferEncodingValueMB.getLength();
+            int commaPos = transferEncodingValueMB.indexOf(',', 0);
+            while (startPos <= endPos) {
+                if (commaPos == -1) {
+                    commaPos = endPos;
+                }
+                String encodingName = KnownTokens.getValue(transferEncodingValueMB, startPos, commaPos);
                 if (!addInputFilter(inputFilters, encodingName)) {
                     // Unsupported transfer encoding
                     error = true;
@@ -1454,15 +1479,7 @@ public class Http11AprProcessor implements ActionHook {
                     response.setStatus(501);
                 }
                 startPos = commaPos + 1;
-                commaPos = transferEncodingValue.indexOf(',', startPos);
-            }
-            encodingName = transferEncodingValue.substring(startPos)
-                .toLowerCase(Locale.ENGLISH).trim();
-            if (!addInputFilter(inputFilters, encodingName)) {
-                // Unsupported transfer encoding
-                error = true;
-                // 501 - Unimplemented
-                response.setStatus(501);
+                commaPos = transferEncodingValueMB.indexOf(',', startPos);
             }
         }
 
@@ -1474,7 +1491,22 @@ public class Http11AprProcessor implements ActionHook {
             contentDelimitation = true;
         }
 
-        MessageBytes valueMB = headers.getValue("host");
+        // Decompress the request body, after it has been decoded by the
+        // transfer filter
+        if (inflaterPool != null && contentDelimitation) {
+            MessageBytes contentEncodingMB = headers.getValue(KnownHeader.CONTENT_ENCODING);
+            if (contentEncodingMB != null && (contentEncodingMB.equalsIgnoreCase(KnownTokens.GZIP)
+                    || contentEncodingMB.equalsIgnoreCase("x-gzip"))) {
+                inputBuffer.addActiveFilter(inputFilters[Constants.GZIP_FILTER]);
+                // The length of the decompressed body is not known
+                headers.removeHeader(KnownHeader.CONTENT_ENCODING);
+                headers.removeHeader(KnownHeader.CONTENT_LENGTH);
+                request.setContentLength(-1);
+                request.setDecompressed(true);
+            }
+        }
+
+        MessageBytes valueMB = headers.getValue(KnownHeader.HOST);
 
         // Check host header
         if (http11 && (valueMB == null)) {
@@ -1569,9 +1601,11 @@ public class Http11AprProcessor implements ActionHook {
 
 
     /**
-     * Check for compression
+     * Check for compression, and select the content coding.
+     *
+     * @return "gzip", "deflate", or null if the response is not compressed
      */
-    private boolean isCompressable() {
+    private String getCompressionEncoding() {
 
         // Nope Compression could works in HTTP 1.0 also
         // cf: mod_deflate
@@ -1580,37 +1614,37 @@ public class Http11AprProcessor implements ActionHook {
         // if (! http11)
         //    return false;
 
-        // Check if browser support gzip encoding
+        // Check if browser support gzip or deflate encoding, honoring the
+        // qualities
         MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
-
-        if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1))
-            return false;
+            request.getMimeHeaders().getValue(KnownHeader.ACCEPT_ENCODING);
 
-        // Check if content is not allready gzipped
-        MessageBytes contentEncodingMB =
-            response.getMimeHeaders().getValue("Content-Encoding");
+        if (acceptEncodingMB == null)
+            return null;
+        String encoding =
+            DeflateOutputFilter.selectEncoding(acceptEncodingMB.toString());
+        if (encoding == null)
+            return null;
 
-        if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1))
-            return false;
+        // Check if content is not already encoded
+        if (response.getMimeHeaders().getValue(KnownHeader.CONTENT_ENCODING) != null)
+            return null;
 
         // If force mode, allways compress (test purposes only)
         if (compressionLevel == 2)
-           return true;
+           return encoding;
 
         // Check for incompatible Browser
         if (noCompressionUserAgents != null) {
             MessageBytes userAgentValueMB =
-                request.getMimeHeaders().getValue("user-agent");
+                request.getMimeHeaders().getValue(KnownHeader.USER_AGENT);
             if(userAgentValueMB != null) {
                 String userAgentValue = userAgentValueMB.toString();
 
                 // If one Regexp rule match, disable compression
                 for (int i = 0; i < noCompressionUserAgents.length; i++)
                     if (noCompressionUserAgents[i].matcher(userAgentValue).matches())
-                        return false;
+                        return null;
             }
         }
 
@@ -1619,13 +1653,14 @@ public class Http11AprProcessor implements ActionHook {
         if ((contentLength == -1)
             || (contentLength > compressionMinSize)) {
             // Check for compatible MIME-TYPE
-            if (compressableMimeTypes != null) {
-                return (startsWithStringArray(compressableMimeTypes,
-                                              response.getContentType()));
+            if ((compressableMimeTypes != null)
+                && startsWithStringArray(compressableMimeTypes,
+                                         response.getContentType())) {
+                return encoding;
             }
         }
 
-        return false;
+        return null;
     }
 
 
@@ -1682,11 +1717,11 @@ public class Http11AprProcessor implements ActionHook {
         }
         
         // Check for compression
-        boolean useCompression = false;
+        String compressionEncoding = null;
         if (entityBody && (compressionLevel > 0) && (sendfileData == null)) {
-            useCompression = isCompressable();
+            compressionEncoding = getCompressionEncoding();
             // Change content-length to -1 to force chunking
-            if (useCompression) {
+            if (compressionEncoding != null) {
                 response.setContentLength(-1);
             }
         }
@@ -1724,9 +1759,13 @@ public class Http11AprProcessor implements ActionHook {
             }
         }
 
-        if (useCompression) {
-            outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-            headers.setValue("Content-Encoding").setString("gzip");
+        if (compressionEncoding != null) {
+            if (compressionEncoding == KnownTokens.GZIP) {
+                outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
+            } else {
+                outputBuffer.addActiveFilter(outputFilters[Constants.DEFLATE_FILTER]);
+            }
+            headers.setValue("Content-Encoding").setString(compressionEncoding);
             // Make Proxies happy via Vary (from mod_deflate)
             headers.addValue("Vary").setString("Accept-Encoding");
         }
@@ -1763,7 +1802,8 @@ public class Http11AprProcessor implements ActionHook {
 
         int size = headers.size();
         for (int i = 0; i < size; i++) {
-            outputBuffer.sendHeader(headers.getName(i), headers.getValue(i));
+            outputBuffer.sendHeader(headers.getKnownHeader(i), headers.getName(i),
+                    headers.getValue(i));
         }
         outputBuffer.endHeaders();
 
@@ -1787,9 +1827,10 @@ public class Http11AprProcessor implements ActionHook {
         inputBuffer.addFilter(new VoidInputFilter());
         outputBuffer.addFilter(new VoidOutputFilter());
 
-        // Create and add the chunked filters.
-        //inputBuffer.addFilter(new GzipInputFilter());
+        // Create and add the gzip and deflate filters.
+        inputBuffer.addFilter(new GzipInputFilter());
         outputBuffer.addFilter(new GzipOutputFilter());
+        outputBuffer.addFilter(new DeflateOutputFilter());
 
     }
 
@@ -1802,15 +1843,15 @@ public class Http11AprProcessor implements ActionHook {
      */
     protected boolean addInputFilter(InputFilter[] inputFilters,
                                      String encodingName) {
-        if (encodingName.equals("identity")) {
+        if (encodingName.equals(KnownTokens.IDENTITY)) {
             // Skip
-        } else if (encodingName.equals("chunked")) {
+        } else if (encodingName.equals(KnownTokens.CHUNKED)) {
             inputBuffer.addActiveFilter
                 (inputFilters[Constants.CHUNKED_FILTER]);
             contentDelimitation = true;
         } else {
             for (int i = 2; i < inputFilters.length; i++) {
-                if (inputFilters[i].getEncodingName()
+                if (i != Constants.GZIP_FILTER && inputFilters[i].getEncodingName()
                     .toString().equals(encodingName)) {
                     inputBuffer.addActiveFilter(inputFilters[i]);
                     return true;
@@ -36,6 +36,8 @@ import org.apache.coyote.Adapter;
 import org.apache.coyote.ProtocolHandler;
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AprEndpoint;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -99,6 +101,11 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public void init() throws Exception {
         endpoint.setName(getName());
         endpoint.setHandler(cHandler);
+        deflaterPool = new DeflaterPool(deflateLevel,
+                DeflaterPool.parseStrategy(deflateStrategy), deflatePoolSize);
+        if (decompression) {
+            inflaterPool = new InflaterPool(maxDecompressedSize, inflatePoolSize);
+        }
 
         try {
             endpoint.init();
@@ -186,6 +193,12 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
         CoyoteLogger.HTTP_LOGGER.stopHttpConnector(getName());
         if (canDestroy) {
             endpoint.destroy();
+            if (deflaterPool != null) {
+                deflaterPool.destroy();
+            }
+            if (inflaterPool != null) {
+                inflaterPool.destroy();
+            }
         } else {
             CoyoteLogger.HTTP_LOGGER.cannotDestroyHttpProtocol(getName());
             try {
@@ -247,6 +260,14 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public int getThreadPriority() { return endpoint.getThreadPriority(); }
     public void setThreadPriority(int threadPriority) { endpoint.setThreadPriority(threadPriority); }
 
+    /**
+     * Occupancy and fragmentation of the direct buffer arena.
+     */
+    public long getBufferArenaReserved() { return endpoint.getBufferArena().getReservedBytes(); }
+    public long getBufferArenaUsed() { return endpoint.getBufferArena().getUsedBytes(); }
+    public int getBufferArenaOccupancy() { return endpoint.getBufferArena().getOccupancy(); }
+    public int getBufferArenaFragmentation() { return endpoint.getBufferArena().getFragmentation(); }
+
     public int getBacklog() { return endpoint.getBacklog(); }
     public void setBacklog(int backlog) { endpoint.setBacklog(backlog); }
 
@@ -347,6 +368,56 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
     public void setCompressionMinSize(int valueI) { compressionMinSize = valueI; }
 
 
+    // HTTP
+    /**
+     * Level and strategy of the deflaters used for compression, and maximum
+     * number of idle deflaters kept in the pool (-1 for no limit).
+     */
+    protected int deflateLevel = Integer.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.DEFLATE_LEVEL", "-1")).intValue();
+    public int getDeflateLevel() { return deflateLevel; }
+    public void setDeflateLevel(int valueI) { deflateLevel = valueI; }
+
+    protected String deflateStrategy = System.getProperty("org.apache.coyote.http11.Http11Protocol.DEFLATE_STRATEGY", "default");
+    public String getDeflateStrategy() { return deflateStrategy; }
+    public void setDeflateStrategy(String valueS) { deflateStrategy = valueS; }
+
+    protected int deflatePoolSize = Integer.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.DEFLATE_POOL_SIZE", "-1")).intValue();
+    public int getDeflatePoolSize() { return deflatePoolSize; }
+    public void setDeflatePoolSize(int valueI) { deflatePoolSize = valueI; }
+
+    protected DeflaterPool deflaterPool = null;
+    public DeflaterPool getDeflaterPool() { return deflaterPool; }
+
+    /**
+     * Compression statistics.
+     */
+    public long getCompressedResponseCount() { return (deflaterPool == null) ? 0 : deflaterPool.getResponseCount(); }
+    public double getCompressionRatio() { return (deflaterPool == null) ? 1 : deflaterPool.getCompressionRatio(); }
+    public long getCompressionTime() { return (deflaterPool == null) ? 0 : deflaterPool.getCompressionTime(); }
+
+
+    // HTTP
+    /**
+     * Decompression of the request bodies with the gzip content coding,
+     * maximum size of a decompressed body (-1 for no limit), and maximum
+     * number of idle inflaters kept in the pool (-1 for no limit).
+     */
+    protected boolean decompression = Boolean.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.DECOMPRESSION", "false")).booleanValue();
+    public boolean getDecompression() { return decompression; }
+    public void setDecompression(boolean decompression) { this.decompression = decompression; }
+
+    protected long maxDecompressedSize = Long.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.MAX_DECOMPRESSED_SIZE", "10485760")).longValue();
+    public long getMaxDecompressedSize() { return maxDecompressedSize; }
+    public void setMaxDecompressedSize(long valueL) { maxDecompressedSize = valueL; }
+
+    protected int inflatePoolSize = Integer.valueOf(System.getProperty("org.apache.coyote.http11.Http11Protocol.INFLATE_POOL_SIZE", "16")).intValue();
+    public int getInflatePoolSize() { return inflatePoolSize; }
+    public void setInflatePoolSize(int valueI) { inflatePoolSize = valueI; }
+
+    protected InflaterPool inflaterPool = null;
+    public InflaterPool getInflaterPool() { return inflaterPool; }
+
+
     // HTTP
     /**
      * User agents regular expressions which should be restricted to HTTP/1.0 support.
@@ -653,6 +724,8 @@ public class Http11AprProtocol implements ProtocolHandler, MBeanRegistration {
             processor.setCompression(proto.compression);
             processor.setNoCompressionUserAgents(proto.noCompressionUserAgents);
             processor.setCompressableMimeTypes(proto.compressableMimeTypes);
+            processor.setDeflaterPool(proto.deflaterPool);
+            processor.setInflaterPool(proto.inflaterPool);
             processor.setRestrictedUserAgents(proto.restrictedUserAgents);
             processor.setSocketBuffer(proto.socketBuffer);
             processor.setMaxSavePostSize(proto.maxSavePostSize);
@@ -21,9 +21,6 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.CompletionHandler;
-import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Request;
@@ -32,16 +29,23 @@ import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.GzipInputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -76,6 +80,29 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	protected NioEndpoint.SendfileData sendfileData = null;
 
+	/**
+	 * Flag set while the processor waits for the rest of a request header.
+	 */
+	protected boolean headerPending = false;
+
+	/**
+	 * Flag set while the processor waits for the end of the asynchronous
+	 * write of a response.
+	 */
+	protected boolean writePending = false;
+
+	/**
+	 * Flag set when the next request was received before the asynchronous
+	 * write of the previous response started.
+	 */
+	protected boolean writePipelined = false;
+
+	/**
+	 * Maximum number of response bytes which may be queued on the
+	 * connection.
+	 */
+	protected int pendingWriteLimit = 0;
+
 	/**
 	 * Channel associated with the current connection.
 	 */
@@ -86,6 +113,11 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	protected NioEndpoint endpoint;
 
+	/**
+	 * HTTP/2 protocol the connections are upgraded to, if enabled.
+	 */
+	protected Http2Protocol http2 = null;
+
 	/**
 	 * Create a new instance of {@code Http11NioProcessor}
 	 * 
@@ -131,6 +163,74 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		processing = false;
 	}
 
+	/**
+	 * @return true if the processor waits for the rest of a request header
+	 */
+	public boolean isHeaderPending() {
+		return headerPending;
+	}
+
+	/**
+	 * @return true if the processor waits for the end of a response write
+	 */
+	public boolean isWritePending() {
+		return writePending;
+	}
+
+	/**
+	 * Wait for the pending response bytes to be written without blocking.
+	 * 
+	 * @return true if all bytes are already written, in which case the
+	 *         caller should process an {@code OPEN_WRITE} event itself
+	 */
+	public boolean awaitWrite() {
+		return !outputBuffer.notifyWhenDrained();
+	}
+
+	/**
+	 * Set the maximum number of response bytes which may be queued on the
+	 * connection, 0 to always use blocking writes.
+	 * 
+	 * @param pendingWriteLimit
+	 */
+	public void setPendingWriteLimit(int pendingWriteLimit) {
+		this.pendingWriteLimit = pendingWriteLimit;
+	}
+
+	/**
+	 * Set the pool of the inflaters used by the decompression filter, or
+	 * null if request bodies are not decompressed.
+	 *
+	 * @param inflaterPool
+	 */
+	public void setInflaterPool(InflaterPool inflaterPool) {
+		this.inflaterPool = inflaterPool;
+		InputFilter[] inputFilters = inputBuffer.getFilters();
+		((GzipInputFilter) inputFilters[Constants.GZIP_FILTER]).setInflaterPool(inflaterPool);
+	}
+
+	/**
+	 * Set the pool of the deflaters used by the compression filters.
+	 *
+	 * @param deflaterPool
+	 */
+	public void setDeflaterPool(DeflaterPool deflaterPool) {
+		OutputFilter[] outputFilters = outputBuffer.getFilters();
+		((DeflateOutputFilter) outputFilters[Constants.GZIP_FILTER]).setDeflaterPool(deflaterPool);
+		((DeflateOutputFilter) outputFilters[Constants.DEFLATE_FILTER]).setDeflaterPool(deflaterPool);
+	}
+
+	/**
+	 * Read the rest of the pending request header without blocking.
+	 * 
+	 * @return true if bytes were received right away, in which case the
+	 *         caller should process an {@code OPEN_READ} event itself
+	 * @throws IOException
+	 */
+	public boolean readHeader() throws IOException {
+		return inputBuffer.readHeader();
+	}
+
 	/**
 	 * @return true if the input buffer is available
 	 */
@@ -138,6 +238,21 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		return inputBuffer.available();
 	}
 
+	/**
+	 * Make sure the next bytes of an event connection get read, which will
+	 * trigger a read event.
+	 * 
+	 * @return true if bytes were received already, so that the read event
+	 *         can be processed right away
+	 */
+	public boolean awaitEventRead() {
+		if (inputBuffer.available()) {
+			return true;
+		}
+		inputBuffer.readAsync();
+		return false;
+	}
+
 	/**
 	 * Add input or output filter.
 	 * 
@@ -203,6 +318,31 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	public SocketState event(SocketStatus status) throws IOException {
 
+		if (headerPending) {
+			headerPending = false;
+			if (status == SocketStatus.OPEN_READ) {
+				// The rest of the request header was received
+				return process(channel);
+			}
+			recycle();
+			return SocketState.CLOSED;
+		}
+
+		if (writePending) {
+			// The last response was written, carry on with the connection
+			// unless it must be closed
+			writePending = false;
+			if (status == SocketStatus.OPEN_WRITE && keepAlive && !error) {
+				if (writePipelined) {
+					return process(channel);
+				}
+				recycle();
+				return SocketState.OPEN;
+			}
+			recycle();
+			return SocketState.CLOSED;
+		}
+
 		RequestInfo rp = request.getRequestProcessor();
 		try {
 			// If processing a write event, must flush any leftover bytes first
@@ -213,6 +353,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				if (!outputBuffer.flushLeftover()) {
 					return SocketState.LONG;
 				}
+				if (!writeNotification) {
+					// The event was only needed to write the queued bytes
+					return SocketState.LONG;
+				}
 				// The write notification is now done
 				writeNotification = false;
 				// Allow convenient synchronous blocking writes
@@ -271,11 +415,15 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		this.reset();
 		// Setting up the channel
 		this.setChannel(channel);
+		outputBuffer.setPendingWriteLimit(pendingWriteLimit);
 
 		int keepAliveLeft = maxKeepAliveRequests;
 		int soTimeout = endpoint.getSoTimeout();
 		boolean keptAlive = false;
 		boolean openChannel = false;
+		boolean sendfile = false;
+		boolean batched = false;
+		boolean upgraded = false;
 
 		while (!error && keepAlive && !event) {
 			// Parsing the request header
@@ -284,35 +432,22 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 					endpoint.setSoTimeout(soTimeout * 1000);
 				}
 
-				if (!inputBuffer.parseRequestLine(keptAlive)) {
-					// This means that no data is available right now
-					// (long keep-alive), so that the processor should be
-					// recycled and the method should return true
-					final NioChannel ch = channel;
-					// Perform an asynchronous read operation to wait for
-					// incoming data
-					ch.awaitRead(soTimeout, TimeUnit.MILLISECONDS, ch,
-							new CompletionHandler<Integer, NioChannel>() {
-
-								@Override
-								public void completed(Integer nBytes, NioChannel attachment) {
-									if (nBytes < 0) {
-										// Reach the end of the stream
-										failed(null, attachment);
-									} else {
-										endpoint.processChannel(ch, null);
-									}
-								}
-
-								@Override
-								public void failed(Throwable exc, NioChannel attachment) {
-									closeChannel(attachment);
-								}
-							});
-					openChannel = true;
+				if (!inputBuffer.isHeaderReceived()) {
+					if (keptAlive && !inputBuffer.isRequestStarted()) {
+						// No data is available right now (keep-alive), so the
+						// processor is recycled while waiting for the next
+						// request
+						openChannel = true;
+					} else {
+						// Wait for the rest of the request header without
+						// holding a thread, the processor stays bound to the
+						// channel until the header is complete
+						headerPending = true;
+					}
 					break;
 				}
 
+				inputBuffer.parseRequestLine(false);
 				request.setStartTime(System.currentTimeMillis());
 				keptAlive = true;
 				if (!disableUploadTimeout) {
@@ -339,6 +474,35 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				error = true;
 			}
 
+			// Switch the connection to HTTP/2 if the client asked for it, the
+			// request is then processed as the first stream
+			byte[] http2Settings = error ? null : getHttp2Settings();
+			if (http2Settings != null) {
+				try {
+					response.setStatus(101);
+					response.addHeader("Connection", "Upgrade");
+					response.addHeader("Upgrade", org.apache.coyote.http2.Constants.H2C);
+					response.sendHeaders();
+					outputBuffer.flush();
+					action(ActionCode.UPGRADE, null);
+					http2.upgrade(channel, request, http2Settings, inputBuffer.getUnreadBytes());
+					upgraded = true;
+				} catch (IOException e) {
+					error = true;
+				}
+				break;
+			}
+
+			// The responses kept for a batch are written before reading a
+			// request body, as the client may wait for them before sending it
+			if (batched && !error && hasBody()) {
+				try {
+					outputBuffer.flushBatch();
+				} catch (IOException e) {
+					error = true;
+				}
+			}
+
 			if (maxKeepAliveRequests > 0 && --keepAliveLeft == 0) {
 				keepAlive = false;
 			}
@@ -374,7 +538,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 				inputBuffer.setSwallowInput(false);
 			}
 			if (!event) {
-				endRequest();
+				batched = endRequest(true);
 			}
 
 			// If there was an error, make sure the request is counted as
@@ -392,15 +556,40 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 			// Do sendfile as needed: add socket to sendfile and end
 			if (sendfileData != null && !error) {
+				try {
+					// The response header must be written before the file
+					outputBuffer.drain();
+				} catch (IOException e) {
+					error = true;
+					break;
+				}
 				sendfileData.setChannel(channel);
 				sendfileData.setKeepAlive(keepAlive && !pipelined);
-				if (!endpoint.addSendfileData(sendfileData)) {
-					if (sendfileData.getChannel() == null) {
-						error = true;
-					} else {
-						openChannel = true;
+				if (endpoint.addSendfileData(sendfileData)) {
+					// The sendfile engine owns the channel from now on, and
+					// will put it back in keep-alive once the file is sent
+					sendfile = true;
+				} else {
+					error = true;
+				}
+				break;
+			}
+
+			// Write the end of the response
+			if (!event) {
+				try {
+					if (error) {
+						outputBuffer.drain();
+					} else if (!batched && outputBuffer.drainAsync()) {
+						// The processor stays bound to the channel until
+						// the client has read the response, without holding
+						// a thread
+						writePending = true;
+						writePipelined = pipelined;
+						break;
 					}
-					break;
+				} catch (IOException e) {
+					error = true;
 				}
 			}
 
@@ -408,7 +597,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		}
 		rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
-		if (event) {
+		if (upgraded) {
+			recycle();
+			return SocketState.UPGRADED;
+		} else if (event) {
 			if (error) {
 				inputBuffer.nextRequest();
 				outputBuffer.nextRequest();
@@ -417,8 +609,15 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			} else {
 				return SocketState.LONG;
 			}
+		} else if (headerPending && !error) {
+			return SocketState.LONG;
+		} else if (writePending) {
+			return SocketState.LONG;
 		} else {
 			recycle();
+			if (sendfile) {
+				return SocketState.SENDFILE;
+			}
 			return (openChannel) ? SocketState.OPEN : SocketState.CLOSED;
 		}
 
@@ -430,6 +629,21 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 * @see org.apache.coyote.http11.Http11AbstractProcessor#endRequest()
 	 */
 	public void endRequest() {
+		endRequest(false);
+	}
+
+	/**
+	 * Finish the handling of the request. When batching is allowed and the
+	 * header of the next pipelined request was already received, the
+	 * response stays in the output buffer, so that the responses of the
+	 * whole batch are written together.
+	 * 
+	 * @param batch
+	 *            true to allow batching
+	 * @return true if the response was kept in the output buffer
+	 */
+	protected boolean endRequest(boolean batch) {
+		boolean batched = false;
 
 		// Finish the handling of the request
 		try {
@@ -443,13 +657,55 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			error = true;
 		}
 		try {
-			outputBuffer.endRequest();
+			batched = batch && keepAlive && !error && sendfileData == null
+					&& inputBuffer.isNextRequestReceived();
+			outputBuffer.endRequest(!batched);
 		} catch (IOException e) {
 			error = true;
 		} catch (Throwable t) {
             CoyoteLogger.HTTP_LOGGER.errorFinishingResponse(t);
 			error = true;
 		}
+		return batched && !error;
+	}
+
+	/**
+	 * @return true if the current request has a body
+	 */
+	protected boolean hasBody() {
+		return request.getContentLengthLong() > 0
+				|| request.getMimeHeaders().getValue(KnownHeader.TRANSFER_ENCODING) != null;
+	}
+
+	/**
+	 * Check if the current request asks for an upgrade to cleartext HTTP/2.
+	 * Requests with a body are not upgraded, as the body would have to be
+	 * read before switching.
+	 * 
+	 * @return the decoded HTTP2-Settings header if the connection must be
+	 *         upgraded, else <tt>null</tt>
+	 */
+	protected byte[] getHttp2Settings() {
+		if (http2 == null || !http11 || hasBody()) {
+			return null;
+		}
+		MimeHeaders headers = request.getMimeHeaders();
+		MessageBytes upgrade = headers.getValue(KnownHeader.UPGRADE);
+		MessageBytes settings = headers.getValue(KnownHeader.HTTP2_SETTINGS);
+		if (upgrade == null || settings == null
+				|| upgrade.indexOfIgnoreCase(org.apache.coyote.http2.Constants.H2C, 0) == -1) {
+			return null;
+		}
+		return Http2Protocol.decodeSettings(settings.toString());
+	}
+
+	/**
+	 * Set the HTTP/2 protocol the connections may be upgraded to.
+	 * 
+	 * @param http2
+	 */
+	public void setHttp2(Http2Protocol http2) {
+		this.http2 = http2;
 	}
 
 	/*
@@ -461,6 +717,9 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		inputBuffer.recycle();
 		outputBuffer.recycle();
 		this.channel = null;
+		this.headerPending = false;
+		this.writePending = false;
+		this.writePipelined = false;
 		super.recycle();
 	}
 
@@ -530,16 +789,6 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		}
 	}
 
-	/**
-	 * Close the specified channel without handling of possible exception
-	 * 
-	 * @param ch
-	 *            the channel to be closed
-	 */
-	private void closeChannel(NioChannel ch) {
-		endpoint.closeChannel(ch);
-	}
-
 	/**
 	 * Get the remote host address
 	 */
@@ -701,6 +950,13 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 */
 	private void beginEvent(Object param) {
 		event = true;
+		// Events write their data as it is produced
+		try {
+			outputBuffer.flushBatch();
+		} catch (IOException e) {
+			error = true;
+		}
+		outputBuffer.setPendingWriteLimit(0);
 		// Set channel to non blocking mode
 		if (param == Boolean.TRUE) {
 			outputBuffer.setNonBlocking(true);
@@ -859,6 +1115,8 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
             // Switch to raw bytes mode
             inputBuffer.removeActiveFilters();
             outputBuffer.removeActiveFilters();
+            // The connection cannot carry HTTP requests anymore
+            keepAlive = false;
         }
 	}
 
@@ -882,11 +1140,9 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 		if (protocolMB.equals(Constants.HTTP_11)) {
 			http11 = true;
-			protocolMB.setString(Constants.HTTP_11);
 		} else if (protocolMB.equals(Constants.HTTP_10)) {
 			http11 = false;
 			keepAlive = false;
-			protocolMB.setString(Constants.HTTP_10);
 		} else if (protocolMB.equals("")) {
 			// HTTP/0.9
 			http09 = true;
@@ -900,17 +1156,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			response.setStatus(505);
 		}
 
-		MessageBytes methodMB = request.method();
-		if (methodMB.equals(Constants.GET)) {
-			methodMB.setString(Constants.GET);
-		} else if (methodMB.equals(Constants.POST)) {
-			methodMB.setString(Constants.POST);
-		}
-
 		MimeHeaders headers = request.getMimeHeaders();
 
 		// Check connection header
-		MessageBytes connectionValueMB = headers.getValue("connection");
+		MessageBytes connectionValueMB = headers.getValue(KnownHeader.CONNECTION);
 		if (connectionValueMB != null) {
 			ByteChunk connectionValueBC = connectionValueMB.getByteChunk();
 			if (findBytes(connectionValueBC, Constants.CLOSE_BYTES) != -1) {
@@ -922,7 +1171,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 		MessageBytes expectMB = null;
 		if (http11)
-			expectMB = headers.getValue("expect");
+			expectMB = headers.getValue(KnownHeader.EXPECT);
 		if ((expectMB != null) && (expectMB.indexOfIgnoreCase("100-continue", 0) != -1)) {
 			inputBuffer.setSwallowInput(false);
 			expectation = true;
@@ -930,7 +1179,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 		// Check user-agent header
 		if ((restrictedUserAgents != null) && ((http11) || (keepAlive))) {
-			MessageBytes userAgentValueMB = headers.getValue("user-agent");
+			MessageBytes userAgentValueMB = headers.getValue(KnownHeader.USER_AGENT);
 			// Check in the restricted list, and adjust the http11
 			// and keepAlive flags accordingly
 			if (userAgentValueMB != null) {
@@ -975,16 +1224,17 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		// Parse transfer-encoding header
 		MessageBytes transferEncodingValueMB = null;
 		if (http11)
-			transferEncodingValueMB = headers.getValue("transfer-encoding");
+			transferEncodingValueMB = headers.getValue(KnownHeader.TRANSFER_ENCODING);
 		if (transferEncodingValueMB != null) {
-			String transferEncodingValue = transferEncodingValueMB.toString();
 			// Parse the comma separated list. "identity" codings are ignored
 			int startPos = 0;
-			int commaPos = transferEncodingValue.indexOf(',');
-			String encodingName = null;
-			while (commaPos != -1) {
-				encodingName = transferEncodingValue.substring(startPos, commaPos)
-						.toLowerCase(Locale.ENGLISH).trim();
+			int endPos = transferEncodingValueMB.getLength();
+			int commaPos = transferEncodingValueMB.indexOf(',', 0);
+			while (startPos <= endPos) {
+				if (commaPos == -1) {
+					commaPos = endPos;
+				}
+				String encodingName = KnownTokens.getValue(transferEncodingValueMB, startPos, commaPos);
 				if (!addInputFilter(inputFilters, encodingName)) {
 					// Unsupported transfer encoding
 					error = true;
@@ -992,15 +1242,7 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 					response.setStatus(501);
 				}
 				startPos = commaPos + 1;
-				commaPos = transferEncodingValue.indexOf(',', startPos);
-			}
-			encodingName = transferEncodingValue.substring(startPos).toLowerCase(Locale.ENGLISH)
-					.trim();
-			if (!addInputFilter(inputFilters, encodingName)) {
-				// Unsupported transfer encoding
-				error = true;
-				// 501 - Unimplemented
-				response.setStatus(501);
+				commaPos = transferEncodingValueMB.indexOf(',', startPos);
 			}
 		}
 
@@ -1011,7 +1253,22 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			contentDelimitation = true;
 		}
 
-		MessageBytes valueMB = headers.getValue("host");
+		// Decompress the request body, after it has been decoded by the
+		// transfer filter
+		if (inflaterPool != null && contentDelimitation) {
+			MessageBytes contentEncodingMB = headers.getValue(KnownHeader.CONTENT_ENCODING);
+			if (contentEncodingMB != null && (contentEncodingMB.equalsIgnoreCase(KnownTokens.GZIP)
+					|| contentEncodingMB.equalsIgnoreCase("x-gzip"))) {
+				inputBuffer.addActiveFilter(inputFilters[Constants.GZIP_FILTER]);
+				// The length of the decompressed body is not known
+				headers.removeHeader(KnownHeader.CONTENT_ENCODING);
+				headers.removeHeader(KnownHeader.CONTENT_LENGTH);
+				request.setContentLength(-1);
+				request.setDecompressed(true);
+			}
+		}
+
+		MessageBytes valueMB = headers.getValue(KnownHeader.HOST);
 
 		// Check host header
 		if (http11 && (valueMB == null)) {
@@ -1153,11 +1410,11 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		}
 
 		// Check for compression
-		boolean useCompression = false;
+		String compressionEncoding = null;
 		if (entityBody && (compressionLevel > 0) && (sendfileData == null)) {
-			useCompression = isCompressable();
+			compressionEncoding = getCompressionEncoding();
 			// Change content-length to -1 to force chunking
-			if (useCompression) {
+			if (compressionEncoding != null) {
 				response.setContentLength(-1);
 			}
 		}
@@ -1191,9 +1448,13 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 			}
 		}
 
-		if (useCompression) {
-			outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-			headers.setValue("Content-Encoding").setString("gzip");
+		if (compressionEncoding != null) {
+			if (compressionEncoding == KnownTokens.GZIP) {
+				outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
+			} else {
+				outputBuffer.addActiveFilter(outputFilters[Constants.DEFLATE_FILTER]);
+			}
+			headers.setValue("Content-Encoding").setString(compressionEncoding);
 			// Make Proxies happy via Vary (from mod_deflate)
 			headers.addValue("Vary").setString("Accept-Encoding");
 		}
@@ -1230,7 +1491,8 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 
 		int size = headers.size();
 		for (int i = 0; i < size; i++) {
-			outputBuffer.sendHeader(headers.getName(i), headers.getValue(i));
+			outputBuffer.sendHeader(headers.getKnownHeader(i), headers.getName(i),
+					headers.getValue(i));
 		}
 		outputBuffer.endHeaders();
 
@@ -1255,9 +1517,10 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 		inputBuffer.addFilter(new VoidInputFilter());
 		outputBuffer.addFilter(new VoidOutputFilter());
 
-		// Create and add the chunked filters.
-		// inputBuffer.addFilter(new GzipInputFilter());
+		// Create and add the gzip and deflate filters.
+		inputBuffer.addFilter(new GzipInputFilter());
 		outputBuffer.addFilter(new GzipOutputFilter());
+		outputBuffer.addFilter(new DeflateOutputFilter());
 
 	}
 
@@ -1268,14 +1531,14 @@ public class Http11NioProcessor extends Http11AbstractProcessor {
 	 *         unsupported)
 	 */
 	protected boolean addInputFilter(InputFilter[] inputFilters, String encodingName) {
-		if (encodingName.equals("identity")) {
+		if (encodingName.equals(KnownTokens.IDENTITY)) {
 			// Skip
-		} else if (encodingName.equals("chunked")) {
+		} else if (encodingName.equals(KnownTokens.CHUNKED)) {
 			inputBuffer.addActiveFilter(inputFilters[Constants.CHUNKED_FILTER]);
 			contentDelimitation = true;
 		} else {
 			for (int i = 2; i < inputFilters.length; i++) {
-				if (inputFilters[i].getEncodingName().toString().equals(encodingName)) {
+				if (i != Constants.GZIP_FILTER && inputFilters[i].getEncodingName().toString().equals(encodingName)) {
 					inputBuffer.addActiveFilter(inputFilters[i]);
 					return true;
 				}
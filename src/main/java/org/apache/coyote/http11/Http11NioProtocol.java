@@ -35,6 +35,9 @@ import javax.management.ObjectName;
 
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.InflaterPool;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
@@ -56,6 +59,20 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	private Http11ConnectionHandler cHandler = new Http11ConnectionHandler(this);
 	protected NioJSSESocketChannelFactory socketFactory = null;
 
+	/**
+	 * Maximum number of response bytes queued per connection for
+	 * asynchronous writes, 0 to only use blocking writes.
+	 */
+	protected int pendingWriteLimit = Integer.valueOf(System.getProperty(
+			"org.apache.coyote.http11.Http11NioProtocol.PENDING_WRITE_LIMIT", "0")).intValue();
+
+	/**
+	 * Flag set to allow the upgrade of cleartext connections to HTTP/2, and
+	 * the HTTP/2 protocol handling the upgraded connections.
+	 */
+	protected boolean http2 = false;
+	protected Http2Protocol http2Protocol = null;
+
 	/**
 	 * Create a new instance of {@code Http11NioProtocol}
 	 */
@@ -85,6 +102,11 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	public void init() throws Exception {
 		endpoint.setName(getName());
 		endpoint.setHandler(cHandler);
+		deflaterPool = new DeflaterPool(deflateLevel, DeflaterPool.parseStrategy(deflateStrategy),
+				deflatePoolSize);
+		if (decompression) {
+			inflaterPool = new InflaterPool(maxDecompressedSize, inflatePoolSize);
+		}
 
 		// Verify the validity of the configured socket factory
 		try {
@@ -116,6 +138,19 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 			throw ex;
 		}
 
+		// Only cleartext connections are upgraded, TLS connections would
+		// negotiate HTTP/2 with ALPN
+		if (http2 && !isSSLEnabled()) {
+			http2Protocol = new Http2Protocol(endpoint, cHandler.global);
+			http2Protocol.setAdapter(adapter);
+			http2Protocol.setDomain(domain);
+			http2Protocol.setMaxHeaderListSize(maxHttpHeaderSize);
+			if (server != null) {
+				http2Protocol.setServer(server);
+			}
+			http2Protocol.init();
+		}
+
         CoyoteLogger.HTTP_LOGGER.initHttpConnector(getName());
 	}
 
@@ -144,6 +179,9 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 		    CoyoteLogger.HTTP_LOGGER.errorStartingEndpoint(ex);
 			throw ex;
 		}
+		if (http2Protocol != null) {
+			http2Protocol.start();
+		}
 		CoyoteLogger.HTTP_LOGGER.startHttpConnector(getName());
 	}
 
@@ -210,8 +248,17 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 	@Override
 	public void destroy() throws Exception {
 	    CoyoteLogger.HTTP_LOGGER.stopHttpConnector(getName());
+		if (http2Protocol != null) {
+			http2Protocol.destroy();
+		}
 		if (canDestroy) {
 			endpoint.destroy();
+			if (deflaterPool != null) {
+				deflaterPool.destroy();
+			}
+			if (inflaterPool != null) {
+				inflaterPool.destroy();
+			}
 		} else {
 		    CoyoteLogger.HTTP_LOGGER.cannotDestroyHttpProtocol(getName());
 			try {
@@ -299,6 +346,91 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 		return this.endpoint.getMaxConnections();
 	}
 
+	/**
+	 * @return the resolution of the connection timeouts in milliseconds
+	 */
+	public int getTimeoutTick() {
+		return this.endpoint.getTimeoutTick();
+	}
+
+	/**
+	 * Set the resolution of the connection timeouts
+	 * 
+	 * @param timeoutTick
+	 *            the tick duration in milliseconds
+	 */
+	public void setTimeoutTick(int timeoutTick) {
+		this.endpoint.setTimeoutTick(timeoutTick);
+	}
+
+	/**
+	 * @return <tt>true</tt> if the cleartext connections may be upgraded to
+	 *         HTTP/2
+	 */
+	public boolean getHttp2() {
+		return this.http2;
+	}
+
+	/**
+	 * Allow the upgrade of cleartext connections to HTTP/2 (h2c)
+	 * 
+	 * @param http2
+	 */
+	public void setHttp2(boolean http2) {
+		this.http2 = http2;
+	}
+
+	/**
+	 * @return the maximum number of response bytes queued per connection
+	 */
+	public int getPendingWriteLimit() {
+		return this.pendingWriteLimit;
+	}
+
+	/**
+	 * Set the maximum number of response bytes which may be queued on a
+	 * connection. Bytes beyond the limit are written with blocking writes,
+	 * while the queued end of the response is written asynchronously, so that
+	 * the worker thread does not wait for a slow client. A value of 0
+	 * disables asynchronous writes.
+	 * 
+	 * @param pendingWriteLimit
+	 *            the limit in bytes
+	 */
+	public void setPendingWriteLimit(int pendingWriteLimit) {
+		this.pendingWriteLimit = pendingWriteLimit;
+	}
+
+	/**
+	 * @return the native memory reserved by the buffer arena, in bytes
+	 */
+	public long getBufferArenaReserved() {
+		return this.endpoint.getBufferArena().getReservedBytes();
+	}
+
+	/**
+	 * @return the capacity of the buffers currently borrowed from the arena,
+	 *         in bytes
+	 */
+	public long getBufferArenaUsed() {
+		return this.endpoint.getBufferArena().getUsedBytes();
+	}
+
+	/**
+	 * @return the percentage of the arena memory currently borrowed
+	 */
+	public int getBufferArenaOccupancy() {
+		return this.endpoint.getBufferArena().getOccupancy();
+	}
+
+	/**
+	 * @return the percentage of the borrowed capacity lost to size class
+	 *         rounding
+	 */
+	public int getBufferArenaFragmentation() {
+		return this.endpoint.getBufferArena().getFragmentation();
+	}
+
 	/**
 	 * @return the thread priority
 	 */
@@ -811,7 +943,42 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 			Http11NioProcessor processor = connections.get(channel.getId());
 			SocketState state = SocketState.CLOSED;
 
+			if (processor == null && proto.http2Protocol != null) {
+				// Event of a connection upgraded to HTTP/2
+				SocketState http2State = proto.http2Protocol.event(channel, status);
+				if (http2State != null) {
+					return http2State;
+				}
+			}
+
 			if (processor != null) {
+				state = dispatch(channel, processor, status);
+				if (state == SocketState.LONG) {
+					state = resume(channel, processor);
+				}
+			}
+
+			return state;
+		}
+
+		/**
+		 * Process an event of a processor which is bound to the channel.
+		 * 
+		 * @param channel
+		 * @param processor
+		 * @param status
+		 * @return the channel state
+		 */
+		protected SocketState dispatch(NioChannel channel, Http11NioProcessor processor,
+				SocketStatus status) {
+			SocketState state = SocketState.CLOSED;
+			// Events of a channel are processed one at a time, as a read
+			// may complete while another event is being processed
+			synchronized (processor) {
+				if (connections.get(channel.getId()) != processor) {
+					// The connection ended while this event was waiting
+					return SocketState.CLOSED;
+				}
 				processor.startProcessing();
 				// Call the appropriate event
 				try {
@@ -836,44 +1003,97 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 						connections.remove(channel.getId());
 						recycledProcessors.offer(processor);
 						if (proto.endpoint.isRunning() && state == SocketState.OPEN) {
-							final NioChannel ch = channel;
-							proto.endpoint.removeEventChannel(ch);
-							try {
-								ch.awaitRead(proto.getKeepAliveTimeout(), TimeUnit.MILLISECONDS,
-										proto.endpoint,
-										new CompletionHandler<Integer, NioEndpoint>() {
-
-											@Override
-											public void completed(Integer nBytes,
-													NioEndpoint endpoint) {
-												if (nBytes < 0) {
-													failed(new ClosedChannelException(), endpoint);
-												} else {
-													endpoint.processChannel(ch, null);
-												}
-											}
-
-											@Override
-											public void failed(Throwable exc, NioEndpoint endpoint) {
-												endpoint.closeChannel(ch);
-											}
-										});
-							} catch (Exception exp) {
-								// NOPE
-							}
+							proto.endpoint.removeEventChannel(channel);
+							awaitRequest(channel);
 						}
-					} else {
+					} else if (!processor.isHeaderPending() && !processor.isWritePending()) {
 						if (proto.endpoint.isRunning()) {
+							// Event connections read with the processor buffer
+							// rather than awaiting a read in the poller
+							// A pending write sends the write event itself
+							boolean write = processor.getWriteNotification() && processor.awaitWrite();
 							proto.endpoint.addEventChannel(channel, processor.getTimeout(),
-									processor.getReadNotifications(),
-									processor.getWriteNotification(),
-									processor.getResumeNotification(), false);
+									false, write, processor.getResumeNotification(), false);
+							if (processor.getReadNotifications() && processor.awaitEventRead()) {
+								proto.endpoint.processChannel(channel, SocketStatus.OPEN_READ);
+							}
 						}
 					}
 					processor.endProcessing();
 				}
 			}
+			return state;
+		}
 
+		/**
+		 * Wait for the next request on a kept-alive channel. No processor is
+		 * bound to the channel while waiting.
+		 * 
+		 * @param channel
+		 */
+		protected void awaitRequest(final NioChannel channel) {
+			try {
+				channel.awaitRead(proto.getKeepAliveTimeout(), TimeUnit.MILLISECONDS,
+						proto.endpoint, new CompletionHandler<Integer, NioEndpoint>() {
+
+							@Override
+							public void completed(Integer nBytes, NioEndpoint endpoint) {
+								if (nBytes < 0) {
+									failed(new ClosedChannelException(), endpoint);
+								} else {
+									endpoint.processChannel(channel, null);
+								}
+							}
+
+							@Override
+							public void failed(Throwable exc, NioEndpoint endpoint) {
+								endpoint.closeChannel(channel);
+							}
+						});
+			} catch (Exception exp) {
+				// NOPE
+			}
+		}
+
+		/**
+		 * Go on with a processor which is bound to the channel, and waits for
+		 * the rest of the request header or for the end of the response write.
+		 * The reads and writes which complete right away are processed in a
+		 * loop in the current thread, so that a header received in many small
+		 * segments does not grow the stack. Else the thread is released until
+		 * the read or the write completes.
+		 * 
+		 * @param channel
+		 * @param processor
+		 * @return the channel state
+		 */
+		protected SocketState resume(NioChannel channel, Http11NioProcessor processor) {
+			SocketState state = SocketState.LONG;
+			while (state == SocketState.LONG) {
+				SocketStatus status;
+				if (processor.isHeaderPending()) {
+					try {
+						if (!processor.readHeader()) {
+							break;
+						}
+					} catch (Throwable e) {
+						CoyoteLogger.HTTP_LOGGER.socketException(e);
+						connections.remove(channel.getId());
+						processor.recycle();
+						recycledProcessors.offer(processor);
+						return SocketState.CLOSED;
+					}
+					status = SocketStatus.OPEN_READ;
+				} else if (processor.isWritePending()) {
+					if (!processor.awaitWrite()) {
+						break;
+					}
+					status = SocketStatus.OPEN_WRITE;
+				} else {
+					break;
+				}
+				state = dispatch(channel, processor, status);
+			}
 			return state;
 		}
 
@@ -907,16 +1127,26 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 					// a recycled processor.
 					connections.put(channel.getId(), processor);
 
-					if (processor.isAvailable() && processor.getReadNotifications()) {
+					if (processor.isHeaderPending() || processor.isWritePending()) {
+						processor.endProcessing();
+						return resume(channel, processor);
+					} else if (processor.isAvailable() && processor.getReadNotifications()) {
 						// Call a read event right away
 					    state = event(channel, SocketStatus.OPEN_READ);
 					} else {
-						proto.endpoint.addEventChannel(channel, processor.getTimeout(),
-								processor.getReadNotifications(), false,
-								processor.getResumeNotification(), false);
+						synchronized (processor) {
+							proto.endpoint.addEventChannel(channel, processor.getTimeout(),
+									false, false, processor.getResumeNotification(), false);
+							if (processor.getReadNotifications() && processor.awaitEventRead()) {
+								proto.endpoint.processChannel(channel, SocketStatus.OPEN_READ);
+							}
+						}
 					}
 				} else {
 					recycledProcessors.offer(processor);
+					if (state == SocketState.OPEN && proto.endpoint.isRunning()) {
+						awaitRequest(channel);
+					}
 				}
 	            processor.endProcessing();
 				return state;
@@ -958,9 +1188,13 @@ public class Http11NioProtocol extends Http11AbstractProtocol {
 			processor.setCompression(proto.compression);
 			processor.setNoCompressionUserAgents(proto.noCompressionUserAgents);
 			processor.setCompressableMimeTypes(proto.compressableMimeTypes);
+			processor.setDeflaterPool(proto.deflaterPool);
+			processor.setInflaterPool(proto.inflaterPool);
 			processor.setRestrictedUserAgents(proto.restrictedUserAgents);
 			processor.setMaxSavePostSize(proto.maxSavePostSize);
 			processor.setServer(proto.server);
+			processor.setPendingWriteLimit(proto.pendingWriteLimit);
+			processor.setHttp2(proto.http2Protocol);
 			register(processor);
 			return processor;
 		}
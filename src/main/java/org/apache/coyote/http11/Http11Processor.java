@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.Locale;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -36,9 +35,13 @@ import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.GzipInputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
+import org.apache.coyote.http11.filters.InflaterPool;
 import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
@@ -47,6 +50,8 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.JIoEndpoint;
 import org.apache.tomcat.util.net.SSLSupport;
@@ -250,6 +255,13 @@ public class Http11Processor implements ActionHook {
     protected int compressionMinSize = 2048;
 
 
+    /**
+     * Pool of the inflaters used to decompress request bodies, or null if
+     * they are not decompressed.
+     */
+    protected InflaterPool inflaterPool = null;
+
+
     /**
      * Socket buffering.
      */
@@ -361,6 +373,27 @@ public class Http11Processor implements ActionHook {
     }
 
 
+    /**
+     * Set the pool of the inflaters used by the decompression filter, or
+     * null if request bodies are not decompressed.
+     */
+    public void setInflaterPool(InflaterPool inflaterPool) {
+        this.inflaterPool = inflaterPool;
+        InputFilter[] inputFilters = inputBuffer.getFilters();
+        ((GzipInputFilter) inputFilters[Constants.GZIP_FILTER]).setInflaterPool(inflaterPool);
+    }
+
+
+    /**
+     * Set the pool of the deflaters used by the compression filters.
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        OutputFilter[] outputFilters = outputBuffer.getFilters();
+        ((DeflateOutputFilter) outputFilters[Constants.GZIP_FILTER]).setDeflaterPool(deflaterPool);
+        ((DeflateOutputFilter) outputFilters[Constants.DEFLATE_FILTER]).setDeflaterPool(deflaterPool);
+    }
+
+
     /**
      * Add user-agent for which gzip compression didn't works
      * The user agent String given will be exactly matched
@@ -805,6 +838,7 @@ public class Http11Processor implements ActionHook {
         }
         
         boolean keptAlive = false;
+        boolean batched = false;
 
         while (!error && keepAlive && !event) {
 
@@ -846,6 +880,16 @@ public class Http11Processor implements ActionHook {
                 error = true;
             }
 
+            // The responses kept for a batch are written before reading a
+            // request body, as the client may wait for them before sending it
+            if (batched && !error && hasBody()) {
+                try {
+                    outputBuffer.flushBatch();
+                } catch (IOException e) {
+                    error = true;
+                }
+            }
+
             if (maxKeepAliveRequests > 0 && --keepAliveLeft == 0)
                 keepAlive = false;
 
@@ -880,7 +924,7 @@ public class Http11Processor implements ActionHook {
                 inputBuffer.setSwallowInput(false);
             }
             if (!event) {
-                endRequest();
+                batched = endRequest(true);
             }
 
             // If there was an error, make sure the request is counted as
@@ -921,7 +965,23 @@ public class Http11Processor implements ActionHook {
 
 
     public void endRequest() {
+        endRequest(false);
+    }
+
+
+    /**
+     * Finish the handling of the request. When batching is allowed and the
+     * header of the next pipelined request was already received, the
+     * response stays in the socket buffer, so that the responses of the
+     * whole batch are written together.
+     * 
+     * @param batch true to allow batching
+     * @return true if the response was kept in the socket buffer
+     */
+    protected boolean endRequest(boolean batch) {
         
+        boolean batched = false;
+
         // Finish the handling of the request
         try {
             inputBuffer.endRequest();
@@ -934,15 +994,27 @@ public class Http11Processor implements ActionHook {
             error = true;
         }
         try {
-            outputBuffer.endRequest();
+            batched = batch && keepAlive && !error 
+                && inputBuffer.isNextRequestReceived();
+            outputBuffer.endRequest(!batched);
         } catch (IOException e) {
             error = true;
         } catch (Throwable t) {
             CoyoteLogger.HTTP_LOGGER.errorFinishingResponse(t);
             error = true;
         }
+        return batched && !error;
 
     }
+
+
+    /**
+     * @return true if the current request has a body
+     */
+    protected boolean hasBody() {
+        return request.getContentLengthLong() > 0
+            || request.getMimeHeaders().getValue(KnownHeader.TRANSFER_ENCODING) != null;
+    }
     
     
     public void recycle() {
@@ -1140,6 +1212,12 @@ public class Http11Processor implements ActionHook {
             internalBuffer.addActiveFilter(savedBody);
         } else if (actionCode == ActionCode.ACTION_EVENT_BEGIN) {
             event = true;
+            // Write the responses kept for a batch
+            try {
+                outputBuffer.flushBatch();
+            } catch (IOException e) {
+                error = true;
+            }
         } else if (actionCode == ActionCode.ACTION_EVENT_END) {
             event = false;
         } else if (actionCode == ActionCode.ACTION_EVENT_SUSPEND) {
@@ -1199,11 +1277,9 @@ public class Http11Processor implements ActionHook {
         MessageBytes protocolMB = request.protocol();
         if (protocolMB.equals(Constants.HTTP_11)) {
             http11 = true;
-            protocolMB.setString(Constants.HTTP_11);
         } else if (protocolMB.equals(Constants.HTTP_10)) {
             http11 = false;
             keepAlive = false;
-            protocolMB.setString(Constants.HTTP_10);
         } else if (protocolMB.equals("")) {
             // HTTP/0.9
             http09 = true;
@@ -1217,17 +1293,10 @@ public class Http11Processor implements ActionHook {
             response.setStatus(505);
         }
 
-        MessageBytes methodMB = request.method();
-        if (methodMB.equals(Constants.GET)) {
-            methodMB.setString(Constants.GET);
-        } else if (methodMB.equals(Constants.POST)) {
-            methodMB.setString(Constants.POST);
-        }
-
         MimeHeaders headers = request.getMimeHeaders();
 
         // Check connection header
-        MessageBytes connectionValueMB = headers.getValue("connection");
+        MessageBytes connectionValueMB = headers.getValue(KnownHeader.CONNECTION);
         if (connectionValueMB != null) {
             ByteChunk connectionValueBC = connectionValueMB.getByteChunk();
             if (findBytes(connectionValueBC, Constants.CLOSE_BYTES) != -1) {
@@ -1240,7 +1309,7 @@ public class Http11Processor implements ActionHook {
 
         MessageBytes expectMB = null;
         if (http11)
-            expectMB = headers.getValue("expect");
+            expectMB = headers.getValue(KnownHeader.EXPECT);
         if ((expectMB != null)
             && (expectMB.indexOfIgnoreCase("100-continue", 0) != -1)) {
             inputBuffer.setSwallowInput(false);
@@ -1249,7 +1318,7 @@ public class Http11Processor implements ActionHook {
 
         // Check user-agent header
         if ((restrictedUserAgents != null) && ((http11) || (keepAlive))) {
-            MessageBytes userAgentValueMB = headers.getValue("user-agent");
+            MessageBytes userAgentValueMB = headers.getValue(KnownHeader.USER_AGENT);
             // Check in the restricted list, and adjust the http11
             // and keepAlive flags accordingly
             if(userAgentValueMB != null) {
@@ -1297,16 +1366,17 @@ public class Http11Processor implements ActionHook {
         // Parse transfer-encoding header
         MessageBytes transferEncodingValueMB = null;
         if (http11)
-            transferEncodingValueMB = headers.getValue("transfer-encoding");
+            transferEncodingValueMB = headers.getValue(KnownHeader.TRANSFER_ENCODING);
         if (transferEncodingValueMB != null) {
-            String transferEncodingValue = transferEncodingValueMB.toString();
             // Parse the comma separated list. "identity" codings are ignored
             int startPos = 0;
-            int commaPos = transferEncodingValue.indexOf(',');
-            String encodingName = null;
-            while (commaPos != -1) {
-                encodingName = transferEncodingValue.substring
-                    (startPos, commaPos).toLowerCase(Locale.ENGLISH).trim();
+            int endPos = transferEncodingValueMB.getLength();
+            int commaPos = transferEncodingValueMB.indexOf(',', 0);
+            while (startPos <= endPos) {
+                if (commaPos == -1) {
+                    commaPos = endPos;
+                }
+                String encodingName = KnownTokens.getValue(transferEncodingValueMB, startPos, commaPos);
                 if (!addInputFilter(inputFilters, encodingName)) {
                     // Unsupported transfer encoding
                     error = true;
@@ -1314,15 +1384,7 @@ public class Http11Processor implements ActionHook {
                     response.setStatus(501);
                 }
                 startPos = commaPos + 1;
-                commaPos = transferEncodingValue.indexOf(',', startPos);
-            }
-            encodingName = transferEncodingValue.substring(startPos)
-                .toLowerCase(Locale.ENGLISH).trim();
-            if (!addInputFilter(inputFilters, encodingName)) {
-                // Unsupported transfer encoding
-                error = true;
-                // 501 - Unimplemented
-                response.setStatus(501);
+                commaPos = transferEncodingValueMB.indexOf(',', startPos);
             }
         }
 
@@ -1334,7 +1396,22 @@ public class Http11Processor implements ActionHook {
             contentDelimitation = true;
         }
 
-        MessageBytes valueMB = headers.getValue("host");
+        // Decompress the request body, after it has been decoded by the
+        // transfer filter
+        if (inflaterPool != null && contentDelimitation) {
+            MessageBytes contentEncodingMB = headers.getValue(KnownHeader.CONTENT_ENCODING);
+            if (contentEncodingMB != null && (contentEncodingMB.equalsIgnoreCase(KnownTokens.GZIP)
+                    || contentEncodingMB.equalsIgnoreCase("x-gzip"))) {
+                inputBuffer.addActiveFilter(inputFilters[Constants.GZIP_FILTER]);
+                // The length of the decompressed body is not known
+                headers.removeHeader(KnownHeader.CONTENT_ENCODING);
+                headers.removeHeader(KnownHeader.CONTENT_LENGTH);
+                request.setContentLength(-1);
+                request.setDecompressed(true);
+            }
+        }
+
+        MessageBytes valueMB = headers.getValue(KnownHeader.HOST);
 
         // Check host header
         if (http11 && (valueMB == null)) {
@@ -1433,9 +1510,11 @@ public class Http11Processor implements ActionHook {
 
 
     /**
-     * Check for compression
+     * Check for compression, and select the content coding.
+     *
+     * @return "gzip", "deflate", or null if the response is not compressed
      */
-    private boolean isCompressable() {
+    private String getCompressionEncoding() {
 
         // Nope Compression could works in HTTP 1.0 also
         // cf: mod_deflate
@@ -1444,37 +1523,37 @@ public class Http11Processor implements ActionHook {
         // if (! http11)
         //    return false;
 
-        // Check if browser support gzip encoding
+        // Check if browser support gzip or deflate encoding, honoring the
+        // qualities
         MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
+            request.getMimeHeaders().getValue(KnownHeader.ACCEPT_ENCODING);
 
-        if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1))
-            return false;
+        if (acceptEncodingMB == null)
+            return null;
+        String encoding =
+            DeflateOutputFilter.selectEncoding(acceptEncodingMB.toString());
+        if (encoding == null)
+            return null;
 
-        // Check if content is not allready gzipped
-        MessageBytes contentEncodingMB =
-            response.getMimeHeaders().getValue("Content-Encoding");
-
-        if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1))
-            return false;
+        // Check if content is not already encoded
+        if (response.getMimeHeaders().getValue(KnownHeader.CONTENT_ENCODING) != null)
+            return null;
 
         // If force mode, allways compress (test purposes only)
         if (compressionLevel == 2)
-           return true;
+           return encoding;
 
         // Check for incompatible Browser
         if (noCompressionUserAgents != null) {
             MessageBytes userAgentValueMB =
-                request.getMimeHeaders().getValue("user-agent");
+                request.getMimeHeaders().getValue(KnownHeader.USER_AGENT);
             if(userAgentValueMB != null) {
                 String userAgentValue = userAgentValueMB.toString();
 
                 // If one Regexp rule match, disable compression
                 for (int i = 0; i < noCompressionUserAgents.length; i++)
                     if (noCompressionUserAgents[i].matcher(userAgentValue).matches())
-                        return false;
+                        return null;
             }
         }
 
@@ -1483,13 +1562,14 @@ public class Http11Processor implements ActionHook {
         if ((contentLength == -1)
             || (contentLength > compressionMinSize)) {
             // Check for compatible MIME-TYPE
-            if (compressableMimeTypes != null) {
-                return (startsWithStringArray(compressableMimeTypes,
-                                              response.getContentType()));
+            if ((compressableMimeTypes != null)
+                && startsWithStringArray(compressableMimeTypes,
+                                         response.getContentType())) {
+                return encoding;
             }
         }
 
-        return false;
+        return null;
     }
 
 
@@ -1530,12 +1610,12 @@ public class Http11Processor implements ActionHook {
         }
 
         // Check for compression
-        boolean useCompression = false;
+        String compressionEncoding = null;
         if (entityBody && (compressionLevel > 0)) {
-            useCompression = isCompressable();
+            compressionEncoding = getCompressionEncoding();
 
             // Change content-length to -1 to force chunking
-            if (useCompression) {
+            if (compressionEncoding != null) {
                 response.setContentLength(-1);
             }
         }
@@ -1573,9 +1653,13 @@ public class Http11Processor implements ActionHook {
             }
         }
 
-        if (useCompression) {
-            outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-            headers.setValue("Content-Encoding").setString("gzip");
+        if (compressionEncoding != null) {
+            if (compressionEncoding == KnownTokens.GZIP) {
+                outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
+            } else {
+                outputBuffer.addActiveFilter(outputFilters[Constants.DEFLATE_FILTER]);
+            }
+            headers.setValue("Content-Encoding").setString(compressionEncoding);
             // Make Proxies happy via Vary (from mod_deflate)
             headers.addValue("Vary").setString("Accept-Encoding");
         }
@@ -1612,7 +1696,8 @@ public class Http11Processor implements ActionHook {
 
         int size = headers.size();
         for (int i = 0; i < size; i++) {
-            outputBuffer.sendHeader(headers.getName(i), headers.getValue(i));
+            outputBuffer.sendHeader(headers.getKnownHeader(i), headers.getName(i),
+                    headers.getValue(i));
         }
         outputBuffer.endHeaders();
 
@@ -1636,9 +1721,10 @@ public class Http11Processor implements ActionHook {
         inputBuffer.addFilter(new VoidInputFilter());
         outputBuffer.addFilter(new VoidOutputFilter());
 
-        // Create and add the chunked filters.
-        //inputBuffer.addFilter(new GzipInputFilter());
+        // Create and add the gzip and deflate filters.
+        inputBuffer.addFilter(new GzipInputFilter());
         outputBuffer.addFilter(new GzipOutputFilter());
+        outputBuffer.addFilter(new DeflateOutputFilter());
         
     }
 
@@ -1651,15 +1737,15 @@ public class Http11Processor implements ActionHook {
      */
     protected boolean addInputFilter(InputFilter[] inputFilters,
                                      String encodingName) {
-        if (encodingName.equals("identity")) {
+        if (encodingName.equals(KnownTokens.IDENTITY)) {
             // Skip
-        } else if (encodingName.equals("chunked")) {
+        } else if (encodingName.equals(KnownTokens.CHUNKED)) {
             inputBuffer.addActiveFilter
                 (inputFilters[Constants.CHUNKED_FILTER]);
             contentDelimitation = true;
         } else {
             for (int i = 2; i < inputFilters.length; i++) {
-                if (inputFilters[i].getEncodingName()
+                if (i != Constants.GZIP_FILTER && inputFilters[i].getEncodingName()
                     .toString().equals(encodingName)) {
                     inputBuffer.addActiveFilter(inputFilters[i]);
                     return true;
@@ -29,6 +29,7 @@ import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.jni.Status;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AprEndpoint;
 
@@ -57,7 +58,6 @@ public class InternalAprInputBuffer implements InputBuffer {
         headers = request.getMimeHeaders();
 
         buf = new byte[headerBufferSize];
-        bbuf = ByteBuffer.allocateDirect(headerBufferSize);
 
         inputStreamInputBuffer = new SocketInputBuffer();
 
@@ -186,6 +186,9 @@ public class InternalAprInputBuffer implements InputBuffer {
      */
     public void setSocket(long socket) {
         this.socket = socket;
+        if (bbuf == null) {
+            bbuf = endpoint.getBufferArena().allocate(buf.length);
+        }
         Socket.setrbb(this.socket, bbuf);
     }
 
@@ -304,6 +307,12 @@ public class InternalAprInputBuffer implements InputBuffer {
         // Recycle Request object
         request.recycle();
 
+        // Give the buffer back to the arena while the connection is idle
+        if (bbuf != null) {
+            endpoint.getBufferArena().release(bbuf);
+            bbuf = null;
+        }
+
         socket = 0;
         lastValid = 0;
         pos = 0;
@@ -442,7 +451,12 @@ public class InternalAprInputBuffer implements InputBuffer {
             // Spec says single SP but it also says be tolerant of HT
             if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
                 space = true;
-                request.method().setBytes(buf, start, pos - start);
+                String method = KnownTokens.findMethod(buf, start, pos);
+                if (method != null) {
+                    request.method().setString(method);
+                } else {
+                    request.method().setBytes(buf, start, pos - start);
+                }
             }
 
             pos++;
@@ -554,7 +568,12 @@ public class InternalAprInputBuffer implements InputBuffer {
         }
 
         if ((end - start) > 0) {
-            request.protocol().setBytes(buf, start, end - start);
+            String protocol = KnownTokens.findProtocol(buf, start, end);
+            if (protocol != null) {
+                request.protocol().setString(protocol);
+            } else {
+                request.protocol().setBytes(buf, start, end - start);
+            }
         } else {
             request.protocol().setString("");
         }
@@ -26,13 +26,16 @@ import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.KnownHeader;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AprEndpoint;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
 
 /**
  * Output buffer.
@@ -60,9 +63,9 @@ public class InternalAprOutputBuffer
 
         buf = new byte[headerBufferSize];
         if (headerBufferSize < (8 * 1024)) {
-            bbuf = ByteBuffer.allocateDirect(6 * 1500);
+            bufferSize = 6 * 1500;
         } else {
-            bbuf = ByteBuffer.allocateDirect((headerBufferSize / 1500 + 1) * 1500);
+            bufferSize = (headerBufferSize / 1500 + 1) * 1500;
         }
 
         outputStreamOutputBuffer = new SocketOutputBuffer();
@@ -158,6 +161,12 @@ public class InternalAprOutputBuffer
      */
     protected ByteBuffer bbuf = null;
 
+
+    /**
+     * Size of the direct byte buffer.
+     */
+    protected int bufferSize;
+
     
     /**
      * Leftover bytes which could not be written during a non blocking write. 
@@ -185,6 +194,10 @@ public class InternalAprOutputBuffer
      */
     public void setSocket(long socket) {
         this.socket = socket;
+        if (bbuf == null) {
+            bbuf = endpoint.getBufferArena().allocate(bufferSize);
+            bbuf.clear();
+        }
         Socket.setsbb(this.socket, bbuf);
     }
 
@@ -303,6 +316,13 @@ public class InternalAprOutputBuffer
 
         }
 
+        // Write the bytes compressed so far
+        for (int i = 0; i <= lastActiveFilter; i++) {
+            if (activeFilters[i] instanceof DeflateOutputFilter) {
+                ((DeflateOutputFilter) activeFilters[i]).flush();
+            }
+        }
+
         // Flush the current buffer
         flushBuffer();
 
@@ -317,7 +337,11 @@ public class InternalAprOutputBuffer
 
         // Recycle Request object
         response.recycle();
-        bbuf.clear();
+        // Give the buffer back to the arena while the connection is idle
+        if (bbuf != null) {
+            endpoint.getBufferArena().release(bbuf);
+            bbuf = null;
+        }
 
         socket = 0;
         pos = 0;
@@ -467,6 +491,40 @@ public class InternalAprOutputBuffer
     }
 
 
+    /**
+     * Send a header which may be a known header. When the name has the
+     * canonical spelling of the known header, its encoded bytes are copied,
+     * and the current date is copied as an encoded line.
+     * 
+     * @param known Known header of the field, or null
+     * @param name Header name
+     * @param value Header value
+     */
+    public void sendHeader(KnownHeader known, MessageBytes name, MessageBytes value) {
+
+        if (known == null || name.getType() != MessageBytes.T_STR
+                || !known.getSpelling().equals(name.getString())) {
+            sendHeader(name, value);
+            return;
+        }
+        if (value.isNull()) {
+            return;
+        }
+        if (known == KnownHeader.DATE && value.getType() == MessageBytes.T_STR) {
+            byte[] line = FastHttpDateFormat.getCurrentDateHeader(value.getString());
+            if (line != null) {
+                write(line);
+                return;
+            }
+        }
+        write(AbstractInternalOutputBuffer.HEADER_NAMES[known.ordinal()]);
+        write(value);
+        buf[pos++] = Constants.CR;
+        buf[pos++] = Constants.LF;
+
+    }
+
+
     /**
      * Send a header.
      * 
@@ -26,6 +26,7 @@ import java.io.EOFException;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.http.MimeHeaders;
 
 import org.apache.coyote.InputBuffer;
@@ -317,6 +318,33 @@ public class InternalInputBuffer implements InputBuffer {
     }
 
 
+    /**
+     * Check whether the whole header of a pipelined request follows the
+     * current request in the buffer. This is meant to be called after
+     * {@link #endRequest()}, and does not change the state of the buffer.
+     * 
+     * @return true if the next request header was received
+     */
+    public boolean isNextRequestReceived() {
+
+        int lineLength = -1;
+        for (int i = pos; i < lastValid; i++) {
+            byte chr = buf[i];
+            if (chr == Constants.LF) {
+                if (lineLength == 0) {
+                    return true;
+                } else if (lineLength > 0) {
+                    lineLength = 0;
+                }
+            } else if (chr != Constants.CR) {
+                lineLength = (lineLength < 0) ? 1 : lineLength + 1;
+            }
+        }
+        return false;
+
+    }
+
+
     /**
      * End request (consumes leftover bytes).
      * 
@@ -387,7 +415,12 @@ public class InternalInputBuffer implements InputBuffer {
             // Spec says single SP but it also says be tolerant of HT
             if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
                 space = true;
-                request.method().setBytes(buf, start, pos - start);
+                String method = KnownTokens.findMethod(buf, start, pos);
+                if (method != null) {
+                    request.method().setString(method);
+                } else {
+                    request.method().setBytes(buf, start, pos - start);
+                }
             }
 
             pos++;
@@ -499,7 +532,12 @@ public class InternalInputBuffer implements InputBuffer {
         }
 
         if ((end - start) > 0) {
-            request.protocol().setBytes(buf, start, end - start);
+            String protocol = KnownTokens.findProtocol(buf, start, end);
+            if (protocol != null) {
+                request.protocol().setString(protocol);
+            } else {
+                request.protocol().setBytes(buf, start, end - start);
+            }
         } else {
             request.protocol().setString("");
         }
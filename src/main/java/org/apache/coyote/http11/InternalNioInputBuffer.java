@@ -27,10 +27,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.ByteScanner;
+import org.apache.tomcat.util.http.KnownTokens;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
 import org.apache.tomcat.util.net.SocketStatus;
@@ -74,6 +77,50 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	private CompletionHandler<Integer, NioChannel> completionHandler;
 
+	/**
+	 * An asynchronous read of an event connection is in progress.
+	 */
+	private volatile boolean readPending;
+
+	/**
+	 * States of the asynchronous read of the request header.
+	 */
+	private static final int HEADER_READ_STARTED = 1;
+	private static final int HEADER_READ_INLINE = 2;
+	private static final int HEADER_READ_PENDING = 3;
+
+	/**
+	 * State of the current asynchronous read of the request header.
+	 */
+	private AtomicInteger headerReadState = new AtomicInteger();
+
+	/**
+	 * The error which occurred during an inline read of the request header.
+	 */
+	private Throwable headerReadError;
+
+	/**
+	 * The completion handler used for asynchronous reads of the request header
+	 */
+	private CompletionHandler<Integer, NioChannel> headerCompletionHandler;
+
+	/**
+	 * Position up to which the request header has been scanned for its end.
+	 */
+	protected int headerScanPos;
+
+	/**
+	 * Number of significant bytes of the request header line being scanned,
+	 * or -1 while skipping the blank lines preceding the request line.
+	 */
+	protected int headerLineLength = -1;
+
+	/**
+	 * Start of the request line in the buffer, or -1 if it has not been
+	 * received yet, or -2 once it has been fully scanned.
+	 */
+	protected int requestLineStart = -1;
+
 	/**
 	 * Create a new instance of {@code InternalNioInputBuffer}
 	 * 
@@ -104,21 +151,57 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 					failed(new ClosedChannelException(), attachment);
 					return;
 				}
+				if (attachment != channel) {
+					// The buffer was recycled while the read was pending
+					return;
+				}
 
 				if (nBytes > 0) {
 					bbuf.flip();
-					bbuf.get(buf, pos, nBytes);
-					lastValid = pos + nBytes;
-					endpoint.processChannel(attachment, SocketStatus.OPEN_READ);
+					bbuf.get(buf, lastValid, nBytes);
+					lastValid += nBytes;
 				}
+				readPending = false;
+				endpoint.processChannel(attachment, SocketStatus.OPEN_READ);
 			}
 
 			@Override
 			public void failed(Throwable exc, NioChannel attachment) {
+				if (attachment == channel) {
+					readPending = false;
+				}
 				endpoint.removeEventChannel(attachment);
 				endpoint.processChannel(attachment, SocketStatus.ERROR);
 			}
 		};
+
+		// Initialize the completion handler used to read the request header.
+		// If the read completes before readHeader() returns, the thread which
+		// started it carries on with the processing
+		this.headerCompletionHandler = new CompletionHandler<Integer, NioChannel>() {
+
+			@Override
+			public void completed(Integer nBytes, NioChannel attachment) {
+				if (nBytes < 0) {
+					failed(new ClosedChannelException(), attachment);
+					return;
+				}
+				bbuf.flip();
+				bbuf.get(buf, lastValid, nBytes);
+				lastValid += nBytes;
+				if (!headerReadState.compareAndSet(HEADER_READ_STARTED, HEADER_READ_INLINE)) {
+					endpoint.processChannel(attachment, SocketStatus.OPEN_READ);
+				}
+			}
+
+			@Override
+			public void failed(Throwable exc, NioChannel attachment) {
+				headerReadError = exc;
+				if (!headerReadState.compareAndSet(HEADER_READ_STARTED, HEADER_READ_INLINE)) {
+					endpoint.processChannel(attachment, SocketStatus.ERROR);
+				}
+			}
+		};
 	}
 
 	/**
@@ -128,6 +211,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	public void setChannel(NioChannel channel) {
 		this.channel = channel;
+		this.allocateBuffer(endpoint.getBufferArena());
 	}
 
 	/**
@@ -164,11 +248,165 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	public void recycle() {
 		super.recycle();
-		bbuf.clear();
+		if (readPending) {
+			// The pending read still owns the direct buffer, which must not
+			// be handed out to another connection
+			bbuf = null;
+			readPending = false;
+		} else {
+			this.releaseBuffer(endpoint.getBufferArena());
+		}
 		channel = null;
 		available = false;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.http11.AbstractInternalInputBuffer#reset()
+	 */
+	protected void reset() {
+		super.reset();
+		headerScanPos = 0;
+		headerLineLength = -1;
+		requestLineStart = -1;
+		headerReadError = null;
+	}
+
+	/**
+	 * Scan the bytes received so far for the end of the request header,
+	 * resuming where the previous call stopped. Once this method returns
+	 * <tt>true</tt>, the request line and the headers can be parsed without
+	 * reading from the channel. An HTTP/0.9 request, whose request line has
+	 * no protocol, has no headers and ends with its request line.
+	 * 
+	 * @return <tt>true</tt> if the whole request header was received
+	 * @throws IllegalArgumentException
+	 *             if the request header does not fit in the buffer
+	 */
+	public boolean isHeaderReceived() {
+		int i = Math.max(headerScanPos, pos);
+		while (i < lastValid) {
+			byte chr = buf[i++];
+			if (chr == Constants.LF) {
+				if (headerLineLength == 0) {
+					// Blank line, end of the header
+					headerScanPos = i;
+					return true;
+				} else if (headerLineLength > 0) {
+					headerLineLength = 0;
+					if (requestLineStart >= 0) {
+						if (!hasProtocol(requestLineStart, i)) {
+							// HTTP/0.9 request
+							headerScanPos = i;
+							return true;
+						}
+						requestLineStart = -2;
+					}
+				}
+			} else if (chr != Constants.CR) {
+				if (headerLineLength < 0) {
+					headerLineLength = 1;
+					requestLineStart = i - 1;
+				} else {
+					headerLineLength++;
+				}
+			}
+		}
+		headerScanPos = i;
+		if (lastValid == buf.length) {
+			throw MESSAGES.requestHeaderTooLarge();
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the last token of the request line between the given
+	 * positions is an HTTP protocol.
+	 */
+	private boolean hasProtocol(int start, int end) {
+		int i = end;
+		while (i > start && (buf[i - 1] == Constants.LF || buf[i - 1] == Constants.CR
+				|| buf[i - 1] == Constants.SP || buf[i - 1] == Constants.HT)) {
+			i--;
+		}
+		while (i > start && buf[i - 1] != Constants.SP && buf[i - 1] != Constants.HT) {
+			i--;
+		}
+		return i > start && (end - i) > 5 && buf[i] == 'H' && buf[i + 1] == 'T'
+				&& buf[i + 2] == 'T' && buf[i + 3] == 'P' && buf[i + 4] == '/';
+	}
+
+	/**
+	 * Check whether the whole header of a pipelined request follows the
+	 * current request in the buffer. This is meant to be called after
+	 * {@link #endRequest()}, and does not change the state of the buffer.
+	 * 
+	 * @return <tt>true</tt> if the next request header was received
+	 */
+	public boolean isNextRequestReceived() {
+		int lineLength = -1;
+		for (int i = pos; i < lastValid; i++) {
+			byte chr = buf[i];
+			if (chr == Constants.LF) {
+				if (lineLength == 0) {
+					return true;
+				} else if (lineLength > 0) {
+					lineLength = 0;
+				}
+			} else if (chr != Constants.CR) {
+				lineLength = (lineLength < 0) ? 1 : lineLength + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copy the bytes received after the current request header, which belong
+	 * to the protocol the connection is upgraded to.
+	 *
+	 * @return the bytes which were received but not parsed
+	 */
+	public byte[] getUnreadBytes() {
+		byte[] unread = new byte[lastValid - pos];
+		System.arraycopy(buf, pos, unread, 0, unread.length);
+		return unread;
+	}
+
+	/**
+	 * @return <tt>true</tt> if some bytes of the next request, other than
+	 *         blank lines, were received
+	 */
+	public boolean isRequestStarted() {
+		return headerLineLength >= 0;
+	}
+
+	/**
+	 * Read more bytes of the request header without blocking. If the read
+	 * completes right away, <tt>true</tt> is returned and the caller should
+	 * carry on. Otherwise the channel will be processed again with an
+	 * {@code OPEN_READ} event (or an {@code ERROR} event) once the read
+	 * completes.
+	 * 
+	 * @return <tt>true</tt> if the read completed before this method returned
+	 * @throws IOException
+	 *             if the read failed right away
+	 */
+	public boolean readHeader() throws IOException {
+		this.prepare();
+		headerReadError = null;
+		headerReadState.set(HEADER_READ_STARTED);
+		channel.read(bbuf, readTimeout, unit, channel, headerCompletionHandler);
+		if (headerReadState.compareAndSet(HEADER_READ_STARTED, HEADER_READ_PENDING)) {
+			return false;
+		}
+		if (headerReadError != null) {
+			throw (headerReadError instanceof IOException) ? (IOException) headerReadError
+					: new IOException(headerReadError);
+		}
+		return true;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -244,12 +482,20 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 			}
 
 			// Spec says single SP but it also says be tolerant of HT
-			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
+			int delimiter = ByteScanner.indexOfWhitespace(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+			} else {
+				pos = delimiter;
 				space = true;
-				request.method().setBytes(buf, start, pos - start);
+				String method = KnownTokens.findMethod(buf, start, pos);
+				if (method != null) {
+					request.method().setString(method);
+				} else {
+					request.method().setBytes(buf, start, pos - start);
+				}
+				pos++;
 			}
-
-			pos++;
 		}
 
 		// Spec says single SP but also says be tolerant of multiple and/or HT
@@ -276,12 +522,21 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 		boolean eol = false;
 
 		while (!space) {
+
 			// Read new bytes if needed
 			if (pos >= lastValid) {
-				if (!fill())
+				if (!fill()) {
 					throw new EOFException(MESSAGES.eofError());
+				}
 			}
 
+			int delimiter = ByteScanner.indexOfUriDelimiter(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+				continue;
+			}
+			pos = delimiter;
+
 			// Spec says single SP but it also says be tolerant of HT
 			if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
 				space = true;
@@ -336,6 +591,13 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 				}
 			}
 
+			int delimiter = ByteScanner.indexOfLineEnd(buf, pos, lastValid);
+			if (delimiter < 0) {
+				pos = lastValid;
+				continue;
+			}
+			pos = delimiter;
+
 			if (buf[pos] == Constants.CR) {
 				end = pos;
 			} else if (buf[pos] == Constants.LF) {
@@ -348,7 +610,12 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 		}
 
 		if ((end - start) > 0) {
-			request.protocol().setBytes(buf, start, end - start);
+			String protocol = KnownTokens.findProtocol(buf, start, end);
+			if (protocol != null) {
+				request.protocol().setString(protocol);
+			} else {
+				request.protocol().setBytes(buf, start, end - start);
+			}
 		} else {
 			request.protocol().setString("");
 		}
@@ -392,12 +659,15 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 */
 	protected boolean fill() throws IOException {
 		int nRead = 0;
-		// Prepare the internal input buffer for reading
-		this.prepare();
 		// Reading from client
 		if (nonBlocking) {
-			nonBlockingRead(bbuf, readTimeout, unit);
+			// Event connections never read inline: the next read is started
+			// by the connection handler once the event has been processed
+			// (see readAsync), and its completion triggers a read event
+			return true;
 		} else {
+			// Prepare the internal input buffer for reading
+			this.prepare();
 			nRead = blockingRead(bbuf, readTimeout, unit);
 			if (nRead > 0) {
 				bbuf.flip();
@@ -425,7 +695,9 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	 * Prepare the input buffer for reading
 	 */
 	private void prepare() {
-		bbuf.clear();
+		// The arena may hand out a bigger buffer than requested, and the
+		// header must fit in what is left of the buffer
+		bbuf.clear().limit(parsingHeader ? buf.length - lastValid : buf.length);
 
 		if (parsingHeader) {
 			if (lastValid == buf.length) {
@@ -456,6 +728,7 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 		try {
 			ch.read(bb, ch, this.completionHandler);
 		} catch (Throwable t) {
+			readPending = false;
 			if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
 			    CoyoteLogger.HTTP_LOGGER.errorWithNonBlockingRead(t);
 			}
@@ -463,10 +736,26 @@ public class InternalNioInputBuffer extends AbstractInternalInputBuffer {
 	}
 
 	/**
-	 * 
+	 * Start reading the next bytes of an event connection, unless a read is
+	 * pending already. This must only be called once all the bytes received
+	 * so far were consumed. The channel is processed with an
+	 * {@code OPEN_READ} event once the read completes.
 	 */
-	protected void readAsync() throws IOException {
-		this.prepare();
+	public void readAsync() {
+		if (readPending) {
+			return;
+		}
+		// Past the request header, the buffer is reused from the start of
+		// the body. If not much room is left, a new array is used, as the
+		// request header still refers to the current one
+		if (buf.length - end < buf.length / 2) {
+			buf = new byte[buf.length];
+			end = 0;
+		}
+		pos = end;
+		lastValid = pos;
+		bbuf.clear().limit(buf.length - lastValid);
+		readPending = true;
 		this.nonBlockingRead(bbuf, readTimeout, unit);
 	}
 
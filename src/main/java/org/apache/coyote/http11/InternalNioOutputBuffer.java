@@ -21,16 +21,20 @@ package org.apache.coyote.http11;
 import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.WritePendingException;
+import java.util.ArrayDeque;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.DirectBufferArena;
 import org.apache.tomcat.util.net.NioChannel;
 import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SocketStatus;
 import org.jboss.web.CoyoteLogger;
 
 /**
@@ -57,6 +61,29 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 */
 	private CompletionHandler<Integer, NioChannel> completionHandler;
 
+	/**
+	 * Maximum number of response bytes which may be queued before they are
+	 * written with blocking writes. When 0, nothing is queued.
+	 */
+	protected int pendingWriteLimit = 0;
+
+	/**
+	 * Full buffers waiting to be written, holding the response header, the
+	 * body and the chunk headers in order. They form the vector of the
+	 * gathering write used when the response is complete.
+	 */
+	protected ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * Number of bytes in the queue.
+	 */
+	protected int queuedBytes = 0;
+
+	/**
+	 * Asynchronous write of the end of the last response, if any.
+	 */
+	private WriteChain writeChain;
+
 	/**
 	 * Create a new instance of {@code InternalNioOutputBuffer}
 	 * 
@@ -92,6 +119,10 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
                     response.setLastWrite(nBytes);
 				}
 
+				if (bbuf == null) {
+					// The buffer was returned to the arena
+					return;
+				}
 				if (bbuf.hasRemaining()) {
 				    try {
 				        attachment.write(bbuf, writeTimeout, TimeUnit.MILLISECONDS, attachment, this);
@@ -119,6 +150,108 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 */
 	public void setChannel(NioChannel channel) {
 		this.channel = channel;
+		this.allocateBuffer(endpoint.getBufferArena());
+	}
+
+	/**
+	 * Set the maximum number of response bytes which may be queued, 0 to
+	 * write the response as it is produced.
+	 * 
+	 * @param pendingWriteLimit
+	 */
+	public void setPendingWriteLimit(int pendingWriteLimit) {
+		this.pendingWriteLimit = pendingWriteLimit;
+	}
+
+	/**
+	 * @return the maximum number of response bytes which may be queued
+	 */
+	public int getPendingWriteLimit() {
+		return pendingWriteLimit;
+	}
+
+	/**
+	 * Write the queued bytes with blocking writes.
+	 * 
+	 * @throws IOException
+	 *             if a write fails
+	 */
+	public void drain() throws IOException {
+		ByteBuffer buffer = null;
+		try {
+			if (writeChain != null) {
+				// The bytes of an event connection must not overtake the
+				// ones it is still writing
+				writeChain.await(writeTimeout);
+			}
+			while ((buffer = queue.poll()) != null) {
+				while (buffer.hasRemaining()) {
+					if (channel.writeBytes(buffer, writeTimeout, TimeUnit.MILLISECONDS) < 0) {
+						close(channel);
+						throw new IOException(MESSAGES.failedWrite());
+					}
+				}
+				endpoint.getBufferArena().release(buffer);
+			}
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(MESSAGES.failedWrite(), e);
+		} finally {
+			if (buffer != null) {
+				endpoint.getBufferArena().release(buffer);
+				releaseQueue();
+			}
+			queuedBytes = 0;
+		}
+	}
+
+	/**
+	 * Write the queued bytes with a chain of asynchronous writes, so that no
+	 * thread waits for the client to read them.
+	 * 
+	 * @return true if some bytes are being written, in which case the
+	 *         response is not complete until the chain is done
+	 */
+	public boolean drainAsync() {
+		if (queue.isEmpty()) {
+			return false;
+		}
+		writeChain = new WriteChain(channel, queue.toArray(new ByteBuffer[queue.size()]));
+		queue.clear();
+		queuedBytes = 0;
+		writeChain.start();
+		return true;
+	}
+
+	/**
+	 * @return true if the asynchronous write of the last response is not
+	 *         complete yet
+	 */
+	public boolean isWritePending() {
+		return writeChain != null && writeChain.isPending();
+	}
+
+	/**
+	 * Ask for an {@code OPEN_WRITE} event (or an {@code ERROR} event if the
+	 * write fails) once the asynchronous write is complete.
+	 * 
+	 * @return false if the write is already complete, in which case no event
+	 *         will be sent
+	 */
+	public boolean notifyWhenDrained() {
+		return writeChain != null && writeChain.notifyWhenDrained();
+	}
+
+	/**
+	 * Return the queued buffers to the arena without writing them.
+	 */
+	private void releaseQueue() {
+		ByteBuffer buffer;
+		while ((buffer = queue.poll()) != null) {
+			endpoint.getBufferArena().release(buffer);
+		}
+		queuedBytes = 0;
 	}
 
 	/**
@@ -136,6 +269,10 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 */
 	public void recycle() {
 		super.recycle();
+		this.releaseBuffer(endpoint.getBufferArena());
+		this.releaseQueue();
+		// A write chain in progress completes on its own
+		writeChain = null;
 		channel = null;
 	}
 
@@ -222,6 +359,7 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	public void sendAck() throws Exception {
 
 		if (!committed) {
+			drain();
 			this.bbuf.clear();
 			this.bbuf.put(Constants.ACK_BYTES).flip();
 			if (this.write(writeTimeout, TimeUnit.MILLISECONDS) < 0) {
@@ -267,6 +405,43 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	protected void flushBuffer() throws IOException {
 		int res = 0;
 
+		if (nonBlocking) {
+			// The buffer is handed over to an asynchronous write, and the next
+			// bytes go to a new buffer. Until all the bytes are written, the
+			// connection is not ready for writing
+			if (bbuf.position() > 0) {
+				bbuf.flip();
+				queue.offer(bbuf);
+				bbuf = null;
+				allocateBuffer(endpoint.getBufferArena());
+			}
+			if (!queue.isEmpty() && !notifyWhenDrained()) {
+				// No write is pending: start writing right away, otherwise
+				// the queue is written on the OPEN_WRITE event which follows
+				drainAsync();
+			}
+			response.setLastWrite(isWritePending() ? 0 : 1);
+			return;
+		}
+
+		if (pendingWriteLimit > 0 && !nonBlocking && leftover.getLength() == 0) {
+			// Queue the buffer and carry on with a fresh one, the queue is
+			// written when the response is complete or too large
+			if (bbuf.position() > 0) {
+				bbuf.flip();
+				queuedBytes += bbuf.remaining();
+				response.setLastWrite(bbuf.remaining());
+				queue.offer(bbuf);
+				bbuf = null;
+				allocateBuffer(endpoint.getBufferArena());
+				if (queuedBytes > pendingWriteLimit) {
+					drain();
+				}
+			}
+			return;
+		}
+		drain();
+
 		// If there are still leftover bytes here, this means the user did a
 		// direct flush:
 		// - If the call is asynchronous, throw an exception
@@ -326,6 +501,33 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.http11.AbstractInternalOutputBuffer#flushBatch()
+	 */
+	@Override
+	public void flushBatch() throws IOException {
+		super.flushBatch();
+		if (!nonBlocking) {
+			drain();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.coyote.http11.AbstractInternalOutputBuffer#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+		// An explicit flush sends the bytes right away
+		if (!nonBlocking) {
+			drain();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -334,46 +536,140 @@ public class InternalNioOutputBuffer extends AbstractInternalOutputBuffer {
 	 */
 	@Override
 	public boolean flushLeftover() throws IOException {
-		// Calculate the number of bytes that fit in the buffer
-		int n = Math.min(leftover.getLength(), bbuf.capacity() - bbuf.position());
-		// put bytes in the buffer
-		bbuf.put(leftover.getBuffer(), leftover.getOffset(), n).flip();
-		// Update the offset
-		leftover.setOffset(leftover.getOffset() + n);
-		final NioChannel ch = channel;
-
-		ch.write(bbuf, writeTimeout, TimeUnit.MILLISECONDS, null,
-				new CompletionHandler<Integer, Void>() {
-
-					@Override
-					public void completed(Integer result, Void attachment) {
-						if (result < 0) {
-							failed(new IOException(MESSAGES.failedWrite()), attachment);
-							return;
-						}
-						response.setLastWrite(result);
-						if (!bbuf.hasRemaining()) {
-							bbuf.clear();
-							if (leftover.getLength() > 0) {
-								int n = Math.min(leftover.getLength(), bbuf.remaining());
-								bbuf.put(leftover.getBuffer(), leftover.getOffset(), n).flip();
-								leftover.setOffset(leftover.getOffset() + n);
-							} else {
-								leftover.recycle();
-								return;
-							}
-						}
-						// Write the remaining bytes
-						ch.write(bbuf, writeTimeout, TimeUnit.MILLISECONDS, null, this);
-					}
+		// Write the bytes queued while the previous write was pending
+		if (!isWritePending()) {
+			drainAsync();
+		}
+		if (notifyWhenDrained()) {
+			// Another OPEN_WRITE event follows the end of the write
+			return false;
+		}
+		response.setLastWrite(1);
+		return true;
+	}
 
-					@Override
-					public void failed(Throwable exc, Void attachment) {
-						close(ch);
-					}
-				});
+	/**
+	 * {@code WriteChain}
+	 * <p>
+	 * Writes a list of buffers with a chain of completion handlers. Unless the
+	 * channel is secure, all the remaining buffers are handed to a single
+	 * gathering write, so that a response spanning several buffers usually
+	 * costs one system call. The chain owns the buffers and only depends on
+	 * the channel, it may therefore complete after the output buffer has been
+	 * recycled. No thread ever waits for a chain, since its completion
+	 * handlers run in the worker pool.
+	 * </p>
+	 */
+	private class WriteChain implements CompletionHandler<Long, NioChannel> {
 
-		return true;
+		private final NioChannel channel;
+		private final ByteBuffer[] buffers;
+		private final DirectBufferArena arena = endpoint.getBufferArena();
+		private int offset = 0;
+		private boolean notify = false;
+
+		/**
+		 * Completion handler of the single buffer writes used on secure
+		 * channels
+		 */
+		private final CompletionHandler<Integer, NioChannel> single = new CompletionHandler<Integer, NioChannel>() {
+
+			@Override
+			public void completed(Integer nBytes, NioChannel attachment) {
+				WriteChain.this.completed(Long.valueOf(nBytes.longValue()), attachment);
+			}
+
+			@Override
+			public void failed(Throwable exc, NioChannel attachment) {
+				WriteChain.this.failed(exc, attachment);
+			}
+		};
+
+		WriteChain(NioChannel channel, ByteBuffer[] buffers) {
+			this.channel = channel;
+			this.buffers = buffers;
+		}
+
+		void start() {
+			write(0);
+		}
+
+		synchronized boolean isPending() {
+			return offset < buffers.length;
+		}
+
+		synchronized void await(long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			long wait = timeout;
+			while (offset < buffers.length && wait > 0) {
+				wait(wait);
+				wait = end - System.currentTimeMillis();
+			}
+		}
+
+		synchronized boolean notifyWhenDrained() {
+			if (offset == buffers.length) {
+				return false;
+			}
+			notify = true;
+			return true;
+		}
+
+		private void write(int offset) {
+			try {
+				if (channel.isSecure()) {
+					channel.write(buffers[offset], writeTimeout, TimeUnit.MILLISECONDS, channel,
+							single);
+				} else {
+					channel.write(buffers, offset, buffers.length - offset, writeTimeout,
+							TimeUnit.MILLISECONDS, channel, this);
+				}
+			} catch (Throwable t) {
+				failed(t, channel);
+			}
+		}
+
+		@Override
+		public void completed(Long nBytes, NioChannel attachment) {
+			if (nBytes < 0) {
+				failed(new ClosedChannelException(), attachment);
+				return;
+			}
+			int next;
+			boolean resume = false;
+			synchronized (this) {
+				while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+					arena.release(buffers[offset]);
+					buffers[offset++] = null;
+				}
+				next = offset;
+				if (next == buffers.length) {
+					resume = notify;
+					notifyAll();
+				}
+			}
+			if (next < buffers.length) {
+				write(next);
+			} else if (resume) {
+				endpoint.processChannel(attachment, SocketStatus.OPEN_WRITE);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, NioChannel attachment) {
+			boolean resume = false;
+			synchronized (this) {
+				while (offset < buffers.length) {
+					arena.release(buffers[offset]);
+					buffers[offset++] = null;
+				}
+				resume = notify;
+				notifyAll();
+			}
+			if (!resume || !endpoint.processChannel(attachment, SocketStatus.ERROR)) {
+				close(attachment);
+			}
+		}
 	}
 
 }
@@ -25,12 +25,15 @@ import java.security.PrivilegedAction;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.KnownHeader;
 import org.apache.tomcat.util.http.MimeHeaders;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflateOutputFilter;
 
 /**
  * Output buffer.
@@ -283,6 +286,13 @@ public class InternalOutputBuffer
 
         }
 
+        // Write the bytes compressed so far
+        for (int i = 0; i <= lastActiveFilter; i++) {
+            if (activeFilters[i] instanceof DeflateOutputFilter) {
+                ((DeflateOutputFilter) activeFilters[i]).flush();
+            }
+        }
+
         // Flush the current buffer
         if (useSocketBuffer) {
             socketBuffer.flushBuffer();
@@ -320,7 +330,11 @@ public class InternalOutputBuffer
 
         // Recycle Request object
         response.recycle();
-        socketBuffer.recycle();
+        // The responses of pipelined requests may be kept until the end of
+        // the batch
+        if (socketBuffer.getLength() == 0) {
+            socketBuffer.recycle();
+        }
 
         // Recycle filters
         for (int i = 0; i <= lastActiveFilter; i++) {
@@ -343,6 +357,20 @@ public class InternalOutputBuffer
      */
     public void endRequest()
         throws IOException {
+        endRequest(true);
+    }
+
+
+    /**
+     * End request. Unless flush is true, the response is kept in the socket
+     * buffer, so that it is written along with the response of the next
+     * pipelined request.
+     * 
+     * @param flush true to write the response right away
+     * @throws IOException an undelying I/O error occured
+     */
+    public void endRequest(boolean flush)
+        throws IOException {
 
         if (!committed) {
 
@@ -359,7 +387,7 @@ public class InternalOutputBuffer
         if (lastActiveFilter != -1)
             activeFilters[lastActiveFilter].end();
 
-        if (useSocketBuffer) {
+        if (useSocketBuffer && flush) {
             socketBuffer.flushBuffer();
         }
 
@@ -368,6 +396,22 @@ public class InternalOutputBuffer
     }
 
 
+    /**
+     * Write the responses kept in the socket buffer by
+     * {@link #endRequest(boolean)}.
+     * 
+     * @throws IOException an undelying I/O error occured
+     */
+    public void flushBatch()
+        throws IOException {
+
+        if (useSocketBuffer) {
+            socketBuffer.flushBuffer();
+        }
+
+    }
+
+
     // ------------------------------------------------ HTTP/1.1 Output Methods
 
 
@@ -473,6 +517,40 @@ public class InternalOutputBuffer
     }
 
 
+    /**
+     * Send a header which may be a known header. When the name has the
+     * canonical spelling of the known header, its encoded bytes are copied,
+     * and the current date is copied as an encoded line.
+     * 
+     * @param known Known header of the field, or null
+     * @param name Header name
+     * @param value Header value
+     */
+    public void sendHeader(KnownHeader known, MessageBytes name, MessageBytes value) {
+
+        if (known == null || name.getType() != MessageBytes.T_STR
+                || !known.getSpelling().equals(name.getString())) {
+            sendHeader(name, value);
+            return;
+        }
+        if (value.isNull()) {
+            return;
+        }
+        if (known == KnownHeader.DATE && value.getType() == MessageBytes.T_STR) {
+            byte[] line = FastHttpDateFormat.getCurrentDateHeader(value.getString());
+            if (line != null) {
+                write(line);
+                return;
+            }
+        }
+        write(AbstractInternalOutputBuffer.HEADER_NAMES[known.ordinal()]);
+        write(value);
+        buf[pos++] = Constants.CR;
+        buf[pos++] = Constants.LF;
+
+    }
+
+
     /**
      * Send a header.
      * 
@@ -0,0 +1,394 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.util.StringTokenizer;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.OutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.http.KnownTokens;
+
+/**
+ * Deflate output filter, which produces the zlib format of the "deflate"
+ * content coding, using a raw <code>Deflater</code> taken from the
+ * {@link DeflaterPool} of the connector for the duration of the response.
+ * An explicit flush of the response flushes the compressed bytes written so
+ * far, so that streamed responses are still received incrementally.
+ */
+public class DeflateOutputFilter implements OutputFilter {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    protected static final String ENCODING_NAME = "deflate";
+    protected static final ByteChunk ENCODING = new ByteChunk();
+
+
+    // ----------------------------------------------------- Static Initializer
+
+
+    static {
+        ENCODING.setBytes(ENCODING_NAME.getBytes(), 0, ENCODING_NAME.length());
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Next buffer in the pipeline.
+     */
+    protected OutputBuffer buffer;
+
+
+    /**
+     * Pool of the deflaters, a deflater is created for each response if
+     * there is none.
+     */
+    protected DeflaterPool deflaterPool = null;
+
+
+    /**
+     * Deflater of the current response.
+     */
+    protected Deflater deflater = null;
+
+
+    /**
+     * Checksum of the uncompressed bytes.
+     */
+    protected Checksum checksum = createChecksum();
+
+
+    /**
+     * Compressed bytes buffer.
+     */
+    protected byte[] compressed = new byte[8192];
+
+
+    /**
+     * Chunk of the compressed bytes written to the next buffer.
+     */
+    protected ByteChunk outputChunk = new ByteChunk();
+
+
+    /**
+     * Number of compressed bytes written, including header and trailer.
+     */
+    protected long bytesOut = 0;
+
+
+    /**
+     * Time spent compressing the response, in ns.
+     */
+    protected long compressionTime = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Set the pool of deflaters.
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
+
+
+    // --------------------------------------------------- OutputBuffer Methods
+
+
+    /**
+     * Write some bytes.
+     *
+     * @return number of bytes written by the filter
+     */
+    public int doWrite(ByteChunk chunk, Response res)
+        throws IOException {
+        start();
+        int length = chunk.getLength();
+        if (length > 0) {
+            long time = System.nanoTime();
+            checksum.update(chunk.getBytes(), chunk.getStart(), length);
+            deflater.setInput(chunk.getBytes(), chunk.getStart(), length);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            compressionTime += System.nanoTime() - time;
+        }
+        return length;
+    }
+
+
+    // --------------------------------------------------- OutputFilter Methods
+
+
+    /**
+     * Some filters need additional parameters from the response. All the
+     * necessary reading can occur in that method, as this method is called
+     * after the response header processing is complete.
+     */
+    public void setResponse(Response response) {
+    }
+
+
+    /**
+     * Set the next buffer in the filter pipeline.
+     */
+    public void setBuffer(OutputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Write the bytes which have been compressed so far, using a sync flush
+     * of the deflater.
+     */
+    public void flush()
+        throws IOException {
+        if (deflater == null || deflater.finished()) {
+            return;
+        }
+        long time = System.nanoTime();
+        int n;
+        do {
+            n = deflate(Deflater.SYNC_FLUSH);
+        } while (n == compressed.length);
+        compressionTime += System.nanoTime() - time;
+    }
+
+
+    /**
+     * End the current request. It is acceptable to write extra bytes using
+     * buffer.doWrite during the execution of this method.
+     */
+    public long end()
+        throws IOException {
+        start();
+        long time = System.nanoTime();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+        compressionTime += System.nanoTime() - time;
+        writeTrailer();
+        if (deflaterPool != null) {
+            deflaterPool.addResponse(deflater.getBytesRead(), bytesOut,
+                    compressionTime);
+        }
+        releaseDeflater();
+        return ((OutputFilter) buffer).end();
+    }
+
+
+    /**
+     * Make the filter ready to process the next request.
+     */
+    public void recycle() {
+        if (deflater != null) {
+            // The response was not ended
+            releaseDeflater();
+        }
+        bytesOut = 0;
+        compressionTime = 0;
+    }
+
+
+    /**
+     * Return the name of the associated encoding; Here, the value is
+     * "deflate".
+     */
+    public ByteChunk getEncodingName() {
+        return ENCODING;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Select the content coding of a compressed response, from the value of
+     * the Accept-Encoding header of the request. The qualities of the codings
+     * are honored, and gzip is preferred when both are equally acceptable.
+     *
+     * @param acceptEncoding The value of the Accept-Encoding header
+     * @return "gzip", "deflate", or null if the client accepts neither
+     */
+    public static String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        StringTokenizer codings = new StringTokenizer(acceptEncoding, ",");
+        while (codings.hasMoreTokens()) {
+            String coding = codings.nextToken();
+            float quality = 1;
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                quality = parseQuality(coding.substring(semicolon + 1));
+                coding = coding.substring(0, semicolon);
+            }
+            coding = coding.trim();
+            if (coding.equalsIgnoreCase(KnownTokens.GZIP) || coding.equalsIgnoreCase("x-gzip")) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (coding.equalsIgnoreCase(KnownTokens.DEFLATE)) {
+                deflateQuality = Math.max(deflateQuality, quality);
+            } else if (coding.equals("*")) {
+                anyQuality = Math.max(anyQuality, quality);
+            }
+        }
+        if (gzipQuality < 0) {
+            gzipQuality = anyQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = anyQuality;
+        }
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return KnownTokens.GZIP;
+        } else if (deflateQuality > 0) {
+            return KnownTokens.DEFLATE;
+        }
+        return null;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Create the checksum of the uncompressed bytes.
+     */
+    protected Checksum createChecksum() {
+        return new Adler32();
+    }
+
+
+    /**
+     * Write the zlib header.
+     */
+    protected void writeHeader()
+        throws IOException {
+        // Deflate with a 32K window, default compression, no dictionary
+        compressed[0] = (byte) 0x78;
+        compressed[1] = (byte) 0x9c;
+        write(compressed, 2);
+    }
+
+
+    /**
+     * Write the zlib trailer: the Adler-32 checksum, in network byte order.
+     */
+    protected void writeTrailer()
+        throws IOException {
+        long value = checksum.getValue();
+        compressed[0] = (byte) (value >> 24);
+        compressed[1] = (byte) (value >> 16);
+        compressed[2] = (byte) (value >> 8);
+        compressed[3] = (byte) value;
+        write(compressed, 4);
+    }
+
+
+    /**
+     * Take a deflater for the response, if it has not been done yet, and
+     * write the header.
+     */
+    protected void start()
+        throws IOException {
+        if (deflater == null) {
+            if (deflaterPool != null) {
+                deflater = deflaterPool.take();
+            } else {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+            checksum.reset();
+            writeHeader();
+        }
+    }
+
+
+    /**
+     * Compress into the buffer, and write the compressed bytes to the next
+     * buffer.
+     *
+     * @return the number of compressed bytes
+     */
+    protected int deflate(int flush)
+        throws IOException {
+        int n = deflater.deflate(compressed, 0, compressed.length, flush);
+        if (n > 0) {
+            write(compressed, n);
+        }
+        return n;
+    }
+
+
+    /**
+     * Write compressed bytes to the next buffer.
+     */
+    protected void write(byte[] b, int length)
+        throws IOException {
+        outputChunk.setBytes(b, 0, length);
+        buffer.doWrite(outputChunk, null);
+        bytesOut += length;
+    }
+
+
+    /**
+     * Return the deflater to the pool.
+     */
+    protected void releaseDeflater() {
+        if (deflaterPool != null) {
+            deflaterPool.release(deflater);
+        } else {
+            deflater.end();
+        }
+        deflater = null;
+    }
+
+
+    /**
+     * Parse the quality from the parameters of a coding.
+     */
+    protected static float parseQuality(String parameters) {
+        StringTokenizer tokenizer = new StringTokenizer(parameters, ";");
+        while (tokenizer.hasMoreTokens()) {
+            String parameter = tokenizer.nextToken().trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+
+}
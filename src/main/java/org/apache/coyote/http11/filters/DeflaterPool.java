@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http11.filters;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of the raw <code>Deflater</code>s used by the compression filters of
+ * a connector, so that their native memory is allocated once instead of for
+ * each response, and compression statistics of the connector.
+ */
+public class DeflaterPool {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Create a pool of deflaters.
+     *
+     * @param level The compression level, from 0 to 9, or -1 for the default
+     * @param strategy The compression strategy
+     * @param maxSize The maximum number of idle deflaters kept, or -1 for no
+     *  limit
+     */
+    public DeflaterPool(int level, int strategy, int maxSize) {
+        this.level = level;
+        this.strategy = strategy;
+        this.maxSize = maxSize;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected final int level;
+    protected final int strategy;
+    protected final int maxSize;
+
+    protected final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    protected final AtomicInteger size = new AtomicInteger();
+
+    protected final AtomicLong responseCount = new AtomicLong();
+    protected final AtomicLong bytesIn = new AtomicLong();
+    protected final AtomicLong bytesOut = new AtomicLong();
+    protected final AtomicLong compressionTime = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Return the number of compressed responses.
+     */
+    public long getResponseCount() {
+        return responseCount.get();
+    }
+
+
+    /**
+     * Return the total size of the compressed responses before compression.
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+
+    /**
+     * Return the total size of the compressed responses after compression.
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+
+    /**
+     * Return the ratio of the compressed size of the responses to their
+     * size, or 1 if no response was compressed.
+     */
+    public double getCompressionRatio() {
+        long in = bytesIn.get();
+        return (in == 0) ? 1 : ((double) bytesOut.get()) / in;
+    }
+
+
+    /**
+     * Return the total time spent compressing, in ms.
+     */
+    public long getCompressionTime() {
+        return compressionTime.get() / 1000000;
+    }
+
+
+    /**
+     * Reset the statistics.
+     */
+    public void resetStatistics() {
+        responseCount.set(0);
+        bytesIn.set(0);
+        bytesOut.set(0);
+        compressionTime.set(0);
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the compression strategy with the given name: "default",
+     * "filtered" or "huffman".
+     */
+    public static int parseStrategy(String strategy) {
+        if ("filtered".equalsIgnoreCase(strategy)) {
+            return Deflater.FILTERED;
+        } else if ("huffman".equalsIgnoreCase(strategy)) {
+            return Deflater.HUFFMAN_ONLY;
+        } else {
+            return Deflater.DEFAULT_STRATEGY;
+        }
+    }
+
+
+    /**
+     * Take a deflater producing raw deflate data, without zlib header and
+     * checksum.
+     */
+    public Deflater take() {
+        Deflater deflater = deflaters.poll();
+        if (deflater != null) {
+            size.decrementAndGet();
+            return deflater;
+        }
+        deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+
+    /**
+     * Return a deflater to the pool, or release its memory if the pool is
+     * full.
+     */
+    public void release(Deflater deflater) {
+        if ((size.incrementAndGet() > maxSize) && (maxSize >= 0)) {
+            size.decrementAndGet();
+            deflater.end();
+        } else {
+            deflater.reset();
+            deflaters.offer(deflater);
+        }
+    }
+
+
+    /**
+     * Add the statistics of a compressed response.
+     *
+     * @param in The size of the response
+     * @param out The compressed size of the response
+     * @param time The time spent compressing the response, in ns
+     */
+    public void addResponse(long in, long out, long time) {
+        responseCount.incrementAndGet();
+        bytesIn.addAndGet(in);
+        bytesOut.addAndGet(out);
+        compressionTime.addAndGet(time);
+    }
+
+
+    /**
+     * Release the memory of the idle deflaters.
+     */
+    public void destroy() {
+        Deflater deflater = deflaters.poll();
+        while (deflater != null) {
+            size.decrementAndGet();
+            deflater.end();
+            deflater = deflaters.poll();
+        }
+    }
+
+
+}
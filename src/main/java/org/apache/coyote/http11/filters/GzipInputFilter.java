@@ -0,0 +1,453 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http11.filters;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.InputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Gzip input filter, which decompresses a request body with the "gzip"
+ * content coding, after it has been decoded by the transfer filter. A raw
+ * <code>Inflater</code> is taken from the {@link InflaterPool} of the
+ * connector for the duration of the request, and the size of the
+ * decompressed body is limited.
+ */
+public class GzipInputFilter implements InputFilter {
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    protected static final String ENCODING_NAME = "gzip";
+    protected static final ByteChunk ENCODING = new ByteChunk();
+
+    protected static final int FHCRC = 2;
+    protected static final int FEXTRA = 4;
+    protected static final int FNAME = 8;
+    protected static final int FCOMMENT = 16;
+
+    /**
+     * Fields of the header, in their order.
+     */
+    protected static final int HEADER = 0;
+    protected static final int EXTRA_LENGTH = 1;
+    protected static final int EXTRA = 2;
+    protected static final int NAME = 3;
+    protected static final int COMMENT = 4;
+    protected static final int HEADER_CRC = 5;
+    protected static final int DATA = 6;
+    protected static final int TRAILER = 7;
+    protected static final int END = 8;
+
+
+    // ----------------------------------------------------- Static Initializer
+
+
+    static {
+        ENCODING.setBytes(ENCODING_NAME.getBytes(), 0, ENCODING_NAME.length());
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Next buffer in the pipeline.
+     */
+    protected InputBuffer buffer;
+
+
+    /**
+     * Pool of the inflaters, an inflater is created for each request if
+     * there is none.
+     */
+    protected InflaterPool inflaterPool = null;
+
+
+    /**
+     * Inflater of the current request.
+     */
+    protected Inflater inflater = null;
+
+
+    /**
+     * Checksum of the decompressed bytes.
+     */
+    protected CRC32 crc = new CRC32();
+
+
+    /**
+     * Decompressed bytes buffer.
+     */
+    protected byte[] inflated = new byte[8192];
+
+
+    /**
+     * Chunk used to read compressed bytes from the next buffer.
+     */
+    protected ByteChunk readChunk = new ByteChunk();
+
+
+    /**
+     * Compressed bytes buffer, position and last valid byte.
+     */
+    protected byte[] buf = null;
+    protected int pos = 0;
+    protected int lastValid = 0;
+
+
+    /**
+     * Field of the gzip member being parsed, with the flags of the header,
+     * the number of bytes parsed in the field, and the value of the field.
+     */
+    protected int field = HEADER;
+    protected int flags = 0;
+    protected int count = 0;
+    protected long value = 0;
+
+
+    /**
+     * Number of decompressed bytes.
+     */
+    protected long decompressedSize = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Set the pool of inflaters.
+     */
+    public void setInflaterPool(InflaterPool inflaterPool) {
+        this.inflaterPool = inflaterPool;
+    }
+
+
+    // ---------------------------------------------------- InputBuffer Methods
+
+
+    /**
+     * Read bytes.
+     *
+     * @return the number of decompressed bytes, 0 if no compressed bytes
+     * are available in non blocking mode, or -1 at the end of the body
+     */
+    public int doRead(ByteChunk chunk, Request req)
+        throws IOException {
+
+        if (field == END) {
+            return -1;
+        }
+
+        if (inflater == null) {
+            inflater = (inflaterPool != null) ? inflaterPool.take() : new Inflater(true);
+            crc.reset();
+        }
+
+        if (field < DATA && !parseHeader()) {
+            if (field == END) {
+                // The body is empty
+                releaseInflater();
+                return -1;
+            }
+            return 0;
+        }
+
+        while (field == DATA) {
+            if (inflater.needsInput()) {
+                if (!readBytes()) {
+                    return 0;
+                }
+                inflater.setInput(buf, pos, lastValid - pos);
+                pos = lastValid;
+            }
+            int n;
+            try {
+                n = inflater.inflate(inflated, 0, inflated.length);
+            } catch (DataFormatException e) {
+                throw MESSAGES.invalidGzipData();
+            }
+            if (inflater.finished()) {
+                // The trailer follows the compressed data
+                pos = lastValid - inflater.getRemaining();
+                field = TRAILER;
+                count = 0;
+                value = 0;
+            } else if (n == 0 && inflater.needsDictionary()) {
+                throw MESSAGES.invalidGzipData();
+            }
+            if (n > 0) {
+                decompressedSize += n;
+                long maxDecompressedSize = (inflaterPool != null) ? inflaterPool.getMaxDecompressedSize() : -1;
+                if (maxDecompressedSize >= 0 && decompressedSize > maxDecompressedSize) {
+                    throw MESSAGES.maxDecompressedSizeExceeded(maxDecompressedSize);
+                }
+                crc.update(inflated, 0, n);
+                chunk.setBytes(inflated, 0, n);
+                return n;
+            }
+        }
+
+        if (!parseTrailer()) {
+            return 0;
+        }
+        releaseInflater();
+        field = END;
+        return -1;
+
+    }
+
+
+    // ---------------------------------------------------- InputFilter Methods
+
+
+    /**
+     * The filter does not need parameters from the request.
+     */
+    public void setRequest(Request request) {
+    }
+
+
+    /**
+     * End the current request. The rest of the compressed body, if any, is
+     * not decompressed, but consumed by the transfer filter.
+     */
+    public long end()
+        throws IOException {
+        if (inflater != null) {
+            releaseInflater();
+        }
+        field = END;
+        return ((InputFilter) buffer).end();
+    }
+
+
+    /**
+     * Amount of bytes still available in a buffer.
+     */
+    public int available() {
+        return (lastValid - pos) + ((inflater != null) ? inflater.getRemaining() : 0);
+    }
+
+
+    /**
+     * Set the next buffer in the filter pipeline.
+     */
+    public void setBuffer(InputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Make the filter ready to process the next request.
+     */
+    public void recycle() {
+        if (inflater != null) {
+            // The request was not ended
+            releaseInflater();
+        }
+        readChunk.recycle();
+        buf = null;
+        pos = 0;
+        lastValid = 0;
+        field = HEADER;
+        flags = 0;
+        count = 0;
+        value = 0;
+        decompressedSize = 0;
+    }
+
+
+    /**
+     * Return the name of the associated encoding; Here, the value is
+     * "gzip".
+     */
+    public ByteChunk getEncodingName() {
+        return ENCODING;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Read bytes from the previous buffer, if all the bytes read have been
+     * consumed.
+     *
+     * @return false if no bytes are available in non blocking mode, or if
+     * the body is empty
+     */
+    protected boolean readBytes()
+        throws IOException {
+        if (pos < lastValid) {
+            return true;
+        }
+        int nRead = buffer.doRead(readChunk, null);
+        if (nRead < 0) {
+            if (field == HEADER && count == 0) {
+                // An empty body has no gzip member
+                field = END;
+                return false;
+            }
+            throw new EOFException(MESSAGES.unexpectedEof());
+        }
+        buf = readChunk.getBytes();
+        pos = readChunk.getStart();
+        lastValid = pos + nRead;
+        return (nRead > 0);
+    }
+
+
+    /**
+     * Parse the header of the gzip member, which may be received in several
+     * reads.
+     *
+     * @return false if the header is incomplete in non blocking mode
+     */
+    protected boolean parseHeader()
+        throws IOException {
+        while (field < DATA) {
+            if (!readBytes()) {
+                return false;
+            }
+            int b = buf[pos++] & 0xff;
+            switch (field) {
+            case HEADER:
+                // ID1, ID2, CM (deflate), FLG, MTIME, XFL and OS
+                if ((count == 0 && b != 0x1f) || (count == 1 && b != 0x8b)
+                        || (count == 2 && b != 8)) {
+                    throw MESSAGES.invalidGzipData();
+                }
+                if (count == 3) {
+                    flags = b;
+                }
+                if (++count == 10) {
+                    nextField();
+                }
+                break;
+            case EXTRA_LENGTH:
+                value |= b << (8 * count);
+                if (++count == 2) {
+                    if (value == 0) {
+                        nextField();
+                    } else {
+                        field = EXTRA;
+                        count = 0;
+                    }
+                }
+                break;
+            case EXTRA:
+                if (++count == value) {
+                    nextField();
+                }
+                break;
+            case NAME:
+            case COMMENT:
+                if (b == 0) {
+                    nextField();
+                }
+                break;
+            case HEADER_CRC:
+                if (++count == 2) {
+                    nextField();
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Go to the next field of the header which is present.
+     */
+    protected void nextField() {
+        count = 0;
+        value = 0;
+        if (field < EXTRA_LENGTH && (flags & FEXTRA) != 0) {
+            field = EXTRA_LENGTH;
+        } else if (field < NAME && (flags & FNAME) != 0) {
+            field = NAME;
+        } else if (field < COMMENT && (flags & FCOMMENT) != 0) {
+            field = COMMENT;
+        } else if (field < HEADER_CRC && (flags & FHCRC) != 0) {
+            field = HEADER_CRC;
+        } else {
+            field = DATA;
+        }
+    }
+
+
+    /**
+     * Parse the trailer of the gzip member: the CRC-32 and the size of the
+     * decompressed data, in little endian byte order.
+     *
+     * @return false if the trailer is incomplete in non blocking mode
+     */
+    protected boolean parseTrailer()
+        throws IOException {
+        while (count < 8) {
+            if (!readBytes()) {
+                return false;
+            }
+            int b = buf[pos++] & 0xff;
+            if (count < 4) {
+                value |= ((long) b) << (8 * count);
+            } else {
+                if (count == 4) {
+                    if (value != crc.getValue()) {
+                        throw MESSAGES.invalidGzipData();
+                    }
+                    value = 0;
+                }
+                value |= ((long) b) << (8 * (count - 4));
+            }
+            count++;
+        }
+        if (value != (decompressedSize & 0xffffffffL)) {
+            throw MESSAGES.invalidGzipData();
+        }
+        return true;
+    }
+
+
+    /**
+     * Return the inflater to the pool.
+     */
+    protected void releaseInflater() {
+        if (inflaterPool != null) {
+            inflaterPool.release(inflater);
+        } else {
+            inflater.end();
+        }
+        inflater = null;
+    }
+
+
+}
@@ -18,21 +18,18 @@
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 
-import org.apache.coyote.OutputBuffer;
-import org.apache.coyote.Response;
-import org.apache.coyote.http11.OutputFilter;
-
 /**
- * Gzip output filter.
+ * Gzip output filter, which uses a pooled deflater as the deflate filter,
+ * with the gzip header and trailer.
  * 
  * @author Remy Maucherat
  */
-public class GzipOutputFilter implements OutputFilter {
+public class GzipOutputFilter extends DeflateOutputFilter {
 
 
     // -------------------------------------------------------------- Constants
@@ -50,121 +47,57 @@ public class GzipOutputFilter implements OutputFilter {
     }
 
 
-    // ----------------------------------------------------- Instance Variables
-
-
-    /**
-     * Next buffer in the pipeline.
-     */
-    protected OutputBuffer buffer;
-
-
-    /**
-     * Compression output stream.
-     */
-    protected GZIPOutputStream compressionStream = null;
-
-
-    /**
-     * Fake internal output stream.
-     */
-    protected OutputStream fakeOutputStream = new FakeOutputStream();
-
-
-    // --------------------------------------------------- OutputBuffer Methods
+    // --------------------------------------------------- OutputFilter Methods
 
 
     /**
-     * Write some bytes.
-     * 
-     * @return number of bytes written by the filter
+     * Return the name of the associated encoding; Here, the value is 
+     * "gzip".
      */
-    public int doWrite(ByteChunk chunk, Response res)
-        throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream);
-        }
-        compressionStream.write(chunk.getBytes(), chunk.getStart(), 
-                                chunk.getLength());
-        return chunk.getLength();
+    public ByteChunk getEncodingName() {
+        return ENCODING;
     }
 
 
-    // --------------------------------------------------- OutputFilter Methods
-
-
-    /**
-     * Some filters need additional parameters from the response. All the 
-     * necessary reading can occur in that method, as this method is called
-     * after the response header processing is complete.
-     */
-    public void setResponse(Response response) {
-    }
+    // ------------------------------------------------------ Protected Methods
 
 
     /**
-     * Set the next buffer in the filter pipeline.
+     * Create the CRC-32 of the uncompressed bytes.
      */
-    public void setBuffer(OutputBuffer buffer) {
-        this.buffer = buffer;
+    protected Checksum createChecksum() {
+        return new CRC32();
     }
 
 
     /**
-     * End the current request. It is acceptable to write extra bytes using
-     * buffer.doWrite during the execution of this method.
+     * Write the gzip header, as GZIPOutputStream.
      */
-    public long end()
+    protected void writeHeader()
         throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream);
+        compressed[0] = (byte) 0x1f;
+        compressed[1] = (byte) 0x8b;
+        compressed[2] = (byte) 8; // Deflate
+        for (int i = 3; i < 10; i++) {
+            compressed[i] = 0;
         }
-        compressionStream.finish();
-        compressionStream.close();
-        return ((OutputFilter) buffer).end();
+        write(compressed, 10);
     }
 
 
     /**
-     * Make the filter ready to process the next request.
+     * Write the gzip trailer: the CRC-32 and the uncompressed size, in little
+     * endian byte order.
      */
-    public void recycle() {
-        // Set compression stream to null
-        compressionStream = null;
-    }
-
-
-    /**
-     * Return the name of the associated encoding; Here, the value is 
-     * "identity".
-     */
-    public ByteChunk getEncodingName() {
-        return ENCODING;
-    }
-
-
-    // ------------------------------------------- FakeOutputStream Inner Class
-
-
-    protected class FakeOutputStream
-        extends OutputStream {
-        protected ByteChunk outputChunk = new ByteChunk();
-        protected byte[] singleByteBuffer = new byte[1];
-        public void write(int b)
-            throws IOException {
-            // Shouldn't get used for good performance, but is needed for 
-            // compatibility with Sun JDK 1.4.0
-            singleByteBuffer[0] = (byte) (b & 0xff);
-            outputChunk.setBytes(singleByteBuffer, 0, 1);
-            buffer.doWrite(outputChunk, null);
-        }
-        public void write(byte[] b, int off, int len)
-            throws IOException {
-            outputChunk.setBytes(b, off, len);
-            buffer.doWrite(outputChunk, null);
+    protected void writeTrailer()
+        throws IOException {
+        long value = checksum.getValue();
+        long size = deflater.getBytesRead();
+        for (int i = 0; i < 4; i++) {
+            compressed[i] = (byte) (value >> (8 * i));
+            compressed[4 + i] = (byte) (size >> (8 * i));
         }
-        public void flush() throws IOException {}
-        public void close() throws IOException {}
+        write(compressed, 8);
     }
 
 
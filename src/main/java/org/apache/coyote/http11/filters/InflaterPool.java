@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http11.filters;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of the raw <code>Inflater</code>s used by the decompression filter of
+ * a connector, so that their native memory is allocated once instead of for
+ * each request.
+ */
+public class InflaterPool {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * Create a pool of inflaters.
+     *
+     * @param maxDecompressedSize The maximum size of a decompressed request
+     *  body, or -1 for no limit
+     * @param maxSize The maximum number of idle inflaters kept, or -1 for no
+     *  limit
+     */
+    public InflaterPool(long maxDecompressedSize, int maxSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.maxSize = maxSize;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    protected final long maxDecompressedSize;
+    protected final int maxSize;
+
+    protected final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    protected final AtomicInteger size = new AtomicInteger();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public long getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Take an inflater reading raw deflate data, without zlib header and
+     * checksum.
+     */
+    public Inflater take() {
+        Inflater inflater = inflaters.poll();
+        if (inflater != null) {
+            size.decrementAndGet();
+            return inflater;
+        }
+        return new Inflater(true);
+    }
+
+
+    /**
+     * Return an inflater to the pool, or release its memory if the pool is
+     * full.
+     */
+    public void release(Inflater inflater) {
+        if ((size.incrementAndGet() > maxSize) && (maxSize >= 0)) {
+            size.decrementAndGet();
+            inflater.end();
+        } else {
+            inflater.reset();
+            inflaters.offer(inflater);
+        }
+    }
+
+
+    /**
+     * Release the memory of the idle inflaters.
+     */
+    public void destroy() {
+        Inflater inflater = inflaters.poll();
+        while (inflater != null) {
+            size.decrementAndGet();
+            inflater.end();
+            inflater = inflaters.poll();
+        }
+    }
+
+
+}
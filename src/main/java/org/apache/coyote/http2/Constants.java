@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * {@code Constants}
+ * <p>
+ * Constants of the HTTP/2 protocol (RFC 7540) and of its header compression
+ * (RFC 7541).
+ * </p>
+ */
+public final class Constants {
+
+	/**
+	 * Package name.
+	 */
+	public static final String Package = "org.apache.coyote.http2";
+
+	/**
+	 * Protocol name of the requests received on HTTP/2 streams.
+	 */
+	public static final String HTTP_20 = "HTTP/2.0";
+
+	/**
+	 * Token of the cleartext HTTP/2 upgrade.
+	 */
+	public static final String H2C = "h2c";
+
+	/**
+	 * Connection preface sent by the client.
+	 */
+	public static final byte[] PREFACE = ByteChunk
+			.convertToBytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+	/**
+	 * Default value of the server header.
+	 */
+	public static final String SERVER = "Apache-Coyote/1.1";
+
+	public static final int FRAME_HEADER_LENGTH = 9;
+
+	// Frame types
+	public static final int DATA = 0x0;
+	public static final int HEADERS = 0x1;
+	public static final int PRIORITY = 0x2;
+	public static final int RST_STREAM = 0x3;
+	public static final int SETTINGS = 0x4;
+	public static final int PUSH_PROMISE = 0x5;
+	public static final int PING = 0x6;
+	public static final int GOAWAY = 0x7;
+	public static final int WINDOW_UPDATE = 0x8;
+	public static final int CONTINUATION = 0x9;
+
+	// Frame flags
+	public static final int FLAG_END_STREAM = 0x1;
+	public static final int FLAG_ACK = 0x1;
+	public static final int FLAG_END_HEADERS = 0x4;
+	public static final int FLAG_PADDED = 0x8;
+	public static final int FLAG_PRIORITY = 0x20;
+
+	// Settings
+	public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	public static final int SETTINGS_ENABLE_PUSH = 0x2;
+	public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	// Error codes
+	public static final int NO_ERROR = 0x0;
+	public static final int PROTOCOL_ERROR = 0x1;
+	public static final int INTERNAL_ERROR = 0x2;
+	public static final int FLOW_CONTROL_ERROR = 0x3;
+	public static final int SETTINGS_TIMEOUT = 0x4;
+	public static final int STREAM_CLOSED = 0x5;
+	public static final int FRAME_SIZE_ERROR = 0x6;
+	public static final int REFUSED_STREAM = 0x7;
+	public static final int CANCEL = 0x8;
+	public static final int COMPRESSION_ERROR = 0x9;
+	public static final int CONNECT_ERROR = 0xa;
+	public static final int ENHANCE_YOUR_CALM = 0xb;
+	public static final int INADEQUATE_SECURITY = 0xc;
+	public static final int HTTP_1_1_REQUIRED = 0xd;
+
+	// Default values of the settings
+	public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+	public static final int DEFAULT_WINDOW_SIZE = 65535;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	public static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+	public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 
+		Integer.valueOf(System.getProperty("org.apache.coyote.http2.DEFAULT_MAX_CONCURRENT_STREAMS", "100")).intValue();
+	public static final int DEFAULT_INITIAL_WINDOW_SIZE = 
+		Integer.valueOf(System.getProperty("org.apache.coyote.http2.DEFAULT_INITIAL_WINDOW_SIZE", "65535")).intValue();
+	public static final int DEFAULT_MAX_HEADER_LIST_SIZE = 8 * 1024;
+
+}
@@ -0,0 +1,391 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+/**
+ * {@code Hpack}
+ * <p>
+ * Tables and primitive encodings shared by the HPACK encoder and decoder
+ * (RFC 7541): the static table, the prefixed integers and the Huffman code.
+ * Header names and values are handled as ISO-8859-1 bytes.
+ * </p>
+ */
+final class Hpack {
+
+	/**
+	 * Size overhead of a dynamic table entry.
+	 */
+	static final int ENTRY_OVERHEAD = 32;
+
+	/**
+	 * The static table, index 0 is unused.
+	 */
+	static final byte[][] STATIC_NAMES;
+	static final byte[][] STATIC_VALUES;
+
+	static final String[][] STATIC_TABLE = { { ":authority", "" },
+			{ ":method", "GET" }, { ":method", "POST" }, { ":path", "/" },
+			{ ":path", "/index.html" }, { ":scheme", "http" }, { ":scheme", "https" },
+			{ ":status", "200" }, { ":status", "204" }, { ":status", "206" },
+			{ ":status", "304" }, { ":status", "400" }, { ":status", "404" },
+			{ ":status", "500" }, { "accept-charset", "" },
+			{ "accept-encoding", "gzip, deflate" }, { "accept-language", "" },
+			{ "accept-ranges", "" }, { "accept", "" }, { "access-control-allow-origin", "" },
+			{ "age", "" }, { "allow", "" }, { "authorization", "" }, { "cache-control", "" },
+			{ "content-disposition", "" }, { "content-encoding", "" },
+			{ "content-language", "" }, { "content-length", "" }, { "content-location", "" },
+			{ "content-range", "" }, { "content-type", "" }, { "cookie", "" }, { "date", "" },
+			{ "etag", "" }, { "expect", "" }, { "expires", "" }, { "from", "" }, { "host", "" },
+			{ "if-match", "" }, { "if-modified-since", "" }, { "if-none-match", "" },
+			{ "if-range", "" }, { "if-unmodified-since", "" }, { "last-modified", "" },
+			{ "link", "" }, { "location", "" }, { "max-forwards", "" },
+			{ "proxy-authenticate", "" }, { "proxy-authorization", "" }, { "range", "" },
+			{ "referer", "" }, { "refresh", "" }, { "retry-after", "" }, { "server", "" },
+			{ "set-cookie", "" }, { "strict-transport-security", "" },
+			{ "transfer-encoding", "" }, { "user-agent", "" }, { "vary", "" }, { "via", "" },
+			{ "www-authenticate", "" } };
+
+	static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length;
+
+	/**
+	 * Huffman codes, indexed by symbol, 256 being EOS.
+	 */
+	static final int[] HUFFMAN_CODES = { 0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4,
+			0xfffffe5, 0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+			0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee, 0xfffffef,
+			0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3, 0xffffff4, 0xffffff5,
+			0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb, 0x14, 0x3f8,
+			0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16,
+			0x17, 0x18, 0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+			0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+			0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e, 0x6f,
+			0x70, 0x71, 0x72, 0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+			0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26, 0x27, 0x6, 0x74, 0x75, 0x28, 0x29,
+			0x2a, 0x7, 0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78, 0x79, 0x7a, 0x7b,
+			0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+			0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc,
+			0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf, 0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0,
+			0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+			0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb,
+			0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde, 0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0,
+			0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+			0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4,
+			0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1, 0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1,
+			0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4,
+			0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+			0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2, 0x1fffe4,
+			0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+			0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+			0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea,
+			0x7ffff4, 0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+			0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee,
+			0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff };
+
+	/**
+	 * Huffman code lengths in bits, indexed by symbol.
+	 */
+	static final byte[] HUFFMAN_LENGTHS = { 13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28,
+			28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6,
+			10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6,
+			7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6,
+			6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22,
+			22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22,
+			23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22,
+			23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21,
+			26, 26, 28, 27, 27, 27, 20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26,
+			23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26, 30 };
+
+	/**
+	 * Huffman decoding tree: node n has its children at 2n and 2n + 1, a
+	 * negative child is a leaf holding the symbol -(child + 1), and a zero
+	 * child is an invalid code.
+	 */
+	private static final int[] HUFFMAN_TREE;
+
+	static {
+		STATIC_NAMES = new byte[STATIC_TABLE_LENGTH + 1][];
+		STATIC_VALUES = new byte[STATIC_TABLE_LENGTH + 1][];
+		for (int i = 0; i < STATIC_TABLE_LENGTH; i++) {
+			STATIC_NAMES[i + 1] = toBytes(STATIC_TABLE[i][0]);
+			STATIC_VALUES[i + 1] = toBytes(STATIC_TABLE[i][1]);
+		}
+
+		int[] tree = new int[2 * 256];
+		int nodes = 1;
+		for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+			for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int child = 2 * node + ((code >>> bit) & 1);
+				if (tree[child] == 0) {
+					tree[child] = nodes++;
+				}
+				node = tree[child];
+			}
+			tree[2 * node + (code & 1)] = -(symbol + 1);
+		}
+		HUFFMAN_TREE = tree;
+	}
+
+	private Hpack() {
+	}
+
+	/**
+	 * @param s
+	 * @return the ISO-8859-1 bytes of the specified string
+	 */
+	static byte[] toBytes(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+
+	/**
+	 * @param b1
+	 * @param off1
+	 * @param len1
+	 * @param b2
+	 * @return <tt>true</tt> if the byte ranges are equal
+	 */
+	static boolean equals(byte[] b1, int off1, int len1, byte[] b2) {
+		if (len1 != b2.length) {
+			return false;
+		}
+		for (int i = 0; i < len1; i++) {
+			if (b1[off1 + i] != b2[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode a Huffman encoded string.
+	 *
+	 * @param src
+	 *            the encoded bytes
+	 * @param off
+	 * @param len
+	 * @param dst
+	 *            the destination, at least 8 * len / 5 bytes long from dstOff
+	 * @param dstOff
+	 * @return the number of decoded bytes
+	 * @throws Http2Exception
+	 *             if the encoding is invalid
+	 */
+	static int huffmanDecode(byte[] src, int off, int len, byte[] dst, int dstOff)
+			throws Http2Exception {
+		int pos = dstOff;
+		int node = 0;
+		// Bits read since the last symbol, all of them set to 1 so far
+		int padding = 0;
+		boolean ones = true;
+		for (int i = off; i < off + len; i++) {
+			int b = src[i] & 0xff;
+			for (int bit = 7; bit >= 0; bit--) {
+				int set = (b >>> bit) & 1;
+				int child = HUFFMAN_TREE[2 * node + set];
+				padding++;
+				ones &= (set == 1);
+				if (child < 0) {
+					int symbol = -(child + 1);
+					if (symbol == 256) {
+						throw new Http2Exception(Constants.COMPRESSION_ERROR,
+								MESSAGES.invalidHpackHuffman());
+					}
+					dst[pos++] = (byte) symbol;
+					node = 0;
+					padding = 0;
+					ones = true;
+				} else if (child == 0) {
+					throw new Http2Exception(Constants.COMPRESSION_ERROR,
+							MESSAGES.invalidHpackHuffman());
+				} else {
+					node = child;
+				}
+			}
+		}
+		// The padding is a prefix of EOS, strictly shorter than 8 bits
+		if (padding > 7 || !ones) {
+			throw new Http2Exception(Constants.COMPRESSION_ERROR, MESSAGES.invalidHpackHuffman());
+		}
+		return pos - dstOff;
+	}
+
+	/**
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @return the length of the Huffman encoding of the specified bytes
+	 */
+	static int huffmanLength(byte[] src, int off, int len) {
+		long bits = 0;
+		for (int i = off; i < off + len; i++) {
+			bits += HUFFMAN_LENGTHS[src[i] & 0xff];
+		}
+		return (int) ((bits + 7) >>> 3);
+	}
+
+	/**
+	 * Huffman encode the specified bytes.
+	 *
+	 * @param src
+	 * @param off
+	 * @param len
+	 * @param dst
+	 *            the destination, with room for
+	 *            {@link #huffmanLength(byte[], int, int)} bytes
+	 * @param dstOff
+	 * @return the position following the encoded bytes
+	 */
+	static int huffmanEncode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		long current = 0;
+		int bits = 0;
+		int pos = dstOff;
+		for (int i = off; i < off + len; i++) {
+			int symbol = src[i] & 0xff;
+			current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+			bits += HUFFMAN_LENGTHS[symbol];
+			while (bits >= 8) {
+				bits -= 8;
+				dst[pos++] = (byte) (current >>> bits);
+			}
+		}
+		if (bits > 0) {
+			// Pad with the most significant bits of EOS
+			dst[pos++] = (byte) ((current << (8 - bits)) | (0xff >>> bits));
+		}
+		return pos;
+	}
+
+	/**
+	 * {@code DynamicTable}
+	 * <p>
+	 * The dynamic table of an encoding or decoding context, as a ring of
+	 * entries where the most recent one has the lowest index.
+	 * </p>
+	 */
+	static final class DynamicTable {
+
+		private byte[][] names = new byte[16][];
+		private byte[][] values = new byte[16][];
+		// Position of the oldest entry
+		private int first = 0;
+		private int length = 0;
+		private int size = 0;
+		private int maxSize = Constants.DEFAULT_HEADER_TABLE_SIZE;
+
+		/**
+		 * @return the number of entries
+		 */
+		int length() {
+			return length;
+		}
+
+		/**
+		 * @return the maximum size of the table
+		 */
+		int getMaxSize() {
+			return maxSize;
+		}
+
+		/**
+		 * Set the maximum size of the table, evicting entries as needed.
+		 *
+		 * @param maxSize
+		 */
+		void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+			evict(0);
+		}
+
+		/**
+		 * @param index
+		 *            the dynamic index, starting from 1
+		 * @return the name of the entry
+		 */
+		byte[] getName(int index) {
+			return names[slot(index)];
+		}
+
+		/**
+		 * @param index
+		 *            the dynamic index, starting from 1
+		 * @return the value of the entry
+		 */
+		byte[] getValue(int index) {
+			return values[slot(index)];
+		}
+
+		/**
+		 * Add an entry, evicting the oldest ones to make room. An entry larger
+		 * than the table empties it.
+		 *
+		 * @param name
+		 * @param value
+		 */
+		void add(byte[] name, byte[] value) {
+			int entrySize = name.length + value.length + ENTRY_OVERHEAD;
+			evict(entrySize);
+			if (entrySize > maxSize) {
+				return;
+			}
+			if (length == names.length) {
+				byte[][] newNames = new byte[2 * length][];
+				byte[][] newValues = new byte[2 * length][];
+				for (int i = 0; i < length; i++) {
+					newNames[i] = names[(first + i) % length];
+					newValues[i] = values[(first + i) % length];
+				}
+				names = newNames;
+				values = newValues;
+				first = 0;
+			}
+			int slot = (first + length) % names.length;
+			names[slot] = name;
+			values[slot] = value;
+			length++;
+			size += entrySize;
+		}
+
+		/**
+		 * Evict the oldest entries until there is room for the specified
+		 * size.
+		 */
+		private void evict(int room) {
+			while (length > 0 && size + room > maxSize) {
+				size -= names[first].length + values[first].length + ENTRY_OVERHEAD;
+				names[first] = null;
+				values[first] = null;
+				first = (first + 1) % names.length;
+				length--;
+			}
+		}
+
+		private int slot(int index) {
+			return (first + length - index) % names.length;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+/**
+ * {@code HpackDecoder}
+ * <p>
+ * Decoder of the header blocks received on a connection (RFC 7541). The
+ * decoder keeps the dynamic table of the connection, so all the header blocks
+ * must be decoded in the order they were received, including the ones whose
+ * headers are ignored.
+ * </p>
+ */
+public class HpackDecoder {
+
+	/**
+	 * {@code HeaderListener}
+	 * <p>
+	 * Receives the decoded header fields. The byte ranges are only valid for
+	 * the duration of the call.
+	 * </p>
+	 */
+	public interface HeaderListener {
+
+		/**
+		 * Receive a header field.
+		 *
+		 * @param name
+		 * @param nameStart
+		 * @param nameLength
+		 * @param value
+		 * @param valueStart
+		 * @param valueLength
+		 */
+		public void header(byte[] name, int nameStart, int nameLength, byte[] value,
+				int valueStart, int valueLength);
+	}
+
+	protected Hpack.DynamicTable table = new Hpack.DynamicTable();
+
+	/**
+	 * Maximum table size which the peer may select, the value of our
+	 * SETTINGS_HEADER_TABLE_SIZE.
+	 */
+	protected int maxTableSize = Constants.DEFAULT_HEADER_TABLE_SIZE;
+
+	/**
+	 * Decoded string literals.
+	 */
+	protected byte[] literals = new byte[256];
+
+	// Decoding position in the current block
+	private int pos;
+	private int end;
+
+	/**
+	 * Decode a header block.
+	 *
+	 * @param block
+	 * @param off
+	 * @param len
+	 * @param listener
+	 *            the listener receiving the header fields, or <tt>null</tt>
+	 *            to only update the decoding context
+	 * @throws Http2Exception
+	 *             if the block cannot be decoded, which is a connection error
+	 */
+	public void decode(byte[] block, int off, int len, HeaderListener listener)
+			throws Http2Exception {
+		pos = off;
+		end = off + len;
+		boolean first = true;
+		while (pos < end) {
+			int b = block[pos] & 0xff;
+			if ((b & 0x80) != 0) {
+				// Indexed header field
+				int index = decodeInt(block, 7);
+				if (index == 0) {
+					throw new Http2Exception(Constants.COMPRESSION_ERROR,
+							MESSAGES.invalidHpackIndex(index));
+				}
+				byte[] name = getName(index);
+				byte[] value = getValue(index);
+				if (listener != null) {
+					listener.header(name, 0, name.length, value, 0, value.length);
+				}
+			} else if ((b & 0xe0) == 0x20) {
+				// Dynamic table size update, only allowed at the beginning of
+				// the block
+				int size = decodeInt(block, 5);
+				if (!first || size > maxTableSize) {
+					throw new Http2Exception(Constants.COMPRESSION_ERROR,
+							MESSAGES.invalidHpackTableSize(size));
+				}
+				table.setMaxSize(size);
+				continue;
+			} else {
+				// Literal header field, with incremental indexing if the 0x40
+				// bit is set, and else without indexing or never indexed
+				boolean indexing = (b & 0xc0) == 0x40;
+				int index = decodeInt(block, indexing ? 6 : 4);
+				byte[] nameBytes;
+				int nameStart;
+				int nameLength;
+				int literalEnd = 0;
+				if (index == 0) {
+					nameLength = decodeString(block, 0);
+					nameBytes = literals;
+					nameStart = 0;
+					literalEnd = nameLength;
+				} else {
+					nameBytes = getName(index);
+					nameStart = 0;
+					nameLength = nameBytes.length;
+				}
+				int valueLength = decodeString(block, literalEnd);
+				if (index == 0) {
+					// The literal buffer may have grown
+					nameBytes = literals;
+				}
+				if (indexing) {
+					byte[] name = (index == 0) ? copy(literals, 0, nameLength) : nameBytes;
+					table.add(name, copy(literals, literalEnd, valueLength));
+				}
+				if (listener != null) {
+					listener.header(nameBytes, nameStart, nameLength, literals, literalEnd,
+							valueLength);
+				}
+			}
+			first = false;
+		}
+	}
+
+	/**
+	 * @return the maximum size of the dynamic table
+	 */
+	public int getMaxTableSize() {
+		return maxTableSize;
+	}
+
+	/**
+	 * Set the maximum size of the dynamic table allowed to the peer.
+	 *
+	 * @param maxTableSize
+	 */
+	public void setMaxTableSize(int maxTableSize) {
+		this.maxTableSize = maxTableSize;
+		if (table.getMaxSize() > maxTableSize) {
+			table.setMaxSize(maxTableSize);
+		}
+	}
+
+	private byte[] getName(int index) throws Http2Exception {
+		if (index <= Hpack.STATIC_TABLE_LENGTH) {
+			return Hpack.STATIC_NAMES[index];
+		}
+		index -= Hpack.STATIC_TABLE_LENGTH;
+		if (index > table.length()) {
+			throw new Http2Exception(Constants.COMPRESSION_ERROR, MESSAGES.invalidHpackIndex(index
+					+ Hpack.STATIC_TABLE_LENGTH));
+		}
+		return table.getName(index);
+	}
+
+	private byte[] getValue(int index) {
+		if (index <= Hpack.STATIC_TABLE_LENGTH) {
+			return Hpack.STATIC_VALUES[index];
+		}
+		return table.getValue(index - Hpack.STATIC_TABLE_LENGTH);
+	}
+
+	/**
+	 * Decode an integer with the specified prefix length, starting at the
+	 * current position.
+	 */
+	private int decodeInt(byte[] block, int prefix) throws Http2Exception {
+		int mask = (1 << prefix) - 1;
+		int value = block[pos++] & mask;
+		if (value < mask) {
+			return value;
+		}
+		int shift = 0;
+		int b;
+		do {
+			if (pos == end || shift > 21) {
+				throw new Http2Exception(Constants.COMPRESSION_ERROR, MESSAGES.invalidHpackBlock());
+			}
+			b = block[pos++] & 0xff;
+			value += (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Decode a string literal in the literal buffer.
+	 *
+	 * @return the length of the string
+	 */
+	private int decodeString(byte[] block, int dstOff) throws Http2Exception {
+		if (pos == end) {
+			throw new Http2Exception(Constants.COMPRESSION_ERROR, MESSAGES.invalidHpackBlock());
+		}
+		boolean huffman = (block[pos] & 0x80) != 0;
+		int length = decodeInt(block, 7);
+		if (length > end - pos) {
+			throw new Http2Exception(Constants.COMPRESSION_ERROR, MESSAGES.invalidHpackBlock());
+		}
+		// A Huffman code is at least 5 bits long
+		int room = dstOff + (huffman ? (8 * length) / 5 + 1 : length);
+		if (room > literals.length) {
+			byte[] newLiterals = new byte[Math.max(room, 2 * literals.length)];
+			System.arraycopy(literals, 0, newLiterals, 0, dstOff);
+			literals = newLiterals;
+		}
+		int decoded;
+		if (huffman) {
+			decoded = Hpack.huffmanDecode(block, pos, length, literals, dstOff);
+		} else {
+			System.arraycopy(block, pos, literals, dstOff, length);
+			decoded = length;
+		}
+		pos += length;
+		return decoded;
+	}
+
+	private static byte[] copy(byte[] b, int off, int len) {
+		byte[] result = new byte[len];
+		System.arraycopy(b, off, result, 0, len);
+		return result;
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * {@code HpackEncoder}
+ * <p>
+ * Encoder of the header blocks sent on a connection (RFC 7541). Header fields
+ * are looked up in the static and dynamic tables, and the literals are Huffman
+ * encoded when it makes them shorter. The blocks must be written in the order
+ * they were encoded.
+ * </p>
+ */
+public class HpackEncoder {
+
+	/**
+	 * Index of the first static table entry with a given name.
+	 */
+	private static final HashMap<String, Integer> STATIC_INDEX = new HashMap<String, Integer>();
+
+	static {
+		for (int i = Hpack.STATIC_TABLE_LENGTH; i > 0; i--) {
+			STATIC_INDEX.put(Hpack.STATIC_TABLE[i - 1][0], Integer.valueOf(i));
+		}
+	}
+
+	protected Hpack.DynamicTable table = new Hpack.DynamicTable();
+
+	/**
+	 * Smallest table size since the last block, and flag set when the size
+	 * changed since then.
+	 */
+	protected int minTableSize = Constants.DEFAULT_HEADER_TABLE_SIZE;
+	protected boolean sizeUpdate = false;
+
+	/**
+	 * Encoded block.
+	 */
+	protected byte[] buf = new byte[512];
+	protected int pos = 0;
+
+	/**
+	 * Set the maximum size of the dynamic table, as allowed by the
+	 * SETTINGS_HEADER_TABLE_SIZE of the peer. The encoder never uses more than
+	 * the default size.
+	 *
+	 * @param maxTableSize
+	 */
+	public void setMaxTableSize(int maxTableSize) {
+		maxTableSize = Math.min(maxTableSize, Constants.DEFAULT_HEADER_TABLE_SIZE);
+		if (maxTableSize != table.getMaxSize()) {
+			table.setMaxSize(maxTableSize);
+			minTableSize = Math.min(minTableSize, maxTableSize);
+			sizeUpdate = true;
+		}
+	}
+
+	/**
+	 * Start a new header block.
+	 */
+	public void begin() {
+		pos = 0;
+		if (sizeUpdate) {
+			if (minTableSize < table.getMaxSize()) {
+				encodeInt(0x20, 5, minTableSize);
+			}
+			encodeInt(0x20, 5, table.getMaxSize());
+			minTableSize = table.getMaxSize();
+			sizeUpdate = false;
+		}
+	}
+
+	/**
+	 * Encode the status pseudo header.
+	 *
+	 * @param status
+	 */
+	public void encodeStatus(int status) {
+		int index = 0;
+		switch (status) {
+		case 200:
+			index = 8;
+			break;
+		case 204:
+			index = 9;
+			break;
+		case 206:
+			index = 10;
+			break;
+		case 304:
+			index = 11;
+			break;
+		case 400:
+			index = 12;
+			break;
+		case 404:
+			index = 13;
+			break;
+		case 500:
+			index = 14;
+			break;
+		}
+		if (index > 0) {
+			encodeInt(0x80, 7, index);
+		} else {
+			encodeHeader(":status", String.valueOf(status), false);
+		}
+	}
+
+	/**
+	 * Encode a header field.
+	 *
+	 * @param name
+	 *            the lower case name
+	 * @param value
+	 * @param index
+	 *            <tt>true</tt> to add the field to the dynamic table, which
+	 *            is worth it for values which are likely to be sent again
+	 */
+	public void encodeHeader(String name, String value, boolean index) {
+		byte[] nameBytes = Hpack.toBytes(name);
+		byte[] valueBytes = Hpack.toBytes(value);
+		Integer staticIndex = STATIC_INDEX.get(name);
+		int nameIndex = (staticIndex != null) ? staticIndex.intValue() : 0;
+		for (int i = 1; i <= table.length(); i++) {
+			if (Arrays.equals(table.getName(i), nameBytes)) {
+				if (Arrays.equals(table.getValue(i), valueBytes)) {
+					encodeInt(0x80, 7, Hpack.STATIC_TABLE_LENGTH + i);
+					return;
+				}
+				if (nameIndex == 0) {
+					nameIndex = Hpack.STATIC_TABLE_LENGTH + i;
+				}
+			}
+		}
+		if (index) {
+			encodeInt(0x40, 6, nameIndex);
+		} else {
+			encodeInt(0x00, 4, nameIndex);
+		}
+		if (nameIndex == 0) {
+			encodeString(nameBytes);
+		}
+		encodeString(valueBytes);
+		if (index) {
+			table.add(nameBytes, valueBytes);
+		}
+	}
+
+	/**
+	 * @return the buffer holding the encoded block
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * @return the length of the encoded block
+	 */
+	public int getLength() {
+		return pos;
+	}
+
+	/**
+	 * Encode an integer with the specified prefix length, the first byte
+	 * starting with the specified bits.
+	 */
+	protected void encodeInt(int bits, int prefix, int value) {
+		ensure(6);
+		int mask = (1 << prefix) - 1;
+		if (value < mask) {
+			buf[pos++] = (byte) (bits | value);
+			return;
+		}
+		buf[pos++] = (byte) (bits | mask);
+		value -= mask;
+		while (value >= 0x80) {
+			buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+	}
+
+	/**
+	 * Encode a string literal, Huffman encoded if shorter.
+	 */
+	protected void encodeString(byte[] s) {
+		int huffmanLength = Hpack.huffmanLength(s, 0, s.length);
+		if (huffmanLength < s.length) {
+			encodeInt(0x80, 7, huffmanLength);
+			ensure(huffmanLength);
+			pos = Hpack.huffmanEncode(s, 0, s.length, buf, pos);
+		} else {
+			encodeInt(0x00, 7, s.length);
+			ensure(s.length);
+			System.arraycopy(s, 0, buf, pos, s.length);
+			pos += s.length;
+		}
+	}
+
+	private void ensure(int room) {
+		if (pos + room > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(pos + room, 2 * buf.length));
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+
+/**
+ * {@code Http2Exception}
+ * <p>
+ * Error detected while processing an HTTP/2 connection. A stream error only
+ * resets the stream it occurred on, while a connection error closes the
+ * connection.
+ * </p>
+ */
+public class Http2Exception extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The error code sent to the peer.
+	 */
+	private final int error;
+
+	/**
+	 * The stream identifier, 0 for a connection error.
+	 */
+	private final int streamId;
+
+	/**
+	 * Create a new connection error.
+	 * 
+	 * @param error
+	 * @param message
+	 */
+	public Http2Exception(int error, String message) {
+		this(0, error, message);
+	}
+
+	/**
+	 * Create a new stream error.
+	 * 
+	 * @param streamId
+	 * @param error
+	 * @param message
+	 */
+	public Http2Exception(int streamId, int error, String message) {
+		super(message);
+		this.streamId = streamId;
+		this.error = error;
+	}
+
+	/**
+	 * @return the error code
+	 */
+	public int getError() {
+		return error;
+	}
+
+	/**
+	 * @return the stream identifier, 0 for a connection error
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * @return <tt>true</tt> if only the stream is in error
+	 */
+	public boolean isStreamError() {
+		return streamId != 0;
+	}
+}
@@ -0,0 +1,1239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.DirectBufferArena;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * {@code Http2Processor}
+ * <p>
+ * Processor of an HTTP/2 connection (RFC 7540). The frames are read
+ * asynchronously, and processed in the thread completing the read, which
+ * dispatches the streams to the stream executor of the protocol. The frames
+ * are written in blocking mode by the threads producing them, one frame
+ * sequence at a time.
+ * </p>
+ * <p>
+ * The send windows are guarded by the window lock, which is always acquired
+ * before the lock of a stream. The receive window of the connection is
+ * credited back as soon as the data is received, so the peer is only slowed
+ * down by the stream windows, which are credited back as the data is read by
+ * the application.
+ * </p>
+ */
+public class Http2Processor {
+
+	protected Http2Protocol proto;
+	protected NioEndpoint endpoint;
+	protected NioChannel channel;
+	protected DirectBufferArena arena;
+
+	/**
+	 * Read buffer, only used by the thread which completed the last read. It
+	 * is released by that thread once the connection is closed.
+	 */
+	protected ByteBuffer readBuffer;
+	protected ReadHandler readHandler = new ReadHandler();
+	protected HpackDecoder decoder = new HpackDecoder();
+	protected boolean prefaceReceived = false;
+	protected boolean settingsReceived = false;
+
+	/**
+	 * Write buffer and header encoder, guarded by the write lock.
+	 */
+	protected final Object writeLock = new Object();
+	protected ByteBuffer writeBuffer;
+	protected HpackEncoder encoder = new HpackEncoder();
+	protected long writeTimeout;
+
+	/**
+	 * Send windows, guarded by the window lock.
+	 */
+	protected final Object windowLock = new Object();
+	protected long sendWindow = Constants.DEFAULT_WINDOW_SIZE;
+	protected int initialSendWindow = Constants.DEFAULT_WINDOW_SIZE;
+	protected volatile int maxSendFrameSize = Constants.DEFAULT_MAX_FRAME_SIZE;
+
+	/**
+	 * Receive window of the connection.
+	 */
+	protected int connectionWindowSize;
+	protected int recvWindow;
+	protected int recvConsumed = 0;
+
+	/**
+	 * Active streams of the connection.
+	 */
+	protected ConcurrentHashMap<Integer, Http2Stream> streams = new ConcurrentHashMap<Integer, Http2Stream>();
+	protected int lastStreamId = 0;
+
+	/**
+	 * Header block being received, with the stream it belongs to, or
+	 * <tt>null</tt> if the block is only decoded to keep the decoding context.
+	 */
+	protected int headerStreamId = 0;
+	protected Http2Stream headerStream = null;
+	protected boolean headerTrailers = false;
+	protected boolean headerEndStream = false;
+	protected byte[] headerBlock = new byte[1024];
+	protected int headerLength = 0;
+
+	protected volatile boolean closed = false;
+	protected volatile boolean goAwayReceived = false;
+
+	protected InetSocketAddress remoteAddress = null;
+	protected InetSocketAddress localAddress = null;
+
+	/**
+	 * Create a new instance of {@code Http2Processor}
+	 *
+	 * @param proto
+	 * @param endpoint
+	 * @param channel
+	 */
+	public Http2Processor(Http2Protocol proto, NioEndpoint endpoint, NioChannel channel) {
+		this.proto = proto;
+		this.endpoint = endpoint;
+		this.channel = channel;
+		this.arena = endpoint.getBufferArena();
+		int size = Constants.FRAME_HEADER_LENGTH + Constants.DEFAULT_MAX_FRAME_SIZE;
+		this.readBuffer = arena.allocate(2 * size);
+		this.writeBuffer = arena.allocate(size);
+		this.writeTimeout = (endpoint.getSoTimeout() > 0) ? endpoint.getSoTimeout()
+				: Integer.MAX_VALUE;
+		this.connectionWindowSize = Math.max(proto.getInitialWindowSize(),
+				Constants.DEFAULT_WINDOW_SIZE);
+		this.recvWindow = connectionWindowSize;
+	}
+
+	/**
+	 * Start a connection for which the client sends the connection preface
+	 * right away.
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		writePreface();
+		read();
+	}
+
+	/**
+	 * Start a connection upgraded from HTTP/1.1. The request which carried
+	 * the upgrade is processed as the stream 1.
+	 *
+	 * @param request
+	 *            the upgraded request
+	 * @param settings
+	 *            the decoded HTTP2-Settings header
+	 * @param unread
+	 *            the bytes received after the upgraded request
+	 * @throws IOException
+	 */
+	public void upgrade(Request request, byte[] settings, byte[] unread) throws IOException {
+		try {
+			applySettings(ByteBuffer.wrap(settings), settings.length);
+			writePreface();
+
+			Http2Stream stream = proto.createStream();
+			stream.setup(this, 1, initialSendWindow,
+					Math.max(proto.getInitialWindowSize(), Constants.DEFAULT_WINDOW_SIZE));
+			stream.setRequest(request);
+			lastStreamId = 1;
+			startStream(stream, true);
+
+			int off = 0;
+			while (off < unread.length && !closed) {
+				int n = Math.min(readBuffer.remaining(), unread.length - off);
+				readBuffer.put(unread, off, n);
+				off += n;
+				readBuffer.flip();
+				processFrames();
+				readBuffer.compact();
+			}
+		} catch (Http2Exception e) {
+			connectionError(e);
+			releaseReadBuffer();
+			return;
+		}
+		read();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the connection is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the channel of the connection
+	 */
+	public NioChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return the address of the client
+	 * @throws IOException
+	 */
+	protected InetSocketAddress getRemoteAddress() throws IOException {
+		if (remoteAddress == null) {
+			remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+		}
+		return remoteAddress;
+	}
+
+	/**
+	 * @return the local address of the connection
+	 * @throws IOException
+	 */
+	protected InetSocketAddress getLocalAddress() throws IOException {
+		if (localAddress == null) {
+			localAddress = (InetSocketAddress) channel.getLocalAddress();
+		}
+		return localAddress;
+	}
+
+	/**
+	 * @return the local port of the connection
+	 */
+	protected int getLocalPort() {
+		try {
+			return getLocalAddress().getPort();
+		} catch (IOException e) {
+			return endpoint.getPort();
+		}
+	}
+
+	/**
+	 * Handle the expiration of the idle timeout of the connection.
+	 */
+	public void timeout() {
+		if (streams.isEmpty()) {
+			goAway(Constants.NO_ERROR);
+			close();
+		}
+	}
+
+	/**
+	 * Close the connection, the streams still processed fail on their next
+	 * read or write.
+	 */
+	public void close() {
+		synchronized (windowLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			windowLock.notifyAll();
+		}
+		for (Http2Stream stream : streams.values()) {
+			synchronized (stream) {
+				stream.notifyAll();
+			}
+		}
+		proto.connectionClosed(this);
+		endpoint.removeEventChannel(channel);
+		endpoint.closeChannel(channel);
+		synchronized (writeLock) {
+			arena.release(writeBuffer);
+			writeBuffer = null;
+		}
+	}
+
+	// ---------------------------------------------------------- Read frames
+
+	/**
+	 * Read the next frames, the read has no timeout as the connection may
+	 * be waiting for the window updates of long responses. The idle timeout
+	 * of the connection is handled by the endpoint poller.
+	 */
+	protected void read() {
+		if (closed) {
+			releaseReadBuffer();
+			return;
+		}
+		try {
+			channel.read(readBuffer, 0, TimeUnit.MILLISECONDS, this, readHandler);
+		} catch (Exception e) {
+			CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(e);
+			close();
+			releaseReadBuffer();
+		}
+	}
+
+	/**
+	 * Release the read buffer once the connection is closed.
+	 */
+	protected void releaseReadBuffer() {
+		arena.release(readBuffer);
+		readBuffer = null;
+	}
+
+	/**
+	 * Process the complete frames of the read buffer, which is ready to be
+	 * read.
+	 *
+	 * @throws IOException
+	 */
+	protected void processFrames() throws IOException {
+		ByteBuffer buf = readBuffer;
+		if (!prefaceReceived) {
+			int n = Math.min(buf.remaining(), Constants.PREFACE.length);
+			for (int i = 0; i < n; i++) {
+				if (buf.get(buf.position() + i) != Constants.PREFACE[i]) {
+					throw new Http2Exception(Constants.PROTOCOL_ERROR,
+							MESSAGES.invalidHttp2Preface());
+				}
+			}
+			if (n < Constants.PREFACE.length) {
+				return;
+			}
+			buf.position(buf.position() + n);
+			prefaceReceived = true;
+		}
+
+		while (buf.remaining() >= Constants.FRAME_HEADER_LENGTH && !closed) {
+			int start = buf.position();
+			int length = ((buf.get(start) & 0xff) << 16) | ((buf.get(start + 1) & 0xff) << 8)
+					| (buf.get(start + 2) & 0xff);
+			int type = buf.get(start + 3) & 0xff;
+			int flags = buf.get(start + 4) & 0xff;
+			int streamId = buf.getInt(start + 5) & 0x7fffffff;
+			if (length > Constants.DEFAULT_MAX_FRAME_SIZE) {
+				throw new Http2Exception(Constants.FRAME_SIZE_ERROR,
+						MESSAGES.invalidHttp2FrameSize(length, type));
+			}
+			if (buf.remaining() < Constants.FRAME_HEADER_LENGTH + length) {
+				break;
+			}
+			int end = start + Constants.FRAME_HEADER_LENGTH + length;
+			int limit = buf.limit();
+			buf.position(start + Constants.FRAME_HEADER_LENGTH);
+			buf.limit(end);
+			try {
+				processFrame(buf, type, flags, streamId, length);
+			} catch (Http2Exception e) {
+				if (!e.isStreamError()) {
+					throw e;
+				}
+				CoyoteLogger.HTTP2_LOGGER.http2StreamError(e.getStreamId(), e);
+				resetStream(e.getStreamId(), e.getError());
+			}
+			buf.limit(limit);
+			buf.position(end);
+		}
+	}
+
+	/**
+	 * Process a frame, the buffer is positioned at the frame payload.
+	 */
+	protected void processFrame(ByteBuffer buf, int type, int flags, int streamId, int length)
+			throws IOException {
+		if (!settingsReceived && type != Constants.SETTINGS) {
+			// The preface of the client ends with a SETTINGS frame
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Preface());
+		}
+		if (headerStreamId != 0
+				&& (type != Constants.CONTINUATION || streamId != headerStreamId)) {
+			// A header block must be received in one piece
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(type,
+					streamId));
+		}
+
+		switch (type) {
+		case Constants.DATA:
+			processData(buf, flags, streamId, length);
+			break;
+		case Constants.HEADERS:
+			processHeaders(buf, flags, streamId);
+			break;
+		case Constants.PRIORITY:
+			if (streamId == 0) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						type, streamId));
+			}
+			if (length != 5) {
+				throw new Http2Exception(streamId, Constants.FRAME_SIZE_ERROR,
+						MESSAGES.invalidHttp2FrameSize(length, type));
+			}
+			// Priorities are not used
+			break;
+		case Constants.RST_STREAM:
+			processReset(buf, streamId, length);
+			break;
+		case Constants.SETTINGS:
+			processSettings(buf, flags, streamId, length);
+			break;
+		case Constants.PUSH_PROMISE:
+			// Clients cannot push
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(type,
+					streamId));
+		case Constants.PING:
+			if (streamId != 0) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						type, streamId));
+			}
+			if (length != 8) {
+				throw new Http2Exception(Constants.FRAME_SIZE_ERROR,
+						MESSAGES.invalidHttp2FrameSize(length, type));
+			}
+			if ((flags & Constants.FLAG_ACK) == 0) {
+				byte[] payload = new byte[8];
+				buf.get(payload);
+				writeFrame(Constants.PING, Constants.FLAG_ACK, 0, payload);
+			}
+			break;
+		case Constants.GOAWAY:
+			if (streamId != 0) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						type, streamId));
+			}
+			if (length < 8) {
+				throw new Http2Exception(Constants.FRAME_SIZE_ERROR,
+						MESSAGES.invalidHttp2FrameSize(length, type));
+			}
+			// The active streams are completed before closing
+			goAwayReceived = true;
+			if (streams.isEmpty()) {
+				close();
+			}
+			break;
+		case Constants.WINDOW_UPDATE:
+			processWindowUpdate(buf, streamId, length);
+			break;
+		case Constants.CONTINUATION:
+			if (headerStreamId == 0) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						type, streamId));
+			}
+			appendHeaderBlock(buf, buf.remaining());
+			if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+				endHeaders();
+			}
+			break;
+		default:
+			// Unknown frame types are ignored
+		}
+	}
+
+	/**
+	 * Process a DATA frame.
+	 */
+	protected void processData(ByteBuffer buf, int flags, int streamId, int length)
+			throws IOException {
+		if (streamId == 0) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.DATA, streamId));
+		}
+		int dataLength = length;
+		if ((flags & Constants.FLAG_PADDED) != 0) {
+			int padding = (length > 0) ? buf.get() & 0xff : length;
+			if (padding >= length) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						Constants.DATA, streamId));
+			}
+			dataLength = length - 1 - padding;
+		}
+
+		// Connection flow control, the whole frame counts
+		recvWindow -= length;
+		if (recvWindow < 0) {
+			throw new Http2Exception(Constants.FLOW_CONTROL_ERROR,
+					MESSAGES.http2FlowControlError(0));
+		}
+		recvConsumed += length;
+		if (recvConsumed >= connectionWindowSize / 2) {
+			writeWindowUpdate(0, recvConsumed);
+			recvWindow += recvConsumed;
+			recvConsumed = 0;
+		}
+
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) {
+			if (streamId > lastStreamId) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						Constants.DATA, streamId));
+			}
+			// The stream was closed, the data is not needed anymore
+			return;
+		}
+		synchronized (stream) {
+			if (stream.processor != this) {
+				return;
+			}
+			if (stream.remoteClosed) {
+				throw new Http2Exception(streamId, Constants.STREAM_CLOSED,
+						MESSAGES.invalidHttp2Frame(Constants.DATA, streamId));
+			}
+			stream.receiveData(buf, dataLength, length - dataLength,
+					(flags & Constants.FLAG_END_STREAM) != 0);
+		}
+	}
+
+	/**
+	 * Process a HEADERS frame, which starts a new stream or carries the
+	 * trailers of an active stream.
+	 */
+	protected void processHeaders(ByteBuffer buf, int flags, int streamId) throws IOException {
+		if (streamId == 0 || (streamId & 1) == 0) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.HEADERS, streamId));
+		}
+		int padding = 0;
+		if ((flags & Constants.FLAG_PADDED) != 0 && buf.hasRemaining()) {
+			padding = buf.get() & 0xff;
+		}
+		if ((flags & Constants.FLAG_PRIORITY) != 0) {
+			// Priorities are not used
+			buf.position(Math.min(buf.position() + 5, buf.limit()));
+		}
+		int fragment = buf.remaining() - padding;
+		if (fragment < 0) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.HEADERS, streamId));
+		}
+
+		headerStreamId = streamId;
+		headerStream = null;
+		headerTrailers = false;
+		headerEndStream = (flags & Constants.FLAG_END_STREAM) != 0;
+		headerLength = 0;
+
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			// Trailers, which must end the stream
+			if (!headerEndStream) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						Constants.HEADERS, streamId));
+			}
+			headerStream = stream;
+			headerTrailers = true;
+		} else if (streamId > lastStreamId) {
+			lastStreamId = streamId;
+			if (!goAwayReceived && streams.size() < proto.getMaxConcurrentStreams()) {
+				headerStream = proto.createStream();
+				headerStream.setup(this, streamId, initialSendWindow,
+						Math.max(proto.getInitialWindowSize(), Constants.DEFAULT_WINDOW_SIZE));
+			}
+		}
+		// Else the stream is closed, the block is only decoded
+
+		appendHeaderBlock(buf, fragment);
+		if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+			endHeaders();
+		}
+	}
+
+	/**
+	 * Process a complete header block.
+	 */
+	protected void endHeaders() throws IOException {
+		int streamId = headerStreamId;
+		Http2Stream stream = headerStream;
+		boolean trailers = headerTrailers;
+		headerStreamId = 0;
+		headerStream = null;
+
+		if (stream == null || trailers) {
+			// Trailers are not passed to the application
+			decoder.decode(headerBlock, 0, headerLength, null);
+			if (stream == null) {
+				if (streamId == lastStreamId) {
+					writeReset(streamId, Constants.REFUSED_STREAM);
+				}
+				return;
+			}
+			synchronized (stream) {
+				if (stream.processor == this) {
+					stream.endOfInput();
+				}
+			}
+			return;
+		}
+
+		try {
+			decoder.decode(headerBlock, 0, headerLength, stream);
+		} catch (Http2Exception e) {
+			proto.recycleStream(stream);
+			throw e;
+		}
+		startStream(stream, headerEndStream);
+	}
+
+	/**
+	 * Start the processing of a stream whose headers were received.
+	 */
+	protected void startStream(Http2Stream stream, boolean endStream) throws IOException {
+		if (endStream) {
+			stream.remoteClosed = true;
+		}
+		if (!stream.prepareRequest()) {
+			CoyoteLogger.HTTP2_LOGGER.http2StreamError(stream.getId(), new Http2Exception(
+					stream.getId(), Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Request(stream
+							.getId())));
+			int streamId = stream.getId();
+			proto.recycleStream(stream);
+			writeReset(streamId, Constants.PROTOCOL_ERROR);
+			return;
+		}
+		if (streams.isEmpty()) {
+			// The connection is not idle anymore
+			endpoint.removeEventChannel(channel);
+		}
+		streams.put(Integer.valueOf(stream.getId()), stream);
+		try {
+			proto.getStreamExecutor().execute(stream);
+		} catch (RejectedExecutionException e) {
+			int streamId = stream.getId();
+			streams.remove(Integer.valueOf(streamId));
+			proto.recycleStream(stream);
+			writeReset(streamId, Constants.REFUSED_STREAM);
+		}
+	}
+
+	/**
+	 * Process a RST_STREAM frame.
+	 */
+	protected void processReset(ByteBuffer buf, int streamId, int length) throws IOException {
+		if (streamId == 0 || streamId > lastStreamId) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.RST_STREAM, streamId));
+		}
+		if (length != 4) {
+			throw new Http2Exception(Constants.FRAME_SIZE_ERROR, MESSAGES.invalidHttp2FrameSize(
+					length, Constants.RST_STREAM));
+		}
+		int error = buf.getInt();
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			synchronized (windowLock) {
+				synchronized (stream) {
+					if (stream.processor == this) {
+						stream.reset(error);
+					}
+				}
+				windowLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Process a SETTINGS frame.
+	 */
+	protected void processSettings(ByteBuffer buf, int flags, int streamId, int length)
+			throws IOException {
+		if (streamId != 0) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.SETTINGS, streamId));
+		}
+		if ((flags & Constants.FLAG_ACK) != 0) {
+			if (length != 0) {
+				throw new Http2Exception(Constants.FRAME_SIZE_ERROR,
+						MESSAGES.invalidHttp2FrameSize(length, Constants.SETTINGS));
+			}
+			return;
+		}
+		if (length % 6 != 0) {
+			throw new Http2Exception(Constants.FRAME_SIZE_ERROR, MESSAGES.invalidHttp2FrameSize(
+					length, Constants.SETTINGS));
+		}
+		applySettings(buf, length);
+		settingsReceived = true;
+		writeFrame(Constants.SETTINGS, Constants.FLAG_ACK, 0, null);
+	}
+
+	/**
+	 * Apply the settings of the peer.
+	 */
+	protected void applySettings(ByteBuffer buf, int length) throws Http2Exception {
+		for (int i = 0; i + 6 <= length; i += 6) {
+			int setting = buf.getShort() & 0xffff;
+			long value = buf.getInt() & 0xffffffffL;
+			switch (setting) {
+			case Constants.SETTINGS_HEADER_TABLE_SIZE:
+				synchronized (writeLock) {
+					encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+				}
+				break;
+			case Constants.SETTINGS_ENABLE_PUSH:
+				if (value > 1) {
+					throw new Http2Exception(Constants.PROTOCOL_ERROR,
+							MESSAGES.invalidHttp2Setting(value, setting));
+				}
+				break;
+			case Constants.SETTINGS_INITIAL_WINDOW_SIZE:
+				if (value > Constants.MAX_WINDOW_SIZE) {
+					throw new Http2Exception(Constants.FLOW_CONTROL_ERROR,
+							MESSAGES.invalidHttp2Setting(value, setting));
+				}
+				synchronized (windowLock) {
+					long delta = value - initialSendWindow;
+					initialSendWindow = (int) value;
+					for (Http2Stream stream : streams.values()) {
+						stream.sendWindow += delta;
+						if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+							throw new Http2Exception(Constants.FLOW_CONTROL_ERROR,
+									MESSAGES.http2FlowControlError(stream.getId()));
+						}
+					}
+					windowLock.notifyAll();
+				}
+				break;
+			case Constants.SETTINGS_MAX_FRAME_SIZE:
+				if (value < Constants.DEFAULT_MAX_FRAME_SIZE
+						|| value > Constants.MAX_FRAME_SIZE_LIMIT) {
+					throw new Http2Exception(Constants.PROTOCOL_ERROR,
+							MESSAGES.invalidHttp2Setting(value, setting));
+				}
+				maxSendFrameSize = (int) value;
+				break;
+			default:
+				// The other settings do not apply to a server which does not
+				// push, and unknown settings are ignored
+			}
+		}
+	}
+
+	/**
+	 * Process a WINDOW_UPDATE frame.
+	 */
+	protected void processWindowUpdate(ByteBuffer buf, int streamId, int length)
+			throws IOException {
+		if (length != 4) {
+			throw new Http2Exception(Constants.FRAME_SIZE_ERROR, MESSAGES.invalidHttp2FrameSize(
+					length, Constants.WINDOW_UPDATE));
+		}
+		int increment = buf.getInt() & 0x7fffffff;
+		if (streamId == 0) {
+			if (increment == 0) {
+				throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+						Constants.WINDOW_UPDATE, streamId));
+			}
+			synchronized (windowLock) {
+				sendWindow += increment;
+				if (sendWindow > Constants.MAX_WINDOW_SIZE) {
+					throw new Http2Exception(Constants.FLOW_CONTROL_ERROR,
+							MESSAGES.http2FlowControlError(streamId));
+				}
+				windowLock.notifyAll();
+			}
+			return;
+		}
+		if (streamId > lastStreamId) {
+			throw new Http2Exception(Constants.PROTOCOL_ERROR, MESSAGES.invalidHttp2Frame(
+					Constants.WINDOW_UPDATE, streamId));
+		}
+		Http2Stream stream = streams.get(streamId);
+		if (stream == null) {
+			return;
+		}
+		if (increment == 0) {
+			throw new Http2Exception(streamId, Constants.PROTOCOL_ERROR,
+					MESSAGES.invalidHttp2Frame(Constants.WINDOW_UPDATE, streamId));
+		}
+		synchronized (windowLock) {
+			if (stream.processor == this) {
+				stream.sendWindow += increment;
+				if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+					throw new Http2Exception(streamId, Constants.FLOW_CONTROL_ERROR,
+							MESSAGES.http2FlowControlError(streamId));
+				}
+				windowLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Append a fragment of a header block.
+	 */
+	protected void appendHeaderBlock(ByteBuffer buf, int length) throws Http2Exception {
+		int maxLength = 2 * proto.getMaxHeaderListSize() + Constants.DEFAULT_MAX_FRAME_SIZE;
+		if (headerLength + length > maxLength) {
+			throw new Http2Exception(Constants.ENHANCE_YOUR_CALM,
+					MESSAGES.http2HeaderListTooLarge(headerStreamId, proto.getMaxHeaderListSize()));
+		}
+		if (headerLength + length > headerBlock.length) {
+			byte[] newBlock = new byte[Math.max(headerLength + length, 2 * headerBlock.length)];
+			System.arraycopy(headerBlock, 0, newBlock, 0, headerLength);
+			headerBlock = newBlock;
+		}
+		buf.get(headerBlock, headerLength, length);
+		headerLength += length;
+	}
+
+	// ---------------------------------------------------- Stream callbacks
+
+	/**
+	 * Reserve some room in the send windows of the connection and of the
+	 * stream, waiting for the peer to open them if needed.
+	 *
+	 * @param stream
+	 * @param length
+	 *            the number of bytes to send
+	 * @return the number of bytes which can be sent right away
+	 * @throws IOException
+	 *             if the stream is reset or the connection closed, or if the
+	 *             windows stay closed for longer than the write timeout
+	 */
+	protected int reserveWindow(Http2Stream stream, int length) throws IOException {
+		long deadline = System.currentTimeMillis() + writeTimeout;
+		synchronized (windowLock) {
+			while (true) {
+				if (closed) {
+					throw new IOException(MESSAGES.http2ConnectionClosed());
+				}
+				if (stream.processor != this || stream.isReset()) {
+					throw new IOException(MESSAGES.http2StreamReset(stream.getId(),
+							stream.resetError));
+				}
+				long n = Math.min(Math.min(length, maxSendFrameSize),
+						Math.min(sendWindow, stream.sendWindow));
+				if (n > 0) {
+					sendWindow -= n;
+					stream.sendWindow -= n;
+					return (int) n;
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new SocketTimeoutException(MESSAGES.http2WindowTimeout(stream.getId()));
+				}
+				try {
+					windowLock.wait(wait);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Account for request body bytes read by the application, and credit them
+	 * back to the peer.
+	 *
+	 * @param stream
+	 * @param n
+	 * @throws IOException
+	 */
+	protected void consumed(Http2Stream stream, int n) throws IOException {
+		int increment = stream.consume(n);
+		if (increment > 0) {
+			writeWindowUpdate(stream.getId(), increment);
+		}
+	}
+
+	/**
+	 * Reset a stream on behalf of the application.
+	 *
+	 * @param stream
+	 * @param error
+	 * @throws IOException
+	 */
+	protected void resetStream(Http2Stream stream, int error) throws IOException {
+		stream.reset(error);
+		writeReset(stream.getId(), error);
+	}
+
+	/**
+	 * Reset a stream after a stream error.
+	 *
+	 * @param streamId
+	 * @param error
+	 * @throws IOException
+	 */
+	protected void resetStream(int streamId, int error) throws IOException {
+		Http2Stream stream = streams.get(streamId);
+		if (stream != null) {
+			synchronized (windowLock) {
+				synchronized (stream) {
+					if (stream.processor == this) {
+						stream.reset(error);
+					}
+				}
+				windowLock.notifyAll();
+			}
+		}
+		writeReset(streamId, error);
+	}
+
+	/**
+	 * Detach a stream whose processing is complete.
+	 *
+	 * @param stream
+	 */
+	protected void streamEnded(Http2Stream stream) {
+		synchronized (windowLock) {
+			synchronized (stream) {
+				streams.remove(Integer.valueOf(stream.getId()));
+				stream.detach();
+			}
+		}
+		proto.recycleStream(stream);
+		if (streams.isEmpty()) {
+			if (goAwayReceived) {
+				close();
+			} else if (!closed) {
+				// Start the idle timeout of the connection
+				endpoint.addEventChannel(channel, endpoint.getKeepAliveTimeout(), false, false,
+						false, false);
+			}
+		}
+	}
+
+	// --------------------------------------------------------- Write frames
+
+	/**
+	 * Write the headers of the response of a stream.
+	 *
+	 * @param stream
+	 * @param endStream
+	 *            <tt>true</tt> if the response has no body
+	 * @throws IOException
+	 */
+	protected void writeHeaders(Http2Stream stream, boolean endStream) throws IOException {
+		synchronized (writeLock) {
+			ensureOpen(stream);
+			encodeHeaders(stream.response);
+			writeHeaderBlock(stream.getId(), endStream);
+			flushWrite();
+		}
+	}
+
+	/**
+	 * Write an interim 100 response.
+	 *
+	 * @param stream
+	 * @throws IOException
+	 */
+	protected void writeContinue(Http2Stream stream) throws IOException {
+		synchronized (writeLock) {
+			ensureOpen(stream);
+			encoder.begin();
+			encoder.encodeStatus(100);
+			writeHeaderBlock(stream.getId(), false);
+			flushWrite();
+		}
+	}
+
+	/**
+	 * Write a DATA frame, preceded by the response headers if they were not
+	 * sent yet. The room in the send windows must have been reserved.
+	 *
+	 * @param stream
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @param endStream
+	 * @throws IOException
+	 */
+	protected void writeData(Http2Stream stream, byte[] b, int off, int len, boolean endStream)
+			throws IOException {
+		synchronized (writeLock) {
+			ensureOpen(stream);
+			if (stream.headersPending) {
+				stream.headersPending = false;
+				encodeHeaders(stream.response);
+				writeHeaderBlock(stream.getId(), false);
+			}
+			putFrameHeader(len, Constants.DATA, endStream ? Constants.FLAG_END_STREAM : 0,
+					stream.getId());
+			put(b, off, len);
+			flushWrite();
+		}
+	}
+
+	/**
+	 * Write a RST_STREAM frame.
+	 */
+	protected void writeReset(int streamId, int error) throws IOException {
+		byte[] payload = new byte[4];
+		putInt(payload, 0, error);
+		writeFrame(Constants.RST_STREAM, 0, streamId, payload);
+	}
+
+	/**
+	 * Write a WINDOW_UPDATE frame.
+	 */
+	protected void writeWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] payload = new byte[4];
+		putInt(payload, 0, increment);
+		writeFrame(Constants.WINDOW_UPDATE, 0, streamId, payload);
+	}
+
+	/**
+	 * Write a GOAWAY frame, ignoring the errors as the connection is closed
+	 * right after.
+	 */
+	protected void goAway(int error) {
+		byte[] payload = new byte[8];
+		putInt(payload, 0, lastStreamId);
+		putInt(payload, 4, error);
+		try {
+			writeFrame(Constants.GOAWAY, 0, 0, payload);
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/**
+	 * Handle a connection error.
+	 */
+	protected void connectionError(Http2Exception e) {
+		CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(e);
+		goAway(e.getError());
+		close();
+	}
+
+	/**
+	 * Write the SETTINGS frame of the server preface.
+	 */
+	protected void writePreface() throws IOException {
+		synchronized (writeLock) {
+			ensureOpen(null);
+			boolean window = proto.getInitialWindowSize() != Constants.DEFAULT_WINDOW_SIZE;
+			putFrameHeader(6 * (window ? 3 : 2), Constants.SETTINGS, 0, 0);
+			putSetting(Constants.SETTINGS_MAX_CONCURRENT_STREAMS, proto.getMaxConcurrentStreams());
+			if (window) {
+				putSetting(Constants.SETTINGS_INITIAL_WINDOW_SIZE, proto.getInitialWindowSize());
+			}
+			putSetting(Constants.SETTINGS_MAX_HEADER_LIST_SIZE, proto.getMaxHeaderListSize());
+			if (connectionWindowSize > Constants.DEFAULT_WINDOW_SIZE) {
+				putFrameHeader(4, Constants.WINDOW_UPDATE, 0, 0);
+				writeBuffer.putInt(connectionWindowSize - Constants.DEFAULT_WINDOW_SIZE);
+			}
+			flushWrite();
+		}
+	}
+
+	/**
+	 * Write a frame with a small payload.
+	 */
+	protected void writeFrame(int type, int flags, int streamId, byte[] payload)
+			throws IOException {
+		synchronized (writeLock) {
+			ensureOpen(null);
+			int length = (payload != null) ? payload.length : 0;
+			putFrameHeader(length, type, flags, streamId);
+			put(payload, 0, length);
+			flushWrite();
+		}
+	}
+
+	/**
+	 * Encode the headers of a response.
+	 */
+	protected void encodeHeaders(Response response) {
+		encoder.begin();
+		encoder.encodeStatus(response.getStatus());
+		MimeHeaders headers = response.getMimeHeaders();
+		String contentType = response.getContentType();
+		if (contentType != null) {
+			encoder.encodeHeader("content-type", contentType, true);
+		}
+		String contentLanguage = response.getContentLanguage();
+		if (contentLanguage != null) {
+			encoder.encodeHeader("content-language", contentLanguage, true);
+		}
+		long contentLength = response.getContentLengthLong();
+		if (contentLength >= 0) {
+			encoder.encodeHeader("content-length", String.valueOf(contentLength), false);
+		}
+		if (headers.getValue(KnownHeader.DATE) == null) {
+			encoder.encodeHeader("date", FastHttpDateFormat.getCurrentDate(), true);
+		}
+		if (headers.getValue(KnownHeader.SERVER) == null) {
+			encoder.encodeHeader("server", proto.getServer(), true);
+		}
+		int size = headers.size();
+		for (int i = 0; i < size; i++) {
+			String name = headers.getName(i).toString().toLowerCase(Locale.ENGLISH);
+			if (name.equals("connection") || name.equals("keep-alive")
+					|| name.equals("proxy-connection") || name.equals("transfer-encoding")
+					|| name.equals("upgrade") || name.equals("content-type")
+					|| name.equals("content-language") || name.equals("content-length")) {
+				// Connection specific headers are not allowed, and the entity
+				// headers were sent above
+				continue;
+			}
+			String value = headers.getValue(i).toString();
+			if (value == null) {
+				continue;
+			}
+			boolean index = !(name.equals("etag") || name.equals("last-modified")
+					|| name.equals("location") || name.equals("set-cookie")
+					|| name.equals("content-range") || name.equals("age"));
+			encoder.encodeHeader(name, value, index);
+		}
+	}
+
+	/**
+	 * Write the encoded header block as a HEADERS frame and as many
+	 * CONTINUATION frames as needed.
+	 */
+	protected void writeHeaderBlock(int streamId, boolean endStream) throws IOException {
+		byte[] block = encoder.getBuffer();
+		int length = encoder.getLength();
+		int type = Constants.HEADERS;
+		int flags = endStream ? Constants.FLAG_END_STREAM : 0;
+		int off = 0;
+		do {
+			int n = Math.min(length - off, maxSendFrameSize);
+			if (off + n == length) {
+				flags |= Constants.FLAG_END_HEADERS;
+			}
+			putFrameHeader(n, type, flags, streamId);
+			put(block, off, n);
+			off += n;
+			type = Constants.CONTINUATION;
+			flags = 0;
+		} while (off < length);
+	}
+
+	private void ensureOpen(Http2Stream stream) throws IOException {
+		if (writeBuffer == null) {
+			throw new IOException(MESSAGES.http2ConnectionClosed());
+		}
+		if (stream != null && (stream.processor != this || stream.isReset())) {
+			throw new IOException(MESSAGES.http2StreamReset(stream.getId(), stream.resetError));
+		}
+	}
+
+	private void putFrameHeader(int length, int type, int flags, int streamId)
+			throws IOException {
+		if (writeBuffer.remaining() < Constants.FRAME_HEADER_LENGTH) {
+			flushWrite();
+		}
+		writeBuffer.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+		writeBuffer.put((byte) type).put((byte) flags).putInt(streamId);
+	}
+
+	private void putSetting(int setting, int value) {
+		writeBuffer.putShort((short) setting).putInt(value);
+	}
+
+	private void put(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!writeBuffer.hasRemaining()) {
+				flushWrite();
+			}
+			int n = Math.min(len, writeBuffer.remaining());
+			writeBuffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Write the content of the write buffer, in blocking mode.
+	 */
+	private void flushWrite() throws IOException {
+		writeBuffer.flip();
+		try {
+			while (writeBuffer.hasRemaining()) {
+				if (channel.writeBytes(writeBuffer, writeTimeout, TimeUnit.MILLISECONDS) < 0) {
+					throw new IOException(MESSAGES.failedWrite());
+				}
+			}
+			writeBuffer.clear();
+		} catch (Exception e) {
+			// The connection is broken
+			close();
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException(MESSAGES.failedWrite(), e);
+		}
+	}
+
+	private static void putInt(byte[] b, int off, int value) {
+		b[off] = (byte) (value >>> 24);
+		b[off + 1] = (byte) (value >>> 16);
+		b[off + 2] = (byte) (value >>> 8);
+		b[off + 3] = (byte) value;
+	}
+
+	/**
+	 * {@code ReadHandler}
+	 * <p>
+	 * Completion handler of the reads of the connection.
+	 * </p>
+	 */
+	protected class ReadHandler implements CompletionHandler<Integer, Http2Processor> {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.nio.channels.CompletionHandler#completed(java.lang.Object,
+		 * java.lang.Object)
+		 */
+		public void completed(Integer nBytes, Http2Processor processor) {
+			if (nBytes.intValue() < 0) {
+				close();
+				releaseReadBuffer();
+				return;
+			}
+			readBuffer.flip();
+			try {
+				processFrames();
+			} catch (Http2Exception e) {
+				connectionError(e);
+			} catch (Throwable t) {
+				CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(t);
+				close();
+			}
+			readBuffer.compact();
+			read();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.nio.channels.CompletionHandler#failed(java.lang.Throwable,
+		 * java.lang.Object)
+		 */
+		public void failed(Throwable exc, Http2Processor processor) {
+			if (!closed) {
+				CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(exc);
+			}
+			close();
+			releaseReadBuffer();
+		}
+	}
+}
@@ -0,0 +1,840 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.Request;
+import org.apache.coyote.RequestGroupInfo;
+import org.apache.coyote.RequestInfo;
+import org.apache.tomcat.util.modeler.Registry;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SocketStatus;
+import org.apache.tomcat.util.net.NioEndpoint.Handler.SocketState;
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * {@code Http2Protocol}
+ * <p>
+ * HTTP/2 protocol handler, multiplexing the streams of each connection of a
+ * NIO.2 endpoint. The protocol either owns its endpoint, and then accepts
+ * cleartext connections for which the client knows that HTTP/2 is supported
+ * (prior knowledge), or shares the endpoint of an HTTP/1.1 protocol whose
+ * connections are upgraded to h2c.
+ * </p>
+ * <p>
+ * The streams are processed by a dedicated executor rather than by the
+ * endpoint threads, which complete the reads and writes of the endpoint and
+ * must never wait for them.
+ * </p>
+ */
+public class Http2Protocol implements ProtocolHandler, MBeanRegistration {
+
+	protected NioEndpoint endpoint;
+	protected boolean sharedEndpoint;
+	protected Http2ConnectionHandler cHandler = new Http2ConnectionHandler();
+	protected RequestGroupInfo global;
+
+	protected HashMap<String, Object> attributes = new HashMap<String, Object>();
+	protected Adapter adapter;
+	protected ObjectName tpOname = null;
+	protected ObjectName rgOname = null;
+	protected String domain;
+	protected ObjectName oname;
+	protected MBeanServer mserver;
+	protected boolean canDestroy = false;
+
+	/**
+	 * Processors of the open connections.
+	 */
+	protected ConcurrentHashMap<Long, Http2Processor> connections = new ConcurrentHashMap<Long, Http2Processor>();
+
+	/**
+	 * Recycled streams.
+	 */
+	protected ConcurrentLinkedQueue<Http2Stream> recycledStreams = new ConcurrentLinkedQueue<Http2Stream>();
+	protected AtomicInteger recycledCount = new AtomicInteger(0);
+	protected AtomicLong registerCount = new AtomicLong(0);
+
+	/**
+	 * Executor of the streams, and flag set if it was created by the
+	 * protocol.
+	 */
+	protected Executor streamExecutor = null;
+	protected boolean internalExecutor = false;
+	protected int maxStreamThreads = -1;
+
+	protected String server = Constants.SERVER;
+	protected int maxConcurrentStreams = Constants.DEFAULT_MAX_CONCURRENT_STREAMS;
+	protected int initialWindowSize = Constants.DEFAULT_INITIAL_WINDOW_SIZE;
+	protected int maxHeaderListSize = Constants.DEFAULT_MAX_HEADER_LIST_SIZE;
+
+	/**
+	 * Create a new instance of {@code Http2Protocol}, with its own endpoint.
+	 */
+	public Http2Protocol() {
+		this.endpoint = new NioEndpoint();
+		this.sharedEndpoint = false;
+		this.global = new RequestGroupInfo();
+		setSoLinger(org.apache.coyote.http11.Constants.DEFAULT_CONNECTION_LINGER);
+		setSoTimeout(org.apache.coyote.http11.Constants.DEFAULT_CONNECTION_TIMEOUT);
+		setTcpNoDelay(org.apache.coyote.http11.Constants.DEFAULT_TCP_NO_DELAY);
+		setKeepAliveTimeout(org.apache.coyote.http11.Constants.DEFAULT_KEEP_ALIVE_TIMEOUT);
+	}
+
+	/**
+	 * Create a new instance of {@code Http2Protocol}, for the connections of
+	 * an HTTP/1.1 endpoint which are upgraded.
+	 *
+	 * @param endpoint
+	 *            the endpoint of the HTTP/1.1 protocol
+	 * @param global
+	 *            the request statistics of the HTTP/1.1 protocol
+	 */
+	public Http2Protocol(NioEndpoint endpoint, RequestGroupInfo global) {
+		this.endpoint = endpoint;
+		this.sharedEndpoint = true;
+		this.global = global;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#getRequestGroupInfo()
+	 */
+	public RequestGroupInfo getRequestGroupInfo() {
+		return global;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#init()
+	 */
+	public void init() throws Exception {
+		if (!sharedEndpoint) {
+			endpoint.setName(getName());
+			endpoint.setHandler(cHandler);
+			try {
+				endpoint.init();
+			} catch (Exception ex) {
+				CoyoteLogger.HTTP_LOGGER.errorInitializingEndpoint(ex);
+				throw ex;
+			}
+		}
+		if (streamExecutor == null) {
+			int threads = (maxStreamThreads > 0) ? maxStreamThreads : endpoint.getMaxThreads();
+			streamExecutor = Executors.newFixedThreadPool(threads,
+					new NioEndpoint.DefaultThreadFactory(getName() + "-stream-",
+							endpoint.getThreadPriority()));
+			internalExecutor = true;
+		}
+		CoyoteLogger.HTTP2_LOGGER.initHttp2Connector(getName());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#start()
+	 */
+	public void start() throws Exception {
+		if (!sharedEndpoint) {
+			if (org.apache.tomcat.util.Constants.ENABLE_MODELER) {
+				if (this.domain != null) {
+					try {
+						tpOname = new ObjectName(domain + ":" + "type=ThreadPool,name="
+								+ getName());
+						Registry.getRegistry(null, null).registerComponent(endpoint, tpOname, null);
+					} catch (Exception e) {
+						CoyoteLogger.HTTP_LOGGER.errorRegisteringPool(e);
+					}
+					rgOname = new ObjectName(domain + ":type=GlobalRequestProcessor,name="
+							+ getName());
+					Registry.getRegistry(null, null).registerComponent(global, rgOname, null);
+				}
+			}
+			try {
+				endpoint.start();
+			} catch (Exception ex) {
+				CoyoteLogger.HTTP_LOGGER.errorStartingEndpoint(ex);
+				throw ex;
+			}
+		}
+		CoyoteLogger.HTTP2_LOGGER.startHttp2Connector(getName());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#pause()
+	 */
+	public void pause() throws Exception {
+		if (!sharedEndpoint) {
+			try {
+				endpoint.pause();
+			} catch (Exception ex) {
+				CoyoteLogger.HTTP_LOGGER.errorPausingEndpoint(ex);
+				throw ex;
+			}
+		}
+		canDestroy = false;
+		// Wait for a while until all the streams are processed
+		RequestInfo[] states = global.getRequestProcessors();
+		int retry = 0;
+		boolean done = false;
+		while (!done && retry < org.apache.coyote.Constants.MAX_PAUSE_WAIT) {
+			retry++;
+			done = true;
+			for (int i = 0; i < states.length; i++) {
+				if (states[i].getStage() == org.apache.coyote.Constants.STAGE_SERVICE) {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						// NOTHING TO DO
+					}
+					done = false;
+					break;
+				}
+			}
+			if (done) {
+				canDestroy = true;
+			}
+		}
+		CoyoteLogger.HTTP2_LOGGER.pauseHttp2Connector(getName());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#resume()
+	 */
+	public void resume() throws Exception {
+		if (!sharedEndpoint) {
+			try {
+				endpoint.resume();
+			} catch (Exception ex) {
+				CoyoteLogger.HTTP_LOGGER.errorResumingEndpoint(ex);
+				throw ex;
+			}
+		}
+		CoyoteLogger.HTTP2_LOGGER.resumeHttp2Connector(getName());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#destroy()
+	 */
+	public void destroy() throws Exception {
+		CoyoteLogger.HTTP2_LOGGER.stopHttp2Connector(getName());
+		Iterator<Http2Processor> processors = connections.values().iterator();
+		while (processors.hasNext()) {
+			processors.next().close();
+		}
+		if (!sharedEndpoint) {
+			endpoint.destroy();
+		}
+		if (internalExecutor) {
+			((ExecutorService) streamExecutor).shutdown();
+			streamExecutor = null;
+			internalExecutor = false;
+		}
+		Http2Stream stream = recycledStreams.poll();
+		while (stream != null) {
+			unregister(stream);
+			stream = recycledStreams.poll();
+		}
+		if (org.apache.tomcat.util.Constants.ENABLE_MODELER) {
+			if (tpOname != null)
+				Registry.getRegistry(null, null).unregisterComponent(tpOname);
+			if (rgOname != null)
+				Registry.getRegistry(null, null).unregisterComponent(rgOname);
+		}
+	}
+
+	/**
+	 * Upgrade an HTTP/1.1 connection to HTTP/2, after the 101 response was
+	 * sent.
+	 *
+	 * @param channel
+	 *            the channel of the connection
+	 * @param request
+	 *            the request which carried the upgrade, processed as the
+	 *            stream 1
+	 * @param settings
+	 *            the decoded HTTP2-Settings header of the request
+	 * @param unread
+	 *            the bytes received after the request
+	 */
+	public void upgrade(NioChannel channel, Request request, byte[] settings, byte[] unread) {
+		Http2Processor processor = new Http2Processor(this, endpoint, channel);
+		connections.put(channel.getId(), processor);
+		try {
+			processor.upgrade(request, settings, unread);
+		} catch (Throwable t) {
+			CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(t);
+			processor.close();
+			processor.releaseReadBuffer();
+		}
+	}
+
+	/**
+	 * Process an event of an upgraded connection.
+	 *
+	 * @param channel
+	 * @param status
+	 * @return the state of the channel, or <tt>null</tt> if the channel is
+	 *         not an HTTP/2 connection
+	 */
+	public SocketState event(NioChannel channel, SocketStatus status) {
+		if (!connections.containsKey(channel.getId())) {
+			return null;
+		}
+		return cHandler.event(channel, status);
+	}
+
+	/**
+	 * Decode the value of an HTTP2-Settings header, which is the base64url
+	 * encoding of a SETTINGS frame payload.
+	 *
+	 * @param value
+	 * @return the payload, or <tt>null</tt> if the value is invalid
+	 */
+	public static byte[] decodeSettings(String value) {
+		int length = value.length();
+		while (length > 0 && value.charAt(length - 1) == '=') {
+			length--;
+		}
+		if (length % 4 == 1) {
+			return null;
+		}
+		byte[] result = new byte[length * 3 / 4];
+		if (result.length % 6 != 0) {
+			return null;
+		}
+		int bits = 0;
+		int count = 0;
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			int digit;
+			if (c >= 'A' && c <= 'Z') {
+				digit = c - 'A';
+			} else if (c >= 'a' && c <= 'z') {
+				digit = c - 'a' + 26;
+			} else if (c >= '0' && c <= '9') {
+				digit = c - '0' + 52;
+			} else if (c == '-') {
+				digit = 62;
+			} else if (c == '_') {
+				digit = 63;
+			} else {
+				return null;
+			}
+			bits = (bits << 6) | digit;
+			count += 6;
+			if (count >= 8) {
+				count -= 8;
+				result[pos++] = (byte) (bits >> count);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a stream, recycled if possible
+	 */
+	protected Http2Stream createStream() {
+		Http2Stream stream = recycledStreams.poll();
+		if (stream != null) {
+			recycledCount.decrementAndGet();
+			return stream;
+		}
+		stream = new Http2Stream(this);
+		register(stream);
+		return stream;
+	}
+
+	/**
+	 * Recycle a stream whose processing is complete.
+	 *
+	 * @param stream
+	 */
+	protected void recycleStream(Http2Stream stream) {
+		stream.recycle();
+		int max = (maxStreamThreads > 0) ? maxStreamThreads : endpoint.getMaxThreads();
+		if (recycledCount.incrementAndGet() <= max) {
+			recycledStreams.offer(stream);
+		} else {
+			recycledCount.decrementAndGet();
+			unregister(stream);
+		}
+	}
+
+	/**
+	 * Forget a closed connection.
+	 *
+	 * @param processor
+	 */
+	protected void connectionClosed(Http2Processor processor) {
+		connections.remove(processor.getChannel().getId());
+	}
+
+	/**
+	 * @param stream
+	 */
+	protected void register(Http2Stream stream) {
+		RequestInfo rp = stream.getRequest().getRequestProcessor();
+		rp.setGlobalProcessor(global);
+		if (org.apache.tomcat.util.Constants.ENABLE_MODELER && domain != null) {
+			try {
+				long count = registerCount.incrementAndGet();
+				ObjectName rpName = new ObjectName(domain + ":type=RequestProcessor,worker="
+						+ getJmxName() + ",name=Http2Stream" + count);
+				Registry.getRegistry(null, null).registerComponent(rp, rpName, null);
+				rp.setRpName(rpName);
+			} catch (Exception e) {
+				CoyoteLogger.HTTP_LOGGER.errorRegisteringRequest(e);
+			}
+		}
+	}
+
+	/**
+	 * @param stream
+	 */
+	protected void unregister(Http2Stream stream) {
+		RequestInfo rp = stream.getRequest().getRequestProcessor();
+		rp.setGlobalProcessor(null);
+		if (org.apache.tomcat.util.Constants.ENABLE_MODELER && domain != null) {
+			try {
+				ObjectName rpName = rp.getRpName();
+				Registry.getRegistry(null, null).unregisterComponent(rpName);
+				rp.setRpName(null);
+			} catch (Exception e) {
+				CoyoteLogger.HTTP_LOGGER.errorUnregisteringRequest(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#setAttribute(java.lang.String,
+	 * java.lang.Object)
+	 */
+	public void setAttribute(String name, Object value) {
+		attributes.put(name, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#getAttribute(java.lang.String)
+	 */
+	public Object getAttribute(String key) {
+		return attributes.get(key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#getAttributeNames()
+	 */
+	public Iterator<String> getAttributeNames() {
+		return attributes.keySet().iterator();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.apache.coyote.ProtocolHandler#setAdapter(org.apache.coyote.Adapter)
+	 */
+	public void setAdapter(Adapter adapter) {
+		this.adapter = adapter;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#getAdapter()
+	 */
+	public Adapter getAdapter() {
+		return adapter;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ProtocolHandler#hasIoEvents()
+	 */
+	public boolean hasIoEvents() {
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * javax.management.MBeanRegistration#preRegister(javax.management.MBeanServer
+	 * , javax.management.ObjectName)
+	 */
+	public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+		oname = name;
+		mserver = server;
+		domain = name.getDomain();
+		return name;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.management.MBeanRegistration#postRegister(java.lang.Boolean)
+	 */
+	public void postRegister(Boolean registrationDone) {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.management.MBeanRegistration#preDeregister()
+	 */
+	public void preDeregister() throws Exception {
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see javax.management.MBeanRegistration#postDeregister()
+	 */
+	public void postDeregister() {
+	}
+
+	public String getJmxName() {
+		String encodedAddr = "";
+		if (getAddress() != null) {
+			encodedAddr = "" + getAddress();
+			try {
+				encodedAddr = URLEncoder.encode(encodedAddr.replace('/', '-').replace(':', '_')
+						.replace('%', '-'), "UTF-8")
+						+ "-";
+			} catch (UnsupportedEncodingException e) {
+				// Should never happen
+				throw new IllegalStateException(e);
+			}
+		}
+		return ("h2c-" + encodedAddr + endpoint.getPort());
+	}
+
+	public String getName() {
+		String encodedAddr = "";
+		if (getAddress() != null) {
+			encodedAddr = getAddress() + ":";
+		}
+		return ("h2c-" + encodedAddr + endpoint.getPort());
+	}
+
+	/**
+	 * @return the domain
+	 */
+	public String getDomain() {
+		return domain;
+	}
+
+	/**
+	 * @param domain
+	 *            the domain to set
+	 */
+	public void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * @return the executor of the streams
+	 */
+	public Executor getStreamExecutor() {
+		return streamExecutor;
+	}
+
+	/**
+	 * Setter for the executor of the streams, which must not be the executor
+	 * of the endpoint
+	 *
+	 * @param streamExecutor
+	 */
+	public void setStreamExecutor(Executor streamExecutor) {
+		this.streamExecutor = streamExecutor;
+	}
+
+	/**
+	 * @return the maximum number of threads processing the streams
+	 */
+	public int getMaxStreamThreads() {
+		return maxStreamThreads;
+	}
+
+	/**
+	 * Setter for the maximum number of threads processing the streams, which
+	 * defaults to the maximum number of threads of the endpoint
+	 *
+	 * @param maxStreamThreads
+	 */
+	public void setMaxStreamThreads(int maxStreamThreads) {
+		this.maxStreamThreads = maxStreamThreads;
+	}
+
+	/**
+	 * @return the maximum number of concurrent streams per connection
+	 */
+	public int getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+
+	/**
+	 * @param maxConcurrentStreams
+	 */
+	public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	/**
+	 * @return the initial receive window of the streams
+	 */
+	public int getInitialWindowSize() {
+		return initialWindowSize;
+	}
+
+	/**
+	 * @param initialWindowSize
+	 */
+	public void setInitialWindowSize(int initialWindowSize) {
+		this.initialWindowSize = initialWindowSize;
+	}
+
+	/**
+	 * @return the maximum size of the request headers
+	 */
+	public int getMaxHeaderListSize() {
+		return maxHeaderListSize;
+	}
+
+	/**
+	 * @param maxHeaderListSize
+	 */
+	public void setMaxHeaderListSize(int maxHeaderListSize) {
+		this.maxHeaderListSize = maxHeaderListSize;
+	}
+
+	/**
+	 * @return the server header
+	 */
+	public String getServer() {
+		return server;
+	}
+
+	/**
+	 * @param server
+	 */
+	public void setServer(String server) {
+		this.server = (server != null) ? server : Constants.SERVER;
+	}
+
+	/**
+	 * @return the executor of the endpoint
+	 */
+	public Executor getExecutor() {
+		return endpoint.getExecutor();
+	}
+
+	/**
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		endpoint.setExecutor(executor);
+	}
+
+	/**
+	 * @return the maximum number of threads of the endpoint
+	 */
+	public int getMaxThreads() {
+		return endpoint.getMaxThreads();
+	}
+
+	/**
+	 * @param maxThreads
+	 */
+	public void setMaxThreads(int maxThreads) {
+		endpoint.setMaxThreads(maxThreads);
+	}
+
+	/**
+	 * @return the port number
+	 */
+	public int getPort() {
+		return endpoint.getPort();
+	}
+
+	/**
+	 * @param port
+	 */
+	public void setPort(int port) {
+		endpoint.setPort(port);
+	}
+
+	/**
+	 * @return the IP address
+	 */
+	public InetAddress getAddress() {
+		return endpoint.getAddress();
+	}
+
+	/**
+	 * @param ia
+	 */
+	public void setAddress(InetAddress ia) {
+		endpoint.setAddress(ia);
+	}
+
+	/**
+	 * @return TCP NO DELAY
+	 */
+	public boolean getTcpNoDelay() {
+		return endpoint.getTcpNoDelay();
+	}
+
+	/**
+	 * @param tcpNoDelay
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		endpoint.setTcpNoDelay(tcpNoDelay);
+	}
+
+	/**
+	 * @return the soLinger
+	 */
+	public int getSoLinger() {
+		return endpoint.getSoLinger();
+	}
+
+	/**
+	 * @param soLinger
+	 */
+	public void setSoLinger(int soLinger) {
+		endpoint.setSoLinger(soLinger);
+	}
+
+	/**
+	 * @return the socket timeout, which bounds the blocking reads and writes
+	 *         of the streams
+	 */
+	public int getSoTimeout() {
+		return endpoint.getSoTimeout();
+	}
+
+	/**
+	 * @param soTimeout
+	 */
+	public void setSoTimeout(int soTimeout) {
+		endpoint.setSoTimeout(soTimeout);
+	}
+
+	/**
+	 * @return the idle timeout of the connections
+	 */
+	public int getKeepAliveTimeout() {
+		return endpoint.getKeepAliveTimeout();
+	}
+
+	/**
+	 * @param timeout
+	 */
+	public void setKeepAliveTimeout(int timeout) {
+		endpoint.setKeepAliveTimeout(timeout);
+	}
+
+	/**
+	 * {@code Http2ConnectionHandler}
+	 * <p>
+	 * Handler of the endpoint connections, each accepted connection is
+	 * processed until it is closed by its {@link Http2Processor}.
+	 * </p>
+	 */
+	protected class Http2ConnectionHandler implements NioEndpoint.Handler {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.apache.tomcat.util.net.NioEndpoint.Handler#process(org.apache.tomcat
+		 * .util.net.NioChannel)
+		 */
+		public SocketState process(NioChannel channel) {
+			Http2Processor processor = new Http2Processor(Http2Protocol.this, endpoint, channel);
+			connections.put(channel.getId(), processor);
+			try {
+				processor.start();
+				return SocketState.LONG;
+			} catch (Throwable t) {
+				CoyoteLogger.HTTP2_LOGGER.http2ConnectionError(t);
+				processor.close();
+				processor.releaseReadBuffer();
+				return SocketState.CLOSED;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.apache.tomcat.util.net.NioEndpoint.Handler#event(org.apache.tomcat
+		 * .util.net.NioChannel, org.apache.tomcat.util.net.SocketStatus)
+		 */
+		public SocketState event(NioChannel channel, SocketStatus status) {
+			Http2Processor processor = connections.get(channel.getId());
+			if (processor == null) {
+				return SocketState.CLOSED;
+			}
+			if (status == SocketStatus.TIMEOUT) {
+				// Idle timeout of the connection
+				processor.timeout();
+				return processor.isClosed() ? SocketState.CLOSED : SocketState.LONG;
+			}
+			processor.close();
+			return SocketState.CLOSED;
+		}
+	}
+}
@@ -0,0 +1,752 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.jboss.web.CoyoteMessages.MESSAGES;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.ActionHook;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.RequestInfo;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.KnownHeader;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.jboss.web.CoyoteLogger;
+
+/**
+ * {@code Http2Stream}
+ * <p>
+ * A request/response exchange multiplexed on an HTTP/2 connection. The
+ * stream owns its coyote request and response, which are fed to the adapter
+ * like the ones of an HTTP/1.1 processor: the request body is read from the
+ * DATA frames received on the stream, and the response is sent as HEADERS and
+ * DATA frames within the flow control windows.
+ * </p>
+ * <p>
+ * Streams are recycled by the protocol, so the I/O thread of the connection
+ * only touches a stream while it is attached to the connection.
+ * </p>
+ */
+public class Http2Stream implements ActionHook, Runnable,
+		HpackDecoder.HeaderListener {
+
+	protected Http2Protocol proto;
+	protected Http2Processor processor;
+	protected int id;
+
+	protected Request request;
+	protected Response response;
+
+	/**
+	 * Storage of the request header bytes, referenced by the message bytes
+	 * of the request.
+	 */
+	protected byte[] headerBuf = new byte[1024];
+	protected int headerPos = 0;
+	protected int headerListSize = 0;
+	protected boolean malformed = false;
+	protected boolean pseudoHeaders = true;
+	protected MessageBytes authority = null;
+
+	/**
+	 * Received request body, and replayed body if set.
+	 */
+	protected ArrayDeque<byte[]> input = new ArrayDeque<byte[]>();
+	protected ByteChunk replay = null;
+
+	/**
+	 * Bytes received on the stream which were not credited back yet to the
+	 * peer.
+	 */
+	protected int recvWindow;
+	protected int consumed;
+
+	/**
+	 * Send window of the stream, guarded by the window lock of the
+	 * connection.
+	 */
+	protected long sendWindow;
+
+	// Stream state
+	protected volatile boolean remoteClosed = false;
+	protected volatile boolean localClosed = false;
+	protected volatile int resetError = -1;
+	protected boolean headersPending = false;
+	protected boolean entityBody = true;
+	protected boolean expectation = false;
+	protected boolean error = false;
+
+	// Cached connection information
+	protected String remoteAddr = null;
+	protected String remoteHost = null;
+	protected String localName = null;
+	protected String localAddr = null;
+	protected int remotePort = -1;
+	protected int localPort = -1;
+
+	/**
+	 * Create a new instance of {@code Http2Stream}
+	 *
+	 * @param proto
+	 */
+	public Http2Stream(Http2Protocol proto) {
+		this.proto = proto;
+		request = new Request();
+		request.setInputBuffer(new StreamInputBuffer());
+		response = new Response();
+		response.setHook(this);
+		response.setOutputBuffer(new StreamOutputBuffer());
+		request.setResponse(response);
+	}
+
+	/**
+	 * Attach the stream to a connection.
+	 *
+	 * @param processor
+	 * @param id
+	 * @param sendWindow
+	 *            the initial send window
+	 * @param recvWindow
+	 *            the initial receive window
+	 */
+	protected void setup(Http2Processor processor, int id, long sendWindow, int recvWindow) {
+		this.processor = processor;
+		this.id = id;
+		this.sendWindow = sendWindow;
+		this.recvWindow = recvWindow;
+		request.protocol().setString(Constants.HTTP_20);
+		request.scheme().setString("http");
+	}
+
+	/**
+	 * Detach the stream from its connection, called with the stream lock.
+	 */
+	protected void detach() {
+		processor = null;
+		notifyAll();
+	}
+
+	/**
+	 * Recycle the stream.
+	 */
+	public void recycle() {
+		request.recycle();
+		response.recycle();
+		input.clear();
+		replay = null;
+		headerPos = 0;
+		headerListSize = 0;
+		malformed = false;
+		pseudoHeaders = true;
+		authority = null;
+		consumed = 0;
+		remoteClosed = false;
+		localClosed = false;
+		resetError = -1;
+		headersPending = false;
+		entityBody = true;
+		expectation = false;
+		error = false;
+		remoteAddr = null;
+		remoteHost = null;
+		localName = null;
+		localAddr = null;
+		remotePort = -1;
+		localPort = -1;
+		processor = null;
+		id = 0;
+	}
+
+	/**
+	 * @return the stream identifier
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the request
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the stream was reset
+	 */
+	public boolean isReset() {
+		return resetError >= 0;
+	}
+
+	// ------------------------------------------------------ Request headers
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.http2.HpackDecoder.HeaderListener#header(byte[],
+	 * int, int, byte[], int, int)
+	 */
+	public void header(byte[] name, int nameStart, int nameLength, byte[] value, int valueStart,
+			int valueLength) {
+		headerListSize += nameLength + valueLength + Hpack.ENTRY_OVERHEAD;
+		if (malformed || headerListSize > proto.getMaxHeaderListSize()) {
+			malformed = true;
+			return;
+		}
+		int n = store(name, nameStart, nameLength);
+		int v = store(value, valueStart, valueLength);
+
+		if (nameLength > 0 && name[nameStart] == ':') {
+			if (!pseudoHeaders) {
+				malformed = true;
+				return;
+			}
+			MessageBytes mb = null;
+			if (Hpack.equals(name, nameStart, nameLength, METHOD)) {
+				mb = request.method();
+			} else if (Hpack.equals(name, nameStart, nameLength, SCHEME)) {
+				mb = request.scheme();
+			} else if (Hpack.equals(name, nameStart, nameLength, AUTHORITY)) {
+				authority = MessageBytes.newInstance();
+				mb = authority;
+			} else if (Hpack.equals(name, nameStart, nameLength, PATH)) {
+				mb = request.unparsedURI();
+				int question = v;
+				while (question < v + valueLength && headerBuf[question] != '?') {
+					question++;
+				}
+				request.requestURI().setBytes(headerBuf, v, question - v);
+				if (question < v + valueLength) {
+					request.queryString().setBytes(headerBuf, question + 1,
+							v + valueLength - question - 1);
+				}
+			}
+			if (mb == null || !mb.isNull() && !(mb == request.scheme())) {
+				// Unknown or duplicate pseudo header
+				malformed = true;
+				return;
+			}
+			mb.setBytes(headerBuf, v, valueLength);
+			return;
+		}
+
+		pseudoHeaders = false;
+		for (int i = 0; i < nameLength; i++) {
+			byte b = name[nameStart + i];
+			if (b >= 'A' && b <= 'Z') {
+				malformed = true;
+				return;
+			}
+		}
+		if (Hpack.equals(name, nameStart, nameLength, CONNECTION)
+				|| Hpack.equals(name, nameStart, nameLength, TRANSFER_ENCODING)
+				|| Hpack.equals(name, nameStart, nameLength, UPGRADE)
+				|| Hpack.equals(name, nameStart, nameLength, KEEP_ALIVE)
+				|| Hpack.equals(name, nameStart, nameLength, PROXY_CONNECTION)) {
+			// Connection specific header fields are not allowed
+			malformed = true;
+			return;
+		}
+		request.getMimeHeaders().addValue(headerBuf, n, nameLength).setBytes(headerBuf, v,
+				valueLength);
+	}
+
+	/**
+	 * Copy the request line and headers of an HTTP/1.1 request which is
+	 * upgraded, so that it is processed as the first stream of the connection.
+	 *
+	 * @param req
+	 */
+	protected void setRequest(Request req) {
+		copy(req.method(), request.method());
+		copy(req.unparsedURI(), request.unparsedURI());
+		copy(req.requestURI(), request.requestURI());
+		copy(req.queryString(), request.queryString());
+		MimeHeaders headers = req.getMimeHeaders();
+		for (int i = 0; i < headers.size(); i++) {
+			String name = headers.getName(i).toString();
+			if (name.equalsIgnoreCase("connection") || name.equalsIgnoreCase("upgrade")
+					|| name.equalsIgnoreCase("http2-settings")
+					|| name.equalsIgnoreCase("keep-alive")) {
+				continue;
+			}
+			copy(headers.getName(i), request.getMimeHeaders().addValue(name));
+			copy(headers.getValue(i), request.getMimeHeaders().getValue(
+					request.getMimeHeaders().size() - 1));
+		}
+	}
+
+	/**
+	 * Validate the request once its headers are received.
+	 *
+	 * @return <tt>false</tt> if the request is malformed
+	 */
+	protected boolean prepareRequest() {
+		if (malformed || request.method().isNull()) {
+			return false;
+		}
+		if (request.requestURI().isNull() && !request.method().equals("CONNECT")) {
+			return false;
+		}
+		MimeHeaders headers = request.getMimeHeaders();
+		MessageBytes host = headers.getValue(KnownHeader.HOST);
+		if (host == null && authority != null) {
+			ByteChunk bc = authority.getByteChunk();
+			host = headers.addValue("host");
+			host.setBytes(bc.getBytes(), bc.getStart(), bc.getLength());
+		}
+		parseHost(host);
+		MessageBytes te = headers.getValue(KnownHeader.TE);
+		if (te != null && !te.equalsIgnoreCase("trailers")) {
+			return false;
+		}
+		MessageBytes expect = headers.getValue(KnownHeader.EXPECT);
+		if (expect != null && expect.indexOfIgnoreCase("100-continue", 0) != -1) {
+			expectation = true;
+		}
+		request.setStartTime(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Parse the host, as in the HTTP/1.1 processor.
+	 */
+	protected void parseHost(MessageBytes valueMB) {
+		boolean secure = request.scheme().equals("https");
+		if (valueMB == null || valueMB.isNull()) {
+			request.setServerPort(processor.getLocalPort());
+			return;
+		}
+		valueMB.toBytes();
+		ByteChunk valueBC = valueMB.getByteChunk();
+		byte[] valueB = valueBC.getBytes();
+		int valueL = valueBC.getLength();
+		int valueS = valueBC.getStart();
+		int colonPos = -1;
+		boolean ipv6 = (valueL > 0 && valueB[valueS] == '[');
+		boolean bracketClosed = false;
+		for (int i = 0; i < valueL; i++) {
+			byte b = valueB[i + valueS];
+			if (b == ']') {
+				bracketClosed = true;
+			} else if (b == ':' && (!ipv6 || bracketClosed)) {
+				colonPos = i;
+				break;
+			}
+		}
+		if (colonPos < 0) {
+			request.setServerPort(secure ? 443 : 80);
+			request.serverName().setBytes(valueB, valueS, valueL);
+		} else {
+			request.serverName().setBytes(valueB, valueS, colonPos);
+			int port = 0;
+			int mult = 1;
+			for (int i = valueL - 1; i > colonPos; i--) {
+				int charValue = HexUtils.DEC[valueB[i + valueS] & 0xff];
+				if (charValue == -1 || charValue > 9) {
+					response.setStatus(400);
+					error = true;
+					break;
+				}
+				port = port + (charValue * mult);
+				mult = 10 * mult;
+			}
+			request.setServerPort(port);
+		}
+	}
+
+	private int store(byte[] b, int off, int len) {
+		if (headerPos + len > headerBuf.length) {
+			// The bytes which were already stored stay referenced by the
+			// message bytes, so they are left in the old buffer
+			headerBuf = new byte[Math.max(len, 2 * headerBuf.length)];
+			headerPos = 0;
+		}
+		System.arraycopy(b, off, headerBuf, headerPos, len);
+		int start = headerPos;
+		headerPos += len;
+		return start;
+	}
+
+	private void copy(MessageBytes src, MessageBytes dst) {
+		if (src.isNull()) {
+			return;
+		}
+		src.toBytes();
+		ByteChunk bc = src.getByteChunk();
+		dst.setBytes(headerBuf, store(bc.getBytes(), bc.getStart(), bc.getLength()),
+				bc.getLength());
+	}
+
+	// --------------------------------------------------------- Request body
+
+	/**
+	 * Receive a DATA frame, called by the I/O thread of the connection.
+	 *
+	 * @param buffer
+	 *            the buffer positioned at the data
+	 * @param length
+	 *            the length of the data
+	 * @param padding
+	 *            the number of other bytes of the frame, counted by the flow
+	 *            control
+	 * @param endStream
+	 * @throws Http2Exception
+	 *             if the flow control window of the stream is exceeded
+	 */
+	protected synchronized void receiveData(ByteBuffer buffer, int length, int padding,
+			boolean endStream) throws Http2Exception {
+		recvWindow -= length + padding;
+		if (recvWindow < 0) {
+			throw new Http2Exception(id, Constants.FLOW_CONTROL_ERROR,
+					MESSAGES.http2FlowControlError(id));
+		}
+		if (length > 0) {
+			byte[] data = new byte[length];
+			buffer.get(data);
+			input.add(data);
+		}
+		// Padding is credited back as soon as the data is read
+		consumed += padding;
+		if (endStream) {
+			remoteClosed = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Mark the end of the request, when the trailers are received.
+	 */
+	protected synchronized void endOfInput() {
+		remoteClosed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Reset the stream, waking up the threads waiting on it.
+	 *
+	 * @param error
+	 */
+	protected void reset(int error) {
+		synchronized (this) {
+			if (resetError < 0) {
+				resetError = error;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait for the next chunk of the request body.
+	 *
+	 * @return the next chunk, or <tt>null</tt> at the end of the body
+	 * @throws IOException
+	 */
+	protected synchronized byte[] takeData() throws IOException {
+		long timeout = proto.getSoTimeout();
+		long deadline = System.currentTimeMillis() + timeout;
+		while (input.isEmpty() && !remoteClosed) {
+			if (resetError >= 0 || processor == null || processor.isClosed()) {
+				throw new IOException(MESSAGES.http2StreamReset(id, resetError));
+			}
+			long wait = (timeout > 0) ? deadline - System.currentTimeMillis() : 0;
+			if (timeout > 0 && wait <= 0) {
+				throw new SocketTimeoutException(MESSAGES.failedRead());
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		return input.poll();
+	}
+
+	/**
+	 * Account for bytes of the request body which were read.
+	 *
+	 * @param n
+	 * @return the number of bytes to credit back to the peer, 0 while it is
+	 *         not worth a WINDOW_UPDATE frame
+	 */
+	protected synchronized int consume(int n) {
+		consumed += n;
+		if (remoteClosed || consumed < proto.getInitialWindowSize() / 2) {
+			return 0;
+		}
+		int update = consumed;
+		recvWindow += consumed;
+		consumed = 0;
+		return update;
+	}
+
+	// ------------------------------------------------------------- Service
+
+	/**
+	 * Process the request in the adapter.
+	 */
+	public void run() {
+		RequestInfo rp = request.getRequestProcessor();
+		if (!error) {
+			try {
+				rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+				proto.getAdapter().service(request, response);
+				error = error || response.getErrorException() != null;
+			} catch (InterruptedIOException e) {
+				error = true;
+			} catch (Throwable t) {
+				CoyoteLogger.HTTP2_LOGGER.errorProcessingRequest(t);
+				// 500 - Internal Server Error
+				response.setStatus(500);
+				error = true;
+			}
+		}
+		rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+
+		Http2Processor processor = this.processor;
+		try {
+			if (error && response.isCommitted()) {
+				// The response cannot be completed
+				if (!localClosed) {
+					processor.resetStream(this, Constants.INTERNAL_ERROR);
+				}
+			} else {
+				if (error) {
+					response.setStatus(500);
+				}
+				finish();
+				if (!remoteClosed && !isReset()) {
+					// The rest of the request body is not needed
+					processor.resetStream(this, Constants.NO_ERROR);
+				}
+			}
+		} catch (IOException e) {
+			CoyoteLogger.HTTP2_LOGGER.http2StreamError(id, e);
+		}
+		if (error) {
+			response.setStatus(500);
+		}
+		request.updateCounters();
+		processor.streamEnded(this);
+	}
+
+	/**
+	 * Send the end of the response.
+	 *
+	 * @throws IOException
+	 */
+	protected void finish() throws IOException {
+		if (localClosed) {
+			return;
+		}
+		commit();
+		if (isReset()) {
+			throw new IOException(MESSAGES.http2StreamReset(id, resetError));
+		}
+		localClosed = true;
+		if (headersPending) {
+			headersPending = false;
+			processor.writeHeaders(this, true);
+		} else {
+			processor.writeData(this, null, 0, 0, true);
+		}
+	}
+
+	/**
+	 * Commit the response, the headers are sent with the first DATA frame or
+	 * at the end of the response.
+	 */
+	protected void commit() {
+		if (response.isCommitted()) {
+			return;
+		}
+		int status = response.getStatus();
+		if (status == 204 || status == 205 || status == 304 || request.method().equals("HEAD")) {
+			entityBody = false;
+		}
+		response.setCommitted(true);
+		headersPending = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.apache.coyote.ActionHook#action(org.apache.coyote.ActionCode,
+	 * java.lang.Object)
+	 */
+	public void action(ActionCode actionCode, Object param) {
+		try {
+			if (actionCode == ActionCode.ACTION_COMMIT) {
+				commit();
+			} else if (actionCode == ActionCode.ACTION_ACK) {
+				if (expectation && !response.isCommitted()) {
+					expectation = false;
+					processor.writeContinue(this);
+				}
+			} else if (actionCode == ActionCode.ACTION_CLIENT_FLUSH) {
+				commit();
+				if (headersPending) {
+					headersPending = false;
+					processor.writeHeaders(this, false);
+				}
+			} else if (actionCode == ActionCode.ACTION_CLOSE) {
+				finish();
+			} else if (actionCode == ActionCode.ACTION_REQ_HOST_ADDR_ATTRIBUTE) {
+				if (remoteAddr == null) {
+					remoteAddr = processor.getRemoteAddress().getAddress().getHostAddress();
+				}
+				request.remoteAddr().setString(remoteAddr);
+			} else if (actionCode == ActionCode.ACTION_REQ_HOST_ATTRIBUTE) {
+				if (remoteHost == null) {
+					remoteHost = processor.getRemoteAddress().getHostName();
+				}
+				request.remoteHost().setString(remoteHost);
+			} else if (actionCode == ActionCode.ACTION_REQ_LOCAL_NAME_ATTRIBUTE) {
+				if (localName == null) {
+					localName = processor.getLocalAddress().getHostName();
+				}
+				request.localName().setString(localName);
+			} else if (actionCode == ActionCode.ACTION_REQ_LOCAL_ADDR_ATTRIBUTE) {
+				if (localAddr == null) {
+					localAddr = processor.getLocalAddress().getAddress().getHostAddress();
+				}
+				request.localAddr().setString(localAddr);
+			} else if (actionCode == ActionCode.ACTION_REQ_REMOTEPORT_ATTRIBUTE) {
+				if (remotePort == -1) {
+					remotePort = processor.getRemoteAddress().getPort();
+				}
+				request.setRemotePort(remotePort);
+			} else if (actionCode == ActionCode.ACTION_REQ_LOCALPORT_ATTRIBUTE) {
+				if (localPort == -1) {
+					localPort = processor.getLocalPort();
+				}
+				request.setLocalPort(localPort);
+			} else if (actionCode == ActionCode.ACTION_REQ_SET_BODY_REPLAY) {
+				replay = (ByteChunk) param;
+			} else if (actionCode == ActionCode.ACTION_AVAILABLE) {
+				synchronized (this) {
+					byte[] data = input.peek();
+					request.setAvailable((data != null) ? data.length : 0);
+				}
+			}
+			// Comet events and the SSL attributes are not supported on
+			// cleartext HTTP/2 streams
+		} catch (IOException e) {
+			error = true;
+			response.setErrorException(e);
+		} catch (NullPointerException e) {
+			// The connection information is not available
+			CoyoteLogger.HTTP2_LOGGER.http2StreamError(id, e);
+		}
+	}
+
+	// ------------------------------------------------------------- Buffers
+
+	/**
+	 * {@code StreamInputBuffer}
+	 * <p>
+	 * Input buffer returning the DATA frames received on the stream.
+	 * </p>
+	 */
+	protected class StreamInputBuffer implements InputBuffer {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.apache.coyote.InputBuffer#doRead(org.apache.tomcat.util.buf.ByteChunk
+		 * , org.apache.coyote.Request)
+		 */
+		public int doRead(ByteChunk chunk, Request req) throws IOException {
+			if (replay != null) {
+				if (replay.getLength() == 0) {
+					return -1;
+				}
+				chunk.setBytes(replay.getBytes(), replay.getStart(), replay.getLength());
+				replay.setOffset(replay.getEnd());
+				return chunk.getLength();
+			}
+			byte[] data = takeData();
+			if (data == null) {
+				return -1;
+			}
+			chunk.setBytes(data, 0, data.length);
+			processor.consumed(Http2Stream.this, data.length);
+			return data.length;
+		}
+	}
+
+	/**
+	 * {@code StreamOutputBuffer}
+	 * <p>
+	 * Output buffer sending DATA frames on the stream, within the flow control
+	 * windows.
+	 * </p>
+	 */
+	protected class StreamOutputBuffer implements OutputBuffer {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.apache.coyote.OutputBuffer#doWrite(org.apache.tomcat.util.buf.ByteChunk
+		 * , org.apache.coyote.Response)
+		 */
+		public int doWrite(ByteChunk chunk, Response res) throws IOException {
+			if (!response.isCommitted()) {
+				response.action(ActionCode.ACTION_COMMIT, null);
+			}
+			int length = chunk.getLength();
+			if (!entityBody || localClosed) {
+				return length;
+			}
+			byte[] b = chunk.getBuffer();
+			int off = chunk.getStart();
+			int len = length;
+			while (len > 0) {
+				int n = processor.reserveWindow(Http2Stream.this, len);
+				processor.writeData(Http2Stream.this, b, off, n, false);
+				off += n;
+				len -= n;
+			}
+			return length;
+		}
+	}
+
+	private static final byte[] METHOD = Hpack.toBytes(":method");
+	private static final byte[] SCHEME = Hpack.toBytes(":scheme");
+	private static final byte[] AUTHORITY = Hpack.toBytes(":authority");
+	private static final byte[] PATH = Hpack.toBytes(":path");
+	private static final byte[] CONNECTION = Hpack.toBytes("connection");
+	private static final byte[] TRANSFER_ENCODING = Hpack.toBytes("transfer-encoding");
+	private static final byte[] UPGRADE = Hpack.toBytes("upgrade");
+	private static final byte[] KEEP_ALIVE = Hpack.toBytes("keep-alive");
+	private static final byte[] PROXY_CONNECTION = Hpack.toBytes("proxy-connection");
+}
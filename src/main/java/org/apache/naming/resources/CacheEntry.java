@@ -39,6 +39,7 @@ public class CacheEntry {
     public boolean exists = true;
     public long accessCount = 0;
     public int size = 1;
+    public CacheEntry gzipEntry = null;
 
 
     // ----------------------------------------------------- Public Methods
@@ -53,6 +54,7 @@ public class CacheEntry {
         exists = true;
         accessCount = 0;
         size = 1;
+        gzipEntry = null;
     }
 
 
@@ -19,10 +19,12 @@
 package org.apache.naming.resources;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.Binding;
 import javax.naming.Context;
@@ -1583,6 +1585,78 @@ public class ProxyDirContext implements DirContext {
     }
 
 
+    /**
+     * Retrieves the gzip compressed variant of a cached resource. The variant
+     * is compressed on first access, and it is a separate cache entry, kept
+     * with the entry of the resource so that it is dropped with it when the
+     * resource is modified or removed from the cache.
+     * 
+     * @param entry the cache entry of the resource
+     * @return the cache entry of the variant, or null if the content of the
+     * resource is not cached, if it does not compress, or if the cache has no
+     * room for the variant
+     */
+    public CacheEntry lookupGzipCache(CacheEntry entry) {
+        CacheEntry gzipEntry = entry.gzipEntry;
+        if (gzipEntry == null) {
+            if ((cache == null) || !entry.exists || (entry.resource == null)
+                    || (entry.resource.getContent() == null)) {
+                return null;
+            }
+            gzipEntry = new CacheEntry();
+            gzipEntry.name = entry.name;
+            gzipEntry.timestamp = entry.timestamp;
+            byte[] content = entry.resource.getContent();
+            byte[] compressed = null;
+            try {
+                ByteArrayOutputStream os =
+                    new ByteArrayOutputStream(content.length / 4 + 64);
+                GZIPOutputStream gzip = new GZIPOutputStream(os);
+                gzip.write(content, 0, content.length);
+                gzip.close();
+                compressed = os.toByteArray();
+            } catch (IOException e) {
+                // Ignore, not possible with a byte array
+            }
+            if ((compressed != null) && (compressed.length < content.length)) {
+                ResourceAttributes attributes = new ResourceAttributes();
+                attributes.setName(entry.attributes.getName());
+                attributes.setContentLength(compressed.length);
+                attributes.setLastModified(entry.attributes.getLastModified());
+                attributes.setMimeType(entry.attributes.getMimeType());
+                // The variant must not have the ETag of the resource
+                String eTag = entry.attributes.getETag();
+                if ((eTag != null) && eTag.endsWith("\"")) {
+                    attributes.setETag(eTag.substring(0, eTag.length() - 1) 
+                            + "-gzip\"");
+                }
+                gzipEntry.attributes = attributes;
+                gzipEntry.resource = new Resource(compressed);
+                gzipEntry.size += compressed.length / 1024;
+            } else {
+                // Remember that the resource does not compress
+                gzipEntry.exists = false;
+            }
+            synchronized (cache) {
+                if (entry.gzipEntry == null) {
+                    if (!cache.allocate(gzipEntry.size)
+                            || !cache.grow(entry, gzipEntry.size)) {
+                        // No room for the variant, remember to serve the
+                        // resource as is instead of compressing it again
+                        gzipEntry = new CacheEntry();
+                        gzipEntry.name = entry.name;
+                        gzipEntry.exists = false;
+                    }
+                    entry.gzipEntry = gzipEntry;
+                } else {
+                    gzipEntry = entry.gzipEntry;
+                }
+            }
+        }
+        return (gzipEntry.exists) ? gzipEntry : null;
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -324,6 +324,22 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Add space to an entry of the cache, for a variant of its resource which
+     * is kept with it. The space must have been allocated.
+     */
+    public boolean grow(CacheEntry entry, int space) {
+        CacheEntry[] currentCache = cache;
+        int pos = find(currentCache, entry.name);
+        if ((pos != -1) && (currentCache[pos] == entry)) {
+            entry.size += space;
+            cacheSize += space;
+            return true;
+        }
+        return false;
+    }
+
+
     public boolean unload(String name) {
         CacheEntry removedEntry = removeCache(name);
         if (removedEntry != null) {
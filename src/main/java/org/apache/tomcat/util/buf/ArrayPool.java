@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arrays which back the {@link ByteChunk}s and {@link CharChunk}s when they
+ * grow, and allocation counters of these arrays.
+ * <p>
+ * If the <code>org.apache.tomcat.util.buf.ArrayPool.ENABLED</code> system
+ * property is true, the arrays are recycled using a pool per thread, with
+ * power of two size classes from 256 to <code>MAX_SIZE</code> (16384 by
+ * default), and at most <code>MAX_ARRAYS</code> (4 by default) arrays of
+ * each class. A chunk returns the arrays it took when it grows again, and
+ * when it is recycled, unless it buffers an input or output channel. The
+ * pool is disabled by default, since an array must then no longer be
+ * referenced elsewhere after its chunk is recycled.
+ * </p>
+ * <p>
+ * The counters are shared by all the threads, so they are only updated when
+ * the pool is enabled, and they stay at 0 otherwise.
+ * </p>
+ */
+public final class ArrayPool {
+
+
+    // ------------------------------------------------------- Static Variables
+
+
+    public static final boolean ENABLED = Boolean.valueOf(System.getProperty(
+            "org.apache.tomcat.util.buf.ArrayPool.ENABLED", "false")).booleanValue();
+
+    protected static final int MIN_SIZE = 256;
+
+    protected static final int MAX_SIZE = Integer.highestOneBit(Math.max(MIN_SIZE,
+            Integer.getInteger("org.apache.tomcat.util.buf.ArrayPool.MAX_SIZE", 16384).intValue()));
+
+    protected static final int MAX_ARRAYS =
+        Integer.getInteger("org.apache.tomcat.util.buf.ArrayPool.MAX_ARRAYS", 4).intValue();
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    private static final ThreadLocal<ArrayPool> POOL = new ThreadLocal<ArrayPool>() {
+        protected ArrayPool initialValue() {
+            return new ArrayPool();
+        }
+    };
+
+    private static final AtomicLong byteArrays = new AtomicLong();
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final AtomicLong charArrays = new AtomicLong();
+    private static final AtomicLong chars = new AtomicLong();
+    private static final AtomicLong reusedArrays = new AtomicLong();
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final byte[][][] byteArrayPool = new byte[CLASSES][MAX_ARRAYS][];
+    private final int[] byteArrayCounts = new int[CLASSES];
+    private final char[][][] charArrayPool = new char[CLASSES][MAX_ARRAYS][];
+    private final int[] charArrayCounts = new int[CLASSES];
+
+
+    private ArrayPool() {
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+
+    /**
+     * Return the number of byte arrays allocated by the chunks.
+     */
+    public static long getByteArrayCount() {
+        return byteArrays.get();
+    }
+
+    /**
+     * Return the total size of the byte arrays allocated by the chunks.
+     */
+    public static long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Return the number of char arrays allocated by the chunks.
+     */
+    public static long getCharArrayCount() {
+        return charArrays.get();
+    }
+
+    /**
+     * Return the total size of the char arrays allocated by the chunks.
+     */
+    public static long getCharCount() {
+        return chars.get();
+    }
+
+    /**
+     * Return the number of arrays taken from the pool instead of being
+     * allocated.
+     */
+    public static long getReusedArrayCount() {
+        return reusedArrays.get();
+    }
+
+    /**
+     * Reset the counters.
+     */
+    public static void resetStatistics() {
+        byteArrays.set(0);
+        bytes.set(0);
+        charArrays.set(0);
+        chars.set(0);
+        reusedArrays.set(0);
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return the size to allocate for the given size, which is the size
+     * class above it if the pool is enabled and there is one.
+     */
+    public static int roundSize(int size) {
+        if (!ENABLED || size > MAX_SIZE) {
+            return size;
+        }
+        if (size <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+
+    /**
+     * Return true if an array of the given size can be returned to the pool.
+     */
+    public static boolean isPooled(int size) {
+        return ENABLED && sizeClass(size) >= 0;
+    }
+
+
+    /**
+     * Return a byte array of the given size, from the pool if possible.
+     */
+    public static byte[] takeBytes(int size) {
+        if (ENABLED) {
+            int sizeClass = sizeClass(size);
+            if (sizeClass >= 0) {
+                ArrayPool pool = POOL.get();
+                int count = pool.byteArrayCounts[sizeClass];
+                if (count > 0) {
+                    byte[][] arrays = pool.byteArrayPool[sizeClass];
+                    byte[] b = arrays[--count];
+                    arrays[count] = null;
+                    pool.byteArrayCounts[sizeClass] = count;
+                    reusedArrays.incrementAndGet();
+                    return b;
+                }
+            }
+            byteArrays.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+        return new byte[size];
+    }
+
+
+    /**
+     * Return a byte array to the pool, the array must not be used anymore.
+     */
+    public static void releaseBytes(byte[] b) {
+        int sizeClass = sizeClass(b.length);
+        if (!ENABLED || sizeClass < 0) {
+            return;
+        }
+        ArrayPool pool = POOL.get();
+        int count = pool.byteArrayCounts[sizeClass];
+        if (count < MAX_ARRAYS) {
+            pool.byteArrayPool[sizeClass][count] = b;
+            pool.byteArrayCounts[sizeClass] = count + 1;
+        }
+    }
+
+
+    /**
+     * Return a char array of the given size, from the pool if possible.
+     */
+    public static char[] takeChars(int size) {
+        if (ENABLED) {
+            int sizeClass = sizeClass(size);
+            if (sizeClass >= 0) {
+                ArrayPool pool = POOL.get();
+                int count = pool.charArrayCounts[sizeClass];
+                if (count > 0) {
+                    char[][] arrays = pool.charArrayPool[sizeClass];
+                    char[] c = arrays[--count];
+                    arrays[count] = null;
+                    pool.charArrayCounts[sizeClass] = count;
+                    reusedArrays.incrementAndGet();
+                    return c;
+                }
+            }
+            charArrays.incrementAndGet();
+            chars.addAndGet(size);
+        }
+        return new char[size];
+    }
+
+
+    /**
+     * Return a char array to the pool, the array must not be used anymore.
+     */
+    public static void releaseChars(char[] c) {
+        int sizeClass = sizeClass(c.length);
+        if (!ENABLED || sizeClass < 0) {
+            return;
+        }
+        ArrayPool pool = POOL.get();
+        int count = pool.charArrayCounts[sizeClass];
+        if (count < MAX_ARRAYS) {
+            pool.charArrayPool[sizeClass][count] = c;
+            pool.charArrayCounts[sizeClass] = count + 1;
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Return the size class of the arrays of exactly the given size, or -1.
+     */
+    private static int sizeClass(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || (size & (size - 1)) != 0) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+
+}
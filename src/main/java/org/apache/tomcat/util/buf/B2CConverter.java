@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.UnsupportedCharsetException;
@@ -42,13 +43,22 @@ public class B2CConverter {
      */
     protected ByteBuffer leftovers = null;
 
+    /**
+     * Are the US-ASCII bytes decoded as the same characters by the charset?
+     */
+    protected boolean ascii = false;
+
     /**
      * Create a decoder for the specified charset.
      */
     public B2CConverter(String charset)
         throws IOException {
         try {
-            decoder = EncodingToCharset.toCharset(charset).newDecoder();
+            Charset cs = EncodingToCharset.toCharset(charset);
+            decoder = cs.newDecoder();
+            // The ISO-8859-1 decoder already widens all the bytes directly
+            ascii = EncodingToCharset.isAsciiCompatible(cs)
+                && !cs.equals(EncodingToCharset.ISO_8859_1);
         } catch (UnsupportedCharsetException e) {
             throw new UnsupportedEncodingException(charset);
         }
@@ -76,6 +86,26 @@ public class B2CConverter {
      */
     public void convert(ByteChunk bc, CharChunk cc) 
         throws IOException {
+        if (ascii && (leftovers.position() == 0)) {
+            // Widen the leading US-ASCII bytes directly, the decoder is only
+            // used from the first byte which is not US-ASCII
+            byte[] bytes = bc.getBuffer();
+            char[] chars = cc.getBuffer();
+            int start = bc.getStart();
+            int charEnd = cc.getEnd();
+            int end = Math.min(bc.getEnd(), start + chars.length - charEnd);
+            int nonAscii = ByteScanner.indexOfNonAscii(bytes, start, end);
+            int asciiEnd = (nonAscii < 0) ? end : nonAscii;
+            int j = charEnd;
+            for (int i = start; i < asciiEnd; i++) {
+                chars[j++] = (char) (bytes[i] & 0xff);
+            }
+            bc.setOffset(asciiEnd);
+            cc.setEnd(j);
+            if (nonAscii < 0) {
+                return;
+            }
+        }
         if ((bb == null) || (bb.array() != bc.getBuffer())) {
             // Create a new byte buffer if anything changed
             bb = ByteBuffer.wrap(bc.getBuffer(), bc.getStart(), bc.getLength());
@@ -116,6 +116,9 @@ public final class ByteChunk implements Cloneable, Serializable {
 
     private boolean isOutput=false;
     private boolean optimizedWrite=true;
+
+    // The buffer was allocated when growing, and can go to the ArrayPool
+    private transient boolean pooled=false;
     
     /**
      * Creates a new, uninitialized ByteChunk object.
@@ -130,7 +133,11 @@ public final class ByteChunk implements Cloneable, Serializable {
     //--------------------
     public ByteChunk getClone() {
 	try {
-	    return (ByteChunk)this.clone();
+	    ByteChunk clone=(ByteChunk)this.clone();
+	    // The buffer is shared with the clone
+	    pooled=false;
+	    clone.pooled=false;
+	    return clone;
 	} catch( Exception ex) {
 	    return null;
 	}
@@ -149,10 +156,17 @@ public final class ByteChunk implements Cloneable, Serializable {
 	start=0;
 	end=0;
 	isSet=false;
+	// Return the buffer, unless it buffers a channel
+	if( pooled && in==null && out==null ) {
+	    ArrayPool.releaseBytes(buff);
+	    buff=null;
+	    pooled=false;
+	}
     }
 
     public void reset() {
 	buff=null;
+	pooled=false;
     }
 
     // -------------------- Setup --------------------
@@ -160,6 +174,10 @@ public final class ByteChunk implements Cloneable, Serializable {
     public void allocate( int initial, int limit  ) {
 	isOutput=true;
 	if( buff==null || buff.length < initial ) {
+	    if( pooled ) {
+		ArrayPool.releaseBytes(buff);
+		pooled=false;
+	    }
 	    buff=new byte[initial];
 	}    
 	this.limit=limit;
@@ -176,6 +194,10 @@ public final class ByteChunk implements Cloneable, Serializable {
      * @param len the length of the bytes
      */
     public void setBytes(byte[] b, int off, int len) {
+        if (pooled && b != buff) {
+            ArrayPool.releaseBytes(buff);
+            pooled = false;
+        }
         buff = b;
         start = off;
         end = start+ len;
@@ -469,7 +491,9 @@ public final class ByteChunk implements Cloneable, Serializable {
 
 	if( buff==null ) {
 	    if( desiredSize < 256 ) desiredSize=256; // take a minimum
-	    buff=new byte[desiredSize];
+	    if( limit <= 0 ) desiredSize=ArrayPool.roundSize(desiredSize);
+	    buff=ArrayPool.takeBytes(desiredSize);
+	    pooled=ArrayPool.isPooled(desiredSize);
 	}
 	
 	// limit < buf.length ( the buffer is already big )
@@ -480,17 +504,21 @@ public final class ByteChunk implements Cloneable, Serializable {
 	// grow in larger chunks
 	if( desiredSize < 2 * buff.length ) {
 	    newSize= buff.length * 2;
-	    if( limit >0 &&
-		newSize > limit ) newSize=limit;
-	    tmp=new byte[newSize];
 	} else {
 	    newSize= buff.length * 2 + count ;
-	    if( limit > 0 &&
-		newSize > limit ) newSize=limit;
-	    tmp=new byte[newSize];
 	}
+	if( limit > 0 ) {
+	    if( newSize > limit ) newSize=limit;
+	} else {
+	    newSize=ArrayPool.roundSize(newSize);
+	}
+	tmp=ArrayPool.takeBytes(newSize);
 	
 	System.arraycopy(buff, start, tmp, 0, end-start);
+	if( pooled ) {
+	    ArrayPool.releaseBytes(buff);
+	}
+	pooled=ArrayPool.isPooled(newSize);
 	buff = tmp;
 	tmp = null;
 	end=end-start;
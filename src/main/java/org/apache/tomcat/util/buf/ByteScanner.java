@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+/**
+ * Search of the HTTP delimiters, or of the bytes which are not US-ASCII, in
+ * a byte array, eight bytes at a time.
+ * <p>
+ * Eight bytes of the array are read as a long, and each delimiter is found
+ * by XORing the word with the delimiter repeated in every byte, and looking
+ * for a zero byte in the result. The test for a zero byte does not carry
+ * between bytes, so the first match is exact and is located by counting the
+ * zero bits of the result.
+ * </p>
+ * <p>
+ * The words are assembled from the bytes of the array, least significant
+ * byte first, so that the reads are bounds checked. If the
+ * <code>org.apache.tomcat.util.buf.ByteScanner.USE_WORDS</code> system
+ * property is false, the bytes are compared one at a time.
+ * </p>
+ * <p>
+ * All the methods search the bytes from <code>start</code> inclusive to
+ * <code>end</code> exclusive, and return the index of the first match, or -1
+ * if there is none.
+ * </p>
+ */
+public final class ByteScanner {
+
+
+    // ------------------------------------------------------- Static Variables
+
+
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+    private static final byte SP = (byte) ' ';
+    private static final byte HT = (byte) '\t';
+    private static final byte QUESTION = (byte) '?';
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final long CR_WORD = ONES * CR;
+    private static final long LF_WORD = ONES * LF;
+    private static final long SP_WORD = ONES * SP;
+    private static final long HT_WORD = ONES * HT;
+    private static final long QUESTION_WORD = ONES * QUESTION;
+
+    private static final boolean USE_WORDS = Boolean.valueOf(System.getProperty(
+        "org.apache.tomcat.util.buf.ByteScanner.USE_WORDS", "true")).booleanValue();
+
+
+    private ByteScanner() {
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Return true if the bytes are read eight at a time.
+     */
+    public static boolean isWordScanning() {
+        return USE_WORDS;
+    }
+
+
+    /**
+     * Find the first occurrence of the given byte.
+     */
+    public static int indexOf(byte[] b, int start, int end, byte c) {
+        int i = start;
+        if (USE_WORDS) {
+            long pattern = ONES * (c & 0xFF);
+            for (; i + 8 <= end; i += 8) {
+                long word = getLong(b, i);
+                long found = zeroBytes(word ^ pattern);
+                if (found != 0) {
+                    return i + firstByte(found);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the end of a line, that is the first CR or LF.
+     */
+    public static int indexOfLineEnd(byte[] b, int start, int end) {
+        int i = start;
+        if (USE_WORDS) {
+            for (; i + 8 <= end; i += 8) {
+                long word = getLong(b, i);
+                long found = zeroBytes(word ^ CR_WORD) | zeroBytes(word ^ LF_WORD);
+                if (found != 0) {
+                    return i + firstByte(found);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c == CR || c == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the first SP or HT.
+     */
+    public static int indexOfWhitespace(byte[] b, int start, int end) {
+        int i = start;
+        if (USE_WORDS) {
+            for (; i + 8 <= end; i += 8) {
+                long word = getLong(b, i);
+                long found = zeroBytes(word ^ SP_WORD) | zeroBytes(word ^ HT_WORD);
+                if (found != 0) {
+                    return i + firstByte(found);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c == SP || c == HT) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the first byte which ends or splits the URI of a request line,
+     * that is SP, HT, CR, LF or '?'.
+     */
+    public static int indexOfUriDelimiter(byte[] b, int start, int end) {
+        int i = start;
+        if (USE_WORDS) {
+            for (; i + 8 <= end; i += 8) {
+                long word = getLong(b, i);
+                long found = zeroBytes(word ^ SP_WORD) | zeroBytes(word ^ HT_WORD)
+                    | zeroBytes(word ^ CR_WORD) | zeroBytes(word ^ LF_WORD)
+                    | zeroBytes(word ^ QUESTION_WORD);
+                if (found != 0) {
+                    return i + firstByte(found);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c == SP || c == HT || c == CR || c == LF || c == QUESTION) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the first byte which is not US-ASCII, that is with its high bit
+     * set.
+     */
+    public static int indexOfNonAscii(byte[] b, int start, int end) {
+        int i = start;
+        if (USE_WORDS) {
+            for (; i + 8 <= end; i += 8) {
+                long found = getLong(b, i) & HIGH_BITS;
+                if (found != 0) {
+                    return i + firstByte(found);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            if (b[i] < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Return the eight bytes of the array starting at the given index as a
+     * word, the first byte being the least significant.
+     */
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+            | ((b[i + 1] & 0xFFL) << 8)
+            | ((b[i + 2] & 0xFFL) << 16)
+            | ((b[i + 3] & 0xFFL) << 24)
+            | ((b[i + 4] & 0xFFL) << 32)
+            | ((b[i + 5] & 0xFFL) << 40)
+            | ((b[i + 6] & 0xFFL) << 48)
+            | ((long) b[i + 7] << 56);
+    }
+
+
+    /**
+     * Return a word with the high bit set in each zero byte of the given
+     * word, and all the other bits cleared.
+     */
+    private static long zeroBytes(long word) {
+        long low = (word & LOW_BITS) + LOW_BITS;
+        return ~(low | word | LOW_BITS);
+    }
+
+
+    /**
+     * Return the index in the word of the first byte with its high bit set,
+     * in a non zero word where only high bits are set.
+     */
+    private static int firstByte(long found) {
+        return Long.numberOfTrailingZeros(found) >>> 3;
+    }
+
+}
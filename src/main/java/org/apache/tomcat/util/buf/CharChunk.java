@@ -77,6 +77,9 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     
     private boolean optimizedWrite=true;
 
+    // The buffer was allocated when growing, and can go to the ArrayPool
+    private transient boolean pooled=false;
+
     /**
      * Creates a new, uninitialized CharChunk object.
      */
@@ -91,7 +94,11 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     
     public CharChunk getClone() {
 	try {
-	    return (CharChunk)this.clone();
+	    CharChunk clone=(CharChunk)this.clone();
+	    // The buffer is shared with the clone
+	    pooled=false;
+	    clone.pooled=false;
+	    return clone;
 	} catch( Exception ex) {
 	    return null;
 	}
@@ -110,10 +117,17 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 	isSet=false; // XXX
 	start=0;
 	end=0;
+	// Return the buffer, unless it buffers a channel
+	if( pooled && in==null && out==null ) {
+	    ArrayPool.releaseChars(buff);
+	    buff=null;
+	    pooled=false;
+	}
     }
 
     public void reset() {
 	buff=null;
+	pooled=false;
     }
 
     // -------------------- Setup --------------------
@@ -121,6 +135,10 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     public void allocate( int initial, int limit  ) {
 	isOutput=true;
 	if( buff==null || buff.length < initial ) {
+	    if( pooled ) {
+		ArrayPool.releaseChars(buff);
+		pooled=false;
+	    }
 	    buff=new char[initial];
 	}
 	this.limit=limit;
@@ -136,6 +154,10 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     }
 
     public void setChars( char[] c, int off, int len ) {
+        if (pooled && c != buff) {
+            ArrayPool.releaseChars(buff);
+            pooled = false;
+        }
         buff=c;
         start=off;
         end=start + len;
@@ -489,7 +511,9 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 
 	if( buff==null ) {
 	    if( desiredSize < 256 ) desiredSize=256; // take a minimum
-	    buff=new char[desiredSize];
+	    if( limit <= 0 ) desiredSize=ArrayPool.roundSize(desiredSize);
+	    buff=ArrayPool.takeChars(desiredSize);
+	    pooled=ArrayPool.isPooled(desiredSize);
 	}
 
 	// limit < buf.length ( the buffer is already big )
@@ -500,17 +524,21 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 	// grow in larger chunks
 	if( desiredSize < 2 * buff.length ) {
 	    newSize= buff.length * 2;
-	    if( limit >0 &&
-		newSize > limit ) newSize=limit;
-	    tmp=new char[newSize];
 	} else {
 	    newSize= buff.length * 2 + count ;
-	    if( limit > 0 &&
-		newSize > limit ) newSize=limit;
-	    tmp=new char[newSize];
 	}
+	if( limit > 0 ) {
+	    if( newSize > limit ) newSize=limit;
+	} else {
+	    newSize=ArrayPool.roundSize(newSize);
+	}
+	tmp=ArrayPool.takeChars(newSize);
 	
 	System.arraycopy(buff, 0, tmp, 0, end);
+	if( pooled ) {
+	    ArrayPool.releaseChars(buff);
+	}
+	pooled=ArrayPool.isPooled(newSize);
 	buff = tmp;
 	tmp = null;
     }
@@ -0,0 +1,454 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared arena of direct byte buffers. Buffers are grouped in power of two
+ * size classes, and are carved out of larger direct slabs so that native
+ * memory is reserved in a few large blocks. Borrowing and returning a buffer
+ * only involves lock free queue operations.
+ * <p>
+ * Requests larger than the biggest size class are served by a plain direct
+ * allocation, and are simply dropped when released.
+ * </p>
+ * <p>
+ * When more than a few slabs worth of buffers of a size class are free, the
+ * slabs whose buffers are all free are dropped, so that their native memory
+ * is released once they are garbage collected.
+ * </p>
+ */
+public class DirectBufferArena {
+
+
+    // ------------------------------------------------------- Static Variables
+
+
+    protected static final int MIN_BUFFER_SIZE =
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.DirectBufferArena.MIN_BUFFER_SIZE", "1024"));
+
+    protected static final int MAX_BUFFER_SIZE =
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.DirectBufferArena.MAX_BUFFER_SIZE", "65536"));
+
+    protected static final int SLAB_SIZE =
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.DirectBufferArena.SLAB_SIZE", "262144"));
+
+    protected static final int MAX_FREE_SLABS =
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.DirectBufferArena.MAX_FREE_SLABS", "4"));
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Size classes, from the smallest to the biggest.
+     */
+    protected SizeClass[] classes;
+
+
+    /**
+     * log2 of the smallest size class.
+     */
+    protected int minShift;
+
+
+    /**
+     * Native memory reserved by the arena, including unpooled buffers which
+     * are currently borrowed.
+     */
+    protected AtomicLong reservedBytes = new AtomicLong();
+
+
+    /**
+     * Capacity of the buffers currently borrowed.
+     */
+    protected AtomicLong usedBytes = new AtomicLong();
+
+
+    /**
+     * Total size requested by all allocations so far.
+     */
+    protected AtomicLong requestedBytes = new AtomicLong();
+
+
+    /**
+     * Total capacity handed out by all allocations so far.
+     */
+    protected AtomicLong allocatedBytes = new AtomicLong();
+
+
+    /**
+     * Number of allocations so far.
+     */
+    protected AtomicLong allocationCount = new AtomicLong();
+
+
+    /**
+     * Number of allocations which could not be served from a size class.
+     */
+    protected AtomicLong unpooledCount = new AtomicLong();
+
+
+    /**
+     * Native memory of the slabs dropped so far.
+     */
+    protected AtomicLong trimmedBytes = new AtomicLong();
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public DirectBufferArena() {
+        this(MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, SLAB_SIZE, MAX_FREE_SLABS);
+    }
+
+
+    /**
+     * @param minBufferSize the size of the smallest size class
+     * @param maxBufferSize the size of the biggest size class
+     * @param slabSize the size of the direct blocks buffers are carved from
+     */
+    public DirectBufferArena(int minBufferSize, int maxBufferSize, int slabSize) {
+        this(minBufferSize, maxBufferSize, slabSize, MAX_FREE_SLABS);
+    }
+
+
+    /**
+     * @param minBufferSize the size of the smallest size class
+     * @param maxBufferSize the size of the biggest size class
+     * @param slabSize the size of the direct blocks buffers are carved from
+     * @param maxFreeSlabs the number of slabs worth of free buffers a size
+     *  class keeps before dropping its free slabs, or -1 to keep them all
+     */
+    public DirectBufferArena(int minBufferSize, int maxBufferSize, int slabSize, int maxFreeSlabs) {
+        int min = roundUp(Math.max(minBufferSize, 16));
+        int max = roundUp(Math.max(maxBufferSize, min));
+        minShift = Integer.numberOfTrailingZeros(min);
+        int count = Integer.numberOfTrailingZeros(max) - minShift + 1;
+        classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            int size = min << i;
+            classes[i] = new SizeClass(size, Math.max(1, slabSize / size), maxFreeSlabs);
+        }
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    /**
+     * Borrow a direct buffer able to hold at least the given number of bytes.
+     * The buffer is returned cleared, with its limit set to the requested
+     * size.
+     *
+     * @param size the minimum capacity of the buffer
+     * @return a direct byte buffer
+     */
+    public ByteBuffer allocate(int size) {
+        SizeClass sizeClass = getSizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+            reservedBytes.addAndGet(size);
+            unpooledCount.incrementAndGet();
+        } else {
+            buffer = sizeClass.poll();
+        }
+        usedBytes.addAndGet(buffer.capacity());
+        requestedBytes.addAndGet(size);
+        allocatedBytes.addAndGet(buffer.capacity());
+        allocationCount.incrementAndGet();
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+
+    /**
+     * Return a buffer to the arena. The buffer must not be used by the caller
+     * afterwards.
+     *
+     * @param buffer a buffer obtained through {@link #allocate(int)}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        usedBytes.addAndGet(-capacity);
+        SizeClass sizeClass = getSizeClass(capacity);
+        if (sizeClass != null && sizeClass.size == capacity) {
+            buffer.clear();
+            sizeClass.release(buffer);
+        } else {
+            // Unpooled buffer, will be freed by the GC
+            reservedBytes.addAndGet(-capacity);
+        }
+    }
+
+
+    /**
+     * @return the native memory reserved by the arena, in bytes
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+
+    /**
+     * @return the capacity of the buffers currently borrowed, in bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+
+    /**
+     * @return the capacity of the buffers available for borrowing, in bytes
+     */
+    public long getFreeBytes() {
+        return reservedBytes.get() - usedBytes.get();
+    }
+
+
+    /**
+     * @return the number of buffers available for borrowing
+     */
+    public int getFreeCount() {
+        int count = 0;
+        for (int i = 0; i < classes.length; i++) {
+            count += classes[i].freeCount.get();
+        }
+        return count;
+    }
+
+
+    /**
+     * @return the percentage of the reserved memory currently borrowed
+     */
+    public int getOccupancy() {
+        long reserved = reservedBytes.get();
+        return (reserved == 0) ? 0 : (int) (usedBytes.get() * 100 / reserved);
+    }
+
+
+    /**
+     * @return the percentage of the allocated capacity which was not
+     *  requested, because of the rounding to a size class
+     */
+    public int getFragmentation() {
+        long allocated = allocatedBytes.get();
+        return (allocated == 0) ? 0
+                : (int) ((allocated - requestedBytes.get()) * 100 / allocated);
+    }
+
+
+    /**
+     * @return the number of allocations
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+
+    /**
+     * @return the number of allocations which were too big for the arena
+     */
+    public long getUnpooledCount() {
+        return unpooledCount.get();
+    }
+
+
+    /**
+     * @return the native memory of the free slabs dropped so far, in bytes
+     */
+    public long getTrimmedBytes() {
+        return trimmedBytes.get();
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * @return the smallest size class able to hold the given size, or null
+     *  if the size is too big for the arena
+     */
+    protected SizeClass getSizeClass(int size) {
+        int index = 0;
+        if (size > 1) {
+            index = 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+        }
+        if (index < 0) {
+            index = 0;
+        }
+        return (index < classes.length) ? classes[index] : null;
+    }
+
+
+    protected static int roundUp(int size) {
+        int n = Integer.highestOneBit(size);
+        return (n == size) ? n : n << 1;
+    }
+
+
+    // ---------------------------------------------------- SizeClass Inner Class
+
+
+    protected class SizeClass {
+
+        protected final int size;
+        protected final int slabCount;
+        protected final int maxFreeCount;
+        protected ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+        protected AtomicInteger freeCount = new AtomicInteger();
+
+        /**
+         * Slab of each buffer, guarded by the size class.
+         */
+        protected IdentityHashMap<ByteBuffer, Slab> slabs = new IdentityHashMap<ByteBuffer, Slab>();
+
+        /**
+         * Number of free buffers above which the free slabs are dropped.
+         */
+        protected volatile int trimCount;
+
+        protected SizeClass(int size, int slabCount, int maxFreeSlabs) {
+            this.size = size;
+            this.slabCount = slabCount;
+            this.maxFreeCount = (maxFreeSlabs < 0) ? Integer.MAX_VALUE : maxFreeSlabs * slabCount;
+            this.trimCount = maxFreeCount;
+        }
+
+        protected ByteBuffer poll() {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                freeCount.decrementAndGet();
+                return buffer;
+            }
+            synchronized (this) {
+                // The free buffers may have been taken by a trim
+                buffer = free.poll();
+                if (buffer != null) {
+                    freeCount.decrementAndGet();
+                    return buffer;
+                }
+                // Carve a new slab, keep the first buffer and make the others
+                // available
+                ByteBuffer block = ByteBuffer.allocateDirect(size * slabCount);
+                reservedBytes.addAndGet(block.capacity());
+                Slab slab = new Slab(slabCount);
+                for (int i = 0; i < slabCount; i++) {
+                    block.limit((i + 1) * size);
+                    block.position(i * size);
+                    ByteBuffer slice = block.slice();
+                    slab.slices[i] = slice;
+                    slabs.put(slice, slab);
+                    if (i == 0) {
+                        buffer = slice;
+                    } else {
+                        offer(slice);
+                    }
+                }
+                trimCount = maxFreeCount;
+            }
+            return buffer;
+        }
+
+        protected void offer(ByteBuffer buffer) {
+            freeCount.incrementAndGet();
+            free.offer(buffer);
+        }
+
+        protected void release(ByteBuffer buffer) {
+            offer(buffer);
+            if (freeCount.get() > trimCount) {
+                trim();
+            }
+        }
+
+        /**
+         * Drop the slabs whose buffers are all free, as long as more than
+         * the maximum number of buffers are free.
+         */
+        protected synchronized void trim() {
+            if (freeCount.get() <= trimCount) {
+                return;
+            }
+            // Take all the free buffers, so that the free slabs are known
+            ArrayList<ByteBuffer> taken = new ArrayList<ByteBuffer>();
+            ByteBuffer buffer = free.poll();
+            while (buffer != null) {
+                freeCount.decrementAndGet();
+                taken.add(buffer);
+                slabs.get(buffer).freeCount++;
+                buffer = free.poll();
+            }
+            int kept = taken.size();
+            for (int i = 0; i < taken.size() && kept > maxFreeCount; i++) {
+                Slab slab = slabs.get(taken.get(i));
+                if (slab != null && slab.freeCount == slabCount) {
+                    for (int j = 0; j < slabCount; j++) {
+                        slabs.remove(slab.slices[j]);
+                    }
+                    kept -= slabCount;
+                    reservedBytes.addAndGet(-size * slabCount);
+                    trimmedBytes.addAndGet(size * slabCount);
+                }
+            }
+            for (int i = 0; i < taken.size(); i++) {
+                buffer = taken.get(i);
+                Slab slab = slabs.get(buffer);
+                if (slab != null) {
+                    slab.freeCount = 0;
+                    offer(buffer);
+                }
+            }
+            // Do not look for free slabs again before another slab is freed
+            trimCount = Math.max(maxFreeCount, kept + slabCount);
+        }
+
+    }
+
+
+    // --------------------------------------------------------- Slab Inner Class
+
+
+    protected static class Slab {
+
+        protected final ByteBuffer[] slices;
+
+        /**
+         * Number of free buffers, only counted while trimming.
+         */
+        protected int freeCount = 0;
+
+        protected Slab(int slabCount) {
+            this.slices = new ByteBuffer[slabCount];
+        }
+
+    }
+
+}
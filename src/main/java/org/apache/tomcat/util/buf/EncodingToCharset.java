@@ -64,4 +64,15 @@ public class EncodingToCharset {
 
     }
 
+    /**
+     * Return true if the charset decodes the US-ASCII bytes as the same
+     * characters, whatever the bytes around them, so that US-ASCII runs can
+     * be widened to chars without using a decoder.
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII")
+            || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+
 }
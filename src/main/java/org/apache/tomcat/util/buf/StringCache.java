@@ -17,15 +17,31 @@
 
 package org.apache.tomcat.util.buf;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.web.CoyoteLogger;
 
 /**
  * This class implements a String cache for ByteChunk and CharChunk.
+ * <p>
+ * Lookups use an immutable sorted snapshot of the most frequent Strings,
+ * without any locking. Each thread samples its own conversions and
+ * periodically merges its counts in the shared statistics, and the snapshot
+ * is rebuilt from these statistics every <code>trainThreshold</code>
+ * conversions, so that the cache follows the changes of the traffic. The
+ * rebuild is done by a single thread, the others keep using the previous
+ * snapshot meanwhile.
  *
  * @author Remy Maucherat
  */
@@ -59,52 +75,91 @@ public class StringCache {
         Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.StringCache.maxStringSize", "128"));
     
 
-   /**
+    /**
+     * One conversion out of 2^sampleShift is counted in the statistics.
+     */
+    protected static int sampleShift = 
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.buf.StringCache.sampleShift", "2"));
+
+
+    /**
+     * Number of samples a thread collects before merging them in the shared
+     * statistics.
+     */
+    protected static final int SAMPLE_BATCH = 256;
+
+
+    /**
      * Statistics hash map for byte chunk.
      */
-    protected static HashMap bcStats = new HashMap(cacheSize);
+    protected static final ConcurrentHashMap<ByteEntry, AtomicInteger> bcStats =
+        new ConcurrentHashMap<ByteEntry, AtomicInteger>();
 
     
     /**
-     * toString count for byte chunk.
+     * Sample count for byte chunk since the last rebuild.
      */
-    protected static int bcCount = 0;
+    protected static final AtomicInteger bcCount = new AtomicInteger();
     
     
     /**
-     * Cache for byte chunk.
+     * Cache for byte chunk, an immutable sorted snapshot.
      */
-    protected static ByteEntry[] bcCache = null;
+    protected static volatile ByteEntry[] bcCache = null;
     
 
     /**
      * Statistics hash map for char chunk.
      */
-    protected static HashMap ccStats = new HashMap(cacheSize);
+    protected static final ConcurrentHashMap<CharEntry, AtomicInteger> ccStats =
+        new ConcurrentHashMap<CharEntry, AtomicInteger>();
 
 
     /**
-     * toString count for char chunk.
+     * Sample count for char chunk since the last rebuild.
      */
-    protected static int ccCount = 0; 
+    protected static final AtomicInteger ccCount = new AtomicInteger(); 
     
 
     /**
-     * Cache for char chunk.
+     * Cache for char chunk, an immutable sorted snapshot.
+     */
+    protected static volatile CharEntry[] ccCache = null;
+
+
+    /**
+     * Set by the thread rebuilding a cache.
      */
-    protected static CharEntry[] ccCache = null;
+    protected static final AtomicBoolean bcRebuilding = new AtomicBoolean();
+    protected static final AtomicBoolean ccRebuilding = new AtomicBoolean();
 
     
     /**
      * Access count.
      */
-    protected static int accessCount = 0;
+    protected static final AtomicLong accessCount = new AtomicLong();
     
 
     /**
      * Hit count.
      */
-    protected static int hitCount = 0;
+    protected static final AtomicLong hitCount = new AtomicLong();
+
+
+    /**
+     * Number of cache rebuilds.
+     */
+    protected static final AtomicInteger rebuildCount = new AtomicInteger();
+
+
+    /**
+     * Per thread sampling state.
+     */
+    protected static final ThreadLocal<Sampler> samplers = new ThreadLocal<Sampler>() {
+        protected Sampler initialValue() {
+            return new Sampler();
+        }
+    };
     
 
     // ------------------------------------------------------------ Properties
@@ -173,12 +228,29 @@ public class StringCache {
         StringCache.trainThreshold = trainThreshold;
     }
 
+
+    /**
+     * @return Returns the sampleShift.
+     */
+    public int getSampleShift() {
+        return sampleShift;
+    }
+
+
+    /**
+     * @param sampleShift The sampleShift to set, one conversion out of
+     *        2^sampleShift is sampled.
+     */
+    public void setSampleShift(int sampleShift) {
+        StringCache.sampleShift = Math.max(0, Math.min(sampleShift, 16));
+    }
+
     
     /**
      * @return Returns the accessCount.
      */
     public int getAccessCount() {
-        return accessCount;
+        return (int) accessCount.get();
     }
     
     
@@ -186,7 +258,60 @@ public class StringCache {
      * @return Returns the hitCount.
      */
     public int getHitCount() {
-        return hitCount;
+        return (int) hitCount.get();
+    }
+
+
+    /**
+     * @return Returns the number of lookups which did not find the String.
+     */
+    public long getMissCount() {
+        return accessCount.get() - hitCount.get();
+    }
+
+
+    /**
+     * @return Returns the ratio of the lookups which found the String, the
+     *         counts of each thread are merged periodically.
+     */
+    public double getHitRatio() {
+        long access = accessCount.get();
+        return (access == 0) ? 0 : ((double) hitCount.get()) / access;
+    }
+
+
+    /**
+     * @return Returns the ratio of the lookups which did not find the String.
+     */
+    public double getMissRatio() {
+        long access = accessCount.get();
+        return (access == 0) ? 0 : 1 - ((double) hitCount.get()) / access;
+    }
+
+
+    /**
+     * @return Returns the number of Strings in the byte cache.
+     */
+    public int getByteCacheSize() {
+        ByteEntry[] cache = bcCache;
+        return (cache == null) ? 0 : cache.length;
+    }
+
+
+    /**
+     * @return Returns the number of Strings in the char cache.
+     */
+    public int getCharCacheSize() {
+        CharEntry[] cache = ccCache;
+        return (cache == null) ? 0 : cache.length;
+    }
+
+
+    /**
+     * @return Returns the number of cache rebuilds.
+     */
+    public int getRebuildCount() {
+        return rebuildCount.get();
     }
 
     
@@ -194,241 +319,53 @@ public class StringCache {
 
     
     public void reset() {
-        hitCount = 0;
-        accessCount = 0;
-        synchronized (bcStats) {
-            bcCache = null;
-            bcCount = 0;
-        }
-        synchronized (ccStats) {
-            ccCache = null;
-            ccCount = 0;
-        }
+        hitCount.set(0);
+        accessCount.set(0);
+        bcCache = null;
+        bcStats.clear();
+        bcCount.set(0);
+        ccCache = null;
+        ccStats.clear();
+        ccCount.set(0);
     }
     
     
     public static String toString(ByteChunk bc) {
 
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (bcCache == null) {
+        ByteEntry[] cache = bcCache;
+        if (!byteEnabled) {
+            return (cache == null) ? bc.toStringInternal() : lookup(bc, cache, null);
+        }
+        Sampler sampler = samplers.get();
+        if (cache == null) {
+            // Still training: only sample
             String value = bc.toStringInternal();
-            if (byteEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (bcStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting fot the lock, just return the toString value
-                    // we just calculated
-                    if (bcCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in which
-                    // case the cache must be created, or we just update the count for
-                    // the string
-                    if (bcCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap tempMap = new TreeMap();
-                        Iterator entries = bcStats.keySet().iterator();
-                        while (entries.hasNext()) {
-                            ByteEntry entry = (ByteEntry) entries.next();
-                            int[] countA = (int[]) bcStats.get(entry);
-                            Integer count = new Integer(countA[0]);
-                            // Add to the list for that count
-                            ArrayList list = (ArrayList) tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = bcStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        ByteEntry[] tempbcCache = new ByteEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        ByteChunk tempChunk = new ByteChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList list = (ArrayList) tempMap.get(key);
-                            ByteEntry[] list2 = 
-                                (ByteEntry[]) list.toArray(new ByteEntry[list.size()]);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                ByteEntry entry = (ByteEntry) list.get(i);
-                                tempChunk.setBytes(entry.name, 0, entry.name.length);
-                                int insertPos = findClosest(tempChunk, tempbcCache, n);
-                                if (insertPos == n) {
-                                    tempbcCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempbcCache, insertPos + 1, tempbcCache, 
-                                            insertPos + 2, n - insertPos - 1);
-                                    tempbcCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        bcCount = 0;
-                        bcStats.clear();
-                        bcCache = tempbcCache;
-                        if (CoyoteLogger.UTIL_LOGGER.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            CoyoteLogger.UTIL_LOGGER.debug("ByteCache generation time: " + (t2 - t1) + "ms");
-                        }
-                    } else {
-                        bcCount++;
-                        // Allocate new ByteEntry for the lookup
-                        ByteEntry entry = new ByteEntry();
-                        entry.value = value;
-                        int[] count = (int[]) bcStats.get(entry);
-                        if (count == null) {
-                            int end = bc.getEnd();
-                            int start = bc.getStart();
-                            // Create byte array and copy bytes
-                            entry.name = new byte[bc.getLength()];
-                            System.arraycopy(bc.getBuffer(), start, entry.name, 0, end - start);
-                            // Set encoding
-                            entry.enc = bc.getEncoding();
-                            // Initialize occurrence count to one 
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            bcStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
+            if (value.length() < maxStringSize && sampler.sample()) {
+                sampler.add(bc, value, null);
             }
             return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(bc);
-            if (result == null) {
-                return bc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
         }
+        return lookup(bc, cache, sampler);
         
     }
 
 
     public static String toString(CharChunk cc) {
         
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (ccCache == null) {
+        CharEntry[] cache = ccCache;
+        if (!charEnabled) {
+            return (cache == null) ? cc.toStringInternal() : lookup(cc, cache, null);
+        }
+        Sampler sampler = samplers.get();
+        if (cache == null) {
+            // Still training: only sample
             String value = cc.toStringInternal();
-            if (charEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (ccStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting fot the lock, just return the toString value
-                    // we just calculated
-                    if (ccCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in which
-                    // case the cache must be created, or we just update the count for
-                    // the string
-                    if (ccCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap tempMap = new TreeMap();
-                        Iterator entries = ccStats.keySet().iterator();
-                        while (entries.hasNext()) {
-                            CharEntry entry = (CharEntry) entries.next();
-                            int[] countA = (int[]) ccStats.get(entry);
-                            Integer count = new Integer(countA[0]);
-                            // Add to the list for that count
-                            ArrayList list = (ArrayList) tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = ccStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        CharEntry[] tempccCache = new CharEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        CharChunk tempChunk = new CharChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList list = (ArrayList) tempMap.get(key);
-                            CharEntry[] list2 = 
-                                (CharEntry[]) list.toArray(new CharEntry[list.size()]);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                CharEntry entry = (CharEntry) list.get(i);
-                                tempChunk.setChars(entry.name, 0, entry.name.length);
-                                int insertPos = findClosest(tempChunk, tempccCache, n);
-                                if (insertPos == n) {
-                                    tempccCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempccCache, insertPos + 1, tempccCache, 
-                                            insertPos + 2, n - insertPos - 1);
-                                    tempccCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        ccCount = 0;
-                        ccStats.clear();
-                        ccCache = tempccCache;
-                        if (CoyoteLogger.UTIL_LOGGER.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            CoyoteLogger.UTIL_LOGGER.debug("CharCache generation time: " + (t2 - t1) + "ms");
-                        }
-                    } else {
-                        ccCount++;
-                        // Allocate new CharEntry for the lookup
-                        CharEntry entry = new CharEntry();
-                        entry.value = value;
-                        int[] count = (int[]) ccStats.get(entry);
-                        if (count == null) {
-                            int end = cc.getEnd();
-                            int start = cc.getStart();
-                            // Create char array and copy chars
-                            entry.name = new char[cc.getLength()];
-                            System.arraycopy(cc.getBuffer(), start, entry.name, 0, end - start);
-                            // Initialize occurrence count to one 
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            ccStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
+            if (value.length() < maxStringSize && sampler.sample()) {
+                sampler.add(cc, value, null);
             }
             return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(cc);
-            if (result == null) {
-                return cc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
         }
+        return lookup(cc, cache, sampler);
         
     }
     
@@ -473,12 +410,77 @@ public class StringCache {
      * Find an entry given its name in the cache and return the associated String.
      */
     protected static final String find(ByteChunk name) {
-        int pos = findClosest(name, bcCache, bcCache.length);
-        if ((pos < 0) || (compare(name, bcCache[pos].name) != 0)
-                || !(name.getEncoding().equals(bcCache[pos].enc))) {
+        ByteEntry[] cache = bcCache;
+        if (cache == null) {
+            return null;
+        }
+        ByteEntry entry = find(name, cache);
+        return (entry == null) ? null : entry.value;
+    }
+
+
+    /**
+     * Find an entry given its name in the given snapshot of the cache.
+     */
+    protected static final ByteEntry find(ByteChunk name, ByteEntry[] cache) {
+        int pos = findClosest(name, cache, cache.length);
+        if ((pos < 0) || (compare(name, cache[pos].name) != 0)
+                || !(name.getEncoding().equals(cache[pos].enc))) {
             return null;
         } else {
-            return bcCache[pos].value;
+            return cache[pos];
+        }
+    }
+
+
+    /**
+     * Convert the byte chunk using the given snapshot of the cache, and
+     * sample the conversion if a sampler is given.
+     */
+    protected static String lookup(ByteChunk bc, ByteEntry[] cache, Sampler sampler) {
+        ByteEntry entry = find(bc, cache);
+        String value = (entry == null) ? bc.toStringInternal() : entry.value;
+        if (sampler != null) {
+            sampler.access(entry != null);
+            if (value.length() < maxStringSize && sampler.sample()) {
+                sampler.add(bc, value, entry);
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Rebuild the byte chunk cache from the statistics, unless another thread
+     * is already doing it.
+     */
+    protected static void rebuildByteCache() {
+        if (!bcRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (bcCount.get() < (trainThreshold >> sampleShift)) {
+                // Already rebuilt
+                return;
+            }
+            long t1 = System.currentTimeMillis();
+            ArrayList<Map.Entry<ByteEntry, Integer>> entries = snapshot(bcStats);
+            int size = Math.min(entries.size(), cacheSize);
+            ByteEntry[] tempbcCache = new ByteEntry[size];
+            for (int i = 0; i < size; i++) {
+                tempbcCache[i] = entries.get(i).getKey();
+            }
+            Arrays.sort(tempbcCache, BYTE_ENTRY_ORDER);
+            bcStats.clear();
+            bcCount.set(0);
+            bcCache = tempbcCache;
+            rebuildCount.incrementAndGet();
+            if (CoyoteLogger.UTIL_LOGGER.isDebugEnabled()) {
+                long t2 = System.currentTimeMillis();
+                CoyoteLogger.UTIL_LOGGER.debug("ByteCache generation time: " + (t2 - t1) + "ms");
+            }
+        } finally {
+            bcRebuilding.set(false);
         }
     }
 
@@ -566,14 +568,170 @@ public class StringCache {
      * Find an entry given its name in the cache and return the associated String.
      */
     protected static final String find(CharChunk name) {
-        int pos = findClosest(name, ccCache, ccCache.length);
-        if ((pos < 0) || (compare(name, ccCache[pos].name) != 0)) {
+        CharEntry[] cache = ccCache;
+        if (cache == null) {
+            return null;
+        }
+        CharEntry entry = find(name, cache);
+        return (entry == null) ? null : entry.value;
+    }
+
+
+    /**
+     * Find an entry given its name in the given snapshot of the cache.
+     */
+    protected static final CharEntry find(CharChunk name, CharEntry[] cache) {
+        int pos = findClosest(name, cache, cache.length);
+        if ((pos < 0) || (compare(name, cache[pos].name) != 0)) {
             return null;
         } else {
-            return ccCache[pos].value;
+            return cache[pos];
+        }
+    }
+
+
+    /**
+     * Convert the char chunk using the given snapshot of the cache, and
+     * sample the conversion if a sampler is given.
+     */
+    protected static String lookup(CharChunk cc, CharEntry[] cache, Sampler sampler) {
+        CharEntry entry = find(cc, cache);
+        String value = (entry == null) ? cc.toStringInternal() : entry.value;
+        if (sampler != null) {
+            sampler.access(entry != null);
+            if (value.length() < maxStringSize && sampler.sample()) {
+                sampler.add(cc, value, entry);
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Rebuild the char chunk cache from the statistics, unless another thread
+     * is already doing it.
+     */
+    protected static void rebuildCharCache() {
+        if (!ccRebuilding.compareAndSet(false, true)) {
+            return;
         }
+        try {
+            if (ccCount.get() < (trainThreshold >> sampleShift)) {
+                // Already rebuilt
+                return;
+            }
+            long t1 = System.currentTimeMillis();
+            ArrayList<Map.Entry<CharEntry, Integer>> entries = snapshot(ccStats);
+            int size = Math.min(entries.size(), cacheSize);
+            CharEntry[] tempccCache = new CharEntry[size];
+            for (int i = 0; i < size; i++) {
+                tempccCache[i] = entries.get(i).getKey();
+            }
+            Arrays.sort(tempccCache, CHAR_ENTRY_ORDER);
+            ccStats.clear();
+            ccCount.set(0);
+            ccCache = tempccCache;
+            rebuildCount.incrementAndGet();
+            if (CoyoteLogger.UTIL_LOGGER.isDebugEnabled()) {
+                long t2 = System.currentTimeMillis();
+                CoyoteLogger.UTIL_LOGGER.debug("CharCache generation time: " + (t2 - t1) + "ms");
+            }
+        } finally {
+            ccRebuilding.set(false);
+        }
+    }
+
+
+    /**
+     * Copy the statistics, sorted by decreasing occurrence count.
+     */
+    protected static <E> ArrayList<Map.Entry<E, Integer>> snapshot(Map<E, AtomicInteger> stats) {
+        ArrayList<Map.Entry<E, Integer>> entries = new ArrayList<Map.Entry<E, Integer>>(stats.size());
+        Iterator<Map.Entry<E, AtomicInteger>> iterator = stats.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<E, AtomicInteger> entry = iterator.next();
+            entries.add(new AbstractMap.SimpleEntry<E, Integer>(entry.getKey(),
+                    Integer.valueOf(entry.getValue().get())));
+        }
+        Collections.sort(entries, BY_DECREASING_COUNT);
+        return entries;
     }
 
+
+    /**
+     * Add the samples of a thread to the shared statistics.
+     */
+    protected static <E> int merge(HashMap<E, int[]> samples, ConcurrentHashMap<E, AtomicInteger> stats) {
+        int total = 0;
+        // Bound the statistics, new Strings are counted after the next rebuild
+        int maxSize = cacheSize * 4;
+        Iterator<Map.Entry<E, int[]>> iterator = samples.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<E, int[]> sample = iterator.next();
+            int count = sample.getValue()[0];
+            total += count;
+            AtomicInteger current = stats.get(sample.getKey());
+            if (current == null && stats.size() < maxSize) {
+                current = stats.putIfAbsent(sample.getKey(), new AtomicInteger(count));
+                if (current == null) {
+                    continue;
+                }
+            }
+            if (current != null) {
+                current.addAndGet(count);
+            }
+        }
+        samples.clear();
+        return total;
+    }
+
+
+    /**
+     * Order of the entries by decreasing count.
+     */
+    protected static final Comparator<Map.Entry<?, Integer>> BY_DECREASING_COUNT =
+        new Comparator<Map.Entry<?, Integer>>() {
+            public int compare(Map.Entry<?, Integer> e1, Map.Entry<?, Integer> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        };
+
+
+    /**
+     * Order of the byte entries consistent with {@link #compare(ByteChunk, byte[])}.
+     */
+    protected static final Comparator<ByteEntry> BYTE_ENTRY_ORDER = new Comparator<ByteEntry>() {
+        public int compare(ByteEntry e1, ByteEntry e2) {
+            byte[] b1 = e1.name;
+            byte[] b2 = e2.name;
+            int len = Math.min(b1.length, b2.length);
+            for (int i = 0; i < len; i++) {
+                if (b1[i] != b2[i]) {
+                    return (b1[i] < b2[i]) ? -1 : 1;
+                }
+            }
+            return b1.length - b2.length;
+        }
+    };
+
+
+    /**
+     * Order of the char entries consistent with {@link #compare(CharChunk, char[])}.
+     */
+    protected static final Comparator<CharEntry> CHAR_ENTRY_ORDER = new Comparator<CharEntry>() {
+        public int compare(CharEntry e1, CharEntry e2) {
+            char[] c1 = e1.name;
+            char[] c2 = e2.name;
+            int len = Math.min(c1.length, c2.length);
+            for (int i = 0; i < len; i++) {
+                if (c1[i] != c2[i]) {
+                    return (c1[i] < c2[i]) ? -1 : 1;
+                }
+            }
+            return c1.length - c2.length;
+        }
+    };
+
     
     /**
      * Find an entry given its name in a sorted array of map elements.
@@ -621,6 +779,119 @@ public class StringCache {
     }
 
 
+    // ---------------------------------------------------- Sampler Inner Class
+
+
+    /**
+     * Samples the conversions of a thread, without any synchronization, and
+     * periodically merges them in the shared statistics.
+     */
+    protected static final class Sampler {
+
+        /**
+         * Random state, as sampling every n-th conversion would always miss
+         * some Strings of requests converting the same sequence of Strings.
+         */
+        protected int seed = System.identityHashCode(this) | 1;
+        protected int samples = 0;
+        protected int accesses = 0;
+        protected int hits = 0;
+        protected final HashMap<ByteEntry, int[]> byteSamples = new HashMap<ByteEntry, int[]>();
+        protected final HashMap<CharEntry, int[]> charSamples = new HashMap<CharEntry, int[]>();
+
+        /**
+         * Return true if the current conversion should be sampled.
+         */
+        protected boolean sample() {
+            // Xorshift generator
+            int x = seed;
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            seed = x;
+            return (x & ((1 << sampleShift) - 1)) == 0;
+        }
+
+        protected void access(boolean hit) {
+            accesses++;
+            if (hit) {
+                hits++;
+            }
+        }
+
+        protected void add(ByteChunk bc, String value, ByteEntry cached) {
+            ByteEntry entry = cached;
+            if (entry == null) {
+                // Allocate new ByteEntry for the lookup
+                entry = new ByteEntry();
+                entry.value = value;
+            }
+            int[] count = byteSamples.get(entry);
+            if (count == null) {
+                if (cached == null) {
+                    // Create byte array and copy bytes
+                    entry.name = new byte[bc.getLength()];
+                    System.arraycopy(bc.getBuffer(), bc.getStart(), entry.name, 0, bc.getLength());
+                    entry.enc = bc.getEncoding();
+                }
+                byteSamples.put(entry, new int[] { 1 });
+            } else {
+                count[0]++;
+            }
+            if (++samples >= SAMPLE_BATCH) {
+                flush();
+            }
+        }
+
+        protected void add(CharChunk cc, String value, CharEntry cached) {
+            CharEntry entry = cached;
+            if (entry == null) {
+                // Allocate new CharEntry for the lookup
+                entry = new CharEntry();
+                entry.value = value;
+            }
+            int[] count = charSamples.get(entry);
+            if (count == null) {
+                if (cached == null) {
+                    // Create char array and copy chars
+                    entry.name = new char[cc.getLength()];
+                    System.arraycopy(cc.getBuffer(), cc.getStart(), entry.name, 0, cc.getLength());
+                }
+                charSamples.put(entry, new int[] { 1 });
+            } else {
+                count[0]++;
+            }
+            if (++samples >= SAMPLE_BATCH) {
+                flush();
+            }
+        }
+
+        /**
+         * Merge the samples and the hit counts in the shared statistics, and
+         * rebuild the caches if enough samples were collected.
+         */
+        protected void flush() {
+            int threshold = trainThreshold >> sampleShift;
+            if (!byteSamples.isEmpty()
+                    && bcCount.addAndGet(merge(byteSamples, bcStats)) >= threshold) {
+                rebuildByteCache();
+            }
+            if (!charSamples.isEmpty()
+                    && ccCount.addAndGet(merge(charSamples, ccStats)) >= threshold) {
+                rebuildCharCache();
+            }
+            if (accesses > 0) {
+                accessCount.addAndGet(accesses);
+                hitCount.addAndGet(hits);
+            }
+            samples = 0;
+            accesses = 0;
+            hits = 0;
+        }
+
+    }
+
+
     // -------------------------------------------------- ByteEntry Inner Class
 
 
@@ -59,8 +59,24 @@ public final class UTF8Decoder extends B2CConverter {
             int b0=0xff & bytes[j];
 
             if( (b0 & 0x80) == 0 ) {
-                cb.append((char)b0);
-                j++;
+                // Widen the whole US-ASCII run at once
+                int nonAscii = ByteScanner.indexOfNonAscii(bytes, j, end);
+                int length = ((nonAscii < 0) ? end : nonAscii) - j;
+                cb.makeSpace(length);
+                char[] chars = cb.getBuffer();
+                int charEnd = cb.getEnd();
+                int count = Math.min(length, chars.length - charEnd);
+                if (count == 0) {
+                    // The buffer is at its limit, let it flush
+                    cb.append((char)b0);
+                    j++;
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    chars[charEnd + i] = (char) bytes[j + i];
+                }
+                cb.setEnd(charEnd + count);
+                j += count;
                 continue;
             }
 
@@ -28,6 +28,12 @@ import org.jboss.web.CoyoteLogger;
  * A collection of cookies - reusable and tuned for server side performance.
  * Based on RFC2965 ( and 2109 )
  *
+ * In lazy mode (the default), processing the Cookie headers only indexes the
+ * offsets of the names, values and attributes of the cookies. A
+ * {@link ServerCookie} is set up only when its cookie is accessed, so that
+ * looking up a cookie by name with {@link #findCookie(String, int)} does not
+ * set up the others.
+ *
  * This class is not synchronized.
  *
  * @author Costin Manolache
@@ -37,10 +43,34 @@ public final class Cookies { // extends MultiMap {
 
     // expected average number of cookies per request
     public static final int INITIAL_SIZE=4; 
+
+    protected static final boolean LAZY = 
+        Boolean.valueOf(System.getProperty("org.apache.tomcat.util.http.Cookies.LAZY", "true")).booleanValue();
+
+    // Layout of the cookie index: nameStart, nameEnd, valueStart, valueEnd,
+    // domainStart, domainEnd, pathStart, pathEnd, flags
+    private static final int COOKIE_SIZE = 9;
+    private static final int FLAG_QUOTED = 1;
+    private static final int FLAG_VERSION_1 = 2;
+    private static final int FLAG_DOMAIN = 4;
+    private static final int FLAG_PATH = 8;
+    private static final int FLAG_SET_UP = 16;
+    // The segment index is stored in the flags above these bits
+    private static final int SEGMENT_SHIFT = 8;
+
     ServerCookie scookies[]=new ServerCookie[INITIAL_SIZE];
     int cookieCount=0;
     boolean unprocessed=true;
 
+    private boolean lazy = LAZY;
+
+    /**
+     * Indexed cookies, and the bytes of the Cookie headers they point to.
+     */
+    private int[] index = new int[INITIAL_SIZE * COOKIE_SIZE];
+    private byte[][] segments = new byte[1][];
+    private int segmentCount = 0;
+
     MimeHeaders headers;
 
     /**
@@ -54,15 +84,27 @@ public final class Cookies { // extends MultiMap {
         this.headers=headers;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     /**
      * Recycle.
      */
     public void recycle() {
-            for( int i=0; i< cookieCount; i++ ) {
+        for( int i=0; i< cookieCount; i++ ) {
             if( scookies[i]!=null )
                 scookies[i].recycle();
         }
         cookieCount=0;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = null;
+        }
+        segmentCount = 0;
         unprocessed=true;
     }
 
@@ -85,7 +127,10 @@ public final class Cookies { // extends MultiMap {
     
     public ServerCookie getCookie( int idx ) {
         if( unprocessed ) {
-            getCookieCount(); // will also update the cookies
+            getCookieCount(); // will also index the cookies
+        }
+        if ((index[idx * COOKIE_SIZE + 8] & FLAG_SET_UP) == 0) {
+            setUpCookie(idx);
         }
         return scookies[idx];
     }
@@ -94,30 +139,109 @@ public final class Cookies { // extends MultiMap {
         if( unprocessed ) {
             unprocessed=false;
             processCookies(headers);
+            if (!lazy) {
+                for (int i = 0; i < cookieCount; i++) {
+                    setUpCookie(i);
+                }
+            }
         }
         return cookieCount;
     }
 
+    /**
+     * Find a cookie by name, comparing the name with the raw bytes of the
+     * indexed cookies, without setting up the other cookies.
+     *
+     * @param name The cookie name
+     * @param start The index from which to search
+     * @return the index of the first cookie with this name, from the start
+     *  index, or -1 if there is none
+     */
+    public int findCookie(String name, int start) {
+        int count = getCookieCount();
+        for (int i = start; i < count; i++) {
+            int offset = i * COOKIE_SIZE;
+            byte[] bytes = segments[index[offset + 8] >>> SEGMENT_SHIFT];
+            if (equals(name, bytes, index[offset], index[offset + 1])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     // -------------------- Adding cookies --------------------
 
-    /** Register a new, initialized cookie. Cookies are recycled, and
-     *  most of the time an existing ServerCookie object is returned.
-     *  The caller can set the name/value and attributes for the cookie
+    /** Index a new cookie, which is set up later from its offsets, and
+     *  return its position in the index.
      */
-    private ServerCookie addCookie() {
+    private int addCookie(int segment, int nameStart, int nameEnd,
+            int valueStart, int valueEnd, int version, boolean quoted) {
         if( cookieCount >= scookies.length  ) {
             ServerCookie scookiesTmp[]=new ServerCookie[2*cookieCount];
             System.arraycopy( scookies, 0, scookiesTmp, 0, cookieCount);
             scookies=scookiesTmp;
+            int[] indexTmp = new int[scookies.length * COOKIE_SIZE];
+            System.arraycopy(index, 0, indexTmp, 0, cookieCount * COOKIE_SIZE);
+            index = indexTmp;
         }
-        
-        ServerCookie c = scookies[cookieCount];
-        if( c==null ) {
-            c= new ServerCookie();
-            scookies[cookieCount]=c;
-        }
+
+        int offset = cookieCount * COOKIE_SIZE;
+        index[offset] = nameStart;
+        index[offset + 1] = nameEnd;
+        index[offset + 2] = valueStart;
+        index[offset + 3] = valueEnd;
+        index[offset + 8] = (segment << SEGMENT_SHIFT)
+            | ((version == 1) ? FLAG_VERSION_1 : 0)
+            | (quoted ? FLAG_QUOTED : 0);
         cookieCount++;
-        return c;
+        return offset;
+    }
+
+    /** Set the Domain or Path attribute of an indexed cookie.
+     */
+    private void setAttribute(int offset, int flag, int valueStart, int valueEnd) {
+        int attribute = offset + ((flag == FLAG_DOMAIN) ? 4 : 6);
+        index[attribute] = valueStart;
+        index[attribute + 1] = valueEnd;
+        index[offset + 8] |= flag;
+    }
+
+    /** Set up the recycled ServerCookie of an indexed cookie.
+     */
+    private void setUpCookie(int idx) {
+        int offset = idx * COOKIE_SIZE;
+        int flags = index[offset + 8];
+        byte[] bytes = segments[flags >>> SEGMENT_SHIFT];
+
+        ServerCookie sc = scookies[idx];
+        if( sc==null ) {
+            sc= new ServerCookie();
+            scookies[idx]=sc;
+        }
+        sc.setVersion(((flags & FLAG_VERSION_1) != 0) ? 1 : 0);
+        sc.getName().setBytes( bytes, index[offset],
+                               index[offset + 1] - index[offset]);
+        int valueStart = index[offset + 2];
+        if (valueStart != -1) { // Normal AVPair
+            sc.getValue().setBytes( bytes, valueStart,
+                    index[offset + 3] - valueStart);
+            if ((flags & FLAG_QUOTED) != 0) {
+                // We know this is a byte value so this is safe
+                unescapeDoubleQuotes(sc.getValue().getByteChunk());
+            }
+        } else {
+            // Name Only
+            sc.getValue().setString(""); 
+        }
+        if ((flags & FLAG_DOMAIN) != 0) {
+            sc.getDomain().setBytes( bytes, index[offset + 4],
+                                   index[offset + 5] - index[offset + 4]);
+        }
+        if ((flags & FLAG_PATH) != 0) {
+            sc.getPath().setBytes( bytes, index[offset + 6],
+                                   index[offset + 7] - index[offset + 6]);
+        }
+        index[offset + 8] = flags | FLAG_SET_UP;
     }
 
 
@@ -231,6 +355,13 @@ public final class Cookies { // extends MultiMap {
      */
     protected final void processCookieHeader(byte bytes[], int off, int len){
         if( len<=0 || bytes==null ) return;
+        if (segmentCount == segments.length) {
+            byte[][] segmentsTmp = new byte[segmentCount * 2][];
+            System.arraycopy(segments, 0, segmentsTmp, 0, segmentCount);
+            segments = segmentsTmp;
+        }
+        int segment = segmentCount++;
+        segments[segment] = bytes;
         int end=off+len;
         int pos=off;
         int nameStart=0;
@@ -238,7 +369,8 @@ public final class Cookies { // extends MultiMap {
         int valueStart=0;
         int valueEnd=0;
         int version = 0;
-        ServerCookie sc=null;
+        // Offset in the index of the current cookie, or -1
+        int sc=-1;
         boolean isSpecial;
         boolean isQuoted;
 
@@ -337,7 +469,7 @@ public final class Cookies { // extends MultiMap {
                         // Make sure no special avpairs can be attributed to 
                         // the previous cookie by setting the current cookie
                         // to null
-                        sc = null;
+                        sc = -1;
                         continue;                        
                     }
                 }
@@ -371,7 +503,7 @@ public final class Cookies { // extends MultiMap {
                 // $Version must be the first avpair in the cookie header
                 // (sc must be null)
                 if (equals( "Version", bytes, nameStart, nameEnd) && 
-                    sc == null) {
+                    sc == -1) {
                     // Set version
                     if( bytes[valueStart] =='1' && valueEnd == (valueStart+1)) {
                         version=1;
@@ -382,22 +514,18 @@ public final class Cookies { // extends MultiMap {
                 } 
                 
                 // We need an active cookie for Path/Port/etc.
-                if (sc == null) {
+                if (sc == -1) {
                     continue;
                 }
 
                 // Domain is more common, so it goes first
                 if (equals( "Domain", bytes, nameStart, nameEnd)) {
-                    sc.getDomain().setBytes( bytes,
-                                           valueStart,
-                                           valueEnd-valueStart);
+                    setAttribute(sc, FLAG_DOMAIN, valueStart, valueEnd);
                     continue;
                 } 
 
                 if (equals( "Path", bytes, nameStart, nameEnd)) {
-                    sc.getPath().setBytes( bytes,
-                                           valueStart,
-                                           valueEnd-valueStart);
+                    setAttribute(sc, FLAG_PATH, valueStart, valueEnd);
                     continue;
                 } 
 
@@ -413,22 +541,8 @@ public final class Cookies { // extends MultiMap {
                 CoyoteLogger.HTTP_LOGGER.invalidSpecialCookie(new String(bytes, nameStart, nameEnd - nameStart));
 
             } else { // Normal Cookie
-                sc = addCookie();
-                sc.setVersion( version );
-                sc.getName().setBytes( bytes, nameStart,
-                                       nameEnd-nameStart);
-                
-                if (valueStart != -1) { // Normal AVPair
-                    sc.getValue().setBytes( bytes, valueStart,
-                            valueEnd-valueStart);
-                    if (isQuoted) {
-                        // We know this is a byte value so this is safe
-                        unescapeDoubleQuotes(sc.getValue().getByteChunk());
-                    }
-                } else {
-                    // Name Only
-                    sc.getValue().setString(""); 
-                }
+                sc = addCookie(segment, nameStart, nameEnd, valueStart,
+                        valueEnd, version, isQuoted);
                 continue;
             }
         }
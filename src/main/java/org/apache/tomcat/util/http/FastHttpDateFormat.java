@@ -75,15 +75,9 @@ public final class FastHttpDateFormat {
 
 
     /**
-     * Instant on which the currentDate object was generated.
+     * Current formatted date, replaced when the second changes.
      */
-    private static long currentDateGenerated = 0L;
-
-
-    /**
-     * Current formatted date.
-     */
-    private static String currentDate = null;
+    private static volatile CurrentDate currentDate = new CurrentDate(-1L);
 
 
     /**
@@ -108,17 +102,38 @@ public final class FastHttpDateFormat {
      */
     public static final String getCurrentDate() {
 
-        long now = System.currentTimeMillis();
-        if ((now - currentDateGenerated) > 1000) {
-            synchronized (format) {
-                if ((now - currentDateGenerated) > 1000) {
-                    currentDate = format.format(new Date(now));
-                    currentDateGenerated = now;
-                }
-            }
-        }
-        return currentDate;
+        return current().date;
+
+    }
+
+
+    /**
+     * Get the encoded <code>Date</code> header line of the given date, which
+     * must have been returned by {@link #getCurrentDate()}.
+     * 
+     * @return the bytes of the header line, including the CRLF, or null if
+     *  the date is no longer the current date
+     */
+    public static final byte[] getCurrentDateHeader(String date) {
+
+        CurrentDate current = currentDate;
+        return (current.date == date) ? current.header : null;
+
+    }
+
 
+    /**
+     * Return the current date, formatting it again if the second changed.
+     * Concurrent threads may format the same second, which is harmless.
+     */
+    private static CurrentDate current() {
+        CurrentDate current = currentDate;
+        long second = System.currentTimeMillis() / 1000;
+        if (current.second != second) {
+            current = new CurrentDate(second);
+            currentDate = current;
+        }
+        return current;
     }
 
 
@@ -228,4 +243,33 @@ public final class FastHttpDateFormat {
     }
 
 
+    // ----------------------------------------------- CurrentDate Inner Class
+
+
+    /**
+     * The formatted date of a second, with the encoded header line.
+     */
+    private static final class CurrentDate {
+
+        final long second;
+        final String date;
+        final byte[] header;
+
+        CurrentDate(long second) {
+            // Not the shared format, so that no lock is needed
+            SimpleDateFormat dateFormat =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            dateFormat.setTimeZone(gmtZone);
+            this.second = second;
+            this.date = dateFormat.format(new Date(second * 1000));
+            String line = "Date: " + date + "\r\n";
+            this.header = new byte[line.length()];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = (byte) line.charAt(i);
+            }
+        }
+
+    }
+
+
 }
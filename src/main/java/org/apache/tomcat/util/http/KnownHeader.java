@@ -0,0 +1,310 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import java.util.HashMap;
+
+/**
+ * Well known HTTP header names, with their lowercase bytes and hash
+ * precomputed. The header fields of {@link MimeHeaders} are tagged with
+ * their known header when they are added, so that looking up a known header
+ * only compares tags, without comparing names.
+ * <p>
+ * The hash is case insensitive: <code>h = 31 * h + lower(c)</code>, over the
+ * name characters, so that the parser can compute it while reading the name.
+ */
+public enum KnownHeader {
+
+    ACCEPT("accept"),
+    ACCEPT_CHARSET("accept-charset"),
+    ACCEPT_ENCODING("accept-encoding"),
+    ACCEPT_LANGUAGE("accept-language"),
+    ACCEPT_RANGES("accept-ranges"),
+    AUTHORIZATION("authorization"),
+    CACHE_CONTROL("cache-control"),
+    CONNECTION("connection"),
+    CONTENT_DISPOSITION("content-disposition"),
+    CONTENT_ENCODING("content-encoding"),
+    CONTENT_LANGUAGE("content-language"),
+    CONTENT_LENGTH("content-length"),
+    CONTENT_LOCATION("content-location"),
+    CONTENT_RANGE("content-range"),
+    CONTENT_TYPE("content-type"),
+    COOKIE("cookie"),
+    DATE("date"),
+    ETAG("etag", "ETag"),
+    EXPECT("expect"),
+    EXPIRES("expires"),
+    FORWARDED("forwarded"),
+    HOST("host"),
+    HTTP2_SETTINGS("http2-settings", "HTTP2-Settings"),
+    IF_MATCH("if-match"),
+    IF_MODIFIED_SINCE("if-modified-since"),
+    IF_NONE_MATCH("if-none-match"),
+    IF_RANGE("if-range"),
+    IF_UNMODIFIED_SINCE("if-unmodified-since"),
+    KEEP_ALIVE("keep-alive"),
+    LAST_MODIFIED("last-modified"),
+    LOCATION("location"),
+    ORIGIN("origin"),
+    PRAGMA("pragma"),
+    PROXY_AUTHORIZATION("proxy-authorization"),
+    PROXY_CONNECTION("proxy-connection"),
+    RANGE("range"),
+    REFERER("referer"),
+    SEC_WEBSOCKET_EXTENSIONS("sec-websocket-extensions"),
+    SEC_WEBSOCKET_KEY("sec-websocket-key"),
+    SEC_WEBSOCKET_PROTOCOL("sec-websocket-protocol"),
+    SEC_WEBSOCKET_VERSION("sec-websocket-version"),
+    SERVER("server"),
+    SET_COOKIE("set-cookie"),
+    TE("te", "TE"),
+    TRAILER("trailer"),
+    TRANSFER_ENCODING("transfer-encoding"),
+    UPGRADE("upgrade"),
+    USER_AGENT("user-agent"),
+    VARY("vary"),
+    VIA("via"),
+    WWW_AUTHENTICATE("www-authenticate", "WWW-Authenticate"),
+    X_FORWARDED_FOR("x-forwarded-for"),
+    X_FORWARDED_PROTO("x-forwarded-proto");
+
+
+    /**
+     * Open addressing hash table of the known headers, the size must be a
+     * power of two and leave the table sparse.
+     */
+    private static final KnownHeader[] TABLE = new KnownHeader[256];
+    private static final int MASK = TABLE.length - 1;
+
+    /**
+     * The known headers by their usual spellings, lowercase, capitalized and
+     * canonical, which uses the cached hash of the String.
+     */
+    private static final HashMap<String, KnownHeader> NAMES = new HashMap<String, KnownHeader>();
+
+    static {
+        for (KnownHeader header : values()) {
+            int i = header.hash & MASK;
+            while (TABLE[i] != null) {
+                i = (i + 1) & MASK;
+            }
+            TABLE[i] = header;
+            NAMES.put(header.name, header);
+            NAMES.put(header.spelling, header);
+        }
+    }
+
+
+    private final String name;
+    private final String spelling;
+    private final byte[] bytes;
+    private final int hash;
+
+    private KnownHeader(String name) {
+        this(name, null);
+    }
+
+    private KnownHeader(String name, String spelling) {
+        this.name = name;
+        if (spelling == null) {
+            char[] capitalized = name.toCharArray();
+            for (int i = 0; i < capitalized.length; i++) {
+                if (i == 0 || capitalized[i - 1] == '-') {
+                    capitalized[i] = Character.toUpperCase(capitalized[i]);
+                }
+            }
+            spelling = new String(capitalized);
+        }
+        this.spelling = spelling.intern();
+        this.bytes = name.getBytes();
+        int h = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        this.hash = h;
+    }
+
+
+    /**
+     * Return the lowercase name of the header.
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Return the canonical spelling of the name, as in the specifications,
+     * for example <code>Content-Type</code> or <code>ETag</code>.
+     */
+    public String getSpelling() {
+        return spelling;
+    }
+
+
+    /**
+     * Return the lowercase name of the header, as US-ASCII bytes. The array
+     * must not be modified.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     * Return the case insensitive hash of the name.
+     */
+    public int getHash() {
+        return hash;
+    }
+
+
+    /**
+     * Compare the name with the given String, ignoring case.
+     */
+    private boolean matches(String s) {
+        for (int i = 0; i < bytes.length; i++) {
+            int c = s.charAt(i);
+            if (c != bytes[i] && (c < 'A' || c > 'Z' || c + ('a' - 'A') != bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compare the name with the given bytes, ignoring case.
+     */
+    private boolean matches(byte[] b, int start, int len) {
+        for (int i = 0; i < len; i++) {
+            int c = b[start + i];
+            if (c != bytes[i] && (c < 'A' || c > 'Z' || c + ('a' - 'A') != bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Compare the name with the given chars, ignoring case.
+     */
+    private boolean matches(char[] c, int start, int len) {
+        for (int i = 0; i < len; i++) {
+            int ch = c[start + i];
+            if (ch != bytes[i] && (ch < 'A' || ch > 'Z' || ch + ('a' - 'A') != bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Update a name hash with the next character of the name.
+     */
+    public static int hash(int h, int c) {
+        if (c >= 'A' && c <= 'Z') {
+            c += 'a' - 'A';
+        }
+        return 31 * h + c;
+    }
+
+
+    /**
+     * Find the known header with the given name, ignoring case.
+     *
+     * @return the header, or null if the name is not a known header
+     */
+    public static KnownHeader lookup(String name) {
+        KnownHeader known = NAMES.get(name);
+        if (known != null) {
+            return known;
+        }
+        int len = name.length();
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            h = hash(h, name.charAt(i));
+        }
+        for (int i = h & MASK; TABLE[i] != null; i = (i + 1) & MASK) {
+            KnownHeader header = TABLE[i];
+            if (header.hash == h && header.bytes.length == len
+                    && header.matches(name)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Find the known header with the given name, ignoring case.
+     *
+     * @return the header, or null if the name is not a known header
+     */
+    public static KnownHeader lookup(byte[] b, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++) {
+            h = hash(h, b[i]);
+        }
+        return lookup(b, start, len, h);
+    }
+
+
+    /**
+     * Find the known header with the given name, ignoring case, when its
+     * hash was already computed using {@link #hash(int, int)}.
+     *
+     * @return the header, or null if the name is not a known header
+     */
+    public static KnownHeader lookup(byte[] b, int start, int len, int h) {
+        for (int i = h & MASK; TABLE[i] != null; i = (i + 1) & MASK) {
+            KnownHeader header = TABLE[i];
+            if (header.hash == h && header.bytes.length == len
+                    && header.matches(b, start, len)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Find the known header with the given name, ignoring case.
+     *
+     * @return the header, or null if the name is not a known header
+     */
+    public static KnownHeader lookup(char[] c, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; i++) {
+            h = hash(h, c[i]);
+        }
+        for (int i = h & MASK; TABLE[i] != null; i = (i + 1) & MASK) {
+            KnownHeader header = TABLE[i];
+            if (header.hash == h && header.bytes.length == len
+                    && header.matches(c, start, len)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+}
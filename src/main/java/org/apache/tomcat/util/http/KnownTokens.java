@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import java.util.Locale;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Well known tokens of the HTTP requests: methods, protocols, and the
+ * values of the <code>Connection</code> and <code>Transfer-Encoding</code>
+ * headers. The parsers recognize them from the bytes and use these
+ * constant Strings, so that they are not allocated for each request, and
+ * can be compared by identity.
+ */
+public final class KnownTokens {
+
+
+    public static final String GET = "GET";
+    public static final String HEAD = "HEAD";
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+    public static final String OPTIONS = "OPTIONS";
+    public static final String TRACE = "TRACE";
+    public static final String CONNECT = "CONNECT";
+    public static final String PATCH = "PATCH";
+
+    public static final String HTTP_10 = "HTTP/1.0";
+    public static final String HTTP_11 = "HTTP/1.1";
+
+    public static final String CLOSE = "close";
+    public static final String KEEP_ALIVE = "keep-alive";
+    public static final String UPGRADE = "upgrade";
+
+    public static final String CHUNKED = "chunked";
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String COMPRESS = "compress";
+
+
+    /**
+     * The tokens by length, methods and protocols are case sensitive.
+     */
+    private static final String[][] METHODS = byLength(new String[] { GET, HEAD,
+        POST, PUT, DELETE, OPTIONS, TRACE, CONNECT, PATCH });
+    private static final String[][] PROTOCOLS = byLength(new String[] { HTTP_10, HTTP_11 });
+
+    /**
+     * The lowercase tokens by length, header values are case insensitive.
+     */
+    private static final String[][] VALUES = byLength(new String[] { CLOSE,
+        KEEP_ALIVE, UPGRADE, CHUNKED, IDENTITY, GZIP, DEFLATE, COMPRESS });
+
+
+    private KnownTokens() {
+    }
+
+
+    /**
+     * Find the method with the given bytes.
+     *
+     * @return the constant String, or null if the method is not known
+     */
+    public static String findMethod(byte[] b, int start, int end) {
+        return find(METHODS, b, start, end, false);
+    }
+
+
+    /**
+     * Find the protocol with the given bytes.
+     *
+     * @return the constant String, or null if the protocol is not known
+     */
+    public static String findProtocol(byte[] b, int start, int end) {
+        return find(PROTOCOLS, b, start, end, false);
+    }
+
+
+    /**
+     * Find the header value, such as a transfer coding or a connection
+     * option, with the given bytes, ignoring case.
+     *
+     * @return the lowercase constant String, or null if the value is not
+     *  known
+     */
+    public static String findValue(byte[] b, int start, int end) {
+        return find(VALUES, b, start, end, true);
+    }
+
+
+    /**
+     * Return an element of a comma separated header value, such as a
+     * transfer coding, trimmed and in lowercase.
+     *
+     * @param mb The header value
+     * @param start The start offset of the element in the value
+     * @param end The end offset of the element in the value
+     * @return the constant String if the element is a known value,
+     *  otherwise a new String
+     */
+    public static String getValue(MessageBytes mb, int start, int end) {
+        if (mb.getType() != MessageBytes.T_BYTES) {
+            String value = mb.toString().substring(start, end)
+                .toLowerCase(Locale.ENGLISH).trim();
+            String known = findValue(value);
+            return (known != null) ? known : value;
+        }
+        ByteChunk bc = mb.getByteChunk();
+        byte[] b = bc.getBytes();
+        start += bc.getStart();
+        end += bc.getStart();
+        // Trim as String.trim
+        while (start < end && (b[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (b[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        String known = findValue(b, start, end);
+        if (known != null) {
+            return known;
+        }
+        char[] c = new char[end - start];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = (char) (b[start + i] & 0xff);
+        }
+        return new String(c).toLowerCase(Locale.ENGLISH);
+    }
+
+
+    private static String findValue(String value) {
+        int length = value.length();
+        if (length < VALUES.length && VALUES[length] != null) {
+            String[] candidates = VALUES[length];
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i].equals(value)) {
+                    return candidates[i];
+                }
+            }
+        }
+        return null;
+    }
+
+
+    private static String find(String[][] tokens, byte[] b, int start, int end,
+            boolean ignoreCase) {
+        int length = end - start;
+        if (length >= tokens.length) {
+            return null;
+        }
+        String[] candidates = tokens[length];
+        if (candidates == null) {
+            return null;
+        }
+        candidates: for (int i = 0; i < candidates.length; i++) {
+            String token = candidates[i];
+            for (int j = 0; j < length; j++) {
+                int c = b[start + j];
+                if (ignoreCase && c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != token.charAt(j)) {
+                    continue candidates;
+                }
+            }
+            return token;
+        }
+        return null;
+    }
+
+
+    private static String[][] byLength(String[] tokens) {
+        int max = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            max = Math.max(max, tokens[i].length());
+        }
+        String[][] result = new String[max + 1][];
+        for (int i = 0; i < tokens.length; i++) {
+            String[] candidates = result[tokens[i].length()];
+            if (candidates == null) {
+                candidates = new String[] { tokens[i] };
+            } else {
+                String[] tmp = new String[candidates.length + 1];
+                System.arraycopy(candidates, 0, tmp, 0, candidates.length);
+                tmp[candidates.length] = tokens[i];
+                candidates = tmp;
+            }
+            result[tokens[i].length()] = candidates;
+        }
+        return result;
+    }
+
+}
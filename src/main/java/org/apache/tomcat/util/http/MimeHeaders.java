@@ -56,11 +56,9 @@ import org.apache.tomcat.util.buf.MessageBytes;
  Apache seems to be using a similar method for storing and manipulating
  headers.
 
- Future enhancements:
- - hash the headers the first time a header is requested ( i.e. if the
- servlet needs direct access to headers).
- - scan "common" values ( length, cookies, etc ) during the parse
- ( addHeader hook )
+ The fields are tagged with their KnownHeader when they are added
+ ( the parser computes the name hash while reading the name ), so that
+ looking up a well known header compares tags instead of names.
 
  */
 
@@ -143,8 +141,11 @@ public class MimeHeaders {
         protected MessageBytes next;
         protected String name;
 
+        protected KnownHeader known;
+
         protected ValuesEnumerator(String name) {
             this.name = name;
+            this.known = KnownHeader.lookup(name);
             pos = 0;
             size = size();
             findNext();
@@ -153,8 +154,7 @@ public class MimeHeaders {
         private void findNext() {
             next = null;
             for (; pos < size; pos++) {
-                MessageBytes n1 = getName(pos);
-                if (n1.equalsIgnoreCase(name)) {
+                if (headers[pos].matches(name, known)) {
                     next = getValue(pos);
                     break;
                 }
@@ -180,6 +180,12 @@ public class MimeHeaders {
         MimeHeaderField next;
         MimeHeaderField prev;
 
+        /**
+         * The known header with this name, or null if the name is not a
+         * known header.
+         */
+        KnownHeader header;
+
         protected final MessageBytes nameB = MessageBytes.newInstance();
         protected final MessageBytes valueB = MessageBytes.newInstance();
 
@@ -193,6 +199,24 @@ public class MimeHeaders {
             nameB.recycle();
             valueB.recycle();
             next = null;
+            header = null;
+        }
+
+        /**
+         * Return true if the field has the given name.
+         *
+         * @param name the name
+         * @param known the known header with this name, or null
+         */
+        protected boolean matches(String name, KnownHeader known) {
+            if (known != null) {
+                return header == known;
+            }
+            return header == null && nameB.equalsIgnoreCase(name);
+        }
+
+        public KnownHeader getKnownHeader() {
+            return header;
         }
 
         public MessageBytes getName() {
@@ -284,18 +308,33 @@ public class MimeHeaders {
         return n >= 0 && n < count ? headers[n].getValue() : null;
     }
 
+    /**
+     * Returns the known header of the Nth header field, or null if the name
+     * of the field is not a known header.
+     */
+    public KnownHeader getKnownHeader(int n) {
+        return n >= 0 && n < count ? headers[n].header : null;
+    }
+
     /** Find the index of a header with the given name.
      */
     public int findHeader(String name, int starting) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead 
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
+        // The fields are tagged with their known header when they are
+        // added, so that looking up a known header compares the tags
+        KnownHeader known = KnownHeader.lookup(name);
+        for (int i = starting; i < count; i++) {
+            if (headers[i].matches(name, known)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        // A custom search tree may be better
+    /** Find the index of a known header.
+     */
+    public int findHeader(KnownHeader header, int starting) {
         for (int i = starting; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+            if (headers[i].header == header) {
                 return i;
             }
         }
@@ -348,6 +387,17 @@ public class MimeHeaders {
     public MessageBytes addValue(String name) {
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        mh.header = KnownHeader.lookup(name);
+        return mh.getValue();
+    }
+
+    /** Create a new known header, return the MessageBytes
+        container for the new value
+     */
+    public MessageBytes addValue(KnownHeader header) {
+        MimeHeaderField mh = createHeader();
+        mh.getName().setString(header.getName());
+        mh.header = header;
         return mh.getValue();
     }
 
@@ -356,8 +406,17 @@ public class MimeHeaders {
         encoding is known.
      */
     public MessageBytes addValue(byte b[], int startN, int len) {
+        return addValue(b, startN, len, KnownHeader.lookup(b, startN, len));
+    }
+
+    /** Create a new named header using un-translated byte[], when
+        the parser already looked up the known header with this name
+        (null if the name is not a known header).
+     */
+    public MessageBytes addValue(byte b[], int startN, int len, KnownHeader header) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setBytes(b, startN, len);
+        mhf.header = header;
         return mhf.getValue();
     }
 
@@ -366,6 +425,7 @@ public class MimeHeaders {
     public MessageBytes addValue(char c[], int startN, int len) {
         MimeHeaderField mhf = createHeader();
         mhf.getName().setChars(c, startN, len);
+        mhf.header = KnownHeader.lookup(c, startN, len);
         return mhf.getValue();
     }
 
@@ -375,10 +435,11 @@ public class MimeHeaders {
         if this .
      */
     public MessageBytes setValue(String name) {
+        KnownHeader known = KnownHeader.lookup(name);
         for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+            if (headers[i].matches(name, known)) {
                 for (int j = i + 1; j < count; j++) {
-                    if (headers[j].getName().equalsIgnoreCase(name)) {
+                    if (headers[j].matches(name, known)) {
                         removeHeader(j--);
                     }
                 }
@@ -387,6 +448,7 @@ public class MimeHeaders {
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        mh.header = known;
         return mh.getValue();
     }
 
@@ -397,8 +459,23 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
+        KnownHeader known = KnownHeader.lookup(name);
+        for (int i = 0; i < count; i++) {
+            if (headers[i].matches(name, known)) {
+                return headers[i].getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds and returns a known header field.  If no such field exists,
+     * null is returned.  If more than one such field is in the header,
+     * an arbitrary one is returned.
+     */
+    public MessageBytes getValue(KnownHeader header) {
         for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+            if (headers[i].header == header) {
                 return headers[i].getValue();
             }
         }
@@ -411,9 +488,29 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown. 
      */
     public MessageBytes getUniqueValue(String name) {
+        KnownHeader known = KnownHeader.lookup(name);
         MessageBytes result = null;
         for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+            if (headers[i].matches(name, known)) {
+                if (result == null) {
+                    result = headers[i].getValue();
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds and returns a unique known header field. If no such field
+     * exists, null is returned. If the specified header field is not
+     * unique then an {@link IllegalArgumentException} is thrown. 
+     */
+    public MessageBytes getUniqueValue(KnownHeader header) {
+        MessageBytes result = null;
+        for (int i = 0; i < count; i++) {
+            if (headers[i].header == header) {
                 if (result == null) {
                     result = headers[i].getValue();
                 } else {
@@ -431,6 +528,11 @@ public class MimeHeaders {
         return mh != null ? mh.toString() : null;
     }
 
+    public String getHeader(KnownHeader header) {
+        MessageBytes mh = getValue(header);
+        return mh != null ? mh.toString() : null;
+    }
+
     // -------------------- Removing --------------------
     /**
      * Removes a header field with the specified name.  Does nothing
@@ -439,8 +541,22 @@ public class MimeHeaders {
      */
     public void removeHeader(String name) {
         // warning: rather sticky code; heavily tuned
+        KnownHeader known = KnownHeader.lookup(name);
+        for (int i = 0; i < count; i++) {
+            if (headers[i].matches(name, known)) {
+                removeHeader(i--);
+            }
+        }
+    }
+
+    /**
+     * Removes the fields of a known header.  Does nothing if such a field
+     * could not be found.
+     * @param header the known header to be removed
+     */
+    public void removeHeader(KnownHeader header) {
         for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
+            if (headers[i].header == header) {
                 removeHeader(i--);
             }
         }
@@ -21,6 +21,7 @@ import static org.jboss.web.CoyoteMessages.MESSAGES;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -33,6 +34,13 @@ import org.apache.tomcat.util.buf.UDecoder;
 import org.jboss.web.CoyoteLogger;
 
 /**
+ * Request parameters.
+ * <p>
+ * In lazy mode (the default), processing the query string or the form body
+ * only indexes the offsets of each name/value pair. A name is decoded only
+ * when it cannot be compared with the raw bytes, and a value only when its
+ * parameter is requested. All the parameters are converted to Strings when
+ * the names are enumerated, or when a parameter is added directly.
  *
  * @author Costin Manolache
  */
@@ -41,6 +49,17 @@ public final class Parameters {
     protected static final int MAX_COUNT = 
         Integer.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.MAX_COUNT", "512")).intValue();
 
+    protected static final boolean LAZY = 
+        Boolean.valueOf(System.getProperty("org.apache.tomcat.util.http.Parameters.LAZY", "true")).booleanValue();
+
+    // Layout of the pair index: nameStart, nameEnd, valueStart, valueEnd, flags
+    private static final int PAIR_SIZE = 5;
+    private static final int FLAG_DECODE_NAME = 1;
+    private static final int FLAG_DECODE_VALUE = 2;
+    private static final int FLAG_FAILED = 4;
+    // The segment index is stored in the flags above these bits
+    private static final int SEGMENT_SHIFT = 8;
+
     private final HashMap<String,ArrayList<String>> paramHashValues =
         new HashMap<String,ArrayList<String>>();
     private boolean didQueryParameters=false;
@@ -56,6 +75,21 @@ public final class Parameters {
     private int limit = MAX_COUNT;
     private int parameterCount = 0;
 
+    private boolean lazy = LAZY;
+
+    /**
+     * Indexed pairs which were not converted to Strings yet, and the
+     * byte arrays and encodings they point to.
+     */
+    private int[] pairs = new int[16 * PAIR_SIZE];
+    private int pairCount = 0;
+    private String[] pairNames = new String[16];
+    private String[] pairValues = new String[16];
+    private byte[][] segmentBytes = new byte[2][];
+    private String[] segmentEncodings = new String[2];
+    private boolean[] segmentAscii = new boolean[2];
+    private int segmentCount = 0;
+
     /**
      * Is set to <code>true</code> if there were failures during parameter
      * parsing.
@@ -86,6 +120,14 @@ public final class Parameters {
         queryStringEncoding=s;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public boolean isParseFailed() {
         return parseFailed;
     }
@@ -97,6 +139,13 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        if (pairCount > 0 || segmentCount > 0) {
+            Arrays.fill(pairNames, 0, pairCount, null);
+            Arrays.fill(pairValues, 0, pairCount, null);
+            Arrays.fill(segmentBytes, 0, segmentCount, null);
+            pairCount = 0;
+            segmentCount = 0;
+        }
         didQueryParameters=false;
         encoding=null;
         decodedQuery.recycle();
@@ -122,14 +171,41 @@ public final class Parameters {
         handleQueryParameters();
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
-        if (values == null) {
-            return null;
+        int matches = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (matches(i, name)) {
+                matches++;
+            }
+        }
+        if (matches == 0) {
+            if (values == null) {
+                return null;
+            }
+            return values.toArray(new String[values.size()]);
+        }
+        int size = (values == null) ? 0 : values.size();
+        String[] result = new String[size + matches];
+        for (int i = 0; i < size; i++) {
+            result[i] = values.get(i);
         }
-        return values.toArray(new String[values.size()]);
+        for (int i = 0; i < pairCount; i++) {
+            if (matches(i, name)) {
+                String value = getPairValue(i);
+                if (value != null) {
+                    result[size++] = value;
+                }
+            }
+        }
+        if (size < result.length) {
+            // A value failed to decode
+            result = Arrays.copyOf(result, size);
+        }
+        return (size == 0 && values == null) ? null : result;
     }
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        materialize();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
@@ -141,9 +217,16 @@ public final class Parameters {
                 return "";
             }
             return values.get(0);
-        } else {
-            return null;
         }
+        for (int i = 0; i < pairCount; i++) {
+            if (matches(i, name)) {
+                String value = getPairValue(i);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
     }
     // -------------------- Processing --------------------
     /** Process the query string into parameters
@@ -176,6 +259,14 @@ public final class Parameters {
             return;
         }
 
+        // Keep the order of the values
+        materialize();
+
+        countParameter();
+        putParameter(key, value);
+    }
+
+    private void countParameter() {
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -183,7 +274,9 @@ public final class Parameters {
             parseFailed = true;
             throw MESSAGES.maxParametersFail(limit);
         }
+    }
 
+    private void putParameter(String key, String value) {
         ArrayList<String> values = paramHashValues.get(key);
         if (values == null) {
             values = new ArrayList<String>(1);
@@ -220,6 +313,7 @@ public final class Parameters {
         }
 
         int decodeFailCount = 0;
+        int segment = lazy ? addSegment(bytes, enc) : -1;
 
         int pos = start;
         int end = start + len;
@@ -312,6 +406,16 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                // Only index the pair, it is decoded when it is requested
+                countParameter();
+                addPair(nameStart, nameEnd, valueStart, valueEnd,
+                        (decodeName ? FLAG_DECODE_NAME : 0)
+                        | (decodeValue ? FLAG_DECODE_VALUE : 0)
+                        | (segment << SEGMENT_SHIFT));
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -357,7 +461,8 @@ public final class Parameters {
                     value = "";
                 }
 
-                addParameter(name, value);
+                countParameter();
+                putParameter(name, value);
             } catch (IOException e) {
                 parseFailed = true;
                 decodeFailCount++;
@@ -383,6 +488,172 @@ public final class Parameters {
         }
     }
 
+    // -------------------- Lazy parameters --------------------
+
+    private int addSegment(byte[] bytes, String enc) {
+        if (segmentCount == segmentBytes.length) {
+            segmentBytes = Arrays.copyOf(segmentBytes, segmentCount * 2);
+            segmentEncodings = Arrays.copyOf(segmentEncodings, segmentCount * 2);
+            segmentAscii = Arrays.copyOf(segmentAscii, segmentCount * 2);
+        }
+        segmentBytes[segmentCount] = bytes;
+        segmentEncodings[segmentCount] = enc;
+        // Names are compared with the raw bytes if the charset encodes
+        // US-ASCII characters as themselves
+        segmentAscii[segmentCount] = (enc == null) || enc.equalsIgnoreCase("ISO-8859-1")
+            || enc.equalsIgnoreCase("UTF-8") || enc.equalsIgnoreCase("US-ASCII")
+            || enc.equalsIgnoreCase("windows-1252");
+        return segmentCount++;
+    }
+
+    private void addPair(int nameStart, int nameEnd, int valueStart, int valueEnd, int flags) {
+        if ((pairCount + 1) * PAIR_SIZE > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            pairNames = Arrays.copyOf(pairNames, pairNames.length * 2);
+            pairValues = Arrays.copyOf(pairValues, pairValues.length * 2);
+        }
+        int i = pairCount * PAIR_SIZE;
+        pairs[i] = nameStart;
+        pairs[i + 1] = nameEnd;
+        pairs[i + 2] = valueStart;
+        pairs[i + 3] = valueEnd;
+        pairs[i + 4] = flags;
+        pairCount++;
+    }
+
+    /**
+     * Return true if the name of the indexed pair is the given name.
+     */
+    private boolean matches(int pair, String name) {
+        int flags = pairs[pair * PAIR_SIZE + 4];
+        if ((flags & FLAG_FAILED) != 0) {
+            return false;
+        }
+        if (pairNames[pair] == null) {
+            int segment = flags >>> SEGMENT_SHIFT;
+            if ((flags & FLAG_DECODE_NAME) == 0 && segmentAscii[segment]) {
+                // Compare the raw bytes, unless they are not US-ASCII
+                byte[] bytes = segmentBytes[segment];
+                int start = pairs[pair * PAIR_SIZE];
+                int len = pairs[pair * PAIR_SIZE + 1] - start;
+                boolean ascii = true;
+                if (len == name.length()) {
+                    for (int i = 0; i < len; i++) {
+                        int b = bytes[start + i];
+                        if (b < 0 || name.charAt(i) > 0x7F) {
+                            ascii = false;
+                            break;
+                        }
+                        if (b != name.charAt(i)) {
+                            return false;
+                        }
+                    }
+                    if (ascii) {
+                        return true;
+                    }
+                } else {
+                    // Only the names with non US-ASCII characters may match
+                    for (int i = 0; i < len && ascii; i++) {
+                        ascii = bytes[start + i] >= 0;
+                    }
+                    if (ascii) {
+                        return false;
+                    }
+                }
+            }
+            if (getPairName(pair) == null) {
+                return false;
+            }
+        }
+        return name.equals(pairNames[pair]);
+    }
+
+    /**
+     * Decode the name of an indexed pair.
+     *
+     * @return the name, or null if decoding failed
+     */
+    private String getPairName(int pair) {
+        if (pairNames[pair] == null) {
+            int i = pair * PAIR_SIZE;
+            int flags = pairs[i + 4];
+            if ((flags & FLAG_FAILED) != 0) {
+                return null;
+            }
+            pairNames[pair] = decode(pair, pairs[i], pairs[i + 1],
+                    (flags & FLAG_DECODE_NAME) != 0);
+        }
+        return pairNames[pair];
+    }
+
+    /**
+     * Decode the value of an indexed pair.
+     *
+     * @return the value, or null if decoding failed
+     */
+    private String getPairValue(int pair) {
+        if (pairValues[pair] == null) {
+            int i = pair * PAIR_SIZE;
+            int flags = pairs[i + 4];
+            if ((flags & FLAG_FAILED) != 0) {
+                return null;
+            }
+            if (pairs[i + 2] < 0) {
+                pairValues[pair] = "";
+            } else {
+                pairValues[pair] = decode(pair, pairs[i + 2], pairs[i + 3],
+                        (flags & FLAG_DECODE_VALUE) != 0);
+            }
+        }
+        return pairValues[pair];
+    }
+
+    /**
+     * Decode a name or value of an indexed pair. A pair which cannot be
+     * decoded is ignored, as when the parameters are processed eagerly.
+     */
+    private String decode(int pair, int start, int end, boolean urlDecode) {
+        int segment = pairs[pair * PAIR_SIZE + 4] >>> SEGMENT_SHIFT;
+        tmpName.setBytes(segmentBytes[segment], start, end - start);
+        try {
+            if (urlDecode) {
+                urlDecode(tmpName);
+            }
+            tmpName.setEncoding(segmentEncodings[segment]);
+            return tmpName.toString();
+        } catch (IOException e) {
+            pairs[pair * PAIR_SIZE + 4] |= FLAG_FAILED;
+            parseFailed = true;
+            if (CoyoteLogger.HTTP_LOGGER.isDebugEnabled()) {
+                CoyoteLogger.HTTP_LOGGER.parameterDecodingFailed(
+                        new String(segmentBytes[segment], start, end - start, DEFAULT_CHARSET), "");
+            }
+            return null;
+        } finally {
+            tmpName.recycle();
+        }
+    }
+
+    /**
+     * Convert all the indexed pairs to Strings.
+     */
+    private void materialize() {
+        for (int i = 0; i < pairCount; i++) {
+            String name = getPairName(i);
+            String value = getPairValue(i);
+            if (name != null && value != null) {
+                putParameter(name, value);
+            }
+        }
+        if (pairCount > 0 || segmentCount > 0) {
+            Arrays.fill(pairNames, 0, pairCount, null);
+            Arrays.fill(pairValues, 0, pairCount, null);
+            Arrays.fill(segmentBytes, 0, segmentCount, null);
+            pairCount = 0;
+            segmentCount = 0;
+        }
+    }
+
     private void urlDecode(ByteChunk bc)
         throws IOException {
         if( urlDec==null ) {
@@ -408,6 +679,7 @@ public final class Parameters {
      * Debug purpose
      */
     public String paramsAsString() {
+        materialize();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
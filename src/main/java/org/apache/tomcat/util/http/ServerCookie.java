@@ -279,6 +279,116 @@ public class ServerCookie implements Serializable {
         headerBuf.append(buf);
     }
 
+    /**
+     * Serialized <code>Set-Cookie</code> header of the version 0 cookies
+     * which have the same name and attributes, such as the session cookies of
+     * a context, so that only the value changes from one cookie to the next.
+     * The attributes must not depend on the time, that is the cookies must
+     * not have a positive max age.
+     */
+    public static final class Template {
+
+        private final String name;
+        private final String path;
+        private final String domain;
+        private final String comment;
+        private final int maxAge;
+        private final boolean secure;
+        private final boolean httpOnly;
+
+        /**
+         * Encoded name, followed by '='.
+         */
+        private final byte[] prefix;
+
+        /**
+         * Encoded attributes, appended after the value.
+         */
+        private final byte[] suffix;
+
+        public Template(String name, String path, String domain, String comment,
+                int maxAge, boolean secure, boolean httpOnly) {
+            this.name = name;
+            this.path = path;
+            this.domain = domain;
+            this.comment = comment;
+            this.maxAge = maxAge;
+            this.secure = secure;
+            this.httpOnly = httpOnly;
+            // A token value is appended as is, the rest are the attributes
+            StringBuffer buf = new StringBuffer();
+            appendCookieValue(buf, 0, name, "x", path, domain, comment, maxAge,
+                    secure, httpOnly);
+            prefix = encode(name + "=");
+            suffix = encode(buf.substring(name.length() + 2));
+        }
+
+        /**
+         * Return true if the cookies with the given max age can use a
+         * template.
+         */
+        public static boolean isCacheable(int maxAge) {
+            return maxAge <= 0;
+        }
+
+        /**
+         * Return true if this template serializes a cookie with the given
+         * name and attributes.
+         */
+        public boolean matches(String name, String path, String domain, String comment,
+                int maxAge, boolean secure, boolean httpOnly) {
+            return this.maxAge == maxAge && this.secure == secure
+                && this.httpOnly == httpOnly && this.name.equals(name)
+                && equals(this.path, path) && equals(this.domain, domain)
+                && equals(this.comment, comment);
+        }
+
+        /**
+         * Return the encoded <code>Set-Cookie</code> header value of the
+         * cookie with the given value.
+         *
+         * @return the bytes, or null if the value is not a plain token which
+         *  can be appended as is
+         */
+        public byte[] toBytes(String value) {
+            if (value == null || value.length() == 0) {
+                return null;
+            }
+            int length = value.length();
+            byte[] bytes = new byte[prefix.length + length + suffix.length];
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x20 || c >= 0x7f) {
+                    return null;
+                }
+                bytes[prefix.length + i] = (byte) c;
+            }
+            if (CookieSupport.alreadyQuoted(value)
+                    || !CookieSupport.ALLOW_HTTP_SEPARATORS_IN_V0
+                        && CookieSupport.isHttpToken(value)
+                    || CookieSupport.ALLOW_HTTP_SEPARATORS_IN_V0
+                        && CookieSupport.isV0Token(value)) {
+                return null;
+            }
+            System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+            System.arraycopy(suffix, 0, bytes, prefix.length + length, suffix.length);
+            return bytes;
+        }
+
+        private static boolean equals(String s1, String s2) {
+            return (s1 == null) ? (s2 == null) : s1.equals(s2);
+        }
+
+        private static byte[] encode(String s) {
+            byte[] bytes = new byte[s.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) s.charAt(i);
+            }
+            return bytes;
+        }
+
+    }
+
     /**
      * Quotes values if required.
      * @param buf
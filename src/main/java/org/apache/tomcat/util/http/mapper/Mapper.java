@@ -20,7 +20,10 @@ package org.apache.tomcat.util.http.mapper;
 import static org.jboss.web.CoyoteMessages.MESSAGES;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
@@ -38,6 +41,16 @@ import org.apache.tomcat.util.buf.MessageBytes;
 public final class Mapper {
 
 
+    // -------------------------------------------------------------- Constants
+
+
+    protected static final int CACHE_SIZE = 
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.http.mapper.Mapper.CACHE_SIZE", "0"));
+
+    protected static final int CACHE_TTL = 
+        Integer.parseInt(System.getProperty("org.apache.tomcat.util.http.mapper.Mapper.CACHE_TTL", "5000"));
+
+
     // ----------------------------------------------------- Instance Variables
 
 
@@ -64,6 +77,20 @@ public final class Mapper {
      */
     protected final List<OnDemandContextMappingListener> lazyLoadListeners = 
         new ArrayList<OnDemandContextMappingListener>();
+
+
+    /**
+     * Maximum number of mapping results cached for each context, 0 to
+     * disable the cache.
+     */
+    protected int cacheSize = CACHE_SIZE;
+
+
+    /**
+     * Time to live in ms of the cached mapping results which depend on the
+     * static resources of the context, 0 to not cache them.
+     */
+    protected int cacheTTL = CACHE_TTL;
     
     
     // --------------------------------------------------------- Public Methods
@@ -88,6 +115,49 @@ public final class Mapper {
         this.defaultHostName = defaultHostName;
     }
 
+
+    /**
+     * Get the maximum number of mapping results cached for each context.
+     *
+     * @return Cache size
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+
+    /**
+     * Set the maximum number of mapping results cached for each context.
+     * The cache is used for the contexts added after the change.
+     *
+     * @param cacheSize Cache size, 0 to disable the cache
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+
+    /**
+     * Get the time to live of the cached mapping results which depend on
+     * the static resources of the context.
+     *
+     * @return Time to live in ms
+     */
+    public int getCacheTTL() {
+        return cacheTTL;
+    }
+
+
+    /**
+     * Set the time to live of the cached mapping results which depend on
+     * the static resources of the context, such as the welcome files.
+     *
+     * @param cacheTTL Time to live in ms, 0 to not cache these results
+     */
+    public void setCacheTTL(int cacheTTL) {
+        this.cacheTTL = cacheTTL;
+    }
+
     /**
      * Add a new host to the mapper.
      *
@@ -286,6 +356,9 @@ public final class Mapper {
                 newContext.object = context;
                 newContext.welcomeResources = welcomeResources;
                 newContext.resources = resources;
+                if (cacheSize > 0) {
+                    newContext.cache = new MappingCache(cacheSize);
+                }
                 if (insertMap(contexts, newContexts, newContext)) {
                     host.contextList.contexts = newContexts;
                 } else {
@@ -294,6 +367,9 @@ public final class Mapper {
                         host.contextList.contexts = newContexts;
                     }
                 }
+                // The results cached by the other contexts of the host stay
+                // valid: a context is selected before its cache is used, so
+                // they are not used for the URIs of the new context
             }
         }
 
@@ -433,10 +509,6 @@ public final class Mapper {
                     new Wrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.wildcardWrappers = newWrappers;
-                    int slashCount = slashCount(newWrapper.name);
-                    if (slashCount > context.nesting) {
-                        context.nesting = slashCount;
-                    }
                 }
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
@@ -465,6 +537,8 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            context.index = null;
+            invalidateCache(context);
         }
     }
 
@@ -516,14 +590,6 @@ public final class Mapper {
                 Wrapper[] newWrappers =
                     new Wrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
-                    // Recalculate nesting
-                    context.nesting = 0;
-                    for (int i = 0; i < newWrappers.length; i++) {
-                        int slashCount = slashCount(newWrappers[i].name);
-                        if (slashCount > context.nesting) {
-                            context.nesting = slashCount;
-                        }
-                    }
                     context.wildcardWrappers = newWrappers;
                 }
             } else if (path.startsWith("*.")) {
@@ -551,6 +617,8 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            context.index = null;
+            invalidateCache(context);
         }
     }
 
@@ -720,7 +788,30 @@ public final class Mapper {
 
         // Wrapper mapping
         if ((context != null) && (mappingData.wrapper == null)) {
-            internalMapWrapper(context, uri, mappingData);
+            MappingCache cache = context.cache;
+            int uriStart = uri.getStart();
+            int uriEnd = uri.getEnd();
+            if (cache == null) {
+                internalMapWrapper(context, uri, mappingData);
+            } else if (!cache.get(uri.getBuffer(), uriStart, uriEnd, mappingData)) {
+                // The generation is read first, so that a result computed
+                // with wrappers which are then replaced is not used
+                int generation = cache.generation;
+                boolean resourcesLookup =
+                    internalMapWrapper(context, uri, mappingData);
+                // The mapping of the context root without a trailing slash
+                // modifies the URI, and is not cached
+                if (uri.getStart() == uriStart && uri.getEnd() == uriEnd) {
+                    if (!resourcesLookup) {
+                        cache.put(uri.getBuffer(), uriStart, uriEnd,
+                                mappingData, generation, Long.MAX_VALUE);
+                    } else if (cacheTTL > 0) {
+                        cache.put(uri.getBuffer(), uriStart, uriEnd,
+                                mappingData, generation,
+                                System.currentTimeMillis() + cacheTTL);
+                    }
+                }
+            }
         }
 
     }
@@ -785,11 +876,14 @@ public final class Mapper {
 
     /**
      * Wrapper mapping.
+     *
+     * @return true if the static resources of the context were looked up
      */
-    private final void internalMapWrapper(Context context, CharChunk path,
-                                          MappingData mappingData)
+    private final boolean internalMapWrapper(Context context, CharChunk path,
+                                             MappingData mappingData)
         throws Exception {
 
+        boolean resourcesLookup = false;
         int pathOffset = path.getOffset();
         int pathEnd = path.getEnd();
         int servletPath = pathOffset;
@@ -808,23 +902,24 @@ public final class Mapper {
 
         path.setOffset(servletPath);
 
+        MappingIndex index = getIndex(context);
+
         // Rule 1 -- Exact Match
-        Wrapper[] exactWrappers = context.exactWrappers;
+        MapTable exactTable = index.exactTable;
         if (!noServletPath && (pathEnd - servletPath) == 1 && context.rootWrapper != null) {
             mappingData.requestPath.setString("/");
             mappingData.wrapperPath.setString("");
             mappingData.pathInfo.setString("/");
             mappingData.wrapper = context.rootWrapper.object;
         } else {
-            internalMapExactWrapper(exactWrappers, path, mappingData);
+            internalMapExactWrapper(exactTable, path, mappingData);
         }
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        Wrapper[] wildcardWrappers = context.wildcardWrappers;
+        WildcardNode wildcardTrie = index.wildcardTrie;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, context.nesting, 
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardTrie, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -852,13 +947,13 @@ public final class Mapper {
             mappingData.redirectPath.setChars
                 (path.getBuffer(), pathOffset, pathEnd - pathOffset);
             path.setEnd(pathEnd - 1);
-            return;
+            return false;
         }
 
         // Rule 3 -- Extension Match
-        Wrapper[] extensionWrappers = context.extensionWrappers;
+        MapTable extensionTable = index.extensionTable;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData);
+            internalMapExtensionWrapper(extensionTable, path, mappingData);
         }
 
         // Rule 4 -- Welcome resources processing for servlets
@@ -878,19 +973,19 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(exactTable, path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, context.nesting, 
-                             path, mappingData);
+                            (wildcardTrie, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
                     //            for physical folder
                     if (mappingData.wrapper == null
                         && context.resources != null) {
+                        resourcesLookup = true;
                         Object file = null;
                         String pathStr = path.toString();
                         try {
@@ -899,7 +994,7 @@ public final class Mapper {
                             // Swallow not found, since this is normal
                         }
                         if (file != null && !(file instanceof DirContext) ) {
-                            internalMapExtensionWrapper(extensionWrappers,
+                            internalMapExtensionWrapper(extensionTable,
                                                         path, mappingData);
                             if (mappingData.wrapper == null
                                 && context.defaultWrapper != null) {
@@ -936,6 +1031,7 @@ public final class Mapper {
             // Redirection to a folder
             char[] buf = path.getBuffer();
             if (context.resources != null && buf[pathEnd -1 ] != '/') {
+                resourcesLookup = true;
                 Object file = null;
                 String pathStr = path.toString();
                 try {
@@ -961,6 +1057,8 @@ public final class Mapper {
         path.setOffset(pathOffset);
         path.setEnd(pathEnd);
 
+        return resourcesLookup;
+
     }
 
 
@@ -968,63 +1066,66 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        int pos = find(wrappers, path);
-        if ((pos != -1) && (path.equals(wrappers[pos].name))) {
-            mappingData.requestPath.setString(wrappers[pos].name);
-            mappingData.wrapperPath.setString(wrappers[pos].name);
-            mappingData.wrapper = wrappers[pos].object;
+        (MapTable wrappers, CharChunk path, MappingData mappingData) {
+        Wrapper wrapper = (Wrapper) wrappers.find
+            (path.getBuffer(), path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            mappingData.requestPath.setString(wrapper.name);
+            mappingData.wrapperPath.setString(wrapper.name);
+            mappingData.wrapper = wrapper.object;
         }
     }
 
 
     /**
-     * Wildcard mapping.
+     * Wildcard mapping: the longest prefix of the path, made of complete
+     * segments, is found by walking down the trie one segment at a time.
      */
     private final void internalMapWildcardWrapper
-        (Wrapper[] wrappers, int nesting, CharChunk path, 
-         MappingData mappingData) {
+        (WildcardNode trie, CharChunk path, MappingData mappingData) {
 
+        char[] buf = path.getBuffer();
+        int pathStart = path.getStart();
         int pathEnd = path.getEnd();
 
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
+        Wrapper wrapper = null;
+        if (pathStart == pathEnd) {
+            wrapper = trie.wrapper;
+        } else if (buf[pathStart] == '/') {
+            wrapper = trie.wrapper;
+            WildcardNode node = trie;
+            int pos = pathStart + 1;
+            while (true) {
+                int segmentEnd = pos;
+                while (segmentEnd < pathEnd && buf[segmentEnd] != '/') {
+                    segmentEnd++;
                 }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
+                node = (WildcardNode) node.children.find(buf, pos, segmentEnd);
+                if (node == null) {
+                    break;
                 }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
+                if (node.wrapper != null) {
+                    wrapper = node.wrapper;
                 }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+                if (segmentEnd == pathEnd) {
+                    break;
+                }
+                pos = segmentEnd + 1;
+            }
+        }
+
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (buf, path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (buf, path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
         }
     }
 
@@ -1033,7 +1134,7 @@ public final class Mapper {
      * Extension mappings.
      */
     private final void internalMapExtensionWrapper
-        (Wrapper[] wrappers, CharChunk path, MappingData mappingData) {
+        (MapTable wrappers, CharChunk path, MappingData mappingData) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -1053,19 +1154,15 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                int pos = find(wrappers, path);
-                if ((pos != -1)
-                    && (path.equals(wrappers[pos].name))) {
+                Wrapper wrapper =
+                    (Wrapper) wrappers.find(buf, period + 1, pathEnd);
+                if (wrapper != null) {
                     mappingData.wrapperPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
                     mappingData.requestPath.setChars
                         (buf, servletPath, pathEnd - servletPath);
-                    mappingData.wrapper = wrappers[pos].object;
+                    mappingData.wrapper = wrapper.object;
                 }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
             }
         }
     }
@@ -1346,6 +1443,93 @@ public final class Mapper {
     }
 
 
+    /**
+     * Invalidate the mapping results cached for a context, after its
+     * mapping changed.
+     */
+    private static final void invalidateCache(Context context) {
+        MappingCache cache = context.cache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+
+    /**
+     * Get the lookup structures of the wrappers of a context, building them
+     * if the wrappers changed since they were last built. They are built on
+     * the first mapping after the changes, so that the registration of the
+     * wrappers of a context builds them only once.
+     */
+    private static final MappingIndex getIndex(Context context) {
+        MappingIndex index = context.index;
+        if (index == null) {
+            synchronized (context) {
+                index = context.index;
+                if (index == null) {
+                    index = new MappingIndex(new MapTable(context.exactWrappers),
+                            buildWildcardTrie(context.wildcardWrappers),
+                            new MapTable(context.extensionWrappers));
+                    context.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * Build the trie of the wildcard wrappers, with a node for each segment
+     * of their path.
+     */
+    private static final WildcardNode buildWildcardTrie(Wrapper[] wrappers) {
+        WildcardNode trie = new WildcardNode();
+        trie.name = "";
+        Map<WildcardNode, Map<String, WildcardNode>> children =
+            new HashMap<WildcardNode, Map<String, WildcardNode>>();
+        for (int i = 0; i < wrappers.length; i++) {
+            String name = wrappers[i].name;
+            WildcardNode node = trie;
+            if (name.length() > 0) {
+                if (name.charAt(0) != '/') {
+                    // Such a path is never matched
+                    continue;
+                }
+                int pos = 1;
+                while (node != null) {
+                    int slash = name.indexOf('/', pos);
+                    String segment =
+                        name.substring(pos, (slash < 0) ? name.length() : slash);
+                    Map<String, WildcardNode> nodeChildren = children.get(node);
+                    if (nodeChildren == null) {
+                        nodeChildren = new HashMap<String, WildcardNode>();
+                        children.put(node, nodeChildren);
+                    }
+                    WildcardNode child = nodeChildren.get(segment);
+                    if (child == null) {
+                        child = new WildcardNode();
+                        child.name = segment;
+                        nodeChildren.put(segment, child);
+                    }
+                    node = child;
+                    if (slash < 0) {
+                        break;
+                    }
+                    pos = slash + 1;
+                }
+            }
+            node.wrapper = wrappers[i];
+        }
+        for (Map.Entry<WildcardNode, Map<String, WildcardNode>> entry
+                 : children.entrySet()) {
+            Collection<WildcardNode> nodes = entry.getValue().values();
+            entry.getKey().children =
+                new MapTable(nodes.toArray(new MapElement[nodes.size()]));
+        }
+        return trie;
+    }
+
+
     /**
      * Insert into the right place in a sorted MapElement array, and prevent
      * duplicates.
@@ -1446,7 +1630,8 @@ public final class Mapper {
         public Wrapper[] exactWrappers = new Wrapper[0];
         public Wrapper[] wildcardWrappers = new Wrapper[0];
         public Wrapper[] extensionWrappers = new Wrapper[0];
-        public int nesting = 0;
+        public volatile MappingIndex index = null;
+        public volatile MappingCache cache = null;
         private volatile boolean replaced = false;
 
     }
@@ -1461,4 +1646,276 @@ public final class Mapper {
     }
 
 
+    // ----------------------------------------------- MappingIndex Inner Class
+
+
+    /**
+     * Lookup structures of the wrappers of a context. A new index is built
+     * after the wrappers change, and a mapping in progress keeps the index
+     * it started with.
+     */
+    protected static final class MappingIndex {
+
+        public final MapTable exactTable;
+        public final WildcardNode wildcardTrie;
+        public final MapTable extensionTable;
+
+        public MappingIndex(MapTable exactTable, WildcardNode wildcardTrie,
+                MapTable extensionTable) {
+            this.exactTable = exactTable;
+            this.wildcardTrie = wildcardTrie;
+            this.extensionTable = extensionTable;
+        }
+
+    }
+
+
+    // ----------------------------------------------- WildcardNode Inner Class
+
+
+    /**
+     * Node of the trie of the wildcard wrappers, named after a segment of
+     * their path.
+     */
+    protected static final class WildcardNode
+        extends MapElement {
+
+        public Wrapper wrapper = null;
+        public MapTable children = MapTable.EMPTY;
+
+    }
+
+
+    // --------------------------------------------------- MapTable Inner Class
+
+
+    /**
+     * Immutable open addressing hash table of map elements, which is probed
+     * with the characters of the path without creating a String. A new table
+     * is built and published each time the elements change.
+     */
+    protected static final class MapTable {
+
+        public static final MapTable EMPTY = new MapTable(new MapElement[0]);
+
+        private final MapElement[] table;
+        private final int mask;
+
+        public MapTable(MapElement[] elements) {
+            int size = 2;
+            while (size < elements.length * 2) {
+                size <<= 1;
+            }
+            table = new MapElement[size];
+            mask = size - 1;
+            for (int i = 0; i < elements.length; i++) {
+                int pos = spread(elements[i].name.hashCode()) & mask;
+                while (table[pos] != null) {
+                    pos = (pos + 1) & mask;
+                }
+                table[pos] = elements[i];
+            }
+        }
+
+        /**
+         * Find the element with the given name.
+         *
+         * @return the element, or null if there is none
+         */
+        public MapElement find(char[] c, int start, int end) {
+            // Same as String.hashCode
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + c[i];
+            }
+            int length = end - start;
+            int pos = spread(hash) & mask;
+            MapElement element;
+            while ((element = table[pos]) != null) {
+                String name = element.name;
+                if (name.length() == length) {
+                    int i = 0;
+                    while (i < length && name.charAt(i) == c[start + i]) {
+                        i++;
+                    }
+                    if (i == length) {
+                        return element;
+                    }
+                }
+                pos = (pos + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+
+    // ----------------------------------------------- MappingCache Inner Class
+
+
+    /**
+     * Bounded cache of the wrapper mapping results of a context, keyed on the
+     * URI. A URI has two possible slots in the table, and a new result
+     * evicts the older result of its slots. The cached results are
+     * immutable, so that the table is read and written without locking, and
+     * a lost write only costs another mapping of the URI. Any change to the
+     * mapping of the context increments the generation, which invalidates
+     * all the cached results. The fields of the cache and of the results
+     * are final, so that they are seen initialized by the threads which
+     * read them through a race.
+     */
+    protected static final class MappingCache {
+
+        public volatile int generation = 0;
+
+        private final CachedMapping[] table;
+        private final int mask;
+
+        public MappingCache(int size) {
+            int length = 2;
+            while (length < size) {
+                length <<= 1;
+            }
+            table = new CachedMapping[length];
+            mask = length - 1;
+        }
+
+        /**
+         * Invalidate all the cached results.
+         */
+        public synchronized void invalidate() {
+            generation++;
+        }
+
+        /**
+         * Set the cached result for the URI in the mapping data.
+         *
+         * @return false if there is no valid cached result for the URI
+         */
+        public boolean get(char[] buf, int start, int end,
+                MappingData mappingData) {
+            int hash = hash(buf, start, end);
+            int pos = hash & mask;
+            CachedMapping entry = table[pos];
+            if (entry == null || !entry.matches(hash, buf, start, end)) {
+                entry = table[(pos + 1) & mask];
+                if (entry == null || !entry.matches(hash, buf, start, end)) {
+                    return false;
+                }
+            }
+            if (entry.generation != generation
+                    || (entry.expires != Long.MAX_VALUE
+                        && System.currentTimeMillis() >= entry.expires)) {
+                return false;
+            }
+            entry.apply(mappingData);
+            return true;
+        }
+
+        /**
+         * Cache the result of the mapping of the URI.
+         *
+         * @param generation The generation when the mapping started
+         * @param expires The expiration time of the result
+         */
+        public void put(char[] buf, int start, int end,
+                MappingData mappingData, int generation, long expires) {
+            int hash = hash(buf, start, end);
+            CachedMapping entry = new CachedMapping
+                (new String(buf, start, end - start), hash, generation,
+                 expires, mappingData);
+            int pos = hash & mask;
+            CachedMapping previous = table[pos];
+            if (previous != null && !previous.matches(hash, buf, start, end)) {
+                table[(pos + 1) & mask] = previous;
+            }
+            table[pos] = entry;
+        }
+
+        private static int hash(char[] c, int start, int end) {
+            // Same as String.hashCode
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + c[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+
+    // ---------------------------------------------- CachedMapping Inner Class
+
+
+    /**
+     * Immutable result of the wrapper mapping of a URI.
+     */
+    protected static final class CachedMapping {
+
+        private final String uri;
+        private final int hash;
+        private final int generation;
+        private final long expires;
+        private final Object wrapper;
+        private final boolean jspWildCard;
+        private final String requestPath;
+        private final String wrapperPath;
+        private final String pathInfo;
+        private final String redirectPath;
+
+        public CachedMapping(String uri, int hash, int generation,
+                long expires, MappingData mappingData) {
+            this.uri = uri;
+            this.hash = hash;
+            this.generation = generation;
+            this.expires = expires;
+            wrapper = mappingData.wrapper;
+            jspWildCard = mappingData.jspWildCard;
+            requestPath = toString(mappingData.requestPath);
+            wrapperPath = toString(mappingData.wrapperPath);
+            pathInfo = toString(mappingData.pathInfo);
+            redirectPath = toString(mappingData.redirectPath);
+        }
+
+        public boolean matches(int hash, char[] c, int start, int end) {
+            int length = end - start;
+            if (this.hash != hash || uri.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (uri.charAt(i) != c[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void apply(MappingData mappingData) {
+            mappingData.wrapper = wrapper;
+            mappingData.jspWildCard = jspWildCard;
+            if (requestPath != null) {
+                mappingData.requestPath.setString(requestPath);
+            }
+            if (wrapperPath != null) {
+                mappingData.wrapperPath.setString(wrapperPath);
+            }
+            if (pathInfo != null) {
+                mappingData.pathInfo.setString(pathInfo);
+            }
+            if (redirectPath != null) {
+                mappingData.redirectPath.setString(redirectPath);
+            }
+        }
+
+        private static String toString(MessageBytes mb) {
+            return mb.isNull() ? null : mb.toString();
+        }
+
+    }
+
+
 }
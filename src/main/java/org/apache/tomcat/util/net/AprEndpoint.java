@@ -38,6 +38,7 @@ import org.apache.tomcat.jni.SSLContext;
 import org.apache.tomcat.jni.SSLSocket;
 import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.jni.Status;
+import org.apache.tomcat.util.buf.DirectBufferArena;
 import org.jboss.web.CoyoteLogger;
 
 /**
@@ -319,6 +320,15 @@ public class AprEndpoint {
     }
 
 
+    /**
+     * Direct buffers shared by the processors of this endpoint.
+     */
+    protected DirectBufferArena bufferArena = new DirectBufferArena();
+    public DirectBufferArena getBufferArena() {
+        return bufferArena;
+    }
+
+
     /**
      * The server address.
      */
@@ -18,6 +18,7 @@
 
 package org.apache.tomcat.util.net;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.net.StandardSocketOptions;
@@ -26,12 +27,12 @@ import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.CompletionHandler;
-import java.nio.channels.WritePendingException;
+import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,8 +40,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
 
+import org.apache.tomcat.util.buf.DirectBufferArena;
 import org.apache.tomcat.util.net.NioEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.NioJSSESocketChannelFactory;
+import org.apache.tomcat.util.threads.SharedExecutorService;
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 import org.jboss.web.CoyoteLogger;
 
 /**
@@ -61,6 +66,12 @@ public class NioEndpoint extends AbstractEndpoint {
 	private ConcurrentLinkedQueue<ChannelProcessor> recycledChannelProcessors;
 	private ConcurrentLinkedQueue<HandshakeHandler> recycledHandshakeProcessors;
 
+	/**
+	 * <tt>true</tt> if the executor was created by the endpoint, which then
+	 * shuts it down when it is destroyed.
+	 */
+	private boolean internalExecutor = false;
+
 	/**
 	 * Handling of accepted sockets.
 	 */
@@ -86,6 +97,11 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	protected Sendfile sendfile;
 
+	/**
+	 * Direct buffers shared by the processors of this endpoint.
+	 */
+	protected DirectBufferArena bufferArena = new DirectBufferArena();
+
 	/**
 	 * Create a new instance of {@code NioEndpoint}
 	 */
@@ -116,6 +132,62 @@ public class NioEndpoint extends AbstractEndpoint {
 		return this.eventPoller.channelList.size();
 	}
 
+	/**
+	 * Resolution of the connection timeouts, in milliseconds.
+	 */
+	protected int timeoutTick = (int) TimingWheel.DEFAULT_TICK;
+
+	/**
+	 * @return the duration of a tick of the timeout wheel in milliseconds
+	 */
+	public int getTimeoutTick() {
+		return this.timeoutTick;
+	}
+
+	/**
+	 * Set the duration of a tick of the timeout wheel. Connection timeouts fire
+	 * at most one tick after they expire.
+	 * 
+	 * @param timeoutTick
+	 *            the tick duration in milliseconds
+	 */
+	public void setTimeoutTick(int timeoutTick) {
+		if (timeoutTick > 0) {
+			this.timeoutTick = timeoutTick;
+		}
+	}
+
+	/**
+	 * @return the number of connections which have timed out in the event
+	 *         poller
+	 */
+	public long getTimeoutCount() {
+		return this.eventPoller != null ? this.eventPoller.wheel.getExpiredCount() : 0;
+	}
+
+	/**
+	 * @return the delay in milliseconds of the last timeout tick processed by
+	 *         the event poller
+	 */
+	public long getTimeoutLag() {
+		return this.eventPoller != null ? this.eventPoller.wheel.getLag() : 0;
+	}
+
+	/**
+	 * @return the maximum delay in milliseconds observed when processing a
+	 *         timeout tick
+	 */
+	public long getMaxTimeoutLag() {
+		return this.eventPoller != null ? this.eventPoller.wheel.getMaxLag() : 0;
+	}
+
+	/**
+	 * @return the arena of direct buffers used by the processors
+	 */
+	public DirectBufferArena getBufferArena() {
+		return this.bufferArena;
+	}
+
 	/**
 	 * Return the amount of threads that are managed by the pool.
 	 * 
@@ -194,12 +266,22 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.recycledHandshakeProcessors = new ConcurrentLinkedQueue<HandshakeHandler>();
 		}
 
-		// If the executor is not set, create it with a fixed thread pool
+		// If the executor is not set, create a thread pool growing up to
+		// maxThreads, otherwise share the external executor with the
+		// channel group, which shuts down its thread pool when it is closed
+		ExecutorService executorService;
 		if (this.executor == null) {
-			this.executor = Executors.newFixedThreadPool(this.maxThreads, this.threadFactory);
+			TaskQueue taskQueue = new TaskQueue();
+			executorService = new ThreadPoolExecutor(Math.min(this.maxThreads, Runtime.getRuntime()
+					.availableProcessors()), this.maxThreads, 60, TimeUnit.SECONDS, taskQueue,
+					this.threadFactory);
+			this.executor = executorService;
+			this.internalExecutor = true;
+		} else {
+			executorService = new SharedExecutorService(this.executor);
+			this.internalExecutor = false;
 		}
 
-		ExecutorService executorService = (ExecutorService) this.executor;
 		AsynchronousChannelGroup threadGroup = AsynchronousChannelGroup
 				.withThreadPool(executorService);
 
@@ -248,12 +330,10 @@ public class NioEndpoint extends AbstractEndpoint {
 				acceptorThread.start();
 			}
 
-			// Start sendfile thread
+			// Start the sendfile engine
 			if (useSendfile) {
 				this.sendfile = new Sendfile();
 				this.sendfile.init();
-				Thread sendfileThread = newThread(this.sendfile, "SendFile", true);
-				sendfileThread.start();
 			}
 
 			// Starting the event poller
@@ -327,8 +407,11 @@ public class NioEndpoint extends AbstractEndpoint {
 		this.recycledHandshakeProcessors.clear();
 		this.recycledHandshakeProcessors = null;
 
-		// Shut down the executor
-		((ExecutorService) this.executor).shutdown();
+		// Shut down the executor, unless it is shared
+		if (this.internalExecutor) {
+			((ExecutorService) this.executor).shutdown();
+			this.executor = null;
+		}
 
 		initialized = false;
 	}
@@ -439,7 +522,9 @@ public class NioEndpoint extends AbstractEndpoint {
 	}
 
 	/**
-	 * Add a send file data to the queue of static files
+	 * Add a send file data to the queue of static files. If the data is
+	 * accepted, the sendfile engine takes ownership of the channel and either
+	 * closes it or puts it back in keep-alive once the transfer completes.
 	 * 
 	 * @param data
 	 * @return <tt>TRUE</tt> if the object is added successfully to the list of
@@ -757,7 +842,7 @@ public class NioEndpoint extends AbstractEndpoint {
 	 * 
 	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
 	 */
-	public static class ChannelInfo {
+	public static class ChannelInfo extends TimingWheel.Entry {
 		/**
 		 * 
 		 */
@@ -937,7 +1022,17 @@ public class NioEndpoint extends AbstractEndpoint {
 			/**
 			 * 
 			 */
-			LONG
+			LONG,
+			/**
+			 * The channel is owned by the sendfile engine until the transfer
+			 * completes
+			 */
+			SENDFILE,
+			/**
+			 * The connection was upgraded to another protocol, which owns the
+			 * channel from now on
+			 */
+			UPGRADED
 		}
 
 		/**
@@ -1040,40 +1135,18 @@ public class NioEndpoint extends AbstractEndpoint {
 
 		@Override
 		public void run() {
-		    boolean isStatusNull = true;
-		    boolean isChannelProcessed = false;
-		    boolean isChannelEventSignal = false;
-		    boolean isChannelClosed = false;
-		    boolean isChannelMeantToBeClosed = false;
 			try {
-			    Handler.SocketState state = null;
-			    if (status == null){
-			       
-			       state = handler.process(channel);
-			       isChannelProcessed = true;
-			    }else{
-			       isStatusNull = false;
-			       state = handler.event(channel, status);
-			       isChannelEventSignal = true;
-			    }
-			    /*
 				Handler.SocketState state = ((status == null) ? handler.process(channel) : handler
-						.event(channel, status));*/
+						.event(channel, status));
 
 				if (state == SocketState.CLOSED) {
-				    isChannelMeantToBeClosed = true;
 					closeChannel(channel);
-					isChannelClosed = true;
 				}
 			} catch (Throwable th) {
                 CoyoteLogger.UTIL_LOGGER.errorProcessingChannelWithException(th);
+				closeChannel(channel);
 			} finally {
-	 		    try {
-	 		        closeChannel(channel);
-	 		    }
-			    finally{
-			        this.recycle();
-			    }
+				this.recycle();
 			}
 		}
 
@@ -1115,6 +1188,12 @@ public class NioEndpoint extends AbstractEndpoint {
 
 	/**
 	 * {@code EventPoller}
+	 * <p>
+	 * Tracks the channels waiting for an event, and raises a timeout event for
+	 * the ones whose timeout expired. Timeouts are kept in a
+	 * {@link TimingWheel}, so the poller only visits the expiring channels on
+	 * each tick.
+	 * </p>
 	 * 
 	 * Created on Mar 26, 2012 at 12:51:53 PM
 	 * 
@@ -1122,14 +1201,12 @@ public class NioEndpoint extends AbstractEndpoint {
 	 */
 	public class EventPoller implements Runnable {
 
-		/**
-		 * Last run of maintain. Maintain will run usually every 5s.
-		 */
-		protected long lastMaintain = System.currentTimeMillis();
-
 		protected ConcurrentHashMap<Long, ChannelInfo> channelList;
 		protected ConcurrentLinkedQueue<ChannelInfo> recycledChannelList;
+		protected TimingWheel<ChannelInfo> wheel;
 		private ConcurrentLinkedQueue<CompletionHandler<Integer, NioChannel>> recycledCompletionHandlers;
+		private ArrayList<ChannelInfo> expired;
+		private ArrayList<NioChannel> expiredChannels;
 		private Object mutex;
 		private int size;
 
@@ -1172,7 +1249,7 @@ public class NioEndpoint extends AbstractEndpoint {
 				while (this.channelList.size() > 0 && running) {
 					maintain();
 					try {
-						Thread.sleep(5000);
+						Thread.sleep(timeoutTick);
 					} catch (InterruptedException e) {
 						// NOPE
 					}
@@ -1185,25 +1262,30 @@ public class NioEndpoint extends AbstractEndpoint {
 		 * Check timeouts and raise timeout event
 		 */
 		public void maintain() {
-			long date = System.currentTimeMillis();
-			// Maintain runs at most once every 5s, although it will likely get
-			// called more
-			if ((date - lastMaintain) < 5000L) {
-				return;
+			synchronized (this.wheel) {
+				if (this.wheel.expire(System.currentTimeMillis(), this.expired) == 0) {
+					return;
+				}
+				// Read the channels while holding the wheel lock, the channel
+				// info may be recycled as soon as it is released
+				for (int i = 0; i < this.expired.size(); i++) {
+					this.expiredChannels.add(this.expired.get(i).channel);
+				}
 			}
 
-			// Update the last maintain time
-			lastMaintain = date;
-
-			for (ChannelInfo info : this.channelList.values()) {
-				if (date >= info.timeout) {
-					NioChannel ch = info.channel;
-					remove(info);
+			for (int i = 0; i < this.expired.size(); i++) {
+				ChannelInfo info = this.expired.get(i);
+				NioChannel ch = this.expiredChannels.get(i);
+				// Skip the channels which have been removed in the meantime
+				if (ch != null && this.channelList.remove(ch.getId(), info)) {
+					offer(info);
 					if (!processChannel(ch, SocketStatus.TIMEOUT)) {
 						closeChannel(ch);
 					}
 				}
 			}
+			this.expired.clear();
+			this.expiredChannels.clear();
 		}
 
 		/**
@@ -1213,6 +1295,9 @@ public class NioEndpoint extends AbstractEndpoint {
 		 */
 		protected boolean remove(long id) {
 			ChannelInfo info = this.channelList.remove(id);
+			if (info != null) {
+				this.wheel.cancel(info);
+			}
 			return offer(info);
 		}
 
@@ -1240,6 +1325,10 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.channelList = new ConcurrentHashMap<Long, ChannelInfo>(this.size);
 			this.recycledChannelList = new ConcurrentLinkedQueue<ChannelInfo>();
 			this.recycledCompletionHandlers = new ConcurrentLinkedQueue<CompletionHandler<Integer, NioChannel>>();
+			this.wheel = new TimingWheel<ChannelInfo>(timeoutTick, TimingWheel.DEFAULT_WHEEL_SIZE,
+					System.currentTimeMillis());
+			this.expired = new ArrayList<ChannelInfo>();
+			this.expiredChannels = new ArrayList<NioChannel>();
 		}
 
 		/**
@@ -1353,6 +1442,7 @@ public class NioEndpoint extends AbstractEndpoint {
 			}
 			// Setting the channel timeout
 			info.timeout = date;
+			this.wheel.schedule(info, date);
 
 			final NioChannel ch = channel;
 
@@ -1396,7 +1486,7 @@ public class NioEndpoint extends AbstractEndpoint {
 	 * 
 	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
 	 */
-	protected static class DefaultThreadFactory implements ThreadFactory {
+	public static class DefaultThreadFactory implements ThreadFactory {
 		private static final AtomicInteger poolNumber = new AtomicInteger(1);
 		private final ThreadGroup group;
 		private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -1451,29 +1541,15 @@ public class NioEndpoint extends AbstractEndpoint {
 		protected long end;
 		// The channel
 		protected NioChannel channel;
-		// The file channel
-		protected java.nio.channels.FileChannel fileChannel;
+		// The shared channel of the file
+		protected SharedFile file;
+		// The bytes of the file being written
+		protected ByteBuffer buffer;
 		// Position
 		protected long pos;
 		// KeepAlive flag
 		protected boolean keepAlive;
 
-		/**
-		 * Prepare the {@code SendfileData}
-		 * 
-		 * @throws IOException
-		 * 
-		 * @throws Exception
-		 */
-		protected void setup() throws IOException {
-			this.pos = this.start;
-			if (this.fileChannel == null || !this.fileChannel.isOpen()) {
-				java.nio.file.Path path = new File(this.fileName).toPath();
-				this.fileChannel = java.nio.channels.FileChannel
-						.open(path, StandardOpenOption.READ).position(this.pos);
-			}
-		}
-
 		/**
 		 * Recycle this {@code SendfileData}
 		 */
@@ -1483,14 +1559,8 @@ public class NioEndpoint extends AbstractEndpoint {
 			this.pos = 0;
 			this.channel = null;
 			this.keepAlive = false;
-			if (this.fileChannel != null && this.fileChannel.isOpen()) {
-				try {
-					this.fileChannel.close();
-				} catch (IOException e) {
-					// Ignore
-				}
-			}
-			this.fileChannel = null;
+			this.file = null;
+			this.buffer = null;
 		}
 
 		/**
@@ -1608,20 +1678,142 @@ public class NioEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	/**
+	 * {@code SharedFile}
+	 * <p>
+	 * Read only channel of a static file, shared by all the transfers of this
+	 * file which are in flight. The transfers use positional reads, so that
+	 * no memory mapping holds on to the file, and the channel is closed when
+	 * the last transfer releases it.
+	 * </p>
+	 */
+	protected static class SharedFile {
+
+		protected final String fileName;
+		protected final long length;
+		protected final long lastModified;
+		protected final AtomicInteger refCount = new AtomicInteger(1);
+		protected final FileChannel fileChannel;
+
+		/**
+		 * Create a new instance of {@code SharedFile}, referenced once
+		 * 
+		 * @param fileName
+		 * @param file
+		 * @throws IOException
+		 */
+		protected SharedFile(String fileName, File file) throws IOException {
+			this.fileName = fileName;
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+			this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		}
+
+		/**
+		 * @param file
+		 * @return <tt>true</tt> if the channel still matches the file on disk
+		 */
+		protected boolean isCurrent(File file) {
+			return file.lastModified() == this.lastModified && file.length() == this.length;
+		}
+
+		/**
+		 * Add a reference to this file, unless it has already been released
+		 * by all its users.
+		 * 
+		 * @return <tt>true</tt> if the reference was added
+		 */
+		protected boolean retain() {
+			for (;;) {
+				int count = this.refCount.get();
+				if (count <= 0) {
+					return false;
+				}
+				if (this.refCount.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Remove a reference to this file, and close it when it was the last
+		 * one.
+		 * 
+		 * @return <tt>true</tt> if this was the last reference
+		 */
+		protected boolean release() {
+			if (this.refCount.decrementAndGet() == 0) {
+				try {
+					this.fileChannel.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Fill the buffer with the bytes of the file starting at the
+		 * specified position, up to the specified end, and flip it.
+		 * 
+		 * @param buffer
+		 *            the buffer to fill
+		 * @param pos
+		 *            the position of the first byte in the file
+		 * @param end
+		 *            the position of the end of the range in the file
+		 * @throws IOException
+		 *             if the file ends before the range
+		 */
+		protected void read(ByteBuffer buffer, long pos, long end) throws IOException {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+			while (buffer.hasRemaining()) {
+				int n = this.fileChannel.read(buffer, pos);
+				if (n < 0) {
+					throw new EOFException();
+				}
+				pos += n;
+			}
+			buffer.flip();
+		}
+	}
+
 	/**
 	 * {@code Sendfile}
-	 * 
+	 * <p>
+	 * Sends static files using shared file channels and asynchronous writes.
+	 * Up to {@code sendfileSize} transfers are kept in flight at the same time,
+	 * and as many are queued and started as soon as a transfer completes. Once
+	 * a transfer completes, the channel is either closed or put back in
+	 * keep-alive.
+	 * </p>
 	 * Created on Mar 7, 2012 at 4:04:59 PM
 	 * 
 	 * @author <a href="mailto:nbenothm@redhat.com">Nabil Benothman</a>
 	 */
-	public class Sendfile implements Runnable {
+	public class Sendfile {
+
+		/**
+		 * Size of the buffer of each transfer in flight.
+		 */
+		protected static final int SENDFILE_BUFFER_SIZE = 64 * 1024;
 
 		protected int size;
 		protected ConcurrentLinkedQueue<SendfileData> fileDatas;
 		protected ConcurrentLinkedQueue<SendfileData> recycledFileDatas;
+		protected ConcurrentHashMap<String, SharedFile> files;
 		protected AtomicInteger counter;
-		private Object mutex;
+		protected AtomicInteger inFlight;
+		protected CompletionHandler<Integer, SendfileData> completionHandler;
+
+		/**
+		 * Set while the current thread starts queued transfers, so that a
+		 * transfer which ends right away does not start the next ones
+		 * recursively.
+		 */
+		protected final ThreadLocal<Boolean> dispatching = new ThreadLocal<Boolean>();
 
 		/**
 		 * @return the number of send file
@@ -1630,70 +1822,70 @@ public class NioEndpoint extends AbstractEndpoint {
 			return this.counter.get();
 		}
 
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see java.lang.Runnable#run()
+		/**
+		 * @return the number of transfers currently in progress
 		 */
-		@Override
-		public void run() {
+		public int getInFlightCount() {
+			return this.inFlight.get();
+		}
 
-			while (running) {
-				// Loop if endpoint is paused
-				while (paused) {
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						// Ignore
+		/**
+		 * Initialize the {@code Sendfile}
+		 */
+		protected void init() {
+			this.size = sendfileSize;
+			this.counter = new AtomicInteger(0);
+			this.inFlight = new AtomicInteger(0);
+			this.fileDatas = new ConcurrentLinkedQueue<SendfileData>();
+			this.recycledFileDatas = new ConcurrentLinkedQueue<SendfileData>();
+			this.files = new ConcurrentHashMap<String, SharedFile>();
+			this.completionHandler = new CompletionHandler<Integer, SendfileData>() {
+
+				@Override
+				public void completed(Integer nw, SendfileData attachment) {
+					if (nw < 0) { // Reach the end of stream
+						failed(new ClosedChannelException(), attachment);
+						return;
 					}
-				}
-				// Loop while poller is empty
-				while (this.counter.get() < 1 && running && !paused) {
-					try {
-						synchronized (this.mutex) {
-							this.mutex.wait();
-						}
-					} catch (InterruptedException e) {
-						// Ignore
+
+					attachment.pos += nw;
+
+					if (attachment.pos >= attachment.end) {
+						// All requested bytes were sent
+						finish(attachment, true);
+						return;
 					}
-				}
 
-				if (running && !paused) {
 					try {
-						SendfileData data = this.poll();
-						if (data != null) {
-							sendFile(data);
+						if (!attachment.buffer.hasRemaining()) {
+							// Read the next bytes of the file
+							attachment.file.read(attachment.buffer, attachment.pos,
+									attachment.end);
 						}
+						attachment.channel.write(attachment.buffer, getWriteTimeout(),
+								TimeUnit.MILLISECONDS, attachment, this);
 					} catch (Throwable th) {
-						// Ignore
+						failed(th, attachment);
 					}
 				}
-			}
-		}
 
-		/**
-		 * Initialize the {@code Sendfile}
-		 */
-		protected void init() {
-		    this.size = sendfileSize;
-			this.mutex = new Object();
-			this.counter = new AtomicInteger(0);
-			this.fileDatas = new ConcurrentLinkedQueue<SendfileData>();
-			this.recycledFileDatas = new ConcurrentLinkedQueue<SendfileData>();
+				@Override
+				public void failed(Throwable exc, SendfileData attachment) {
+					finish(attachment, false);
+				}
+			};
 		}
 
 		/**
 		 * Destroy the SendFile
 		 */
 		protected void destroy() {
-			synchronized (this.mutex) {
-				// To unlock the
-				this.counter.incrementAndGet();
-				this.fileDatas.clear();
-				this.recycledFileDatas.clear();
-				// Unlock threads waiting for this monitor
-				this.mutex.notifyAll();
+			SendfileData data = null;
+			while ((data = this.fileDatas.poll()) != null) {
+				this.counter.decrementAndGet();
+				closeChannel(data.channel);
 			}
+			this.recycledFileDatas.clear();
 		}
 
 		/**
@@ -1716,145 +1908,175 @@ public class NioEndpoint extends AbstractEndpoint {
 		}
 
 		/**
-		 * 
-		 * @param data
-		 * @throws Exception
+		 * @return the write timeout in milliseconds
 		 */
-		private void sendFile(final SendfileData data) throws Exception {
-
-			// Configure the send file data
-			data.setup();
-
-			final NioChannel channel = data.channel;
-			final int BUFFER_SIZE = channel.getOption(StandardSocketOptions.SO_SNDBUF);
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-			int nr = data.fileChannel.read(buffer);
-
-			if (nr >= 0) {
-				buffer.flip();
-				try {
-					channel.write(buffer, data, new CompletionHandler<Integer, SendfileData>() {
-
-						@Override
-						public void completed(Integer nw, SendfileData attachment) {
-							if (nw < 0) { // Reach the end of stream
-								closeChannel(channel);
-								closeFile(attachment.fileChannel);
-								return;
-							}
+		protected long getWriteTimeout() {
+			return (soTimeout > 0) ? soTimeout : Integer.MAX_VALUE;
+		}
 
-							attachment.pos += nw;
+		/**
+		 * Start the queued transfers, as long as the maximum number of
+		 * transfers in flight is not reached.
+		 */
+		protected void dispatch() {
+			if (this.dispatching.get() != null) {
+				// The loop of the caller starts the next transfers
+				return;
+			}
+			this.dispatching.set(Boolean.TRUE);
+			try {
+				while (!this.fileDatas.isEmpty()) {
+					int count = this.inFlight.get();
+					if (count >= this.size) {
+						// A completing transfer will dispatch again
+						return;
+					}
+					if (this.inFlight.compareAndSet(count, count + 1)) {
+						SendfileData data = this.fileDatas.poll();
+						if (data == null) {
+							this.inFlight.decrementAndGet();
+						} else {
+							sendFile(data);
+						}
+					}
+				}
+			} finally {
+				this.dispatching.remove();
+			}
+		}
 
-							if (attachment.pos >= attachment.end) {
-								// All requested bytes were sent, recycle it
-								recycleSendfileData(attachment);
-								return;
-							}
+		/**
+		 * Start the transfer of the specified file
+		 * 
+		 * @param data
+		 */
+		private void sendFile(final SendfileData data) {
+			try {
+				data.file = acquire(data.fileName);
+				if (data.start > data.end || data.end > data.file.length) {
+					throw new EOFException();
+				}
+				data.pos = data.start;
+				if (data.pos >= data.end) {
+					finish(data, true);
+					return;
+				}
+				data.buffer = bufferArena.allocate(SENDFILE_BUFFER_SIZE);
+				data.file.read(data.buffer, data.pos, data.end);
+				data.channel.write(data.buffer, getWriteTimeout(), TimeUnit.MILLISECONDS, data,
+						this.completionHandler);
+			} catch (Throwable th) {
+				if (CoyoteLogger.UTIL_LOGGER.isDebugEnabled()) {
+					CoyoteLogger.UTIL_LOGGER.errorSendingFile(th);
+				}
+				finish(data, false);
+			}
+		}
 
-							boolean ok = true;
-
-							if (!buffer.hasRemaining()) {
-								// This means that all data in the buffer has
-								// been
-								// written => Empty the buffer and read again
-								buffer.clear();
-								try {
-									if (attachment.fileChannel.read(buffer) >= 0) {
-										buffer.flip();
-									} else {
-										// Reach the EOF
-										ok = false;
-									}
-								} catch (Throwable th) {
-									ok = false;
+		/**
+		 * End the transfer, recycle the sendfile data and start the next
+		 * queued transfer. The channel is put back in keep-alive if the
+		 * transfer succeeded, else it is closed.
+		 * 
+		 * @param data
+		 * @param ok
+		 */
+		private void finish(SendfileData data, boolean ok) {
+			final NioChannel ch = data.channel;
+			boolean keepAlive = ok && data.keepAlive;
+			if (data.file != null) {
+				release(data.file);
+			}
+			bufferArena.release(data.buffer);
+			recycleSendfileData(data);
+			this.counter.decrementAndGet();
+			this.inFlight.decrementAndGet();
+			dispatch();
+
+			if (!keepAlive || !running) {
+				closeChannel(ch);
+				return;
+			}
+			try {
+				ch.awaitRead(keepAliveTimeout, TimeUnit.MILLISECONDS, NioEndpoint.this,
+						new CompletionHandler<Integer, NioEndpoint>() {
+
+							@Override
+							public void completed(Integer nBytes, NioEndpoint endpoint) {
+								if (nBytes < 0) {
+									failed(new ClosedChannelException(), endpoint);
+								} else if (!endpoint.processChannel(ch, null)) {
+									endpoint.closeChannel(ch);
 								}
 							}
 
-							if (ok) {
-								channel.write(buffer, attachment, this);
-							} else {
-								closeFile(attachment.fileChannel);
+							@Override
+							public void failed(Throwable exc, NioEndpoint endpoint) {
+								endpoint.closeChannel(ch);
 							}
-						}
-
-						@Override
-						public void failed(Throwable exc, SendfileData attachment) {
-							// Closing channels
-							closeChannel(channel);
-							closeFile(data.fileChannel);
-						}
-
-						/**
-						 * 
-						 * @param closeable
-						 */
-						private void closeFile(java.io.Closeable closeable) {
-							try {
-								closeable.close();
-							} catch (IOException e) {
-								// NOPE
-							}
-						}
-					});
-				} catch (WritePendingException exp) {
-					data.fileChannel.close();
-					add(data);
-				}
-			} else {
-				recycleSendfileData(data);
+						});
+			} catch (Throwable th) {
+				closeChannel(ch);
 			}
 		}
 
 		/**
-		 * Add the sendfile data to the sendfile poller. Note that in most
-		 * cases, the initial non blocking calls to sendfile will return right
-		 * away, and will be handled asynchronously inside the kernel. As a
-		 * result, the poller will never be used.
+		 * Get a reference to the shared channel of the specified file,
+		 * opening it if no transfer of this file is in flight.
 		 * 
-		 * @param data
-		 *            containing the reference to the data which should be sent
-		 * @return true if all the data has been sent right away, and false
-		 *         otherwise
+		 * @param fileName
+		 * @return the shared file
+		 * @throws IOException
 		 */
-		public boolean add(SendfileData data) {
-			if (data != null && this.counter.get() < this.size) {
-				synchronized (this.mutex) {
-					if (this.fileDatas.offer(data)) {
-						this.counter.incrementAndGet();
-						this.mutex.notifyAll();
-						return true;
-					}
+		protected SharedFile acquire(String fileName) throws IOException {
+			File f = new File(fileName);
+			SharedFile file = this.files.get(fileName);
+			if (file != null && file.retain()) {
+				if (file.isCurrent(f)) {
+					return file;
 				}
+				// The file was modified, stop sharing the old channel
+				this.files.remove(fileName, file);
+				release(file);
 			}
-
-			return false;
+			file = new SharedFile(fileName, f);
+			this.files.put(fileName, file);
+			return file;
 		}
 
 		/**
-		 * Retrieves and removes the head of this queue, or returns
-		 * <tt>null</tt> if this queue is empty.
+		 * Release a reference to the specified file.
 		 * 
-		 * @return the head of this queue, or <tt>null</tt> if this queue is
-		 *         empty
+		 * @param file
 		 */
-		protected SendfileData poll() {
-			SendfileData data = this.fileDatas.poll();
-			if (data != null) {
-				this.counter.decrementAndGet();
+		protected void release(SharedFile file) {
+			if (file.release()) {
+				this.files.remove(file.fileName, file);
 			}
-			return data;
 		}
 
 		/**
-		 * Remove socket from the poller.
+		 * Add the sendfile data to the sendfile engine. The transfer is
+		 * started right away if the maximum number of transfers in flight is
+		 * not reached, else it is queued, unless the queue is full. Once
+		 * accepted, the engine owns the channel until the transfer completes.
 		 * 
 		 * @param data
-		 *            the sendfile data which should be removed
+		 *            containing the reference to the data which should be sent
+		 * @return true if the transfer was accepted, and false otherwise
 		 */
-		protected void remove(SendfileData data) {
-			if (this.fileDatas.remove(data)) {
+		public boolean add(SendfileData data) {
+			if (data == null || !running) {
+				return false;
+			}
+			if (this.counter.incrementAndGet() > 2 * this.size) {
+				// Up to size transfers in flight, and as many queued
 				this.counter.decrementAndGet();
+				return false;
 			}
+			this.fileDatas.offer(data);
+			dispatch();
+			return true;
 		}
 	}
 }
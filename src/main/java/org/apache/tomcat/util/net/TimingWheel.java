@@ -0,0 +1,377 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.net;
+
+import java.util.Collection;
+
+/**
+ * {@code TimingWheel}
+ * <p>
+ * Hierarchical timing wheel used to track connection timeouts. Scheduling and
+ * cancelling an entry are O(1) operations, and the cost of advancing the
+ * wheel is proportional to the number of entries which actually expire (plus
+ * an amortized cascading cost bounded by the number of levels), instead of
+ * the number of registered entries.
+ * </p>
+ * <p>
+ * The lowest level has {@code wheelSize} slots of {@code tick} milliseconds
+ * each. Deadlines which do not fit in a level are stored in a coarser overflow
+ * level (created lazily) whose tick is the span of the level below. When a
+ * coarse slot is reached, its entries are cascaded down to the finer levels.
+ * An entry expires at most one tick after its deadline, and never before it.
+ * </p>
+ * <p>
+ * Entries are intrusive (see {@link Entry}) so that recycled objects can be
+ * rescheduled without allocation. All operations are synchronized on the
+ * wheel itself.
+ * </p>
+ *
+ * @param <E>
+ *            the type of the scheduled entries
+ */
+public class TimingWheel<E extends TimingWheel.Entry> {
+
+	/**
+	 * Default tick duration in milliseconds.
+	 */
+	public static final long DEFAULT_TICK = 100;
+
+	/**
+	 * Default number of slots per level.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private final long tick;
+	private final int wheelSize;
+	private final int mask;
+	private Level level;
+	private int size = 0;
+	private long expiredCount = 0;
+	private long lag = 0;
+	private long maxLag = 0;
+
+	/**
+	 * Create a new instance of {@code TimingWheel} using the default tick and
+	 * wheel size
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public TimingWheel(long now) {
+		this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE, now);
+	}
+
+	/**
+	 * Create a new instance of {@code TimingWheel}
+	 *
+	 * @param tick
+	 *            the duration of a tick in milliseconds
+	 * @param wheelSize
+	 *            the number of slots per level, rounded up to a power of two
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public TimingWheel(long tick, int wheelSize, long now) {
+		if (tick <= 0) {
+			throw new IllegalArgumentException("tick: " + tick);
+		}
+		int n = 2;
+		while (n < wheelSize) {
+			n <<= 1;
+		}
+		this.tick = tick;
+		this.wheelSize = n;
+		this.mask = n - 1;
+		this.level = new Level(tick, now - (now % tick), null);
+	}
+
+	/**
+	 * Schedule (or reschedule) the specified entry. If the deadline has
+	 * already passed, the entry will expire on the next tick.
+	 *
+	 * @param entry
+	 *            the entry to schedule
+	 * @param deadline
+	 *            the absolute deadline in milliseconds
+	 */
+	public synchronized void schedule(E entry, long deadline) {
+		if (entry.isScheduled()) {
+			entry.unlink();
+		} else {
+			size++;
+		}
+		entry.deadline = deadline;
+		insert(entry);
+	}
+
+	/**
+	 * Cancel the specified entry.
+	 *
+	 * @param entry
+	 *            the entry to cancel
+	 * @return <tt>true</tt> if the entry was scheduled, else <tt>false</tt>
+	 */
+	public synchronized boolean cancel(E entry) {
+		if (entry.isScheduled()) {
+			entry.unlink();
+			size--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Advance the wheel up to the specified time and collect all the entries
+	 * which have expired. The expired entries are no longer scheduled when
+	 * this method returns.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param expired
+	 *            the collection receiving the expired entries
+	 * @return the number of expired entries
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int expire(long now, Collection<? super E> expired) {
+		int count = 0;
+		Level root = this.level;
+		while (root.currentTime + tick <= now) {
+			if (count == this.size) {
+				// Nothing left to expire, catch up with the current time at once
+				long time = now - (now % tick);
+				for (Level l = root; l != null; l = l.overflow) {
+					l.currentTime = time - (time % l.tick);
+				}
+				updateLag(now - time);
+				break;
+			}
+			// Skip the slots where nothing happens
+			long slotTime = nextSlotTime(root, now);
+			if (slotTime > root.currentTime) {
+				for (Level l = root; l != null; l = l.overflow) {
+					l.currentTime = slotTime - (slotTime % l.tick);
+				}
+			}
+			if (root.currentTime + tick > now) {
+				updateLag(now - root.currentTime);
+				break;
+			}
+			long time = root.currentTime + tick;
+			// Every entry of the slot which has just elapsed is expired
+			Entry head = root.slots[root.index(root.currentTime)];
+			for (Entry e = head.next; e != head;) {
+				Entry next = e.next;
+				e.unlink();
+				expired.add((E) e);
+				count++;
+				e = next;
+			}
+			// Advance the clocks, then cascade the coarse slots starting at
+			// this time from the top level down
+			Level top = root;
+			for (Level l = root; l != null; l = l.overflow) {
+				l.currentTime = time - (time % l.tick);
+				top = l;
+			}
+			for (Level l = top; l != root; l = l.below) {
+				if (l.currentTime == time) {
+					Entry h = l.slots[l.index(time)];
+					for (Entry e = h.next; e != h;) {
+						Entry next = e.next;
+						e.unlink();
+						insert(e);
+						e = next;
+					}
+				}
+			}
+			updateLag(now - time);
+		}
+		this.size -= count;
+		this.expiredCount += count;
+		return count;
+	}
+
+	/**
+	 * Find the time of the next slot of the lowest level which must be
+	 * processed: the first non empty slot of the lowest level, the slot
+	 * preceding the first non empty slot of a coarser level, which is
+	 * cascaded once it is reached, or the slot of the current time, whichever
+	 * comes first.
+	 *
+	 * @param root
+	 *            the lowest level
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the time of the slot
+	 */
+	private long nextSlotTime(Level root, long now) {
+		long next = now - (now % tick);
+		for (Level l = root; l != null; l = l.overflow) {
+			// The current slot of a coarser level has already been cascaded
+			long time = (l == root) ? l.currentTime : l.currentTime + l.tick;
+			long end = l.currentTime + l.interval;
+			for (; time < end; time += l.tick) {
+				long slotTime = (l == root) ? time : time - tick;
+				if (slotTime >= next) {
+					break;
+				}
+				Entry head = l.slots[l.index(time)];
+				if (head.next != head) {
+					next = slotTime;
+					break;
+				}
+			}
+		}
+		return next;
+	}
+
+	private void updateLag(long delay) {
+		this.lag = delay;
+		if (delay > this.maxLag) {
+			this.maxLag = delay;
+		}
+	}
+
+	/**
+	 * Insert the entry in the finest level able to hold its deadline.
+	 *
+	 * @param entry
+	 */
+	private void insert(Entry entry) {
+		Level l = this.level;
+		long deadline = Math.max(entry.deadline, l.currentTime);
+		while (deadline >= l.currentTime + l.interval) {
+			if (l.overflow == null) {
+				l.overflow = new Level(l.interval, l.currentTime - (l.currentTime % l.interval), l);
+			}
+			l = l.overflow;
+		}
+		entry.link(l.slots[l.index(deadline)]);
+	}
+
+	/**
+	 * @return the number of scheduled entries
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the tick duration in milliseconds
+	 */
+	public long getTick() {
+		return this.tick;
+	}
+
+	/**
+	 * @return the number of slots per level
+	 */
+	public int getWheelSize() {
+		return this.wheelSize;
+	}
+
+	/**
+	 * @return the total number of entries expired by this wheel
+	 */
+	public synchronized long getExpiredCount() {
+		return this.expiredCount;
+	}
+
+	/**
+	 * @return the delay in milliseconds between the end of the last processed
+	 *         tick and the time it was actually processed
+	 */
+	public synchronized long getLag() {
+		return this.lag;
+	}
+
+	/**
+	 * @return the maximum lag observed since the creation of the wheel
+	 */
+	public synchronized long getMaxLag() {
+		return this.maxLag;
+	}
+
+	/**
+	 * {@code Level}
+	 * <p>
+	 * One level of the wheel, with its own tick and slot array.
+	 * </p>
+	 */
+	private class Level {
+		final long tick;
+		final long interval;
+		final Entry[] slots;
+		final Level below;
+		Level overflow;
+		long currentTime;
+
+		Level(long tick, long currentTime, Level below) {
+			this.tick = tick;
+			this.interval = tick * wheelSize;
+			this.currentTime = currentTime;
+			this.below = below;
+			this.slots = new Entry[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				Entry head = new Entry();
+				head.next = head;
+				head.prev = head;
+				this.slots[i] = head;
+			}
+		}
+
+		int index(long time) {
+			return (int) ((time / tick) & mask);
+		}
+	}
+
+	/**
+	 * {@code Entry}
+	 * <p>
+	 * Base class of the objects tracked by a {@link TimingWheel}. The links are
+	 * owned by the wheel and must only be accessed while holding its lock.
+	 * </p>
+	 */
+	public static class Entry {
+		Entry prev;
+		Entry next;
+		long deadline;
+
+		/**
+		 * @return <tt>true</tt> if this entry is currently scheduled
+		 */
+		boolean isScheduled() {
+			return this.next != null;
+		}
+
+		void link(Entry head) {
+			this.prev = head.prev;
+			this.next = head;
+			head.prev.next = this;
+			head.prev = this;
+		}
+
+		void unlink() {
+			this.prev.next = this.next;
+			this.next.prev = this.prev;
+			this.prev = null;
+			this.next = null;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@code Histogram}
+ * <p>
+ * Lock-free histogram of durations, with power of two buckets in
+ * microseconds: bucket 0 counts durations under 1 us, and bucket {@code i}
+ * the durations from 2^(i-1) us included to 2^i us excluded. The last bucket
+ * also counts all the longer durations. Recording is a couple of atomic
+ * increments, so that it can be done for every task of a thread pool.
+ * </p>
+ */
+public final class Histogram {
+
+	/**
+	 * Number of buckets, the last one starts at about 18 minutes.
+	 */
+	public static final int BUCKETS = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = (micros <= 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		total.addAndGet(micros > 0 ? micros : 0);
+	}
+
+	/**
+	 * @return a copy of the bucket counts
+	 */
+	public long[] getCounts() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = counts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of recorded durations
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the mean duration in microseconds, 0 if nothing was recorded
+	 */
+	public long getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : total.get() / count;
+	}
+
+	/**
+	 * Estimate a percentile of the recorded durations.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the upper bound in microseconds of the bucket holding the
+	 *         percentile, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = getCounts();
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && seen > 0) {
+				return 1L << i;
+			}
+		}
+		return 1L << (BUCKETS - 1);
+	}
+
+	/**
+	 * Forget all the recorded durations.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code SharedExecutorService}
+ * <p>
+ * {@code ExecutorService} view of an executor shared with other components,
+ * for the APIs which need an {@code ExecutorService} and shut it down when
+ * they are done with it. Shutting down the view only refuses new tasks: the
+ * shared executor keeps running for the other components.
+ * </p>
+ */
+public class SharedExecutorService extends AbstractExecutorService {
+
+	private final Executor executor;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Create a new instance of {@code SharedExecutorService}
+	 *
+	 * @param executor
+	 *            the shared executor
+	 */
+	public SharedExecutorService(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the shared executor
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	public void execute(Runnable command) {
+		if (shutdown) {
+			throw new RejectedExecutionException();
+		}
+		executor.execute(command);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ExecutorService#shutdown()
+	 */
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ExecutorService#shutdownNow()
+	 */
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		return Collections.emptyList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ExecutorService#isShutdown()
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ExecutorService#isTerminated()
+	 */
+	public boolean isTerminated() {
+		return shutdown;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ExecutorService#awaitTermination(long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return shutdown;
+	}
+
+}
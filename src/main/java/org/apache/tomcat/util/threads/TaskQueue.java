@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@code TaskQueue}
+ * <p>
+ * Work queue of a {@link ThreadPoolExecutor}. A plain
+ * {@code java.util.concurrent.ThreadPoolExecutor} only creates threads beyond
+ * its core size once its queue is full, so that with an unbounded queue it
+ * never grows. This queue refuses tasks while all the threads are busy and
+ * the pool may still grow, which makes the executor create a new thread
+ * instead. Once the pool has reached its maximum size, tasks are queued.
+ * </p>
+ */
+public class TaskQueue extends LinkedBlockingQueue<Runnable> {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient volatile ThreadPoolExecutor parent = null;
+
+	/**
+	 * Create a new unbounded instance of {@code TaskQueue}
+	 */
+	public TaskQueue() {
+		super();
+	}
+
+	/**
+	 * Create a new instance of {@code TaskQueue}
+	 *
+	 * @param capacity
+	 *            the maximum number of queued tasks
+	 */
+	public TaskQueue(int capacity) {
+		super(capacity);
+	}
+
+	/**
+	 * @param parent
+	 *            the executor using this queue
+	 */
+	public void setParent(ThreadPoolExecutor parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Queue a task which was refused by {@link #offer(Runnable)}, as the pool
+	 * could not grow after all.
+	 *
+	 * @param task
+	 * @return <tt>true</tt> if the task was queued
+	 */
+	public boolean force(Runnable task) {
+		if (parent == null || parent.isShutdown()) {
+			throw new RejectedExecutionException();
+		}
+		return super.offer(task);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.LinkedBlockingQueue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(Runnable task) {
+		ThreadPoolExecutor parent = this.parent;
+		if (parent == null) {
+			return super.offer(task);
+		}
+		int poolSize = parent.getPoolSize();
+		// The pool is at its maximum size, or there is an idle thread
+		if (poolSize >= parent.getMaximumPoolSize() || parent.getSubmittedCount() <= poolSize) {
+			return super.offer(task);
+		}
+		// Have the executor create a new thread
+		return false;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+/**
+ * {@code TaskThread}
+ * <p>
+ * Thread of a {@link ThreadPoolExecutor}, which remembers when it was
+ * created so that the threads which may hold references to a stopped web
+ * application can be renewed.
+ * </p>
+ */
+public class TaskThread extends Thread {
+
+	private final long creationTime;
+
+	/**
+	 * Create a new instance of {@code TaskThread}
+	 *
+	 * @param group
+	 * @param target
+	 * @param name
+	 */
+	public TaskThread(ThreadGroup group, Runnable target, String name) {
+		super(group, new Renewable(target), name);
+		this.creationTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the creation time of the thread in milliseconds
+	 */
+	public final long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * Thrown by the executor to end the current thread after a task, in
+	 * which case it is replaced by a new thread.
+	 */
+	static class StopPooledThreadException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			// Only used for control flow
+			return this;
+		}
+	}
+
+	/**
+	 * Ends the thread silently when it is renewed.
+	 */
+	private static class Renewable implements Runnable {
+
+		private final Runnable target;
+
+		Renewable(Runnable target) {
+			this.target = target;
+		}
+
+		public void run() {
+			try {
+				target.run();
+			} catch (StopPooledThreadException e) {
+				// The thread is renewed
+			}
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code TaskThreadFactory}
+ * <p>
+ * Creates the {@link TaskThread}s of a {@link ThreadPoolExecutor}.
+ * </p>
+ */
+public class TaskThreadFactory implements ThreadFactory {
+
+	private final ThreadGroup group;
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+	private final String namePrefix;
+	private final boolean daemon;
+	private final int threadPriority;
+
+	/**
+	 * Create a new instance of {@code TaskThreadFactory}
+	 *
+	 * @param namePrefix
+	 * @param daemon
+	 * @param threadPriority
+	 */
+	public TaskThreadFactory(String namePrefix, boolean daemon, int threadPriority) {
+		SecurityManager s = System.getSecurityManager();
+		this.group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+		this.namePrefix = namePrefix;
+		this.daemon = daemon;
+		this.threadPriority = threadPriority;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+	 */
+	public Thread newThread(Runnable r) {
+		TaskThread thread = new TaskThread(group, r, namePrefix + threadNumber.getAndIncrement());
+		thread.setDaemon(daemon);
+		thread.setPriority(threadPriority);
+		return thread;
+	}
+
+}
@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code ThreadPoolExecutor}
+ * <p>
+ * Thread pool for the request processing threads:
+ * <ul>
+ * <li>Threads are created up to the maximum pool size before tasks are
+ * queued (see {@link TaskQueue}), and the threads above the core size are
+ * stopped once they have been idle for the keep alive time.</li>
+ * <li>The time each task waited in the queue and the time it ran are
+ * recorded in {@link Histogram}s.</li>
+ * <li>After a web application is stopped, the threads created before are
+ * renewed one at a time, each after its next task, so that the
+ * {@code ThreadLocal}s set by the application do not keep its class loader
+ * alive. Only {@link TaskThread}s are renewed.</li>
+ * </ul>
+ * </p>
+ */
+public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor {
+
+	/**
+	 * Number of tasks submitted and not completed yet, queued or running.
+	 */
+	private final AtomicInteger submittedCount = new AtomicInteger();
+
+	private final Histogram queueTime = new Histogram();
+	private final Histogram runTime = new Histogram();
+
+	/**
+	 * Time the last web application was stopped, threads created before are
+	 * renewed.
+	 */
+	private volatile long lastContextStoppedTime = 0;
+
+	/**
+	 * Time a thread was last renewed.
+	 */
+	private final AtomicLong lastTimeThreadKilledItself = new AtomicLong();
+
+	/**
+	 * Delay between the renewal of two threads in milliseconds, a negative
+	 * value disables renewal.
+	 */
+	private long threadRenewalDelay = 1000;
+
+	/**
+	 * Create a new instance of {@code ThreadPoolExecutor}
+	 *
+	 * @param corePoolSize
+	 * @param maximumPoolSize
+	 * @param keepAliveTime
+	 * @param unit
+	 * @param workQueue
+	 * @param threadFactory
+	 */
+	public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+			TimeUnit unit, TaskQueue workQueue, ThreadFactory threadFactory) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+		workQueue.setParent(this);
+	}
+
+	/**
+	 * @return the number of tasks submitted and not completed yet
+	 */
+	public int getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * @return the histogram of the time spent by the tasks in the queue
+	 */
+	public Histogram getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * @return the histogram of the running time of the tasks
+	 */
+	public Histogram getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * @return the delay between the renewal of two threads in milliseconds
+	 */
+	public long getThreadRenewalDelay() {
+		return threadRenewalDelay;
+	}
+
+	/**
+	 * @param threadRenewalDelay
+	 *            the delay between the renewal of two threads in
+	 *            milliseconds, a negative value disables renewal
+	 */
+	public void setThreadRenewalDelay(long threadRenewalDelay) {
+		this.threadRenewalDelay = threadRenewalDelay;
+	}
+
+	/**
+	 * A web application was stopped: renew the threads which exist now.
+	 */
+	public void contextStopping() {
+		lastContextStoppedTime = System.currentTimeMillis();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadPoolExecutor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable command) {
+		Task task = new Task(command);
+		submittedCount.incrementAndGet();
+		try {
+			super.execute(task);
+		} catch (RejectedExecutionException e) {
+			// The pool could not grow: queue the task
+			try {
+				if (!((TaskQueue) getQueue()).force(task)) {
+					submittedCount.decrementAndGet();
+					throw e;
+				}
+			} catch (RejectedExecutionException x) {
+				submittedCount.decrementAndGet();
+				throw x;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadPoolExecutor#beforeExecute(java.lang.Thread,
+	 * java.lang.Runnable)
+	 */
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		if (r instanceof Task) {
+			Task task = (Task) r;
+			task.started = System.nanoTime();
+			queueTime.record(task.started - task.submitted);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.ThreadPoolExecutor#afterExecute(java.lang.Runnable,
+	 * java.lang.Throwable)
+	 */
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		if (r instanceof Task) {
+			runTime.record(System.nanoTime() - ((Task) r).started);
+		}
+		submittedCount.decrementAndGet();
+		if (t == null) {
+			stopCurrentThreadIfNeeded();
+		}
+	}
+
+	/**
+	 * End the current thread if it must be renewed, unless another thread
+	 * was renewed less than {@link #threadRenewalDelay} ago. The pool
+	 * replaces it with a new thread.
+	 */
+	protected void stopCurrentThreadIfNeeded() {
+		long stoppedTime = lastContextStoppedTime;
+		if (stoppedTime == 0 || threadRenewalDelay < 0) {
+			return;
+		}
+		Thread thread = Thread.currentThread();
+		if (thread instanceof TaskThread && ((TaskThread) thread).getCreationTime() < stoppedTime) {
+			long now = System.currentTimeMillis();
+			long last = lastTimeThreadKilledItself.get();
+			if (now - last > threadRenewalDelay && lastTimeThreadKilledItself.compareAndSet(last, now)) {
+				throw new TaskThread.StopPooledThreadException();
+			}
+		}
+	}
+
+	/**
+	 * {@code Task}
+	 * <p>
+	 * A submitted task, with the times used for the statistics.
+	 * </p>
+	 */
+	private static final class Task implements Runnable {
+
+		private final Runnable command;
+		private final long submitted = System.nanoTime();
+		private long started;
+
+		Task(Runnable command) {
+			this.command = command;
+		}
+
+		public void run() {
+			command.run();
+		}
+	}
+
+}
@@ -689,4 +689,8 @@ public interface CatalinaLogger extends BasicLogger {
     @Message(id = 1150, value = "X param in wrong format. Needs to be 'x-#(...)'")
     void extendedAccessLogBadXParam();
 
+    @LogMessage(level = WARN)
+    @Message(id = 1151, value = "Executor %s was not found in the service, the connector will use its own threads")
+    void executorNotFound(String name);
+
 }
@@ -972,4 +972,7 @@ public interface CatalinaMessages {
     @Message(id = 359, value = "Exception releasing filter %s")
     String errorStoppingFilter(String filterName);
 
+    @Message(id = 360, value = "Executor %s is not started")
+    String executorNotStarted(String name);
+
 }
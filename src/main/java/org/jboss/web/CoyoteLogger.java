@@ -55,6 +55,11 @@ public interface CoyoteLogger extends BasicLogger {
      */
     CoyoteLogger HTTP_LOGGER = Logger.getMessageLogger(CoyoteLogger.class, "org.apache.coyote.http11");
 
+    /**
+     * A logger with the category of the package name.
+     */
+    CoyoteLogger HTTP2_LOGGER = Logger.getMessageLogger(CoyoteLogger.class, "org.apache.coyote.http2");
+
     /**
      * A logger with the category of the package name.
      */
@@ -495,4 +500,32 @@ public interface CoyoteLogger extends BasicLogger {
     @Message(id = 3104, value = "Error registering MBean %s")
     void errorRegisteringMbean(Object objectName, @Cause Throwable t);
 
+    @LogMessage(level = INFO)
+    @Message(id = 3105, value = "Coyote HTTP/2 starting on: %s")
+    void startHttp2Connector(String name);
+
+    @LogMessage(level = INFO)
+    @Message(id = 3106, value = "Coyote HTTP/2 initializing on : %s")
+    void initHttp2Connector(String name);
+
+    @LogMessage(level = INFO)
+    @Message(id = 3107, value = "Coyote HTTP/2 pausing on: %s")
+    void pauseHttp2Connector(String name);
+
+    @LogMessage(level = INFO)
+    @Message(id = 3108, value = "Coyote HTTP/2 resuming on : %s")
+    void resumeHttp2Connector(String name);
+
+    @LogMessage(level = INFO)
+    @Message(id = 3109, value = "Coyote HTTP/2 stopping on : %s")
+    void stopHttp2Connector(String name);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 3110, value = "HTTP/2 connection error")
+    void http2ConnectionError(@Cause Throwable t);
+
+    @LogMessage(level = DEBUG)
+    @Message(id = 3111, value = "HTTP/2 stream %s error")
+    void http2StreamError(int streamId, @Cause Throwable t);
+
 }
@@ -277,4 +277,52 @@ public interface CoyoteMessages {
     @Message(id = 2079, value = "Unexpected data read during handshake")
     String sslHandshakeData();
 
+    @Message(id = 2080, value = "Invalid HTTP/2 connection preface")
+    String invalidHttp2Preface();
+
+    @Message(id = 2081, value = "Invalid length %s for HTTP/2 frame of type %s")
+    String invalidHttp2FrameSize(int length, int type);
+
+    @Message(id = 2082, value = "Unexpected HTTP/2 frame of type %s on stream %s")
+    String invalidHttp2Frame(int type, int streamId);
+
+    @Message(id = 2083, value = "Invalid value %s for HTTP/2 setting %s")
+    String invalidHttp2Setting(long value, int setting);
+
+    @Message(id = 2084, value = "HTTP/2 flow control window exceeded on stream %s")
+    String http2FlowControlError(int streamId);
+
+    @Message(id = 2085, value = "Invalid HPACK index %s")
+    String invalidHpackIndex(int index);
+
+    @Message(id = 2086, value = "Invalid HPACK dynamic table size update %s")
+    String invalidHpackTableSize(int size);
+
+    @Message(id = 2087, value = "Invalid HPACK Huffman encoded string")
+    String invalidHpackHuffman();
+
+    @Message(id = 2088, value = "Truncated HPACK header block")
+    String invalidHpackBlock();
+
+    @Message(id = 2089, value = "Malformed HTTP/2 request on stream %s")
+    String invalidHttp2Request(int streamId);
+
+    @Message(id = 2090, value = "HTTP/2 stream %s was reset with error %s")
+    String http2StreamReset(int streamId, int error);
+
+    @Message(id = 2091, value = "HTTP/2 connection closed")
+    String http2ConnectionClosed();
+
+    @Message(id = 2092, value = "Timeout waiting for the HTTP/2 flow control window of stream %s")
+    String http2WindowTimeout(int streamId);
+
+    @Message(id = 2093, value = "HTTP/2 header list of stream %s exceeds the maximum size %s")
+    String http2HeaderListTooLarge(int streamId, int maxSize);
+
+    @Message(id = 2094, value = "Invalid gzip request body")
+    IOException invalidGzipData();
+
+    @Message(id = 2095, value = "Decompressed request body exceeds the maximum size %s")
+    IOException maxDecompressedSizeExceeded(long maxSize);
+
 }
@@ -56,4 +56,37 @@ public interface WebMessages {
     @Message(id = 7006, value = "Error reading rewrite flags in line %s")
     IllegalArgumentException invalidRewriteFlags(String line);
 
+    @Message(id = 7007, value = "Invalid WebSocket frame opcode %s")
+    String invalidWebSocketOpcode(int opcode);
+
+    @Message(id = 7008, value = "Reserved bits set in WebSocket frame without a negotiated extension")
+    String reservedWebSocketBits();
+
+    @Message(id = 7009, value = "WebSocket frame received from the client is not masked")
+    String unmaskedWebSocketFrame();
+
+    @Message(id = 7010, value = "Fragmented or oversized WebSocket control frame")
+    String invalidWebSocketControlFrame();
+
+    @Message(id = 7011, value = "WebSocket continuation frame received without a message in progress")
+    String unexpectedWebSocketContinuation();
+
+    @Message(id = 7012, value = "New WebSocket message started before the end of the previous fragmented message")
+    String expectedWebSocketContinuation();
+
+    @Message(id = 7013, value = "WebSocket message of at least %s bytes exceeds the maximum of %s bytes")
+    String webSocketMessageTooLarge(long size, int maxSize);
+
+    @Message(id = 7014, value = "Invalid WebSocket close code %s")
+    String invalidWebSocketCloseCode(int code);
+
+    @Message(id = 7015, value = "Invalid UTF-8 in WebSocket text payload")
+    String invalidWebSocketUtf8();
+
+    @Message(id = 7016, value = "WebSocket connection is closed")
+    IllegalStateException webSocketClosed();
+
+    @Message(id = 7017, value = "Invalid WebSocket control frame payload length %s")
+    IllegalArgumentException invalidWebSocketControlPayload(int length);
+
 }
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.websocket;
+
+import static org.jboss.web.WebMessages.MESSAGES;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental parser for the frames sent by a WebSocket client. Input is
+ * parsed in place: payloads are unmasked directly in the buffer given to
+ * {@link #parse(ByteBuffer)}, and a message which arrives whole in a single
+ * frame of that buffer is delivered without being copied. Fragmented
+ * messages, and frames split across reads, are reassembled in a buffer owned
+ * by the parser which is reused from one message to the next.
+ *
+ * @author Remy Maucherat
+ */
+final class FrameParser {
+
+    /**
+     * Receiver of the parsed messages. The data passed to the callbacks is
+     * only valid until the callback returns.
+     */
+    interface Listener {
+
+        void onMessage(boolean text, byte[] data, int offset, int length)
+            throws IOException;
+
+        void onControl(int opcode, byte[] data, int offset, int length)
+            throws IOException;
+
+    }
+
+
+    /**
+     * Reassembly buffers larger than this are dropped after use rather than
+     * being kept for the life of the connection.
+     */
+    private static final int RETAINED_MESSAGE_SIZE = 16 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+
+    private final Listener listener;
+    private final int maxMessageSize;
+
+    // Frame header, which may be split across reads
+    private final byte[] header = new byte[14];
+    private int headerLength = 0;
+    private int headerNeeded = 2;
+    private boolean inPayload = false;
+
+    // Current frame
+    private boolean fin;
+    private int opcode;
+    private long frameLength;
+    private long remaining;
+    private final byte[] mask = new byte[4];
+    private int maskIndex;
+    private long mask64;
+    private boolean delivered;
+
+    // Current data message
+    private int messageOpcode = -1;
+    private byte[] message = EMPTY;
+    private int messageLength = 0;
+
+    // Current control frame
+    private final byte[] control = new byte[WebSocketFrame.MAX_CONTROL_PAYLOAD];
+    private int controlLength = 0;
+
+
+    FrameParser(Listener listener, int maxMessageSize) {
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+
+    /**
+     * Parse all the bytes remaining in the given buffer. The payload bytes
+     * are unmasked in place, and the buffer is fully consumed on return.
+     */
+    void parse(ByteBuffer in)
+        throws IOException {
+        while (in.hasRemaining()) {
+            if (!inPayload) {
+                while (headerLength < headerNeeded && in.hasRemaining()) {
+                    header[headerLength++] = in.get();
+                }
+                if (headerLength < headerNeeded) {
+                    return;
+                }
+                if (headerLength == 2) {
+                    headerNeeded = validateHeader();
+                    if (headerLength < headerNeeded) {
+                        continue;
+                    }
+                }
+                startFrame();
+                if (remaining == 0) {
+                    endFrame();
+                }
+            } else {
+                int pos = in.position();
+                int n = (int) Math.min(remaining, in.remaining());
+                unmask(in, pos, n);
+                payload(in, pos, n);
+                in.position(pos + n);
+                remaining -= n;
+                if (remaining == 0) {
+                    endFrame();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Check the first two bytes of a frame header.
+     *
+     * @return the full length of the header
+     */
+    private int validateHeader()
+        throws WebSocketException {
+        int b0 = header[0] & 0xFF;
+        int b1 = header[1] & 0xFF;
+        if ((b0 & 0x70) != 0) {
+            throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.reservedWebSocketBits());
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.unmaskedWebSocketFrame());
+        }
+        fin = (b0 & 0x80) != 0;
+        opcode = b0 & 0x0F;
+        int length = b1 & 0x7F;
+        switch (opcode) {
+        case WebSocketFrame.OPCODE_CLOSE:
+        case WebSocketFrame.OPCODE_PING:
+        case WebSocketFrame.OPCODE_PONG:
+            if (!fin || length > WebSocketFrame.MAX_CONTROL_PAYLOAD) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.invalidWebSocketControlFrame());
+            }
+            break;
+        case WebSocketFrame.OPCODE_CONTINUATION:
+            if (messageOpcode == -1) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.unexpectedWebSocketContinuation());
+            }
+            break;
+        case WebSocketFrame.OPCODE_TEXT:
+        case WebSocketFrame.OPCODE_BINARY:
+            if (messageOpcode != -1) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.expectedWebSocketContinuation());
+            }
+            break;
+        default:
+            throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.invalidWebSocketOpcode(opcode));
+        }
+        return 2 + ((length == 126) ? 2 : (length == 127) ? 8 : 0) + 4;
+    }
+
+
+    /**
+     * Decode the complete header of the current frame.
+     */
+    private void startFrame()
+        throws WebSocketException {
+        int length = header[1] & 0x7F;
+        int pos = 2;
+        if (length == 126) {
+            frameLength = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            pos = 4;
+        } else if (length == 127) {
+            frameLength = 0;
+            for (int i = 2; i < 10; i++) {
+                frameLength = (frameLength << 8) | (header[i] & 0xFF);
+            }
+            if (frameLength < 0) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.webSocketMessageTooLarge(frameLength, maxMessageSize));
+            }
+            pos = 10;
+        } else {
+            frameLength = length;
+        }
+        if (opcode < WebSocketFrame.OPCODE_CLOSE) {
+            if (messageLength + frameLength > maxMessageSize) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_MESSAGE_TOO_BIG,
+                        MESSAGES.webSocketMessageTooLarge(messageLength + frameLength, maxMessageSize));
+            }
+            if (opcode != WebSocketFrame.OPCODE_CONTINUATION) {
+                messageOpcode = opcode;
+            }
+        }
+        System.arraycopy(header, pos, mask, 0, 4);
+        long m = ((mask[0] & 0xFFL) << 24) | ((mask[1] & 0xFFL) << 16) | ((mask[2] & 0xFFL) << 8) | (mask[3] & 0xFFL);
+        mask64 = (m << 32) | m;
+        maskIndex = 0;
+        remaining = frameLength;
+        delivered = false;
+        headerLength = 0;
+        headerNeeded = 2;
+        inPayload = true;
+    }
+
+
+    /**
+     * Unmask the given range of the buffer in place, eight bytes at a time
+     * once the range is aligned on the masking key.
+     */
+    private void unmask(ByteBuffer in, int pos, int n) {
+        int end = pos + n;
+        while (maskIndex != 0 && pos < end) {
+            in.put(pos, (byte) (in.get(pos) ^ mask[maskIndex]));
+            pos++;
+            maskIndex = (maskIndex + 1) & 3;
+        }
+        if (end - pos >= 8) {
+            long m = (in.order() == ByteOrder.BIG_ENDIAN) ? mask64 : Long.reverseBytes(mask64);
+            while (end - pos >= 8) {
+                in.putLong(pos, in.getLong(pos) ^ m);
+                pos += 8;
+            }
+        }
+        while (pos < end) {
+            in.put(pos, (byte) (in.get(pos) ^ mask[maskIndex]));
+            pos++;
+            maskIndex = (maskIndex + 1) & 3;
+        }
+    }
+
+
+    /**
+     * Handle a chunk of unmasked payload of the current frame.
+     */
+    private void payload(ByteBuffer in, int pos, int n)
+        throws IOException {
+        if (opcode >= WebSocketFrame.OPCODE_CLOSE) {
+            copy(in, pos, control, controlLength, n);
+            controlLength += n;
+        } else if (fin && opcode != WebSocketFrame.OPCODE_CONTINUATION && n == frameLength && in.hasArray()) {
+            // The whole message is in the buffer: no need to copy it
+            delivered = true;
+            listener.onMessage(opcode == WebSocketFrame.OPCODE_TEXT, in.array(), in.arrayOffset() + pos, n);
+        } else {
+            if (messageLength + n > message.length) {
+                int size = Math.max(message.length * 2, 1024);
+                while (size < messageLength + n) {
+                    size *= 2;
+                }
+                byte[] buffer = new byte[Math.min(size, maxMessageSize)];
+                System.arraycopy(message, 0, buffer, 0, messageLength);
+                message = buffer;
+            }
+            copy(in, pos, message, messageLength, n);
+            messageLength += n;
+        }
+    }
+
+
+    private static void copy(ByteBuffer in, int pos, byte[] dest, int offset, int n) {
+        if (in.hasArray()) {
+            System.arraycopy(in.array(), in.arrayOffset() + pos, dest, offset, n);
+        } else {
+            // Bulk copy from a view, which leaves the position of the
+            // buffer unchanged
+            ByteBuffer dup = in.duplicate();
+            dup.position(pos);
+            dup.get(dest, offset, n);
+        }
+    }
+
+
+    /**
+     * The payload of the current frame is complete.
+     */
+    private void endFrame()
+        throws IOException {
+        inPayload = false;
+        if (opcode >= WebSocketFrame.OPCODE_CLOSE) {
+            int length = controlLength;
+            controlLength = 0;
+            listener.onControl(opcode, control, 0, length);
+        } else if (fin) {
+            boolean text = messageOpcode == WebSocketFrame.OPCODE_TEXT;
+            int length = messageLength;
+            messageOpcode = -1;
+            messageLength = 0;
+            try {
+                if (!delivered) {
+                    listener.onMessage(text, message, 0, length);
+                }
+            } finally {
+                if (message.length > RETAINED_MESSAGE_SIZE) {
+                    message = EMPTY;
+                }
+            }
+        }
+    }
+
+}
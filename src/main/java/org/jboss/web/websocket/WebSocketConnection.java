@@ -0,0 +1,466 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.websocket;
+
+import static org.jboss.web.WebMessages.MESSAGES;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.jboss.servlet.http.HttpEvent;
+import org.jboss.web.WebLogger;
+
+/**
+ * A WebSocket connection, running on top of an upgraded event connection.
+ * Messages may be sent from any thread: they are queued, and the queue is
+ * written by a container thread, either at the end of the event being
+ * processed, or after waking up the connection. Writes are only done when the
+ * connection is ready for writing, so that a slow client never blocks a
+ * container thread or the sender.
+ *
+ * @author Remy Maucherat
+ */
+public class WebSocketConnection implements FrameParser.Listener {
+
+    /**
+     * Size of the buffer used to read from the connection.
+     */
+    protected static final int READ_BUFFER_SIZE = 8 * 1024;
+
+
+    protected final HttpEvent event;
+    protected final WebSocketHandler handler;
+    protected final String subProtocol;
+
+    protected final FrameParser parser;
+    protected final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    protected final ByteBuffer readByteBuffer = ByteBuffer.wrap(readBuffer);
+    protected final CharsetDecoder decoder = WebSocketFrame.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    protected CharBuffer chars = CharBuffer.allocate(256);
+
+    /**
+     * Frames waiting to be written.
+     */
+    protected final Queue<WebSocketFrame> queue = new ConcurrentLinkedQueue<WebSocketFrame>();
+
+    /**
+     * Guards the use of the event by threads other than the container, as it
+     * must not be used after the end of the connection.
+     */
+    protected final Object lock = new Object();
+
+    /**
+     * Thread processing an event for this connection, which will write the
+     * queue without being woken up.
+     */
+    protected volatile Thread eventThread = null;
+
+    /**
+     * The last write could not complete, and a write event will follow.
+     */
+    protected volatile boolean writeBlocked = false;
+
+    protected volatile boolean closeQueued = false;
+    protected boolean closeWritten = false;
+    protected boolean closeReceived = false;
+    protected boolean closing = false;
+    protected boolean ended = false;
+    protected int closeCode = WebSocketFrame.CLOSE_ABNORMAL;
+    protected String closeReason = null;
+
+
+    public WebSocketConnection(HttpEvent event, WebSocketHandler handler, String subProtocol,
+            int maxMessageSize) {
+        this.event = event;
+        this.handler = handler;
+        this.subProtocol = subProtocol;
+        this.parser = new FrameParser(this, maxMessageSize);
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    public HttpServletRequest getRequest() {
+        return event.getHttpServletRequest();
+    }
+
+
+    /**
+     * @return the sub protocol selected during the handshake, or null
+     */
+    public String getSubProtocol() {
+        return subProtocol;
+    }
+
+
+    public WebSocketHandler getHandler() {
+        return handler;
+    }
+
+
+    /**
+     * @return false once a close frame has been sent or queued
+     */
+    public boolean isOpen() {
+        return !closeQueued;
+    }
+
+
+    // ---------------------------------------------------------------- Sending
+
+
+    /**
+     * Send a text message.
+     */
+    public void send(String message) {
+        send(WebSocketFrame.text(message));
+    }
+
+
+    /**
+     * Send a binary message.
+     */
+    public void send(byte[] data, int offset, int length) {
+        send(WebSocketFrame.binary(data, offset, length));
+    }
+
+
+    /**
+     * Send a ping.
+     */
+    public void ping(byte[] data, int offset, int length) {
+        send(WebSocketFrame.ping(data, offset, length));
+    }
+
+
+    /**
+     * Queue an encoded frame. The frame is not copied, and may be sent on
+     * other connections as well.
+     *
+     * @throws IllegalStateException if the connection is closing
+     */
+    public void send(WebSocketFrame frame) {
+        if (!offer(frame)) {
+            throw MESSAGES.webSocketClosed();
+        }
+    }
+
+
+    /**
+     * Start the closing handshake. The connection is closed once the client
+     * has answered.
+     */
+    public void close(int code, String reason) {
+        synchronized (lock) {
+            if (closeQueued) {
+                return;
+            }
+            closeQueued = true;
+        }
+        queue.offer(WebSocketFrame.close(code, reason));
+        wakeup();
+    }
+
+
+    /**
+     * Send the same frame to all the given connections. The message is
+     * encoded once, and connections which are closing are skipped.
+     */
+    public static void broadcast(Iterable<WebSocketConnection> connections, WebSocketFrame frame) {
+        for (WebSocketConnection connection : connections) {
+            connection.offer(frame);
+        }
+    }
+
+
+    /**
+     * Send the same text message to all the given connections.
+     */
+    public static void broadcast(Iterable<WebSocketConnection> connections, String message) {
+        broadcast(connections, WebSocketFrame.text(message));
+    }
+
+
+    protected boolean offer(WebSocketFrame frame) {
+        if (closeQueued) {
+            return false;
+        }
+        queue.offer(frame);
+        wakeup();
+        return true;
+    }
+
+
+    /**
+     * Have a container thread write the queue, unless the current thread is
+     * the one processing an event for the connection, or a write event is
+     * already expected.
+     */
+    protected void wakeup() {
+        if (eventThread == Thread.currentThread() || writeBlocked) {
+            return;
+        }
+        synchronized (lock) {
+            if (!ended) {
+                event.resume();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------- Container events
+
+
+    /**
+     * Process an event for the connection.
+     */
+    protected void event(HttpEvent.EventType type)
+        throws IOException {
+        eventThread = Thread.currentThread();
+        try {
+            switch (type) {
+            case BEGIN:
+                handler.onOpen(this);
+                break;
+            case READ:
+                read();
+                break;
+            case WRITE:
+                writeBlocked = false;
+                break;
+            case EOF:
+                // The client is gone without a closing handshake
+                closeReceived = true;
+                closeWritten = true;
+                closeEvent();
+                break;
+            case TIMEOUT:
+                if (closeQueued) {
+                    // No answer to the close frame
+                    closeWritten = true;
+                    closeReceived = true;
+                    closeEvent();
+                }
+                break;
+            default:
+                break;
+            }
+            write();
+        } catch (WebSocketException e) {
+            WebLogger.ROOT_LOGGER.debug(e.getMessage());
+            fail(e.getCloseCode(), null);
+            write();
+        } finally {
+            eventThread = null;
+        }
+        if (!queue.isEmpty()) {
+            // Catch messages queued while the event was ending
+            wakeup();
+        }
+    }
+
+
+    /**
+     * The connection has ended, and the event can no longer be used.
+     */
+    protected void end() {
+        synchronized (lock) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            closeQueued = true;
+        }
+        queue.clear();
+        handler.onClose(this, closeCode, closeReason);
+    }
+
+
+    /**
+     * Read and parse all the available bytes.
+     */
+    protected void read()
+        throws IOException {
+        ServletInputStream is = event.getHttpServletRequest().getInputStream();
+        while (is.available() > 0) {
+            int n = is.read(readBuffer, 0, readBuffer.length);
+            if (n <= 0) {
+                break;
+            }
+            if (closeReceived) {
+                // Discard anything sent after the close frame
+                continue;
+            }
+            readByteBuffer.clear();
+            readByteBuffer.limit(n);
+            parser.parse(readByteBuffer);
+        }
+    }
+
+
+    /**
+     * Write queued frames for as long as the connection accepts them.
+     */
+    protected void write()
+        throws IOException {
+        ServletOutputStream os = null;
+        WebSocketFrame frame;
+        while (!closeWritten && (frame = queue.peek()) != null) {
+            if (!event.isWriteReady()) {
+                writeBlocked = true;
+                break;
+            }
+            if (os == null) {
+                os = event.getHttpServletResponse().getOutputStream();
+            }
+            byte[] bytes = frame.getBytes();
+            os.write(bytes, 0, bytes.length);
+            queue.poll();
+            if (frame.getOpcode() == WebSocketFrame.OPCODE_CLOSE) {
+                closeWritten = true;
+            }
+        }
+        if (os != null) {
+            os.flush();
+        }
+        if (closeWritten) {
+            queue.clear();
+            if (closeReceived) {
+                closeEvent();
+            }
+        }
+    }
+
+
+    /**
+     * Fail the connection: send a close frame with the given code and close
+     * without waiting for the answer of the client.
+     */
+    protected void fail(int code, String reason) {
+        closeCode = code;
+        closeReason = reason;
+        closeReceived = true;
+        if (!closeQueued) {
+            closeQueued = true;
+            queue.offer(WebSocketFrame.close(code, reason));
+        }
+    }
+
+
+    protected void closeEvent()
+        throws IOException {
+        if (!closing) {
+            closing = true;
+            event.close();
+        }
+    }
+
+
+    // --------------------------------------------------- FrameParser.Listener
+
+
+    public void onMessage(boolean text, byte[] data, int offset, int length)
+        throws IOException {
+        if (text) {
+            handler.onMessage(this, decode(data, offset, length));
+        } else {
+            handler.onMessage(this, data, offset, length);
+        }
+    }
+
+
+    public void onControl(int opcode, byte[] data, int offset, int length)
+        throws IOException {
+        switch (opcode) {
+        case WebSocketFrame.OPCODE_PING:
+            if (!closeQueued) {
+                queue.offer(WebSocketFrame.pong(data, offset, length));
+            }
+            break;
+        case WebSocketFrame.OPCODE_PONG:
+            handler.onPong(this, data, offset, length);
+            break;
+        case WebSocketFrame.OPCODE_CLOSE:
+            int code = WebSocketFrame.CLOSE_NO_STATUS;
+            String reason = null;
+            if (length == 1) {
+                throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.invalidWebSocketCloseCode(-1));
+            } else if (length >= 2) {
+                code = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+                if (!isValidCloseCode(code)) {
+                    throw new WebSocketException(WebSocketFrame.CLOSE_PROTOCOL_ERROR, MESSAGES.invalidWebSocketCloseCode(code));
+                }
+                reason = decode(data, offset + 2, length - 2);
+            }
+            closeReceived = true;
+            closeCode = code;
+            closeReason = reason;
+            synchronized (lock) {
+                if (closeQueued) {
+                    return;
+                }
+                closeQueued = true;
+            }
+            // Echo the close code to complete the handshake
+            queue.offer(WebSocketFrame.close(code, null));
+            break;
+        }
+    }
+
+
+    /**
+     * Strictly decode UTF-8 text, reusing the decoding buffer.
+     */
+    protected String decode(byte[] data, int offset, int length)
+        throws WebSocketException {
+        if (length == 0) {
+            return "";
+        }
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(length);
+        }
+        chars.clear();
+        decoder.reset();
+        if (decoder.decode(ByteBuffer.wrap(data, offset, length), chars, true).isError()
+                || decoder.flush(chars).isError()) {
+            throw new WebSocketException(WebSocketFrame.CLOSE_INVALID_PAYLOAD, MESSAGES.invalidWebSocketUtf8());
+        }
+        chars.flip();
+        return chars.toString();
+    }
+
+
+    protected static boolean isValidCloseCode(int code) {
+        return (code >= 1000 && code <= 1003) || (code >= 1007 && code <= 1014)
+            || (code >= 3000 && code <= 4999);
+    }
+
+}
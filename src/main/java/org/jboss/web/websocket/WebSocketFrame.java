@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.websocket;
+
+import static org.jboss.web.WebMessages.MESSAGES;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * An encoded server WebSocket frame (RFC 6455). Frames sent by a server are
+ * never masked, so the encoded bytes do not depend on the connection and the
+ * same frame can be queued on any number of connections: this is what makes
+ * {@link WebSocketConnection#broadcast(Iterable, WebSocketFrame)} encode a
+ * message only once.
+ *
+ * @author Remy Maucherat
+ */
+public final class WebSocketFrame {
+
+    public static final int OPCODE_CONTINUATION = 0x0;
+    public static final int OPCODE_TEXT = 0x1;
+    public static final int OPCODE_BINARY = 0x2;
+    public static final int OPCODE_CLOSE = 0x8;
+    public static final int OPCODE_PING = 0x9;
+    public static final int OPCODE_PONG = 0xA;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_GOING_AWAY = 1001;
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_UNSUPPORTED_DATA = 1003;
+    public static final int CLOSE_NO_STATUS = 1005;
+    public static final int CLOSE_ABNORMAL = 1006;
+    public static final int CLOSE_INVALID_PAYLOAD = 1007;
+    public static final int CLOSE_POLICY_VIOLATION = 1008;
+    public static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+    public static final int CLOSE_INTERNAL_ERROR = 1011;
+
+    /**
+     * Maximum payload length of a control frame.
+     */
+    public static final int MAX_CONTROL_PAYLOAD = 125;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = new byte[0];
+
+
+    private final int opcode;
+    private final byte[] bytes;
+
+
+    private WebSocketFrame(int opcode, byte[] bytes) {
+        this.opcode = opcode;
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * Encode a text message in a single frame.
+     */
+    public static WebSocketFrame text(String message) {
+        byte[] payload = message.getBytes(UTF_8);
+        return encode(OPCODE_TEXT, payload, 0, payload.length);
+    }
+
+
+    /**
+     * Encode a binary message in a single frame.
+     */
+    public static WebSocketFrame binary(byte[] data) {
+        return encode(OPCODE_BINARY, data, 0, data.length);
+    }
+
+
+    /**
+     * Encode a binary message in a single frame.
+     */
+    public static WebSocketFrame binary(byte[] data, int offset, int length) {
+        return encode(OPCODE_BINARY, data, offset, length);
+    }
+
+
+    /**
+     * Encode a ping frame.
+     */
+    public static WebSocketFrame ping(byte[] data, int offset, int length) {
+        checkControlPayload(length);
+        return encode(OPCODE_PING, data, offset, length);
+    }
+
+
+    /**
+     * Encode a pong frame.
+     */
+    public static WebSocketFrame pong(byte[] data, int offset, int length) {
+        checkControlPayload(length);
+        return encode(OPCODE_PONG, data, offset, length);
+    }
+
+
+    /**
+     * Encode a close frame. {@link #CLOSE_NO_STATUS} produces a close frame
+     * without a body, as that code may not be sent on the wire.
+     */
+    public static WebSocketFrame close(int code, String reason) {
+        if (code == CLOSE_NO_STATUS) {
+            return encode(OPCODE_CLOSE, EMPTY, 0, 0);
+        }
+        byte[] text = (reason == null) ? EMPTY : reason.getBytes(UTF_8);
+        checkControlPayload(text.length + 2);
+        byte[] payload = new byte[text.length + 2];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, text.length);
+        return encode(OPCODE_CLOSE, payload, 0, payload.length);
+    }
+
+
+    /**
+     * Encode a final unmasked frame with the given opcode and payload.
+     */
+    public static WebSocketFrame encode(int opcode, byte[] data, int offset, int length) {
+        int headerLength = (length < 126) ? 2 : (length < 65536) ? 4 : 10;
+        byte[] bytes = new byte[headerLength + length];
+        bytes[0] = (byte) (0x80 | opcode);
+        if (headerLength == 2) {
+            bytes[1] = (byte) length;
+        } else if (headerLength == 4) {
+            bytes[1] = 126;
+            bytes[2] = (byte) (length >> 8);
+            bytes[3] = (byte) length;
+        } else {
+            bytes[1] = 127;
+            // Java arrays limit the length to 31 bits, so bytes 2 to 5 are 0
+            bytes[6] = (byte) (length >> 24);
+            bytes[7] = (byte) (length >> 16);
+            bytes[8] = (byte) (length >> 8);
+            bytes[9] = (byte) length;
+        }
+        System.arraycopy(data, offset, bytes, headerLength, length);
+        return new WebSocketFrame(opcode, bytes);
+    }
+
+
+    private static void checkControlPayload(int length) {
+        if (length > MAX_CONTROL_PAYLOAD) {
+            throw MESSAGES.invalidWebSocketControlPayload(length);
+        }
+    }
+
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+
+    /**
+     * @return the length of the frame on the wire, header included
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+
+
+    /**
+     * @return a read only view of the encoded frame; the bytes are shared
+     *         and never copied
+     */
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+}
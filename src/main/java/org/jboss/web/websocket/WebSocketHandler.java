@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.websocket;
+
+import java.io.IOException;
+
+/**
+ * Application callbacks for a WebSocket connection. The callbacks are always
+ * invoked by a container thread processing an event of the connection, so
+ * that a given handler is never called concurrently. Binary data passed to
+ * the callbacks is only valid until the callback returns.
+ *
+ * @author Remy Maucherat
+ */
+public interface WebSocketHandler {
+
+    /**
+     * The handshake has been sent and the connection can be used.
+     */
+    public void onOpen(WebSocketConnection connection)
+        throws IOException;
+
+    /**
+     * A complete text message was received.
+     */
+    public void onMessage(WebSocketConnection connection, String message)
+        throws IOException;
+
+    /**
+     * A complete binary message was received.
+     */
+    public void onMessage(WebSocketConnection connection, byte[] data, int offset, int length)
+        throws IOException;
+
+    /**
+     * A pong was received, usually as the answer to
+     * {@link WebSocketConnection#ping(byte[], int, int)}.
+     */
+    public void onPong(WebSocketConnection connection, byte[] data, int offset, int length)
+        throws IOException;
+
+    /**
+     * The connection is closed: this is the last callback, and no messages
+     * can be sent anymore.
+     *
+     * @param code the close code sent by the client, or
+     *        {@link WebSocketFrame#CLOSE_ABNORMAL} if the connection was lost
+     *        without a closing handshake
+     */
+    public void onClose(WebSocketConnection connection, int code, String reason);
+
+}
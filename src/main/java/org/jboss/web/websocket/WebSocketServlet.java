@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.web.websocket;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.util.Base64;
+import org.jboss.servlet.http.HttpEvent;
+import org.jboss.servlet.http.HttpEventServlet;
+import org.jboss.servlet.http.UpgradableHttpServletResponse;
+import org.jboss.web.WebLogger;
+
+/**
+ * Base class for WebSocket (RFC 6455) endpoints. The servlet performs the
+ * opening handshake, upgrades the connection, and then turns the events of the
+ * connection into {@link WebSocketHandler} callbacks. Subclasses only have to
+ * provide the handler for each accepted connection.
+ * <p>
+ * Init parameters:
+ * <ul>
+ * <li>maxMessageSize - largest message accepted, after reassembly, default
+ *  65536 bytes</li>
+ * <li>timeout - idle timeout of the connections in ms, default 300000</li>
+ * </ul>
+ *
+ * @author Remy Maucherat
+ */
+public abstract class WebSocketServlet extends HttpServlet implements HttpEventServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Request attribute holding the {@link WebSocketConnection}.
+     */
+    public static final String CONNECTION_ATTR = "org.jboss.web.websocket.WebSocketConnection";
+
+    protected static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    protected static final String WS_VERSION = "13";
+
+
+    protected int maxMessageSize = 64 * 1024;
+
+    protected int timeout = 300000;
+
+
+    public void init()
+        throws ServletException {
+        String value = getServletConfig().getInitParameter("maxMessageSize");
+        if (value != null) {
+            maxMessageSize = Integer.parseInt(value);
+        }
+        value = getServletConfig().getInitParameter("timeout");
+        if (value != null) {
+            timeout = Integer.parseInt(value);
+        }
+    }
+
+
+    /**
+     * Create the handler for a new connection.
+     *
+     * @param request the handshake request
+     * @param subProtocol the sub protocol selected for the connection, or null
+     * @return the handler, or null to refuse the connection
+     */
+    protected abstract WebSocketHandler createHandler(HttpServletRequest request, String subProtocol);
+
+
+    /**
+     * Select one of the sub protocols requested by the client. By default,
+     * no sub protocol is used.
+     */
+    protected String selectSubProtocol(HttpServletRequest request, List<String> subProtocols) {
+        return null;
+    }
+
+
+    /**
+     * Check the origin of the handshake request. By default, all origins
+     * are accepted.
+     */
+    protected boolean verifyOrigin(HttpServletRequest request, String origin) {
+        return true;
+    }
+
+
+    public void event(HttpEvent event)
+        throws IOException, ServletException {
+        HttpServletRequest request = event.getHttpServletRequest();
+        if (event.getType() == HttpEvent.EventType.BEGIN) {
+            if (!handshake(event)) {
+                event.close();
+                return;
+            }
+        }
+        WebSocketConnection connection = (WebSocketConnection) request.getAttribute(CONNECTION_ATTR);
+        if (connection == null) {
+            return;
+        }
+        switch (event.getType()) {
+        case END:
+            connection.end();
+            break;
+        case ERROR:
+            connection.end();
+            event.close();
+            break;
+        default:
+            try {
+                connection.event(event.getType());
+            } catch (RuntimeException e) {
+                WebLogger.ROOT_LOGGER.errorProcessingWebSocketEvent(e);
+                connection.fail(WebSocketFrame.CLOSE_INTERNAL_ERROR, null);
+                connection.write();
+            }
+        }
+    }
+
+
+    /**
+     * Validate the handshake request and upgrade the connection.
+     *
+     * @return false if the request was refused
+     */
+    protected boolean handshake(HttpEvent event)
+        throws IOException {
+        HttpServletRequest request = event.getHttpServletRequest();
+        HttpServletResponse response = event.getHttpServletResponse();
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (!"GET".equals(request.getMethod()) || key == null
+                || !headerContains(request, "Upgrade", "websocket")
+                || !headerContains(request, "Connection", "upgrade")
+                || !(response instanceof UpgradableHttpServletResponse)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return false;
+        }
+        if (!WS_VERSION.equals(request.getHeader("Sec-WebSocket-Version"))) {
+            response.setHeader("Sec-WebSocket-Version", WS_VERSION);
+            response.sendError(426);
+            return false;
+        }
+        String origin = request.getHeader("Origin");
+        if (origin != null && !verifyOrigin(request, origin)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        List<String> subProtocols = headerTokens(request, "Sec-WebSocket-Protocol");
+        String subProtocol = subProtocols.isEmpty() ? null : selectSubProtocol(request, subProtocols);
+        WebSocketHandler handler = createHandler(request, subProtocol);
+        if (handler == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+
+        event.setTimeout(timeout);
+        response.setHeader("Upgrade", "websocket");
+        response.setHeader("Connection", "Upgrade");
+        response.setHeader("Sec-WebSocket-Accept", accept(key));
+        if (subProtocol != null) {
+            response.setHeader("Sec-WebSocket-Protocol", subProtocol);
+        }
+        ((UpgradableHttpServletResponse) response).sendUpgrade();
+
+        request.setAttribute(CONNECTION_ATTR, createConnection(event, handler, subProtocol));
+        return true;
+    }
+
+
+    /**
+     * Create the connection object. This may be overridden to use a
+     * subclass of {@link WebSocketConnection}.
+     */
+    protected WebSocketConnection createConnection(HttpEvent event, WebSocketHandler handler,
+            String subProtocol) {
+        return new WebSocketConnection(event, handler, subProtocol, maxMessageSize);
+    }
+
+
+    /**
+     * Compute the Sec-WebSocket-Accept value for the given key.
+     */
+    protected static String accept(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((key.trim() + WS_GUID).getBytes("ISO-8859-1"));
+            return new String(Base64.encode(hash), "ISO-8859-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    protected static boolean headerContains(HttpServletRequest request, String name, String token) {
+        for (String value : headerTokens(request, name)) {
+            if (value.equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    protected static List<String> headerTokens(HttpServletRequest request, String name) {
+        List<String> tokens = new ArrayList<String>();
+        Enumeration<String> values = request.getHeaders(name);
+        while (values.hasMoreElements()) {
+            StringTokenizer tokenizer = new StringTokenizer(values.nextElement(), ",");
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken().trim();
+                if (token.length() > 0) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.UDecoder;
+import org.junit.Test;
+
+/**
+ * Compares the single pass decoding and normalization of the URI with the
+ * %xx decoding, normalization, conversion and check which it replaces, on
+ * random URIs built from the characters which matter to them.
+ */
+public class TestCoyoteAdapterNormalize {
+
+    private static final int RUNS = 200000;
+
+    private static final String[] PARTS = { "/", "/", "/", ".", ".", "..", "a",
+        "bc", "%2e", "%2E", "%2f", "%5c", "%5C", "\\", "%00", "%25", "%", "%4",
+        "%zz", "%41", "%e9", "%C3%A9", "*", "+", "~", ";", "\u00e9" };
+
+    @Test
+    public void testExamples() throws Exception {
+        assertNormalized("/a/c", "/a/b/../c");
+        assertNormalized("/c", "/a/b/../../c");
+        assertNormalized("/a/", "/a/b/..");
+        assertNormalized("/a/", "/a/.");
+        assertNormalized("/", "/.");
+        assertNormalized("/a/b", "//a/.//./b");
+        assertNormalized("/a/b/c", "/a/%2e/b/%2E%2e/b/c");
+        assertNormalized("/a/...", "/a/...");
+        assertNormalized("/a/%", "/a/%25");
+        assertNormalized("*", "*");
+        assertNormalized(null, "/..");
+        assertNormalized(null, "/a/../..");
+        assertNormalized(null, "a/b");
+        assertNormalized(null, "/a%00b");
+        assertNormalized(null, "**");
+    }
+
+    @Test
+    public void testCharsetDecoding() throws Exception {
+        MessageBytes mb = MessageBytes.newInstance();
+        byte[] b = toBytes("/a/./b%C3%A9", 0, 0);
+        mb.setBytes(b, 0, b.length);
+        assertTrue(CoyoteAdapter.decodeNormalize(mb, false));
+        // Left as bytes for the charset of the URI
+        assertEquals(MessageBytes.T_BYTES, mb.getType());
+        assertEquals("/a/b\u00c3\u00a9", mb.getByteChunk().toString());
+        b = toBytes("/a/./b", 0, 0);
+        mb.setBytes(b, 0, b.length);
+        assertTrue(CoyoteAdapter.decodeNormalize(mb, false));
+        assertEquals(MessageBytes.T_CHARS, mb.getType());
+        assertEquals("/a/b", mb.toString());
+    }
+
+    @Test
+    public void testEquivalence() throws Exception {
+        Random random = new Random(20121018L);
+        for (int i = 0; i < RUNS; i++) {
+            String uri = randomURI(random);
+            String expected = oldNormalize(uri);
+            String actual = decodeNormalize(uri, 0);
+            assertEquals(uri, expected, actual);
+            // The offset of the URI in its buffer does not matter
+            assertEquals(uri, actual, decodeNormalize(uri, 1 + random.nextInt(16)));
+        }
+    }
+
+    @Test
+    public void testNormalized() throws Exception {
+        Random random = new Random(20121019L);
+        for (int i = 0; i < RUNS; i++) {
+            String uri = randomURI(random);
+            String actual = decodeNormalize(uri, 0);
+            if (actual == null || actual.startsWith("!") || actual.equals("*")) {
+                continue;
+            }
+            assertTrue(uri, actual.startsWith("/"));
+            MessageBytes mb = MessageBytes.newInstance();
+            mb.setChars(actual.toCharArray(), 0, actual.length());
+            assertTrue(uri, CoyoteAdapter.checkNormalize(mb));
+        }
+    }
+
+    private static void assertNormalized(String expected, String uri)
+        throws Exception {
+        assertEquals(uri, expected, decodeNormalize(uri, 0));
+        assertEquals(uri, expected, oldNormalize(uri));
+    }
+
+    private static String randomURI(Random random) {
+        StringBuilder uri = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            uri.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return uri.toString();
+    }
+
+    private static byte[] toBytes(String uri, int offset, int extra) {
+        byte[] b = new byte[offset + uri.length() + extra];
+        for (int i = 0; i < uri.length(); i++) {
+            b[offset + i] = (byte) uri.charAt(i);
+        }
+        return b;
+    }
+
+    /**
+     * Return the normalized URI, null if it is invalid, or the message of
+     * the decoding error prefixed with '!'.
+     */
+    private static String decodeNormalize(String uri, int offset)
+        throws Exception {
+        MessageBytes mb = MessageBytes.newInstance();
+        mb.setBytes(toBytes(uri, offset, 0), offset, uri.length());
+        try {
+            if (!CoyoteAdapter.decodeNormalize(mb, true)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return "!" + e.getMessage();
+        }
+        assertEquals(MessageBytes.T_CHARS, mb.getType());
+        String chars = mb.toString();
+        ByteChunk bc = mb.getByteChunk();
+        assertEquals(chars, new String(bc.getBytes(), bc.getStart(),
+                bc.getLength(), "ISO-8859-1"));
+        return chars;
+    }
+
+    /**
+     * Same as decodeNormalize, using the previous separate passes.
+     */
+    private static String oldNormalize(String uri) throws Exception {
+        MessageBytes mb = MessageBytes.newInstance();
+        // The normalization may append a '/' after the URI
+        mb.setBytes(toBytes(uri, 0, 1), 0, uri.length());
+        try {
+            new UDecoder().convert(mb, false);
+        } catch (IOException e) {
+            return "!" + e.getMessage();
+        }
+        if (!CoyoteAdapter.normalize(mb)) {
+            return null;
+        }
+        ByteChunk bc = mb.getByteChunk();
+        String chars = new String(bc.getBytes(), bc.getStart(),
+                bc.getLength(), "ISO-8859-1");
+        mb.setChars(chars.toCharArray(), 0, chars.length());
+        if (!CoyoteAdapter.checkNormalize(mb)) {
+            return null;
+        }
+        return chars;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Decodes the examples of RFC 7541, appendix C, and checks that the encoded
+ * header blocks decode to the original fields.
+ */
+public class TestHpack {
+
+    /**
+     * RFC 7541, C.4: requests with Huffman coding.
+     */
+    @Test
+    public void testRequestExamples() throws Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        assertHeaders(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com");
+        assertTable(decoder, 1, 57);
+        assertHeaders(decode(decoder, "828684be5886a8eb10649cbf"),
+                ":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com", "cache-control", "no-cache");
+        assertTable(decoder, 2, 110);
+        assertHeaders(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+                ":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value");
+        assertTable(decoder, 3, 164);
+    }
+
+    /**
+     * RFC 7541, C.6: responses with Huffman coding, and a table of 256
+     * bytes where the entries get evicted.
+     */
+    @Test
+    public void testResponseExamples() throws Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        decoder.setMaxTableSize(256);
+        assertHeaders(decode(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166"
+                + "e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3"),
+                ":status", "302", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com");
+        assertTable(decoder, 4, 222);
+        assertHeaders(decode(decoder, "4883640effc1c0bf"),
+                ":status", "307", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com");
+        assertTable(decoder, 4, 222);
+        assertHeaders(decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a83"
+                + "9bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f958731"
+                + "6065c003ed4ee5b1063d5007"),
+                ":status", "200", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+                "content-encoding", "gzip",
+                "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+        assertTable(decoder, 3, 215);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                // Sent as a table size update at the start of the next block
+                encoder.setMaxTableSize(100);
+            }
+            encoder.begin();
+            encoder.encodeStatus(200);
+            encoder.encodeStatus(302);
+            encoder.encodeHeader("content-type", "text/html", true);
+            encoder.encodeHeader("x-custom", "value " + i, true);
+            encoder.encodeHeader("x-large", large.toString(), true);
+            encoder.encodeHeader("x-binary", "\u0000\u00ff\r\n", false);
+            encoder.encodeHeader("set-cookie", "a=b", false);
+            assertHeaders(decode(decoder, encoder.getBuffer(), encoder.getLength()),
+                    ":status", "200", ":status", "302", "content-type", "text/html",
+                    "x-custom", "value " + i, "x-large", large.toString(),
+                    "x-binary", "\u0000\u00ff\r\n", "set-cookie", "a=b");
+        }
+        assertEquals(100, decoder.table.getMaxSize());
+    }
+
+    @Test
+    public void testHuffman() throws Exception {
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        byte[] encoded = new byte[Hpack.huffmanLength(all, 0, all.length)];
+        assertEquals(encoded.length, Hpack.huffmanEncode(all, 0, all.length, encoded, 0));
+        byte[] decoded = new byte[8 * encoded.length / 5 + 1];
+        assertEquals(all.length, Hpack.huffmanDecode(encoded, 0, encoded.length, decoded, 0));
+        for (int i = 0; i < all.length; i++) {
+            assertEquals(all[i], decoded[i]);
+        }
+    }
+
+    @Test
+    public void testInvalidBlocks() {
+        // Index 0, index past the dynamic table, padding which is not a prefix
+        // of EOS, and a truncated string
+        String[] blocks = { "80", "be", "4181" + "00", "418a" + "f1e3" };
+        for (String block : blocks) {
+            try {
+                decode(new HpackDecoder(), block);
+                fail(block);
+            } catch (Http2Exception e) {
+                assertEquals(Constants.COMPRESSION_ERROR, e.getError());
+            }
+        }
+    }
+
+    private static void assertHeaders(List<String> headers, String... expected) {
+        assertArrayEquals(expected, headers.toArray(new String[headers.size()]));
+    }
+
+    private static void assertTable(HpackDecoder decoder, int length, int size) {
+        assertEquals(length, decoder.table.length());
+        int total = 0;
+        for (int i = 1; i <= length; i++) {
+            total += decoder.table.getName(i).length + decoder.table.getValue(i).length
+                    + Hpack.ENTRY_OVERHEAD;
+        }
+        assertEquals(size, total);
+    }
+
+    private static List<String> decode(HpackDecoder decoder, String hex) throws Http2Exception {
+        byte[] block = new byte[hex.length() / 2];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return decode(decoder, block, block.length);
+    }
+
+    private static List<String> decode(HpackDecoder decoder, byte[] block, int length)
+            throws Http2Exception {
+        final List<String> headers = new ArrayList<String>();
+        decoder.decode(block, 0, length, new HpackDecoder.HeaderListener() {
+            public void header(byte[] name, int nameStart, int nameLength, byte[] value,
+                    int valueStart, int valueLength) {
+                headers.add(string(name, nameStart, nameLength));
+                headers.add(string(value, valueStart, valueLength));
+            }
+        });
+        return headers;
+    }
+
+    private static String string(byte[] b, int off, int len) {
+        char[] c = new char[len];
+        for (int i = 0; i < len; i++) {
+            c[i] = (char) (b[off + i] & 0xff);
+        }
+        return new String(c);
+    }
+
+}
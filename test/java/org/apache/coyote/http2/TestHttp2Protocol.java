@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coyote.http2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.SocketStatus;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Exchanges frames with a running {@link Http2Protocol}: the connection
+ * preface, pings, connection errors, and the flow control of the responses.
+ */
+public class TestHttp2Protocol {
+
+    private static Http2Protocol protocol;
+    private static int port;
+
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+
+    /**
+     * Answers the requests for /size/n with n bytes.
+     */
+    private static class SizeAdapter implements Adapter {
+
+        public void service(Request req, Response res) throws Exception {
+            String uri = req.requestURI().toString();
+            int n = Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1));
+            byte[] b = new byte[n];
+            for (int i = 0; i < n; i++) {
+                b[i] = (byte) ('a' + i % 26);
+            }
+            res.setStatus(200);
+            res.setContentLength(n);
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(b, 0, n);
+            res.doWrite(chunk);
+        }
+
+        public boolean event(Request req, Response res, SocketStatus status) {
+            return false;
+        }
+    }
+
+    @BeforeClass
+    public static void start() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        port = ss.getLocalPort();
+        ss.close();
+        protocol = new Http2Protocol();
+        protocol.setPort(port);
+        protocol.setAddress(InetAddress.getByName("127.0.0.1"));
+        protocol.setAdapter(new SizeAdapter());
+        protocol.init();
+        protocol.start();
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        protocol.destroy();
+    }
+
+    @Before
+    public void connect() throws Exception {
+        socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(5000);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    @After
+    public void disconnect() throws Exception {
+        socket.close();
+    }
+
+    @Test
+    public void testPing() throws Exception {
+        preface(new byte[0]);
+        byte[] payload = "12345678".getBytes("ISO-8859-1");
+        writeFrame(Constants.PING, 0, 0, payload);
+        Frame frame = readFrame();
+        assertEquals(Constants.PING, frame.type);
+        assertEquals(Constants.FLAG_ACK, frame.flags);
+        assertArrayEquals(payload, frame.payload);
+    }
+
+    @Test
+    public void testConnectionError() throws Exception {
+        preface(new byte[0]);
+        // DATA frames cannot be sent on the connection stream
+        writeFrame(Constants.DATA, 0, 0, new byte[1]);
+        Frame frame = readFrame();
+        assertEquals(Constants.GOAWAY, frame.type);
+        assertEquals(Constants.PROTOCOL_ERROR, getInt(frame.payload, 4));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testInvalidPreface() throws Exception {
+        out.write("GET / HTTP/1.1\r\n\r\n".getBytes("ISO-8859-1"));
+        out.flush();
+        Frame frame = readFrame();
+        assertEquals(Constants.SETTINGS, frame.type);
+        frame = readFrame();
+        assertEquals(Constants.GOAWAY, frame.type);
+        assertEquals(Constants.PROTOCOL_ERROR, getInt(frame.payload, 4));
+    }
+
+    @Test
+    public void testFlowControl() throws Exception {
+        // Stream windows of 1000 bytes
+        byte[] settings = new byte[6];
+        settings[1] = Constants.SETTINGS_INITIAL_WINDOW_SIZE;
+        putInt(settings, 2, 1000);
+        preface(settings);
+        request(1, "/size/100000");
+
+        Frame frame = readFrame();
+        assertEquals(Constants.HEADERS, frame.type);
+        assertEquals(1000, readData(1));
+
+        // The connection window now stops the stream
+        writeFrame(Constants.WINDOW_UPDATE, 0, 1, windowUpdate(200000));
+        assertEquals(Constants.DEFAULT_WINDOW_SIZE - 1000, readData(1));
+
+        writeFrame(Constants.WINDOW_UPDATE, 0, 0, windowUpdate(100000));
+        assertEquals(100000 - Constants.DEFAULT_WINDOW_SIZE, readData(1));
+    }
+
+    @Test
+    public void testFlowControlError() throws Exception {
+        preface(new byte[0]);
+        writeFrame(Constants.WINDOW_UPDATE, 0, 0, windowUpdate(Integer.MAX_VALUE));
+        Frame frame = readFrame();
+        assertEquals(Constants.GOAWAY, frame.type);
+        assertEquals(Constants.FLOW_CONTROL_ERROR, getInt(frame.payload, 4));
+    }
+
+    /**
+     * Exchange the connection prefaces and their acknowledgements.
+     */
+    private void preface(byte[] settings) throws IOException {
+        out.write(Constants.PREFACE);
+        writeFrame(Constants.SETTINGS, 0, 0, settings);
+        boolean settingsReceived = false;
+        boolean ackReceived = false;
+        while (!settingsReceived || !ackReceived) {
+            Frame frame = readFrame();
+            if (frame.type == Constants.SETTINGS && frame.flags == 0) {
+                writeFrame(Constants.SETTINGS, Constants.FLAG_ACK, 0, new byte[0]);
+                settingsReceived = true;
+            } else if (frame.type == Constants.SETTINGS) {
+                ackReceived = true;
+            } else if (frame.type != Constants.WINDOW_UPDATE) {
+                fail("Unexpected frame " + frame.type);
+            }
+        }
+    }
+
+    private void request(int streamId, String path) throws IOException {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.begin();
+        encoder.encodeHeader(":method", "GET", false);
+        encoder.encodeHeader(":scheme", "http", false);
+        encoder.encodeHeader(":path", path, false);
+        encoder.encodeHeader(":authority", "localhost", false);
+        byte[] block = new byte[encoder.getLength()];
+        System.arraycopy(encoder.getBuffer(), 0, block, 0, block.length);
+        writeFrame(Constants.HEADERS, Constants.FLAG_END_HEADERS | Constants.FLAG_END_STREAM,
+                streamId, block);
+    }
+
+    /**
+     * Read the DATA frames of a stream until the end of the stream, or until
+     * no frame is received for a while.
+     *
+     * @return the number of bytes received
+     */
+    private int readData(int streamId) throws IOException {
+        int total = 0;
+        socket.setSoTimeout(500);
+        try {
+            while (true) {
+                Frame frame = readFrame();
+                if (frame.type != Constants.DATA) {
+                    continue;
+                }
+                assertEquals(streamId, frame.streamId);
+                total += frame.payload.length;
+                if ((frame.flags & Constants.FLAG_END_STREAM) != 0) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // The window is exhausted
+        } finally {
+            socket.setSoTimeout(5000);
+        }
+        return total;
+    }
+
+    private static class Frame {
+        int type;
+        int flags;
+        int streamId;
+        byte[] payload;
+    }
+
+    private Frame readFrame() throws IOException {
+        Frame frame = new Frame();
+        int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+        frame.type = in.readUnsignedByte();
+        frame.flags = in.readUnsignedByte();
+        frame.streamId = in.readInt() & 0x7fffffff;
+        frame.payload = new byte[length];
+        in.readFully(frame.payload);
+        return frame;
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(payload.length >>> 16);
+        frame.write(payload.length >>> 8);
+        frame.write(payload.length);
+        frame.write(type);
+        frame.write(flags);
+        byte[] id = new byte[4];
+        putInt(id, 0, streamId);
+        frame.write(id);
+        frame.write(payload);
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private static byte[] windowUpdate(int increment) {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        return payload;
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8
+                | (b[off + 3] & 0xff);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.buf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the word at a time scans with a byte at a time search, for all
+ * the alignments of the start and end of the range.
+ */
+public class TestByteScanner {
+
+    private static final byte[] ALPHABET = "aZ0 \t\r\n?\u0000".getBytes();
+
+    @Test
+    public void testUnalignedRanges() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            byte[] b = new byte[40];
+            for (int i = 0; i < b.length; i++) {
+                // Mostly plain bytes, so that the matches fall anywhere in a word
+                if (random.nextInt(8) == 0) {
+                    b[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+                } else if (random.nextInt(16) == 0) {
+                    b[i] = (byte) (0x80 | random.nextInt(0x80));
+                } else {
+                    b[i] = (byte) ('a' + random.nextInt(26));
+                }
+            }
+            for (int start = 0; start < 16; start++) {
+                for (int end = start; end <= b.length; end++) {
+                    check(b, start, end);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoMatch() {
+        byte[] b = new byte[64];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = 'x';
+        }
+        for (int start = 0; start < 16; start++) {
+            check(b, start, b.length);
+        }
+    }
+
+    @Test
+    public void testEndPastArray() {
+        byte[] b = new byte[20];
+        try {
+            ByteScanner.indexOf(b, 3, b.length + 1, (byte) '\n');
+            fail();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    private void check(byte[] b, int start, int end) {
+        String range = " [" + start + ", " + end + ")";
+        for (int c = 0; c < ALPHABET.length; c++) {
+            assertEquals("indexOf " + ALPHABET[c] + range,
+                    indexOf(b, start, end, ALPHABET[c]),
+                    ByteScanner.indexOf(b, start, end, ALPHABET[c]));
+        }
+        assertEquals("indexOfLineEnd" + range,
+                indexOf(b, start, end, "\r\n"), ByteScanner.indexOfLineEnd(b, start, end));
+        assertEquals("indexOfWhitespace" + range,
+                indexOf(b, start, end, " \t"), ByteScanner.indexOfWhitespace(b, start, end));
+        assertEquals("indexOfUriDelimiter" + range,
+                indexOf(b, start, end, " \t\r\n?"), ByteScanner.indexOfUriDelimiter(b, start, end));
+        int nonAscii = -1;
+        for (int i = start; i < end; i++) {
+            if (b[i] < 0) {
+                nonAscii = i;
+                break;
+            }
+        }
+        assertEquals("indexOfNonAscii" + range, nonAscii, ByteScanner.indexOfNonAscii(b, start, end));
+    }
+
+    private static int indexOf(byte[] b, int start, int end, byte c) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] b, int start, int end, String chars) {
+        for (int i = start; i < end; i++) {
+            if (chars.indexOf(b[i]) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tomcat.util.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.UDecoder;
+import org.junit.Test;
+
+/**
+ * Compares the lazy decoding of the parameters with the eager parser.
+ */
+public class TestParameters {
+
+    @Test
+    public void testValues() {
+        for (boolean lazy : new boolean[] { true, false }) {
+            Parameters parameters = parse("a=1&b=2&a=3", lazy);
+            assertArrayEquals(new String[] { "1", "3" }, parameters.getParameterValues("a"));
+            assertEquals("2", parameters.getParameter("b"));
+            assertNull(parameters.getParameterValues("c"));
+        }
+    }
+
+    @Test
+    public void testInvalidValue() {
+        for (boolean lazy : new boolean[] { true, false }) {
+            Parameters parameters = parse("a=1&a=%zz&b=%zz", lazy);
+            assertArrayEquals(new String[] { "1" }, parameters.getParameterValues("a"));
+            assertEquals("1", parameters.getParameter("a"));
+            assertNull(parameters.getParameterValues("b"));
+            assertNull(parameters.getParameter("b"));
+        }
+    }
+
+    private Parameters parse(String query, boolean lazy) {
+        MessageBytes queryMB = MessageBytes.newInstance();
+        queryMB.setString(query);
+        queryMB.toBytes();
+        Parameters parameters = new Parameters();
+        parameters.setLazy(lazy);
+        parameters.setURLDecoder(new UDecoder());
+        parameters.setQuery(queryMB);
+        parameters.setQueryStringEncoding("UTF-8");
+        return parameters;
+    }
+
+}
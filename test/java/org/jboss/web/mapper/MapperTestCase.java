@@ -35,6 +35,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.mapper.Mapper;
+import org.apache.tomcat.util.http.mapper.MappingData;
+
 public class MapperTestCase extends TestCase {
 
     /**
@@ -65,6 +69,149 @@ public class MapperTestCase extends TestCase {
     public void tearDown() {
     }
 
+    public void testExactMapping() throws Exception {
+        MappingData mappingData = map(createMapper(), "/foo/bar/blh");
+        assertEquals("wrapper2", mappingData.wrapper);
+        assertEquals("/foo/bar", mappingData.contextPath.toString());
+        assertEquals("/blh", mappingData.wrapperPath.toString());
+        assertTrue(mappingData.pathInfo.isNull());
+    }
+
+    public void testWildcardMapping() throws Exception {
+        Mapper mapper = createMapper();
+        MappingData mappingData = map(mapper, "/foo/bar/blah/bobou/foo");
+        assertEquals("wrapper5", mappingData.wrapper);
+        assertEquals("/blah/bobou", mappingData.wrapperPath.toString());
+        assertEquals("/foo", mappingData.pathInfo.toString());
+        mappingData = map(mapper, "/foo/bar/blah/bou");
+        assertEquals("wrapper4", mappingData.wrapper);
+        assertTrue(mappingData.pathInfo.isNull());
+        // The longest prefix made of complete segments
+        mappingData = map(mapper, "/foo/bar/blah/bouh/x.jsp");
+        assertEquals("wrapper3", mappingData.wrapper);
+        mappingData = map(mapper, "/foo/bar/blah/bou/deep/er/x.jsp");
+        assertEquals("wrapper7", mappingData.wrapper);
+        assertEquals("/blah/bou/deep", mappingData.wrapperPath.toString());
+        assertEquals("/er/x.jsp", mappingData.pathInfo.toString());
+    }
+
+    public void testExtensionMapping() throws Exception {
+        Mapper mapper = createMapper();
+        MappingData mappingData = map(mapper, "/foo/bar/a/b/c.htm");
+        assertEquals("wrapper6", mappingData.wrapper);
+        assertEquals("/a/b/c.htm", mappingData.wrapperPath.toString());
+        mappingData = map(mapper, "/foo/bar/a.jsp/b");
+        assertEquals("wrapper1", mappingData.wrapper);
+    }
+
+    public void testRemoveWrapper() throws Exception {
+        Mapper mapper = createMapper();
+        assertEquals("wrapper5", map(mapper, "/foo/bar/blah/bobou/foo").wrapper);
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/*");
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "*.htm");
+        assertEquals("wrapper1", map(mapper, "/foo/bar/blah/bobou/foo").wrapper);
+        assertEquals("wrapper1", map(mapper, "/foo/bar/a/b/c.htm").wrapper);
+        assertEquals("wrapper4", map(mapper, "/foo/bar/blah/bou/foo").wrapper);
+    }
+
+    public void testManyMappings() throws Exception {
+        Mapper mapper = createPortalMapper();
+        assertEquals("/app7/page307", map(mapper, "/portal/app7/page307").wrapper);
+        assertEquals("/svc3/module123/*", map(mapper, "/portal/svc3/module123/a/b").wrapper);
+        assertEquals("*.ext42", map(mapper, "/portal/x/y/file.ext42").wrapper);
+        assertEquals("default", map(mapper, "/portal/svc3/module124/a").wrapper);
+    }
+
+    public void testCachedMapping() throws Exception {
+        Mapper mapper = createMapper(16);
+        MappingData mappingData;
+        for (int i = 0; i < 2; i++) {
+            mappingData = map(mapper, "/foo/bar/blah/bobou/foo");
+            assertEquals("wrapper5", mappingData.wrapper);
+            assertEquals("/blah/bobou", mappingData.wrapperPath.toString());
+            assertEquals("/foo", mappingData.pathInfo.toString());
+            mappingData = map(mapper, "/foo/bar/blh");
+            assertEquals("wrapper2", mappingData.wrapper);
+            assertTrue(mappingData.pathInfo.isNull());
+        }
+        // Changes of the mapping invalidate the cached results
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/foo", "wrapper8");
+        assertEquals("wrapper8", map(mapper, "/foo/bar/blah/bobou/foo").wrapper);
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "/blh");
+        assertEquals("wrapper1", map(mapper, "/foo/bar/blh").wrapper);
+        mapper.addContext("iowejoiejfoiew", "/foo/bar/blh", "context4", new String[0], null);
+        assertEquals("context4", map(mapper, "/foo/bar/blh").context);
+        mapper.removeContext("iowejoiejfoiew", "/foo/bar/blh");
+        mappingData = map(mapper, "/foo/bar/blh");
+        assertEquals("context2", mappingData.context);
+        assertEquals("wrapper1", mappingData.wrapper);
+    }
+
+    private Mapper createMapper() {
+        return createMapper(0);
+    }
+
+    private Mapper createMapper(int cacheSize) {
+        Mapper mapper = new Mapper();
+        mapper.setCacheSize(cacheSize);
+        mapper.addHost("iowejoiejfoiew", new String[0], "blah7");
+        mapper.setDefaultHostName("iowejoiejfoiew");
+
+        String[] welcomes = new String[2];
+        welcomes[0] = "boo/baba";
+        welcomes[1] = "bobou";
+
+        mapper.addContext("iowejoiejfoiew", "", "context0", new String[0], null);
+        mapper.addContext("iowejoiejfoiew", "/foo", "context1", new String[0], null);
+        mapper.addContext("iowejoiejfoiew", "/foo/bar", "context2", welcomes, null);
+        mapper.addContext("iowejoiejfoiew", "/foo/bar/bla", "context3", new String[0], null);
+
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/fo/*", "wrapper0");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/", "wrapper1");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blh", "wrapper2");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.jsp", "wrapper3");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bou/*", "wrapper4");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bobou/*", "wrapper5");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "*.htm", "wrapper6");
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "/blah/bou/deep/*", "wrapper7");
+        return mapper;
+    }
+
+    private Mapper createPortalMapper() {
+        Mapper mapper = new Mapper();
+        mapper.addHost("localhost", new String[0], "localhost");
+        mapper.setDefaultHostName("localhost");
+        mapper.addContext("localhost", "/portal", "portal",
+                new String[] { "index.html", "index.jsp" }, null);
+        for (int i = 0; i < 500; i++) {
+            String path = "/app" + (i % 25) + "/page" + i;
+            mapper.addWrapper("localhost", "/portal", path, path);
+        }
+        for (int i = 0; i < 250; i++) {
+            String path = "/svc" + (i % 10) + "/module" + i + "/*";
+            mapper.addWrapper("localhost", "/portal", path, path);
+        }
+        for (int i = 0; i < 50; i++) {
+            String path = "*.ext" + i;
+            mapper.addWrapper("localhost", "/portal", path, path);
+        }
+        mapper.addWrapper("localhost", "/portal", "*.jsp", "jsp");
+        mapper.addWrapper("localhost", "/portal", "/", "default");
+        return mapper;
+    }
+
+    private MappingData map(Mapper mapper, String path) throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("iowejoiejfoiew");
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString(path);
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+        mapper.map(host, uri, mappingData);
+        return mappingData;
+    }
+
     /*
     public static void main(String args[]) {
 
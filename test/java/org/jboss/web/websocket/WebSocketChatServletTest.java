@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.web.websocket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Chat room: text messages are broadcast to all the members, binary
+ * messages are echoed to the sender. Sending "bye" closes the connection.
+ */
+@WebServlet("/chat")
+public class WebSocketChatServletTest extends WebSocketServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final Set<WebSocketConnection> members = new CopyOnWriteArraySet<WebSocketConnection>();
+
+    protected String selectSubProtocol(HttpServletRequest request, List<String> subProtocols) {
+        return subProtocols.contains("chat") ? "chat" : null;
+    }
+
+    protected WebSocketHandler createHandler(HttpServletRequest request, String subProtocol) {
+        return new WebSocketHandler() {
+
+            public void onOpen(WebSocketConnection connection) throws IOException {
+                members.add(connection);
+                connection.send("Welcome, " + members.size() + " member(s) connected");
+            }
+
+            public void onMessage(WebSocketConnection connection, String message) throws IOException {
+                System.out.println("[" + connection.getRequest().getRemoteAddr() + "] " + message);
+                if ("bye".equals(message)) {
+                    connection.close(WebSocketFrame.CLOSE_NORMAL, "bye");
+                } else {
+                    WebSocketConnection.broadcast(members, message);
+                }
+            }
+
+            public void onMessage(WebSocketConnection connection, byte[] data, int offset, int length)
+                throws IOException {
+                connection.send(data, offset, length);
+            }
+
+            public void onPong(WebSocketConnection connection, byte[] data, int offset, int length)
+                throws IOException {
+            }
+
+            public void onClose(WebSocketConnection connection, int code, String reason) {
+                members.remove(connection);
+                System.out.println("Closed: " + code + " " + reason);
+            }
+
+        };
+    }
+
+}